@@ -16,7 +16,6 @@
 package org.esa.snap.idepix.aatsr;
 
 import com.bc.ceres.core.ProgressMonitor;
-import com.bc.ceres.core.SubProgressMonitor;
 import org.esa.snap.core.dataio.geocoding.ComponentGeoCoding;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.FlagCoding;
@@ -41,6 +40,7 @@ import org.esa.snap.core.util.SystemUtils;
 import org.esa.snap.core.util.math.MathUtils;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.IdepixFlagCoding;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 
 import javax.imageio.ImageIO;
 import javax.media.jai.BorderExtender;
@@ -74,11 +74,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.stream.IntStream;
 
@@ -95,6 +90,8 @@ public class IdepixAatsrOp extends Operator {
 
     private static final boolean DEBUG = false;
     private final static int SPATIAL_RESOLUTION = 1000; // in meter // better to get it from product
+    // daytime limit of the zenith angles, the shadow search does not start at pixels beyond
+    private final static double MAX_ZENITH_ANGLE = 85.0;
 
     @SourceProduct(label = "AATSR L1b product",
             description = "The AATSR L1b source product.")
@@ -109,10 +106,12 @@ public class IdepixAatsrOp extends Operator {
     @Parameter(label = "Assumed cloud top height", defaultValue = "6000")
     private int cloudTopHeight;
     private Mask startSearchMask;
+    private Mask cloudMask;
+    private Mask landMask;
     private Rectangle dayTimeROI;
     private RenderedOp orientationImage;
     private double minSurfaceAltitude;
-    private int maxShadowDistance;
+    private int maxShadowPathLength;
     private Band idepixFlagBand;
 
     // overall parameters
@@ -157,7 +156,7 @@ public class IdepixAatsrOp extends Operator {
 
     @Override
     public void doExecute(ProgressMonitor pm) throws OperatorException {
-        pm.beginTask("Executing cloud shadow detection...", 10);
+        pm.beginTask("Preparing cloud shadow detection...", 1);
         try {
             final int sceneWidth = sourceProduct.getSceneRasterWidth();
             final int sceneHeight = sourceProduct.getSceneRasterHeight();
@@ -172,11 +171,11 @@ public class IdepixAatsrOp extends Operator {
             // 3) create cloudMaskImage and landMaskImage
             // as alternative the bayesian_in and confidence_in could be used. See TechNote.
             // But currently the bayes_in.no_bayesian_probabilities_available is always set. so it makes no sense to use it.
-            final Mask cloudMask = Mask.BandMathsType.create("__cloud_mask", "", sceneWidth, sceneHeight,
+            cloudMask = Mask.BandMathsType.create("__cloud_mask", "", sceneWidth, sceneHeight,
                                                              "cloud_in.visible or cloud_in.12_gross_cloud or cloud_in.11_12_thin_cirrus or cloud_in.3_7_12_medium_high",
                                                              Color.white, 0.5f);
             cloudMask.setOwner(sourceProduct);
-            final Mask landMask = Mask.BandMathsType.create("__land_mask", "", sceneWidth, sceneHeight,
+            landMask = Mask.BandMathsType.create("__land_mask", "", sceneWidth, sceneHeight,
                                                             "confidence_in.coastline or confidence_in.tidal or confidence_in.land or confidence_in.inland_water",
                                                             Color.green, 0.5f);
             landMask.setOwner(sourceProduct);
@@ -227,11 +226,8 @@ public class IdepixAatsrOp extends Operator {
             final RenderedOp extrema = ExtremaDescriptor.create(clampedElev, null, 10, 10, Boolean.FALSE, 1, null);
             minSurfaceAltitude = ((double[]) extrema.getProperty("minimum"))[0];
 
+            maxShadowPathLength = computeMaxShadowPathLength(sourceProduct, dayTimeROI);
             pm.worked(1);
-
-            doShadowDetectionPerSlice(cloudMask, landMask, slices, new SubProgressMonitor(pm, 9));
-            // force creation of source image to prevent creation of new image by GPF
-            idepixFlagBand.getSourceImage();
         } catch (IOException e) {
             throw new OperatorException("Could not read source data", e);
         } finally {
@@ -239,132 +235,176 @@ public class IdepixAatsrOp extends Operator {
         }
     }
 
-    private void doShadowDetectionPerSlice(Mask cloudMask, Mask landMask, List<Rectangle> slices, ProgressMonitor pm) {
-        final int shadowValue = BitSetter.setFlag(0, IdepixConstants.IDEPIX_CLOUD_SHADOW);
-        idepixFlagBand.setRasterData(idepixFlagBand.createCompatibleRasterData());
-
-        final ExecutorService executorService = Executors.newFixedThreadPool((int) (Runtime.getRuntime().availableProcessors() * 0.8)); // Use 80% use cores; is this good?
+    @Override
+    public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
 
-        final Rectangle extendedDayTimeRoi = (Rectangle) dayTimeROI.clone();
-        extendedDayTimeRoi.grow(0, maxShadowDistance);
-        final Tile elevation = getSourceTile(sourceProduct.getRasterDataNode("elevation_in"), extendedDayTimeRoi);
-        final Tile cloudMaskData = getSourceTile(cloudMask, extendedDayTimeRoi);
+    private void computeTileImpl(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final Rectangle targetRect = targetTile.getRectangle();
+
+        // shadows in the target rectangle can be cast from cloud pixels up to the maximum shadow path length away,
+        // also onto pixels outside the daytime area
+        final Rectangle sceneRect = new Rectangle(sourceProduct.getSceneRasterWidth(), sourceProduct.getSceneRasterHeight());
+        final Rectangle sourceRect = new Rectangle(targetRect);
+        sourceRect.grow(maxShadowPathLength, maxShadowPathLength);
+        sourceRect.setBounds(sourceRect.intersection(sceneRect));
+        final Rectangle searchRect = sourceRect.intersection(dayTimeROI);
+        if (searchRect.isEmpty()) {
+            for (int y = targetRect.y; y < targetRect.y + targetRect.height; y++) {
+                for (int x = targetRect.x; x < targetRect.x + targetRect.width; x++) {
+                    targetTile.setSample(x, y, 0);
+                }
+            }
+            return;
+        }
 
-        final ArrayList<Callable<Object>> tasks = new ArrayList<>();
-        for (Rectangle slice : slices) {
-            tasks.add(() -> {
-                final Tile sza = getSourceTile(sourceProduct.getRasterDataNode("solar_zenith_tn"), slice);
-                final Tile saa = getSourceTile(sourceProduct.getRasterDataNode("solar_azimuth_tn"), slice);
-                final Tile oza = getSourceTile(sourceProduct.getRasterDataNode("sat_zenith_tn"), slice);
-                final Tile x_tx = getSourceTile(sourceProduct.getRasterDataNode("x_tx"), slice);
-                final Raster orientation = orientationImage.getData(slice);
-                final Tile landMaskData = getSourceTile(landMask, slice);
-                final Raster startData = ((RenderedImage) startSearchMask.getSourceImage()).getData(slice);
-
-                for (int i = slice.y; i < slice.y + slice.height; ++i) {
-                    for (int j = slice.x; j < slice.x + slice.width; ++j) {
-                        if (startData.getSample(j, i, 0) > 0 && cloudMaskData.getSampleInt(j, i) > 0) {
-                            final PathAndHeightInfo pathAndHeightInfo = calcPathAndTheoreticalHeight(sza.getSampleFloat(j, i), saa.getSampleFloat(j, i),
-                                                                                                     oza.getSampleFloat(j, i), x_tx.getSampleFloat(j, i),
-                                                                                                     orientation.getSampleFloat(j, i, 0),
-                                                                                                     SPATIAL_RESOLUTION,
-                                                                                                     cloudTopHeight,
-                                                                                                     minSurfaceAltitude);
-
-                            final int[][] indexArray = pathAndHeightInfo.illuPathSteps.clone();
-                            final int shiftJ = j;
-                            final int shiftI = i;
-                            IntStream.range(0, indexArray.length).parallel().forEach(n -> {indexArray[n][0]+=shiftJ;indexArray[n][1]+=shiftI;});
-
-                            // find cloud free positions along the search path:
-                            final Boolean[] id = Arrays.stream(indexArray).parallel().map(
-                                    ints -> ints[0] >= 0 && ints[0] < slice.x + dayTimeROI.width &&
-                                            ints[1] >= 0 && ints[1] < slice.y + dayTimeROI.height).toArray(Boolean[]::new);
-
-                            final int sum = Arrays.stream(id).parallel().mapToInt(aBoolean -> aBoolean ? 1 : 0).sum();
-                            if (sum > 3) { // path positions
-
-                                final int[][] curIndexArray = IntStream.range(0, indexArray.length).parallel().filter(n -> id[n]).mapToObj(n -> indexArray[n]).toArray(int[][]::new);
-                                final double[] illuPathHeight = pathAndHeightInfo.illuPathHeight;
-                                final double[] baseHeightArray = IntStream.range(0, curIndexArray.length).parallel().filter(n -> id[n]).mapToDouble(n -> illuPathHeight[n]).toArray();
-                                final double[] elevPath = Arrays.stream(curIndexArray).parallel().mapToDouble(index -> elevation.getSampleFloat(index[0], index[1])).toArray();
-                                final Boolean[] cloudPath = Arrays.stream(curIndexArray).parallel().map(index -> cloudMaskData.getSampleInt(index[0], index[1]) > 0).toArray(Boolean[]::new);
-
-                                final Boolean[] id2 = IntStream.range(0, baseHeightArray.length).parallel().mapToObj(value -> (Math.abs(baseHeightArray[value] - elevPath[value]) < pathAndHeightInfo.threshHeight) && !cloudPath[value]).toArray(Boolean[]::new);
-
-                                IntStream.range(0, baseHeightArray.length).parallel().filter(n -> id2[n]).forEach(
-                                        n -> idepixFlagBand.setPixelInt(curIndexArray[n][0], curIndexArray[n][1], shadowValue));
-                            }
-                        }
-
-                        int flagValue = idepixFlagBand.getPixelInt(j, i);
-                        if (cloudMaskData.getSampleInt(j, i) > 0) {
-                            flagValue = BitSetter.setFlag(flagValue, IdepixConstants.IDEPIX_CLOUD);
-                        }
-                        if (landMaskData.getSampleInt(j, i) > 0) {
-                            flagValue = BitSetter.setFlag(flagValue, IdepixConstants.IDEPIX_LAND);
-                        }
-
-                        idepixFlagBand.setPixelInt(j, i, flagValue);
+        final boolean[] cloud = toBooleanArray(getSourceTile(cloudMask, sourceRect).getSamplesInt());
+        final boolean[] shadow = new boolean[targetRect.width * targetRect.height];
+        findShadowPixels(searchRect, sourceRect, cloud, targetRect, shadow);
+
+        final Rectangle targetDayTimeRect = targetRect.intersection(dayTimeROI);
+        final int[] land = getSourceTile(landMask, targetRect).getSamplesInt();
+        for (int y = targetRect.y; y < targetRect.y + targetRect.height; y++) {
+            for (int x = targetRect.x; x < targetRect.x + targetRect.width; x++) {
+                final int targetIndex = (y - targetRect.y) * targetRect.width + (x - targetRect.x);
+                int flagValue = 0;
+                if (shadow[targetIndex]) {
+                    flagValue = BitSetter.setFlag(flagValue, IdepixConstants.IDEPIX_CLOUD_SHADOW);
+                }
+                if (targetDayTimeRect.contains(x, y)) {
+                    if (cloud[(y - sourceRect.y) * sourceRect.width + (x - sourceRect.x)]) {
+                        flagValue = BitSetter.setFlag(flagValue, IdepixConstants.IDEPIX_CLOUD);
+                    }
+                    if (land[targetIndex] > 0) {
+                        flagValue = BitSetter.setFlag(flagValue, IdepixConstants.IDEPIX_LAND);
                     }
                 }
-                return slice;
-            });
+                targetTile.setSample(x, y, flagValue);
+            }
         }
+    }
 
-        try {
-            final List<Future<Object>> futures = new ArrayList<>();
-            for (Callable<Object> task : tasks) {
-                futures.add(executorService.submit(task));
-            }
+    private void findShadowPixels(Rectangle searchRect, Rectangle sourceRect, boolean[] cloud,
+                                  Rectangle targetRect, boolean[] shadow) {
+        final Rectangle sceneRect = new Rectangle(sourceProduct.getSceneRasterWidth(), sourceProduct.getSceneRasterHeight());
+        final float[] sza = getSourceTile(sourceProduct.getRasterDataNode("solar_zenith_tn"), searchRect).getSamplesFloat();
+        final float[] saa = getSourceTile(sourceProduct.getRasterDataNode("solar_azimuth_tn"), searchRect).getSamplesFloat();
+        final float[] oza = getSourceTile(sourceProduct.getRasterDataNode("sat_zenith_tn"), searchRect).getSamplesFloat();
+        final float[] xtx = getSourceTile(sourceProduct.getRasterDataNode("x_tx"), searchRect).getSamplesFloat();
+        final float[] orientation = orientationImage.getData(searchRect).getSamples(searchRect.x, searchRect.y,
+                                                                                     searchRect.width, searchRect.height,
+                                                                                     0, (float[]) null);
+        final int[] startSearch = startSearchMask.getSourceImage().getData(searchRect).getSamples(searchRect.x, searchRect.y,
+                                                                                                 searchRect.width, searchRect.height,
+                                                                                                 0, (int[]) null);
+        final float[] elevation = getSourceTile(sourceProduct.getRasterDataNode("elevation_in"), targetRect).getSamplesFloat();
+        findShadowPixels(searchRect, sza, saa, oza, xtx, orientation, startSearch, sourceRect, cloud,
+                         targetRect, elevation, shadow, sceneRect, cloudTopHeight, minSurfaceAltitude);
+    }
 
-            pm.beginTask("Detecting clouds shadows...", futures.size());
-            try {
-                executorService.shutdown();
-                int stillRunning = futures.size();
-                while (!executorService.isTerminated()) {
-                    synchronized (cloudMask) {
-                        cloudMask.wait(100);
+    /**
+     * Follows the illumination path of every cloud pixel in the search rectangle where the shadow search starts
+     * and marks the cloud free pixels of the target rectangle along the path whose elevation matches the
+     * theoretical height of the path. Pixels with a sun or view zenith angle beyond the daytime limit do not
+     * start a search, their paths could be longer than the maximum shadow path length.
+     * The arrays hold the samples of the search, source and target rectangle, respectively.
+     */
+    static void findShadowPixels(Rectangle searchRect, float[] sza, float[] saa, float[] oza, float[] xtx,
+                                 float[] orientation, int[] startSearch, Rectangle sourceRect, boolean[] cloud,
+                                 Rectangle targetRect, float[] elevation, boolean[] shadow,
+                                 Rectangle sceneRect, int cloudTopHeight, double minSurfaceAltitude) {
+        for (int i = searchRect.y; i < searchRect.y + searchRect.height; ++i) {
+            for (int j = searchRect.x; j < searchRect.x + searchRect.width; ++j) {
+                final int searchIndex = (i - searchRect.y) * searchRect.width + (j - searchRect.x);
+                if (startSearch[searchIndex] == 0 || !cloud[(i - sourceRect.y) * sourceRect.width + (j - sourceRect.x)]) {
+                    continue;
+                }
+                if (!(sza[searchIndex] < MAX_ZENITH_ANGLE && oza[searchIndex] < MAX_ZENITH_ANGLE)) {
+                    continue;
+                }
+                final PathAndHeightInfo pathAndHeightInfo = calcPathAndTheoreticalHeight(sza[searchIndex], saa[searchIndex],
+                                                                                         oza[searchIndex], xtx[searchIndex],
+                                                                                         orientation[searchIndex],
+                                                                                         SPATIAL_RESOLUTION,
+                                                                                         cloudTopHeight,
+                                                                                         minSurfaceAltitude);
+                final int[][] pathSteps = pathAndHeightInfo.illuPathSteps;
+
+                // the path is only considered if more than three of its positions are within the scene
+                int numPathPositions = 0;
+                for (int[] step : pathSteps) {
+                    final int x = j + step[0];
+                    final int y = i + step[1];
+                    if (sceneRect.contains(x, y)) {
+                        numPathPositions++;
                     }
+                }
+                if (numPathPositions <= 3) {
+                    continue;
+                }
 
-                    int numRunning = numRunningFutures(futures);
-                    pm.worked(stillRunning - numRunning);
-                    stillRunning = numRunning;
+                // find cloud free positions along the search path within the target rectangle
+                for (int n = 0; n < pathSteps.length; n++) {
+                    final int x = j + pathSteps[n][0];
+                    final int y = i + pathSteps[n][1];
+                    if (!targetRect.contains(x, y) || cloud[(y - sourceRect.y) * sourceRect.width + (x - sourceRect.x)]) {
+                        continue;
+                    }
+                    final int targetIndex = (y - targetRect.y) * targetRect.width + (x - targetRect.x);
+                    if (Math.abs(pathAndHeightInfo.illuPathHeight[n] - elevation[targetIndex]) < pathAndHeightInfo.threshHeight) {
+                        shadow[targetIndex] = true;
+                    }
                 }
-            } finally {
-                pm.done();
             }
-        } catch (InterruptedException e) {
-            throw new OperatorException(e);
         }
-
     }
 
-    private int numRunningFutures(List<Future<Object>> futures) throws InterruptedException {
-        int numRunning = 0;
-        for (int i = 0; i < futures.size(); i++) {
-            Future<Object> future = futures.get(i);
-            numRunning = numRunning + (future.isDone() ? 0 : 1);
-            if (future.isDone()) {
-                final Future<Object> doneFuture = futures.remove(i);
-                try {
-                    doneFuture.get();
-                } catch (ExecutionException e) {
-                    throw new OperatorException("Error during calculation of cloud shadow", e);
-                }
-            }
+    /**
+     * Returns an upper limit of the length of the illumination paths in pixels, derived from the maximum sun and
+     * view zenith angles in the daytime area. The daytime area is bounded by the sun zenith angle of its outer
+     * columns only, so pixels inside can exceed the daytime limit. These do not start a shadow search.
+     */
+    private int computeMaxShadowPathLength(Product scene, Rectangle dayTimeArea) {
+        if (dayTimeArea.isEmpty()) {
+            return 0;
         }
-        return numRunning;
+        final double maxSza = getMaximum(scene.getRasterDataNode("solar_zenith_tn"), dayTimeArea);
+        final double maxOza = getMaximum(scene.getRasterDataNode("sat_zenith_tn"), dayTimeArea);
+        return computeMaxShadowPathLength(maxSza, maxOza, cloudTopHeight, minSurfaceAltitude);
     }
 
-    @Override
-    public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
-        // We need to place the data into the targetTile even though it is already in the raster.
-        // Otherwise, the data is not written to the product by GPF.
-        final Rectangle rect = targetTile.getRectangle();
-        final int[] pixels = new int[rect.width * rect.height];
-        final int[] samplesInt = idepixFlagBand.getPixels(rect.x, rect.y, rect.width, rect.height, pixels);
-        targetTile.setSamples(samplesInt);
+    /**
+     * Returns an upper limit of the length of the illumination paths in pixels, for pixels up to the given
+     * zenith angles. The angles are limited to the daytime limit at which the shadow search starts.
+     */
+    static int computeMaxShadowPathLength(double maxSza, double maxOza, int cloudTopHeight, double minSurfaceAltitude) {
+        final double sza = Math.min(maxSza, MAX_ZENITH_ANGLE);
+        final double oza = Math.min(maxOza, MAX_ZENITH_ANGLE);
+        // the sun zenith angle corrected for the view zenith angle is at most the sum of the tangents
+        final double maxTan = Math.tan(Math.toRadians(sza)) + Math.tan(Math.toRadians(oza));
+        // path end position plus 1.5 pixels, and one more for rounding
+        return MathUtils.ceilInt((cloudTopHeight - minSurfaceAltitude) * maxTan / SPATIAL_RESOLUTION + 1.5) + 1;
+    }
+
+    private static double getMaximum(RasterDataNode raster, Rectangle area) {
+        final RenderedOp cropped = CropDescriptor.create(raster.getSourceImage(), (float) area.x, (float) area.y, (float) area.width, (float) area.height, null);
+        final RenderedOp clamped = ClampDescriptor.create(cropped, new double[]{0}, new double[]{90}, null);
+        final RenderedOp extrema = ExtremaDescriptor.create(clamped, null, 1, 1, Boolean.FALSE, 1, null);
+        return ((double[]) extrema.getProperty("maximum"))[0];
+    }
+
+    private static boolean[] toBooleanArray(int[] samples) {
+        final boolean[] values = new boolean[samples.length];
+        for (int i = 0; i < samples.length; i++) {
+            values[i] = samples[i] > 0;
+        }
+        return values;
     }
 
     @SuppressWarnings("SameParameterValue")
@@ -588,7 +628,6 @@ public class IdepixAatsrOp extends Operator {
             if (slice.intersects(dayTimeROI)) {
                 // only convolve slices intersecting with dayTimeROI. Areas outside are handled by default background value when creating the mosaic.
                 double radius = computeKernelRadiusForSlice(sza, slice);
-                maxShadowDistance = MathUtils.ceilInt(Math.max(radius, maxShadowDistance));
                 final KernelJAI jaiKernel = createJaiKernel(radius, new Dimension(1000, 1000));
                 convolveSlice(floatCloudMaskImage, slice, jaiKernel, convolvedCloudSlices, "convCloudImage");
                 convolveSlice(floatLandMaskImage, slice, jaiKernel, convolvedLandSlices, "convLandImage");
@@ -0,0 +1,228 @@
+package org.esa.snap.idepix.aatsr;
+
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the tile-wise cloud shadow detection of {@link IdepixAatsrOp} against the former detection, which worked
+ * slice by slice on scene-wide rasters.
+ */
+public class IdepixAatsrOpShadowTest {
+
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 220;
+    private static final Rectangle SCENE = new Rectangle(WIDTH, HEIGHT);
+    private static final int SLICE_HEIGHT = 50;
+    private static final int CLOUD_TOP_HEIGHT = 6000;
+    private static final double MIN_SURFACE_ALTITUDE = 0.0;
+
+    @Test
+    public void testFindShadowPixels_tileByTileSameAsSlices() {
+        final Scene scene = new Scene(new Random(4711));
+        // the daytime area is bounded by the daytime limit of the sun zenith angle in the outer columns
+        assertTrue(scene.getMaximum(scene.sza) > 85.0);
+        final boolean[] expected = detectShadowsPerSlice(scene);
+        int numShadowPixels = 0;
+        for (boolean shadow : expected) {
+            numShadowPixels += shadow ? 1 : 0;
+        }
+        assertTrue(numShadowPixels > 100);
+
+        final int maxShadowPathLength = IdepixAatsrOp.computeMaxShadowPathLength(
+                scene.getMaximum(scene.sza), scene.getMaximum(scene.oza), CLOUD_TOP_HEIGHT, MIN_SURFACE_ALTITUDE);
+        final int[][] tileSizes = {{32, 32}, {27, 45}, {WIDTH, 1}, {13, HEIGHT}};
+        for (int[] tileSize : tileSizes) {
+            final boolean[] actual = detectShadowsPerTile(scene, tileSize[0], tileSize[1], maxShadowPathLength);
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    assertEquals("tile size " + tileSize[0] + " x " + tileSize[1] + ", pixel " + x + ", " + y,
+                                 expected[y * WIDTH + x], actual[y * WIDTH + x]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testComputeMaxShadowPathLength() {
+        // path end position (6000 - 20) m * tan(45°) / 1000 m plus 1.5 pixels, rounded up, plus one
+        assertEquals(9, IdepixAatsrOp.computeMaxShadowPathLength(45.0, 0.0, CLOUD_TOP_HEIGHT, 20.0));
+        // limited to the daytime limit of 85°
+        final int daytimeLimitLength = IdepixAatsrOp.computeMaxShadowPathLength(85.0, 85.0, CLOUD_TOP_HEIGHT,
+                                                                               MIN_SURFACE_ALTITUDE);
+        assertEquals(daytimeLimitLength, IdepixAatsrOp.computeMaxShadowPathLength(90.0, 89.0, CLOUD_TOP_HEIGHT,
+                                                                                  MIN_SURFACE_ALTITUDE));
+    }
+
+    private static boolean[] detectShadowsPerTile(Scene scene, int tileWidth, int tileHeight, int maxShadowPathLength) {
+        final boolean[] shadows = new boolean[WIDTH * HEIGHT];
+        for (int tileY = 0; tileY < HEIGHT; tileY += tileHeight) {
+            for (int tileX = 0; tileX < WIDTH; tileX += tileWidth) {
+                final Rectangle targetRect = new Rectangle(tileX, tileY, tileWidth, tileHeight).intersection(SCENE);
+                // as in IdepixAatsrOp.computeTile
+                final Rectangle sourceRect = new Rectangle(targetRect);
+                sourceRect.grow(maxShadowPathLength, maxShadowPathLength);
+                sourceRect.setBounds(sourceRect.intersection(SCENE));
+                final Rectangle searchRect = sourceRect.intersection(scene.dayTimeROI);
+                if (searchRect.isEmpty()) {
+                    continue;
+                }
+                final boolean[] shadow = new boolean[targetRect.width * targetRect.height];
+                IdepixAatsrOp.findShadowPixels(searchRect, crop(scene.sza, searchRect), crop(scene.saa, searchRect),
+                                               crop(scene.oza, searchRect), crop(scene.xtx, searchRect),
+                                               crop(scene.orientation, searchRect), crop(scene.startSearch, searchRect),
+                                               sourceRect, crop(scene.cloud, sourceRect),
+                                               targetRect, crop(scene.elevation, targetRect), shadow,
+                                               SCENE, CLOUD_TOP_HEIGHT, MIN_SURFACE_ALTITUDE);
+                for (int y = 0; y < targetRect.height; y++) {
+                    for (int x = 0; x < targetRect.width; x++) {
+                        shadows[(targetRect.y + y) * WIDTH + targetRect.x + x] = shadow[y * targetRect.width + x];
+                    }
+                }
+            }
+        }
+        return shadows;
+    }
+
+    // The shadow detection as it used to be done in doExecute: slice by slice through the daytime area, writing into
+    // a scene-wide raster. As intended by the tile-wise implementation, the shadow is or-ed into the raster, path
+    // positions are checked against the scene bounds, the heights stay aligned with the path positions, and pixels
+    // beyond the daytime limit of the zenith angles do not start a search.
+    private static boolean[] detectShadowsPerSlice(Scene scene) {
+        final boolean[] shadows = new boolean[WIDTH * HEIGHT];
+        for (Rectangle slice : IdepixAatsrOp.sliceRect(scene.dayTimeROI, SLICE_HEIGHT)) {
+            for (int i = slice.y; i < slice.y + slice.height; ++i) {
+                for (int j = slice.x; j < slice.x + slice.width; ++j) {
+                    final int index = i * WIDTH + j;
+                    if (scene.startSearch[index] == 0 || !scene.cloud[index] ||
+                        !(scene.sza[index] < 85.0f) || !(scene.oza[index] < 85.0f)) {
+                        continue;
+                    }
+                    final IdepixAatsrOp.PathAndHeightInfo pathAndHeightInfo =
+                            IdepixAatsrOp.calcPathAndTheoreticalHeight(scene.sza[index], scene.saa[index],
+                                                                       scene.oza[index], scene.xtx[index],
+                                                                       scene.orientation[index], 1000,
+                                                                       CLOUD_TOP_HEIGHT, MIN_SURFACE_ALTITUDE);
+                    final int[][] indexArray = new int[pathAndHeightInfo.illuPathSteps.length][];
+                    final boolean[] id = new boolean[indexArray.length];
+                    int sum = 0;
+                    for (int n = 0; n < indexArray.length; n++) {
+                        indexArray[n] = new int[]{pathAndHeightInfo.illuPathSteps[n][0] + j,
+                                pathAndHeightInfo.illuPathSteps[n][1] + i};
+                        id[n] = SCENE.contains(indexArray[n][0], indexArray[n][1]);
+                        sum += id[n] ? 1 : 0;
+                    }
+                    if (sum > 3) {
+                        for (int n = 0; n < indexArray.length; n++) {
+                            if (!id[n]) {
+                                continue;
+                            }
+                            final int pathIndex = indexArray[n][1] * WIDTH + indexArray[n][0];
+                            final double elevPath = scene.elevation[pathIndex];
+                            if (Math.abs(pathAndHeightInfo.illuPathHeight[n] - elevPath) < pathAndHeightInfo.threshHeight
+                                && !scene.cloud[pathIndex]) {
+                                shadows[pathIndex] = true;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return shadows;
+    }
+
+    private static float[] crop(float[] data, Rectangle rect) {
+        final float[] cropped = new float[rect.width * rect.height];
+        for (int y = 0; y < rect.height; y++) {
+            System.arraycopy(data, (rect.y + y) * WIDTH + rect.x, cropped, y * rect.width, rect.width);
+        }
+        return cropped;
+    }
+
+    private static int[] crop(int[] data, Rectangle rect) {
+        final int[] cropped = new int[rect.width * rect.height];
+        for (int y = 0; y < rect.height; y++) {
+            System.arraycopy(data, (rect.y + y) * WIDTH + rect.x, cropped, y * rect.width, rect.width);
+        }
+        return cropped;
+    }
+
+    private static boolean[] crop(boolean[] data, Rectangle rect) {
+        final boolean[] cropped = new boolean[rect.width * rect.height];
+        for (int y = 0; y < rect.height; y++) {
+            System.arraycopy(data, (rect.y + y) * WIDTH + rect.x, cropped, y * rect.width, rect.width);
+        }
+        return cropped;
+    }
+
+    private static class Scene {
+
+        final float[] sza = new float[WIDTH * HEIGHT];
+        final float[] saa = new float[WIDTH * HEIGHT];
+        final float[] oza = new float[WIDTH * HEIGHT];
+        final float[] xtx = new float[WIDTH * HEIGHT];
+        final float[] orientation = new float[WIDTH * HEIGHT];
+        final float[] elevation = new float[WIDTH * HEIGHT];
+        final int[] startSearch = new int[WIDTH * HEIGHT];
+        final boolean[] cloud = new boolean[WIDTH * HEIGHT];
+        final Rectangle dayTimeROI;
+
+        Scene(Random random) {
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    final int index = y * WIDTH + x;
+                    // the sun sets towards the bottom of the scene, a bit later in the outer columns
+                    sza[index] = 60.0f + 30.0f * y / HEIGHT - 8.0f * Math.abs(x - WIDTH / 2.0f) / WIDTH;
+                    if (random.nextInt(200) == 0) {
+                        sza[index] = Float.NaN;
+                    }
+                    // the shadows are cast towards the top of the scene, where the sun is higher
+                    saa[index] = 160.0f + 60.0f * x / WIDTH + 5.0f * random.nextFloat();
+                    oza[index] = 22.0f * Math.abs(x - WIDTH / 2.0f) / WIDTH;
+                    xtx[index] = (x - WIDTH / 2.0f) * 1000.0f;
+                    orientation[index] = 10.0f + 5.0f * random.nextFloat();
+                    // mostly at sea level, where the shadows are found at the far end of the paths
+                    elevation[index] = random.nextInt(4) == 0 ? 3000.0f * random.nextFloat() : 0.0f;
+                }
+            }
+            // as in IdepixAatsrOp.getDayTimeArea, from the outer columns only
+            final int lastDayTimeRow = (int) Math.ceil((85.0 - 56.0) * HEIGHT / 30.0) - 1;
+            dayTimeROI = new Rectangle(0, 0, WIDTH, lastDayTimeRow + 1);
+
+            // clouds of different sizes, the shadow search starts at some of their pixels
+            for (int c = 0; c < 150; c++) {
+                final int centreX = random.nextInt(WIDTH);
+                final int centreY = random.nextInt(HEIGHT);
+                final int radius = 1 + random.nextInt(4);
+                for (int y = Math.max(0, centreY - radius); y < Math.min(HEIGHT, centreY + radius); y++) {
+                    for (int x = Math.max(0, centreX - radius); x < Math.min(WIDTH, centreX + radius); x++) {
+                        if ((x - centreX) * (x - centreX) + (y - centreY) * (y - centreY) < radius * radius) {
+                            cloud[y * WIDTH + x] = true;
+                        }
+                    }
+                }
+            }
+            for (int i = 0; i < startSearch.length; i++) {
+                startSearch[i] = random.nextInt(3) == 0 ? 1 : 0;
+            }
+        }
+
+        // the maximum within the daytime area, as computed by the operator with the JAI extrema
+        double getMaximum(float[] data) {
+            double maximum = 0.0;
+            for (int y = dayTimeROI.y; y < dayTimeROI.y + dayTimeROI.height; y++) {
+                for (int x = dayTimeROI.x; x < dayTimeROI.x + dayTimeROI.width; x++) {
+                    final float value = data[y * WIDTH + x];
+                    if (value > maximum) {
+                        maximum = Math.min(value, 90.0);
+                    }
+                }
+            }
+            return maximum;
+        }
+    }
+}
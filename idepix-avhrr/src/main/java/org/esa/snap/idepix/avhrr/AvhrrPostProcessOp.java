@@ -4,8 +4,10 @@ import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.idepix.core.operators.CloudBuffer;
 import org.esa.snap.idepix.core.CloudShadowFronts;
 import org.esa.snap.idepix.core.IdepixConstants;
-import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 import org.esa.snap.idepix.core.util.OperatorUtils;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
 import org.esa.snap.core.datamodel.*;
 import org.esa.snap.core.gpf.Operator;
 import org.esa.snap.core.gpf.OperatorException;
@@ -64,7 +66,7 @@ public class AvhrrPostProcessOp extends Operator {
     private Band bt4Band;
     private Band refl1Band;
     private Band refl2Band;
-    private GeoCoding geoCoding;
+    private boolean coastlineByLatitude;
 
     private RectangleExtender rectCalculator;
 
@@ -83,7 +85,8 @@ public class AvhrrPostProcessOp extends Operator {
             // meanwhile use the 'Land-Sea-Mask' operator by Array (Jun Lu, Luis Veci):
 //            landWaterBand = waterMaskProduct.getBand(AvhrrConstants.AVHRR_AC_ALBEDO_1_BAND_NAME);
 
-            geoCoding = l1bProduct.getSceneGeoCoding();
+            final GeoCoding geoCoding = l1bProduct.getSceneGeoCoding();
+            coastlineByLatitude = geoCoding instanceof TiePointGeoCoding || geoCoding instanceof CrsGeoCoding;
 
             origCloudFlagBand = avhrrCloudProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
             rt3Band = avhrrCloudProduct.getBand("rt_3");
@@ -107,32 +110,45 @@ public class AvhrrPostProcessOp extends Operator {
 
     @Override
     public void computeTile(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
         Rectangle targetRectangle = targetTile.getRectangle();
         final Rectangle srcRectangle = rectCalculator.extend(targetRectangle);
 
         final Tile sourceFlagTile = getSourceTile(origCloudFlagBand, srcRectangle);
         final Tile waterFractionTile = getSourceTile(landWaterBand, srcRectangle);
+        final TileGeoLocation geoLocation = refineClassificationNearCoastlines && coastlineByLatitude ?
+                TileGeoLocation.create(this, l1bProduct, srcRectangle) : null;
 
+        final FlagAccumulator flags = new FlagAccumulator(targetRectangle);
         for (int y = srcRectangle.y; y < srcRectangle.y + srcRectangle.height; y++) {
             checkForCancellation();
             for (int x = srcRectangle.x; x < srcRectangle.x + srcRectangle.width; x++) {
 
                 if (targetRectangle.contains(x, y)) {
                     boolean isCloud = sourceFlagTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
-                    combineFlags(x, y, sourceFlagTile, targetTile);
+                    flags.combine(x, y, sourceFlagTile);
 
                     if (refineClassificationNearCoastlines) {
-                        if (isNearCoastline(x, y, waterFractionTile, srcRectangle)) {
-                            targetTile.setSample(x, y, IdepixConstants.IDEPIX_COASTLINE, true);
-                            refineSnowIceFlaggingForCoastlines(x, y, sourceFlagTile, targetTile);
+                        if (isNearCoastline(x, y, waterFractionTile, geoLocation, srcRectangle)) {
+                            flags.setFlag(x, y, IdepixConstants.IDEPIX_COASTLINE, true);
+                            refineSnowIceFlaggingForCoastlines(x, y, sourceFlagTile, flags);
                             if (isCloud) {
-                                refineCloudFlaggingForCoastlines(x, y, sourceFlagTile, waterFractionTile, targetTile, srcRectangle);
+                                refineCloudFlaggingForCoastlines(x, y, sourceFlagTile, waterFractionTile, geoLocation,
+                                                                 flags, srcRectangle);
                             }
                         }
                     }
-                    boolean isCloudAfterRefinement = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
+                    boolean isCloudAfterRefinement = flags.getFlag(x, y, IdepixConstants.IDEPIX_CLOUD);
                     if (isCloudAfterRefinement) {
-                        targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+                        flags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
                     }
 
                 }
@@ -140,31 +156,20 @@ public class AvhrrPostProcessOp extends Operator {
         }
 
         if (computeCloudBuffer) {
-            CloudBuffer.setCloudBuffer(targetTile, srcRectangle, sourceFlagTile, cloudBufferWidth);
-            for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
-                checkForCancellation();
-                for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                    IdepixUtils.consolidateCloudAndBuffer(targetTile, x, y);
-                }
-            }
+            CloudBuffer.setCloudBuffer(flags, srcRectangle, sourceFlagTile, cloudBufferWidth, false);
+            flags.consolidateCloudAndBuffer();
         }
-
+        flags.writeTo(targetTile);
 
         if (computeCloudShadow) {
             // todo: we need something modified, as we have no CTP
         }
     }
 
-    private void combineFlags(int x, int y, Tile sourceFlagTile, Tile targetTile) {
-        int sourceFlags = sourceFlagTile.getSampleInt(x, y);
-        int computedFlags = targetTile.getSampleInt(x, y);
-        targetTile.setSample(x, y, sourceFlags | computedFlags);
-    }
-
-    private boolean isCoastlinePixel(int x, int y, Tile waterFractionTile) {
+    private boolean isCoastlinePixel(int x, int y, Tile waterFractionTile, TileGeoLocation geoLocation) {
         boolean isCoastline = false;
         // the water mask ends at 59 Degree south, stop earlier to avoid artefacts
-        if (IdepixUtils.getGeoPos(geoCoding, x, y).lat > -58f) {
+        if (geoLocation.getLat(x, y) > -58f) {
             final int waterFraction = waterFractionTile.getSampleInt(x, y);
             // values bigger than 100 indicate no data
             if (waterFraction <= 100) {
@@ -176,7 +181,8 @@ public class AvhrrPostProcessOp extends Operator {
         return isCoastline;
     }
 
-    private boolean isNearCoastline(int x, int y, Tile waterFractionTile, Rectangle rectangle) {
+    private boolean isNearCoastline(int x, int y, Tile waterFractionTile, TileGeoLocation geoLocation,
+                                    Rectangle rectangle) {
         final int windowWidth = 1;
         final int LEFT_BORDER = Math.max(x - windowWidth, rectangle.x);
         final int RIGHT_BORDER = Math.min(x + windowWidth, rectangle.x + rectangle.width - 1);
@@ -186,13 +192,12 @@ public class AvhrrPostProcessOp extends Operator {
         for (int i = LEFT_BORDER; i <= RIGHT_BORDER; i++) {
             for (int j = TOP_BORDER; j <= BOTTOM_BORDER; j++) {
                 if (rectangle.contains(i, j)) {
-                    if (!(l1bProduct.getSceneGeoCoding() instanceof TiePointGeoCoding) &&
-                            !(l1bProduct.getSceneGeoCoding() instanceof CrsGeoCoding)) {
+                    if (!coastlineByLatitude) {
                         if (waterFractionTile.getSampleInt(i, j) != waterFractionCenter) {
                             return true;
                         }
                     } else {
-                        if (isCoastlinePixel(i, j, waterFractionTile)) {
+                        if (isCoastlinePixel(i, j, waterFractionTile, geoLocation)) {
                             return true;
                         }
                     }
@@ -202,7 +207,9 @@ public class AvhrrPostProcessOp extends Operator {
         return false;
     }
 
-    private void refineCloudFlaggingForCoastlines(int x, int y, Tile sourceFlagTile, Tile waterFractionTile, Tile targetTile, Rectangle srcRectangle) {
+    private void refineCloudFlaggingForCoastlines(int x, int y, Tile sourceFlagTile, Tile waterFractionTile,
+                                                  TileGeoLocation geoLocation, FlagAccumulator flags,
+                                                  Rectangle srcRectangle) {
         final int windowWidth = 1;
         final int LEFT_BORDER = Math.max(x - windowWidth, srcRectangle.x);
         final int RIGHT_BORDER = Math.min(x + windowWidth, srcRectangle.x + srcRectangle.width - 1);
@@ -212,11 +219,11 @@ public class AvhrrPostProcessOp extends Operator {
         if (CloudShadowFronts.isPixelSurrounded(x, y, sourceFlagTile, IdepixConstants.IDEPIX_CLOUD)) {
             removeCloudFlag = false;
         } else {
-            Rectangle targetTileRectangle = targetTile.getRectangle();
+            Rectangle targetTileRectangle = flags.getRectangle();
             for (int i = LEFT_BORDER; i <= RIGHT_BORDER; i++) {
                 for (int j = TOP_BORDER; j <= BOTTOM_BORDER; j++) {
                     boolean is_cloud = sourceFlagTile.getSampleBit(i, j, IdepixConstants.IDEPIX_CLOUD);
-                    if (is_cloud && targetTileRectangle.contains(i, j) && !isNearCoastline(i, j, waterFractionTile, srcRectangle)) {
+                    if (is_cloud && targetTileRectangle.contains(i, j) && !isNearCoastline(i, j, waterFractionTile, geoLocation, srcRectangle)) {
                         removeCloudFlag = false;
                         break;
                     }
@@ -225,16 +232,16 @@ public class AvhrrPostProcessOp extends Operator {
         }
 
         if (removeCloudFlag) {
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
         }
     }
 
-    private void refineSnowIceFlaggingForCoastlines(int x, int y, Tile sourceFlagTile, Tile targetTile) {
+    private void refineSnowIceFlaggingForCoastlines(int x, int y, Tile sourceFlagTile, FlagAccumulator flags) {
         final boolean isSnowIce = sourceFlagTile.getSampleBit(x, y, IdepixConstants.IDEPIX_SNOW_ICE);
         if (isSnowIce) {
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
         }
     }
 
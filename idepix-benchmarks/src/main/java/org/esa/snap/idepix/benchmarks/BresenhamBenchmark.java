@@ -0,0 +1,88 @@
+package org.esa.snap.idepix.benchmarks;
+
+import org.esa.snap.idepix.core.util.Bresenham;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.Rectangle;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shadow path rasterisation with {@link Bresenham#getPathPixels} for a batch of paths of a given length,
+ * as done for every cloud free pixel of a tile in the cloud shadow fronts algorithm. The pixel position lists
+ * are compared with the reused int buffers and with the supercover paths.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BresenhamBenchmark {
+
+    private static final int NUM_PATHS = 1000;
+
+    @Param({"20", "200"})
+    public int pathLength;
+
+    private Rectangle rectangle;
+    private int[] paths;
+    private int[] pathX;
+    private int[] pathY;
+
+    @Setup
+    public void setUp() {
+        rectangle = new Rectangle(0, 0, 512, 512);
+        final Random random = new Random(17);
+        paths = new int[4 * NUM_PATHS];
+        for (int p = 0; p < NUM_PATHS; p++) {
+            final int x1 = random.nextInt(rectangle.width);
+            final int y1 = random.nextInt(rectangle.height);
+            final double angle = 2.0 * Math.PI * random.nextDouble();
+            paths[4 * p] = x1;
+            paths[4 * p + 1] = y1;
+            paths[4 * p + 2] = x1 + (int) Math.round(pathLength * Math.cos(angle));
+            paths[4 * p + 3] = y1 + (int) Math.round(pathLength * Math.sin(angle));
+        }
+        pathX = new int[3 * pathLength + 1];
+        pathY = new int[pathX.length];
+    }
+
+    @Benchmark
+    public void getPathPixels(Blackhole blackhole) {
+        for (int p = 0; p < NUM_PATHS; p++) {
+            blackhole.consume(Bresenham.getPathPixels(paths[4 * p], paths[4 * p + 1],
+                                                      paths[4 * p + 2], paths[4 * p + 3], rectangle));
+        }
+    }
+
+    @Benchmark
+    public void getPathPixelsIntoBuffers(Blackhole blackhole) {
+        for (int p = 0; p < NUM_PATHS; p++) {
+            blackhole.consume(Bresenham.getPathPixels(paths[4 * p], paths[4 * p + 1],
+                                                      paths[4 * p + 2], paths[4 * p + 3], rectangle, pathX, pathY));
+        }
+        blackhole.consume(pathX);
+    }
+
+    @Benchmark
+    public void getSupercoverPathPixelsIntoBuffers(Blackhole blackhole) {
+        for (int p = 0; p < NUM_PATHS; p++) {
+            blackhole.consume(Bresenham.getSupercoverPathPixels(paths[4 * p], paths[4 * p + 1],
+                                                                paths[4 * p + 2], paths[4 * p + 3], rectangle,
+                                                                pathX, pathY));
+        }
+        blackhole.consume(pathX);
+    }
+}
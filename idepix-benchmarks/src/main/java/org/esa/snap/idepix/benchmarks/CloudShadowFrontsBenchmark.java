@@ -0,0 +1,107 @@
+package org.esa.snap.idepix.benchmarks;
+
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.idepix.core.CloudShadowFronts;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shadow tracing of {@link CloudShadowFronts} for a 256 x 256 target tile of a 300 m scene,
+ * with the source rectangle extended by 64 pixels as done by the post-processing operators.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CloudShadowFrontsBenchmark {
+
+    private static final int TILE_SIZE = 256;
+    private static final int BORDER = 64;
+
+    private GeoCoding geoCoding;
+    private Rectangle sourceRectangle;
+    private Rectangle targetRectangle;
+    private Tile szaTile;
+    private Tile saaTile;
+    private Tile ctpTile;
+    private byte[] cloudMask;
+
+    @Setup
+    public void setUp() {
+        final int size = TILE_SIZE + 2 * BORDER;
+        final float[] cloudField = SyntheticScene.createCloudField(size, size, 60, 4711);
+        cloudMask = SyntheticScene.toCloudMask(cloudField, 0.6f);
+        final float[] ctp = new float[size * size];
+        for (int i = 0; i < ctp.length; i++) {
+            // higher clouds in the cloud centres
+            ctp[i] = cloudMask[i] != 0 ? 1013.0f - 600.0f * cloudField[i] : 1013.0f;
+        }
+
+        final Product product = new Product("shadowFronts", "synthetic", size, size);
+        geoCoding = SyntheticScene.createGeoCoding(size, size, 10.0, 50.0, 0.0027);
+        product.setSceneGeoCoding(geoCoding);
+        szaTile = SyntheticScene.createSourceTile(SyntheticScene.addConstantBand(product, "sza", 55.0f));
+        saaTile = SyntheticScene.createSourceTile(SyntheticScene.addConstantBand(product, "saa", 150.0f));
+        ctpTile = SyntheticScene.createSourceTile(SyntheticScene.addBand(product, "ctp", ctp));
+        sourceRectangle = new Rectangle(size, size);
+        targetRectangle = new Rectangle(BORDER, BORDER, TILE_SIZE, TILE_SIZE);
+    }
+
+    @Benchmark
+    public int computeCloudShadow() {
+        final int width = sourceRectangle.width;
+        final boolean[] shadow = new boolean[cloudMask.length];
+        final CloudShadowFronts cloudShadowFronts = new CloudShadowFronts(geoCoding, sourceRectangle, targetRectangle,
+                                                                          szaTile, saaTile, ctpTile, null) {
+            @Override
+            protected boolean isCloudForShadow(int x, int y) {
+                return cloudMask[y * width + x] != 0;
+            }
+
+            @Override
+            protected boolean isCloudFree(int x, int y) {
+                return cloudMask[y * width + x] == 0;
+            }
+
+            @Override
+            protected boolean isSurroundedByCloud(int x, int y) {
+                int count = 0;
+                for (int j = Math.max(0, y - 1); j <= Math.min(sourceRectangle.height - 1, y + 1); j++) {
+                    for (int i = Math.max(0, x - 1); i <= Math.min(width - 1, x + 1); i++) {
+                        count += cloudMask[j * width + i];
+                    }
+                }
+                return count * 1.0 / 9 >= 0.7;
+            }
+
+            @Override
+            protected void setCloudShadow(int x, int y) {
+                shadow[y * width + x] = true;
+            }
+        };
+        cloudShadowFronts.computeCloudShadow();
+
+        int numShadowPixels = 0;
+        for (boolean isShadow : shadow) {
+            if (isShadow) {
+                numShadowPixels++;
+            }
+        }
+        return numShadowPixels;
+    }
+}
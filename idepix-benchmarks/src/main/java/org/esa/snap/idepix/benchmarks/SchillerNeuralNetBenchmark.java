@@ -0,0 +1,94 @@
+package org.esa.snap.idepix.benchmarks;
+
+import org.esa.snap.core.nn.NNffbpAlphaTabFast;
+import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
+import org.esa.snap.idepix.olci.IdepixOlciClassificationOp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inference of the OLCI Schiller net for one tile row of pixels: pixel by pixel with the SNAP implementation
+ * and with the shared net of the wrapper, and as one batch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchillerNeuralNetBenchmark {
+
+    private static final String NET_NAME = "class-sequential-i21x42x8x4x2o1-5489.net";
+
+    @Param({"64", "512"})
+    public int numPixels;
+
+    private SchillerNeuralNetWrapper wrapper;
+    private double[][] pixelInputs;
+    private double[] batchInputs;
+    private double[] batchOutputs;
+
+    @Setup
+    public void setUp() throws Exception {
+        try (InputStream inputStream = IdepixOlciClassificationOp.class.getResourceAsStream(NET_NAME)) {
+            wrapper = SchillerNeuralNetWrapper.create(inputStream).get();
+        }
+        final NNffbpAlphaTabFast neuralNet = wrapper.getNeuralNet();
+        final double[] inMin = neuralNet.getInmin();
+        final double[] inMax = neuralNet.getInmax();
+        final int numInputs = wrapper.getNumInputs();
+
+        final Random random = new Random(5489);
+        pixelInputs = new double[numPixels][numInputs];
+        batchInputs = new double[numPixels * numInputs];
+        for (int p = 0; p < numPixels; p++) {
+            for (int i = 0; i < numInputs; i++) {
+                final double value = inMin[i] + random.nextDouble() * (inMax[i] - inMin[i]);
+                pixelInputs[p][i] = value;
+                batchInputs[p * numInputs + i] = value;
+            }
+        }
+        batchOutputs = new double[numPixels * wrapper.getNumOutputs()];
+    }
+
+    @Benchmark
+    public void snapPerPixel(Blackhole blackhole) {
+        final NNffbpAlphaTabFast neuralNet = wrapper.getNeuralNet();
+        final double[] inputVector = wrapper.getInputVector();
+        for (double[] pixelInput : pixelInputs) {
+            System.arraycopy(pixelInput, 0, inputVector, 0, inputVector.length);
+            blackhole.consume(neuralNet.calc(inputVector));
+        }
+    }
+
+    @Benchmark
+    public void perPixel(Blackhole blackhole) {
+        final double[] inputVector = wrapper.getInputVector();
+        final double[] outputVector = wrapper.getOutputVector();
+        for (double[] pixelInput : pixelInputs) {
+            System.arraycopy(pixelInput, 0, inputVector, 0, inputVector.length);
+            wrapper.calc(inputVector, outputVector);
+            blackhole.consume(outputVector[0]);
+        }
+    }
+
+    @Benchmark
+    public double[] batch() {
+        wrapper.calc(batchInputs, batchOutputs, numPixels);
+        return batchOutputs;
+    }
+}
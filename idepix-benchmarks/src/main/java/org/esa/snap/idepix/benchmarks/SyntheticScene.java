@@ -0,0 +1,189 @@
+package org.esa.snap.idepix.benchmarks;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.OperatorException;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.core.gpf.internal.OperatorImage;
+import org.esa.snap.core.gpf.internal.TileImpl;
+import org.esa.snap.core.image.ImageManager;
+import org.esa.snap.idepix.core.util.TileWaterMask;
+import org.esa.snap.watermask.operator.WatermaskClassifier;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic scene content for the benchmarks. All products are held in memory,
+ * so that the benchmarks measure the processing and neither I/O nor auxdata downloads.
+ */
+public class SyntheticScene {
+
+    /**
+     * Creates a cloud field with values between 0 (clear) and 1 (opaque cloud): a number of round clouds of
+     * different size on a slightly noisy background. The same seed always gives the same field.
+     *
+     * @param width     - the field width
+     * @param height    - the field height
+     * @param numClouds - the number of clouds
+     * @param seed      - the random seed
+     * @return the field, line by line
+     */
+    public static float[] createCloudField(int width, int height, int numClouds, long seed) {
+        final Random random = new Random(seed);
+        final float[] field = new float[width * height];
+        for (int i = 0; i < field.length; i++) {
+            field[i] = 0.05f * random.nextFloat();
+        }
+        final int maxRadius = Math.max(2, Math.min(width, height) / 10);
+        for (int c = 0; c < numClouds; c++) {
+            final int cx = random.nextInt(width);
+            final int cy = random.nextInt(height);
+            final int radius = 1 + random.nextInt(maxRadius);
+            final int sqRadius = radius * radius;
+            for (int y = Math.max(0, cy - radius); y < Math.min(height, cy + radius + 1); y++) {
+                for (int x = Math.max(0, cx - radius); x < Math.min(width, cx + radius + 1); x++) {
+                    final int sqDist = (x - cx) * (x - cx) + (y - cy) * (y - cy);
+                    if (sqDist <= sqRadius) {
+                        final float value = 1.0f - 0.5f * sqDist / sqRadius;
+                        field[y * width + x] = Math.max(field[y * width + x], value);
+                    }
+                }
+            }
+        }
+        return field;
+    }
+
+    /**
+     * @param field     - a cloud field as created by {@link #createCloudField}
+     * @param threshold - the minimum field value of a cloud
+     * @return the cloud mask of the field, 1 for clouds, 0 otherwise
+     */
+    public static byte[] toCloudMask(float[] field, float threshold) {
+        final byte[] mask = new byte[field.length];
+        for (int i = 0; i < field.length; i++) {
+            mask[i] = (byte) (field[i] >= threshold ? 1 : 0);
+        }
+        return mask;
+    }
+
+    /**
+     * Creates a geographic geo-coding with square pixels.
+     *
+     * @param width        - the scene width
+     * @param height       - the scene height
+     * @param westLon      - the longitude of the upper left corner
+     * @param northLat     - the latitude of the upper left corner
+     * @param pixelSizeDeg - the pixel size in degree
+     * @return the geo-coding
+     */
+    public static CrsGeoCoding createGeoCoding(int width, int height, double westLon, double northLat,
+                                               double pixelSizeDeg) {
+        try {
+            return new CrsGeoCoding(DefaultGeographicCRS.WGS84, width, height, westLon, northLat,
+                                    pixelSizeDeg, pixelSizeDeg);
+        } catch (Exception e) {
+            throw new OperatorException("Cannot create geo-coding", e);
+        }
+    }
+
+    /**
+     * Creates a land/water mask for a scene geo-coded with {@link #createGeoCoding}, to be used instead of the
+     * SRTM mask, which needs auxdata. A pixel is water if {@code xWeight * x + yWeight * y >= limit}.
+     *
+     * @param westLon      - the longitude of the upper left corner
+     * @param northLat     - the latitude of the upper left corner
+     * @param pixelSizeDeg - the pixel size in degree
+     * @param xWeight      - the weight of the pixel x
+     * @param yWeight      - the weight of the pixel y
+     * @param limit        - the weighted sum from which on a pixel is water
+     * @return the mask sampler
+     */
+    public static TileWaterMask.Sampler createWaterMaskSampler(double westLon, double northLat, double pixelSizeDeg,
+                                                               int xWeight, int yWeight, int limit) {
+        return (lat, lon) -> {
+            if (Float.isNaN(lat) || Float.isNaN(lon)) {
+                return WatermaskClassifier.INVALID_VALUE;
+            }
+            final int x = (int) Math.floor((lon - westLon) / pixelSizeDeg);
+            final int y = (int) Math.floor((northLat - lat) / pixelSizeDeg);
+            return xWeight * x + yWeight * y >= limit ? WatermaskClassifier.WATER_VALUE : WatermaskClassifier.LAND_VALUE;
+        };
+    }
+
+    /**
+     * Adds a float band holding the given data to a product.
+     */
+    public static Band addBand(Product product, String name, float[] data) {
+        final Band band = product.addBand(name, ProductData.TYPE_FLOAT32);
+        band.setRasterData(ProductData.createInstance(data));
+        return band;
+    }
+
+    /**
+     * Adds an int band holding the given data to a product.
+     */
+    public static Band addBand(Product product, String name, int[] data) {
+        final Band band = product.addBand(name, ProductData.TYPE_INT32);
+        band.setRasterData(ProductData.createInstance(data));
+        return band;
+    }
+
+    /**
+     * Adds a float band with a constant value to a product.
+     */
+    public static Band addConstantBand(Product product, String name, float value) {
+        final float[] data = new float[product.getSceneRasterWidth() * product.getSceneRasterHeight()];
+        Arrays.fill(data, value);
+        return addBand(product, name, data);
+    }
+
+    /**
+     * @return a tile of the whole raster of a band, for calling algorithms outside of GPF
+     */
+    public static Tile createSourceTile(Band band) {
+        return new TileImpl(band, band.getSourceImage().getData());
+    }
+
+    /**
+     * Creates a writable tile for a band, as GPF would pass to computeTile.
+     *
+     * @param band      - the band
+     * @param rectangle - the tile rectangle
+     * @return the tile, all samples 0
+     */
+    public static Tile createTargetTile(Band band, Rectangle rectangle) {
+        final SampleModel sampleModel = ImageManager.createSingleBandedSampleModel(
+                ImageManager.getDataBufferType(band.getDataType()), rectangle.width, rectangle.height);
+        final WritableRaster raster = Raster.createWritableRaster(sampleModel, new Point(rectangle.x, rectangle.y));
+        return new TileImpl(band, raster);
+    }
+
+    /**
+     * Creates the target tiles of all bands of an operator target product which are computed by the operator,
+     * i.e. all bands whose source image is an operator image, as GPF would pass them to computeTileStack.
+     *
+     * @param targetProduct - the operator target product, already initialised by getTargetProduct()
+     * @param rectangle     - the tile rectangle
+     * @return the target tiles
+     */
+    public static Map<Band, Tile> createTargetTiles(Product targetProduct, Rectangle rectangle) {
+        final Map<Band, Tile> targetTiles = new HashMap<>();
+        for (Band band : targetProduct.getBands()) {
+            if (band.isSourceImageSet() && band.getSourceImage().getImage(0) instanceof OperatorImage) {
+                targetTiles.put(band, createTargetTile(band, rectangle));
+            }
+        }
+        return targetTiles;
+    }
+}
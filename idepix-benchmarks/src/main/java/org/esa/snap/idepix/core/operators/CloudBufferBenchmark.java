@@ -0,0 +1,99 @@
+package org.esa.snap.idepix.core.operators;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.idepix.benchmarks.SyntheticScene;
+import org.esa.snap.idepix.core.IdepixConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cloud buffer variants of {@link CloudBuffer} for one 512 x 512 tile.
+ * Lives in the package of {@link CloudBuffer} to reach the LC-CCI variant.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CloudBufferBenchmark {
+
+    private static final int TILE_SIZE = 512;
+
+    @Param({"2", "10"})
+    public int cloudBufferWidth;
+
+    private Rectangle targetRectangle;
+    private Rectangle sourceRectangle;
+    private Band flagBand;
+    private Tile sourceFlagTile;
+    private int[] targetFlags;
+
+    @Setup
+    public void setUp() {
+        final int size = TILE_SIZE + 2 * cloudBufferWidth;
+        final float[] cloudField = SyntheticScene.createCloudField(size, size, 200, 42);
+        final int[] flags = new int[size * size];
+        for (int i = 0; i < flags.length; i++) {
+            if (cloudField[i] > 0.6f) {
+                flags[i] = 1 << IdepixConstants.IDEPIX_CLOUD;
+            }
+        }
+        final Product product = new Product("cloudBuffer", "synthetic", size, size);
+        flagBand = SyntheticScene.addBand(product, IdepixConstants.CLASSIF_BAND_NAME, flags);
+        sourceFlagTile = SyntheticScene.createSourceTile(flagBand);
+        sourceRectangle = new Rectangle(size, size);
+        targetRectangle = new Rectangle(cloudBufferWidth, cloudBufferWidth, TILE_SIZE, TILE_SIZE);
+        targetFlags = sourceFlagTile.getSamplesInt();
+    }
+
+    @Benchmark
+    public Tile squareBuffer() {
+        final Tile targetTile = SyntheticScene.createTargetTile(flagBand, targetRectangle);
+        CloudBuffer.setCloudBuffer(targetTile, sourceRectangle, sourceFlagTile, cloudBufferWidth, false);
+        return targetTile;
+    }
+
+    @Benchmark
+    public Tile roundBuffer() {
+        final Tile targetTile = SyntheticScene.createTargetTile(flagBand, targetRectangle);
+        CloudBuffer.setCloudBuffer(targetTile, sourceRectangle, sourceFlagTile, cloudBufferWidth, true);
+        return targetTile;
+    }
+
+    @Benchmark
+    public Tile simpleBufferPerCloudPixel() {
+        final Tile targetTile = SyntheticScene.createTargetTile(flagBand, targetRectangle);
+        for (int y = sourceRectangle.y; y < sourceRectangle.y + sourceRectangle.height; y++) {
+            for (int x = sourceRectangle.x; x < sourceRectangle.x + sourceRectangle.width; x++) {
+                if (sourceFlagTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD)) {
+                    CloudBuffer.computeSimpleCloudBuffer(x, y, targetTile, sourceRectangle, cloudBufferWidth,
+                                                         IdepixConstants.IDEPIX_CLOUD_BUFFER);
+                }
+            }
+        }
+        return targetTile;
+    }
+
+    @Benchmark
+    public int[] lcBuffer() {
+        // the LC-CCI buffer has a fixed width, the parameter only changes the tile size slightly
+        final int[] flags = targetFlags.clone();
+        CloudBuffer.computeCloudBufferLC(flags, sourceRectangle.width, sourceRectangle.height);
+        return flags;
+    }
+}
@@ -0,0 +1,129 @@
+package org.esa.snap.idepix.olci;
+
+import com.bc.ceres.core.ProgressMonitor;
+import eu.esa.opt.processor.rad2refl.Rad2ReflConstants;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.idepix.benchmarks.SyntheticScene;
+import org.esa.snap.idepix.core.util.TileWaterMask;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One computeTileStack call of {@link IdepixOlciClassificationOp} for a 256 x 256 tile of a synthetic
+ * 300 m OLCI scene, half land and half water, with clouds. The ice climatology is replaced by an empty
+ * in-memory mask product and the SRTM land/water mask by a synthetic one matching the scene, so that
+ * no auxdata is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class IdepixOlciClassificationOpBenchmark {
+
+    private static final int SCENE_SIZE = 512;
+    private static final int TILE_SIZE = 256;
+    private static final double WEST_LON = 10.0;
+    private static final double NORTH_LAT = 55.0;
+    private static final double PIXEL_SIZE_DEG = 0.0027;
+
+    @Param({"false", "true"})
+    public boolean useSrtmLandWaterMask;
+
+    private IdepixOlciClassificationOp operator;
+    private Product targetProduct;
+    private Rectangle rectangle;
+
+    @Setup
+    public void setUp() throws ParseException {
+        final float[] cloudField = SyntheticScene.createCloudField(SCENE_SIZE, SCENE_SIZE, 80, 2016);
+
+        final Product l1bProduct = new Product("S3A_OL_1_EFR_synthetic", "OL_1_EFR", SCENE_SIZE, SCENE_SIZE);
+        l1bProduct.setSceneGeoCoding(SyntheticScene.createGeoCoding(SCENE_SIZE, SCENE_SIZE, WEST_LON, NORTH_LAT,
+                                                                    PIXEL_SIZE_DEG));
+        l1bProduct.setStartTime(ProductData.UTC.parse("15-JUN-2023 10:00:00"));
+        l1bProduct.setEndTime(ProductData.UTC.parse("15-JUN-2023 10:03:00"));
+        final int[] qualityFlags = new int[SCENE_SIZE * SCENE_SIZE];
+        for (int y = 0; y < SCENE_SIZE; y++) {
+            for (int x = 0; x < SCENE_SIZE; x++) {
+                final int index = y * SCENE_SIZE + x;
+                if (x < SCENE_SIZE / 2) {
+                    qualityFlags[index] |= 1 << IdepixOlciConstants.L1_F_LAND;
+                }
+                if (cloudField[index] > 0.8f) {
+                    qualityFlags[index] |= 1 << IdepixOlciConstants.L1_F_BRIGHT;
+                }
+            }
+        }
+        SyntheticScene.addBand(l1bProduct, IdepixOlciConstants.OLCI_QUALITY_FLAGS_BAND_NAME, qualityFlags);
+
+        final Product rhotoaProduct = new Product("rhotoa", "synthetic", SCENE_SIZE, SCENE_SIZE);
+        final Random random = new Random(2016);
+        for (int i = 0; i < Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length; i++) {
+            final String radianceName = Rad2ReflConstants.OLCI_REFL_BAND_NAMES[i];
+            final String reflectanceName = radianceName.substring(0, radianceName.indexOf("_")) + "_reflectance";
+            // surface reflectances rise towards the NIR over land
+            final float landReflectance = 0.04f + 0.3f * i / Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length;
+            final float[] reflectance = new float[SCENE_SIZE * SCENE_SIZE];
+            for (int y = 0; y < SCENE_SIZE; y++) {
+                for (int x = 0; x < SCENE_SIZE; x++) {
+                    final int index = y * SCENE_SIZE + x;
+                    final float surface = x < SCENE_SIZE / 2 ? landReflectance : 0.03f;
+                    final float cloud = cloudField[index];
+                    reflectance[index] = (1.0f - cloud) * surface + cloud * 0.85f + 0.01f * random.nextFloat();
+                }
+            }
+            SyntheticScene.addBand(rhotoaProduct, reflectanceName, reflectance);
+        }
+
+        final Product iceMaskProduct = new Product("ice_climatology_06_max", "synthetic", 360, 180);
+        SyntheticScene.addConstantBand(iceMaskProduct, "ice_climatology", 0.0f);
+
+        operator = new SyntheticMaskClassificationOp();
+        operator.setSourceProduct("l1b", l1bProduct);
+        operator.setSourceProduct("rhotoa", rhotoaProduct);
+        operator.setSourceProduct("iceMask", iceMaskProduct);
+        operator.setParameterDefaultValues();
+        operator.setParameter("useSrtmLandWaterMask", useSrtmLandWaterMask);
+        targetProduct = operator.getTargetProduct();
+        rectangle = new Rectangle((SCENE_SIZE - TILE_SIZE) / 2, (SCENE_SIZE - TILE_SIZE) / 2, TILE_SIZE, TILE_SIZE);
+    }
+
+    @Benchmark
+    public Map<Band, Tile> computeTileStack() {
+        final Map<Band, Tile> targetTiles = SyntheticScene.createTargetTiles(targetProduct, rectangle);
+        operator.computeTileStack(targetTiles, rectangle, ProgressMonitor.NULL);
+        return targetTiles;
+    }
+
+    private static class SyntheticMaskClassificationOp extends IdepixOlciClassificationOp {
+
+        @Override
+        protected TileWaterMask createTileWaterMask(int subsamplingFactorX, int subsamplingFactorY) {
+            // water in the eastern half of the scene
+            final TileWaterMask.Sampler sampler = SyntheticScene.createWaterMaskSampler(WEST_LON, NORTH_LAT,
+                                                                                        PIXEL_SIZE_DEG, 1, 0,
+                                                                                        SCENE_SIZE / 2);
+            return new TileWaterMask(sampler, subsamplingFactorX, subsamplingFactorY);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.esa.snap.idepix.s2msi;
+
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.idepix.benchmarks.SyntheticScene;
+import org.esa.snap.idepix.core.util.TileWaterMask;
+import org.esa.snap.idepix.s2msi.util.S2IdepixConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Rectangle;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One computeTileStack call of {@link S2IdepixClassificationOp} for a 256 x 256 tile of a synthetic
+ * 20 m MSI L1C scene with vegetated land, water and clouds. The scene is in geographic coordinates,
+ * so the land/water mask is computed with subsampling as for resampled non-UTM input. The SRTM mask is
+ * replaced by a synthetic one matching the scene, so that no auxdata is needed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class S2IdepixClassificationOpBenchmark {
+
+    private static final int SCENE_SIZE = 512;
+    private static final int TILE_SIZE = 256;
+    private static final double WEST_LON = 10.0;
+    private static final double NORTH_LAT = 54.6;
+    private static final double PIXEL_SIZE_DEG = 0.00025;
+
+    // TOA reflectances of B1 ... B12
+    private static final float[] LAND_SPECTRUM = {
+            0.08f, 0.07f, 0.08f, 0.06f, 0.12f, 0.25f, 0.30f, 0.32f, 0.33f, 0.12f, 0.005f, 0.20f, 0.10f
+    };
+    private static final float[] WATER_SPECTRUM = {
+            0.10f, 0.08f, 0.06f, 0.03f, 0.025f, 0.02f, 0.02f, 0.015f, 0.015f, 0.01f, 0.002f, 0.008f, 0.005f
+    };
+    private static final float[] CLOUD_SPECTRUM = {
+            0.75f, 0.76f, 0.78f, 0.79f, 0.80f, 0.80f, 0.80f, 0.80f, 0.79f, 0.50f, 0.04f, 0.60f, 0.40f
+    };
+
+    private S2IdepixClassificationOp operator;
+    private Product targetProduct;
+    private Rectangle rectangle;
+
+    @Setup
+    public void setUp() throws ParseException {
+        final float[] cloudField = SyntheticScene.createCloudField(SCENE_SIZE, SCENE_SIZE, 60, 1024);
+        final CrsGeoCoding geoCoding = SyntheticScene.createGeoCoding(SCENE_SIZE, SCENE_SIZE, WEST_LON, NORTH_LAT,
+                                                                      PIXEL_SIZE_DEG);
+
+        final Product l1cProduct = new Product("S2A_MSIL1C_synthetic", "S2_MSI_Level-1C", SCENE_SIZE, SCENE_SIZE);
+        l1cProduct.setSceneGeoCoding(geoCoding);
+        l1cProduct.setStartTime(ProductData.UTC.parse("15-JUN-2023 10:30:00"));
+        l1cProduct.setEndTime(ProductData.UTC.parse("15-JUN-2023 10:30:00"));
+        final Random random = new Random(1024);
+        for (int b = 0; b < S2IdepixConstants.S2_MSI_REFLECTANCE_BAND_NAMES.length; b++) {
+            final float[] reflectance = new float[SCENE_SIZE * SCENE_SIZE];
+            for (int y = 0; y < SCENE_SIZE; y++) {
+                for (int x = 0; x < SCENE_SIZE; x++) {
+                    final int index = y * SCENE_SIZE + x;
+                    // a diagonal coastline through the scene
+                    final float surface = x + y < SCENE_SIZE ? LAND_SPECTRUM[b] : WATER_SPECTRUM[b];
+                    final float cloud = cloudField[index];
+                    reflectance[index] = (1.0f - cloud) * surface + cloud * CLOUD_SPECTRUM[b]
+                                         + 0.005f * random.nextFloat();
+                }
+            }
+            SyntheticScene.addBand(l1cProduct, S2IdepixConstants.S2_MSI_REFLECTANCE_BAND_NAMES[b], reflectance);
+        }
+        SyntheticScene.addConstantBand(l1cProduct, S2IdepixConstants.SUN_ZENITH_BAND_NAME, 35.0f);
+        SyntheticScene.addConstantBand(l1cProduct, S2IdepixConstants.VIEW_ZENITH_BAND_NAME, 5.0f);
+        SyntheticScene.addConstantBand(l1cProduct, S2IdepixConstants.SUN_AZIMUTH_BAND_NAME, 160.0f);
+        SyntheticScene.addConstantBand(l1cProduct, S2IdepixConstants.VIEW_AZIMUTH_BAND_NAME, 105.0f);
+
+        final Product elevationProduct = new Product("elevation", "synthetic", SCENE_SIZE, SCENE_SIZE);
+        elevationProduct.setSceneGeoCoding(geoCoding);
+        final float[] elevation = new float[SCENE_SIZE * SCENE_SIZE];
+        for (int y = 0; y < SCENE_SIZE; y++) {
+            for (int x = 0; x < SCENE_SIZE; x++) {
+                elevation[y * SCENE_SIZE + x] = Math.max(0.0f, 0.2f * (SCENE_SIZE - x - y));
+            }
+        }
+        SyntheticScene.addBand(elevationProduct, S2IdepixConstants.ELEVATION_BAND_NAME, elevation);
+
+        operator = new SyntheticMaskClassificationOp();
+        operator.setSourceProduct("l1c", l1cProduct);
+        operator.setSourceProduct("elevation", elevationProduct);
+        operator.setParameterDefaultValues();
+        targetProduct = operator.getTargetProduct();
+        rectangle = new Rectangle((SCENE_SIZE - TILE_SIZE) / 2, (SCENE_SIZE - TILE_SIZE) / 2, TILE_SIZE, TILE_SIZE);
+    }
+
+    @Benchmark
+    public Map<Band, Tile> computeTileStack() {
+        final Map<Band, Tile> targetTiles = SyntheticScene.createTargetTiles(targetProduct, rectangle);
+        operator.computeTileStack(targetTiles, rectangle, ProgressMonitor.NULL);
+        return targetTiles;
+    }
+
+    private static class SyntheticMaskClassificationOp extends S2IdepixClassificationOp {
+
+        @Override
+        protected TileWaterMask createTileWaterMask(int subsamplingFactorX, int subsamplingFactorY) {
+            // water beyond the diagonal coastline
+            final TileWaterMask.Sampler sampler = SyntheticScene.createWaterMaskSampler(WEST_LON, NORTH_LAT,
+                                                                                        PIXEL_SIZE_DEG, 1, 1,
+                                                                                        SCENE_SIZE);
+            return new TileWaterMask(sampler, subsamplingFactorX, subsamplingFactorY);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package org.esa.snap.idepix.s2msi.operators.cloudshadow;
+
+import org.esa.snap.idepix.core.util.ConnectedComponents;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The shadow clustering and combination of {@link CloudShadowFlaggerCombination} for a synthetic S2 cloud shadow
+ * source tile. The potential shadow positions are identified once; as the flagger changes its inputs,
+ * fresh copies are made before every invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CloudShadowFlaggerCombinationBenchmark {
+
+    @Param({"LAND_WATER", "MULTI_BAND", "SINGLE_BAND"})
+    public String analysisMode;
+
+    private SyntheticCloudShadowTile tile;
+    private ConnectedComponents clouds;
+    private IdentifiedPcs identifiedPcs;
+
+    private int[] flagArray;
+    private int[] shadowIDArray;
+    private Map<Integer, List<Integer>> potentialShadowPositions;
+    private Map<Integer, List<Integer>> offsetAtPotentialShadow;
+
+    @Setup
+    public void setUp() {
+        tile = new SyntheticCloudShadowTile(768, 1234);
+        final int[] cloudIDArray = new int[tile.flagArray.length];
+        clouds = new FindContinuousAreas(tile.flagArray).computeAreas(tile.width, tile.height, cloudIDArray, true);
+        identifiedPcs = PotentialCloudShadowAreaIdentifier.identifyPotentialCloudShadowsPLUS(
+                tile.sourceRectangle, tile.targetRectangle,
+                SyntheticCloudShadowTile.SUN_ZENITH, SyntheticCloudShadowTile.SUN_AZIMUTH,
+                tile.latitudes, tile.longitudes, tile.altitudes, tile.flagArray, cloudIDArray, tile.cloudPath);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyInputs() {
+        flagArray = tile.flagArray.clone();
+        shadowIDArray = new int[flagArray.length];
+        potentialShadowPositions = deepCopy(identifiedPcs.indexToPositions);
+        offsetAtPotentialShadow = deepCopy(identifiedPcs.offsetAtPositions);
+    }
+
+    @Benchmark
+    public int[] flagCloudShadowAreas() {
+        new CloudShadowFlaggerCombination().flagCloudShadowAreas(tile.clusterData, flagArray, potentialShadowPositions,
+                                                                 offsetAtPotentialShadow, clouds, tile.bestOffset,
+                                                                 Mode.valueOf(analysisMode), tile.width, tile.height,
+                                                                 shadowIDArray, tile.cloudPath);
+        return flagArray;
+    }
+
+    private static Map<Integer, List<Integer>> deepCopy(Map<Integer, List<Integer>> map) {
+        final Map<Integer, List<Integer>> copy = new HashMap<>();
+        for (Map.Entry<Integer, List<Integer>> entry : map.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,73 @@
+package org.esa.snap.idepix.s2msi.operators.cloudshadow;
+
+import org.esa.snap.idepix.core.util.ConnectedComponents;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cloud area labelling of {@link FindContinuousAreas} for a synthetic S2 cloud shadow source tile,
+ * compared to collecting the areas as boxed pixel index lists as done before.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FindContinuousAreasBenchmark {
+
+    @Param({"512", "1536"})
+    public int size;
+
+    private SyntheticCloudShadowTile tile;
+    private int[] cloudIdArray;
+
+    @Setup
+    public void setUp() {
+        tile = new SyntheticCloudShadowTile(size, 1234);
+        cloudIdArray = new int[size * size];
+    }
+
+    @Benchmark
+    public ConnectedComponents computeAreas() {
+        return new FindContinuousAreas(tile.flagArray).computeAreas(tile.width, tile.height, cloudIdArray, true);
+    }
+
+    @Benchmark
+    public Map<Integer, List<Integer>> computeAreaID() {
+        return computeAreaID(tile.flagArray, tile.width, tile.height, cloudIdArray);
+    }
+
+    // reference copy of the former FindContinuousAreas.computeAreaID
+    private static Map<Integer, List<Integer>> computeAreaID(int[] flagArray, int sourceWidth, int sourceHeight,
+                                                             int[] cloudIdArray) {
+        final ConnectedComponents areas =
+                new FindContinuousAreas(flagArray).computeAreas(sourceWidth, sourceHeight, cloudIdArray, true);
+        Map<Integer, List<Integer>> output = new TreeMap<>();
+        for (int id = 1; id <= areas.getNumComponents(); id++) {
+            output.put(id, new ArrayList<>(areas.getPixelCount(id)));
+        }
+        final int sourceLength = sourceWidth * sourceHeight;
+        for (int index = 0; index < sourceLength; index++) {
+            final int currentCloudId = cloudIdArray[index];
+            if (currentCloudId > 0) {
+                output.get(currentCloudId).add(index);
+            }
+        }
+        return output;
+    }
+}
@@ -0,0 +1,78 @@
+package org.esa.snap.idepix.s2msi.operators.cloudshadow;
+
+import org.esa.snap.core.util.math.MathUtils;
+import org.esa.snap.idepix.benchmarks.SyntheticScene;
+
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.util.Random;
+
+/**
+ * The inputs of the S2 cloud shadow tile processing for a synthetic 20 m tile: preparation mask, cluster bands,
+ * geo-location and the cloud shadow path, built as in {@link S2IdepixPostCloudShadowOp}.
+ * The shadows are the clouds shifted along the path, so that the shadow search finds something.
+ */
+class SyntheticCloudShadowTile {
+
+    static final float SUN_ZENITH = 45.0f;
+    static final float SUN_AZIMUTH = 150.0f;
+    static final double SPATIAL_RESOLUTION = 20.0;
+
+    final int width;
+    final int height;
+    final Rectangle sourceRectangle;
+    final Rectangle targetRectangle;
+    final int[] flagArray;
+    final float[][] clusterData;
+    final float[] latitudes;
+    final float[] longitudes;
+    final float[] altitudes;
+    final Point2D[] cloudPath;
+    final int bestOffset;
+
+    SyntheticCloudShadowTile(int size, long seed) {
+        width = size;
+        height = size;
+        sourceRectangle = new Rectangle(size, size);
+        final int border = size / 8;
+        targetRectangle = new Rectangle(border, border, size - 2 * border, size - 2 * border);
+
+        cloudPath = CloudShadowUtils.getRelativePath(0.0, SUN_ZENITH * MathUtils.DTOR, SUN_AZIMUTH * MathUtils.DTOR,
+                                                     S2IdepixPreCloudShadowOp.maxcloudTop,
+                                                     sourceRectangle, targetRectangle, height, width,
+                                                     SPATIAL_RESOLUTION, true, false);
+        bestOffset = Math.min(cloudPath.length - 1, cloudPath.length / 4);
+        final int shiftX = (int) cloudPath[bestOffset].getX();
+        final int shiftY = (int) cloudPath[bestOffset].getY();
+
+        final byte[] cloudMask = SyntheticScene.toCloudMask(SyntheticScene.createCloudField(size, size, 40, seed), 0.6f);
+        final Random random = new Random(seed);
+        flagArray = new int[size * size];
+        clusterData = new float[][]{new float[size * size], new float[size * size]};
+        latitudes = new float[size * size];
+        longitudes = new float[size * size];
+        altitudes = new float[size * size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                final int index = y * size + x;
+                final int cloudX = x - shiftX;
+                final int cloudY = y - shiftY;
+                final boolean isShadow = cloudX >= 0 && cloudX < size && cloudY >= 0 && cloudY < size &&
+                        cloudMask[cloudY * size + cloudX] != 0;
+                final float noise = 0.02f * random.nextFloat();
+                if (cloudMask[index] != 0) {
+                    flagArray[index] = PreparationMaskBand.CLOUD_FLAG;
+                    clusterData[0][index] = 0.7f + noise;
+                    clusterData[1][index] = 0.8f + noise;
+                } else {
+                    flagArray[index] = x < size / 2 ? PreparationMaskBand.LAND_FLAG : PreparationMaskBand.WATER_FLAG;
+                    clusterData[0][index] = (isShadow ? 0.03f : 0.12f) + noise;
+                    clusterData[1][index] = (isShadow ? 0.04f : 0.2f) + noise;
+                }
+                latitudes[index] = (float) (50.0 - y * 0.00018);
+                longitudes[index] = (float) (10.0 + x * 0.00028);
+                altitudes[index] = 100.0f;
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.esa.snap.idepix.s2msi.operators.cloudshadow.fft;
+
+import org.jblas.ComplexDoubleMatrix;
+import org.jblas.DoubleMatrix;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The FFT calls of {@link SpectralUtils}, in the way {@link PhaseFilter} uses them for the spatial filtering
+ * of the cloud shadow tiles: forward transforms of data and kernel, product of the spectra and inverse transform.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SpectralUtilsBenchmark {
+
+    @Param({"128", "512"})
+    public int size;
+
+    private ComplexDoubleMatrix data;
+    private ComplexDoubleMatrix kernel;
+
+    @Setup
+    public void setUp() {
+        final Random random = new Random(99);
+        final DoubleMatrix realData = new DoubleMatrix(size, size);
+        for (int i = 0; i < realData.length; i++) {
+            realData.put(i, random.nextDouble());
+        }
+        data = new ComplexDoubleMatrix(realData);
+        // circular mean filter kernel of radius 5, zero padded to the data size
+        kernel = new ComplexDoubleMatrix(size, size);
+        final int radius = 5;
+        for (int row = 0; row <= 2 * radius; row++) {
+            for (int column = 0; column <= 2 * radius; column++) {
+                final int dx = column - radius;
+                final int dy = row - radius;
+                if (dx * dx + dy * dy <= radius * radius) {
+                    kernel.put(row, column, 1.0);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public ComplexDoubleMatrix forward2D() {
+        final ComplexDoubleMatrix matrix = data.dup();
+        SpectralUtils.fft2D_inplace(matrix);
+        return matrix;
+    }
+
+    @Benchmark
+    public ComplexDoubleMatrix convolve2D() {
+        final ComplexDoubleMatrix kernelSpectrum = kernel.dup();
+        SpectralUtils.fft2D_inplace(kernelSpectrum);
+        final ComplexDoubleMatrix matrix = data.dup();
+        SpectralUtils.fft2D_inplace(matrix);
+        LinearAlgebraUtils.dotmult_inplace(matrix, kernelSpectrum);
+        SpectralUtils.invfft2D_inplace(matrix);
+        return matrix;
+    }
+}
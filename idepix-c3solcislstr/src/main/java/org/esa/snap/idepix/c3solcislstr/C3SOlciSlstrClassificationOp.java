@@ -4,8 +4,10 @@ import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.idepix.c3solcislstr.rad2refl.Rad2ReflConstants;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.util.IdepixIO;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 import org.esa.snap.idepix.core.util.IdepixUtils;
 import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
 import org.esa.snap.core.datamodel.*;
 import org.esa.snap.core.gpf.Operator;
 import org.esa.snap.core.gpf.OperatorException;
@@ -159,6 +161,15 @@ public class C3SOlciSlstrClassificationOp extends Operator {
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, rectangle);
+        try {
+            computeTileStackImpl(targetTiles, rectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
         final Tile waterFractionTile = getSourceTile(landWaterBand, rectangle);
         final Tile szaTile = getSourceTile(sourceProduct.getRasterDataNode("SZA"), rectangle);
         final Tile saaTile = getSourceTile(sourceProduct.getRasterDataNode("SAA"), rectangle);
@@ -194,6 +205,7 @@ public class C3SOlciSlstrClassificationOp extends Operator {
         Tile saaTargetTile = targetTiles.get(saaTargetBand);
         Tile ozaTargetTile = targetTiles.get(ozaTargetBand);
         Tile oaaTargetTile = targetTiles.get(oaaTargetBand);
+        final TileGeoLocation geoLocation = TileGeoLocation.create(this, sourceProduct, rectangle);
 
         Band nnTargetBand;
         Tile nnTargetTile = null;
@@ -217,7 +229,7 @@ public class C3SOlciSlstrClassificationOp extends Operator {
                     final int waterFraction = waterFractionTile.getSampleInt(x, y);
                     final boolean isL1bLand = olciQualityFlagTile.getSampleBit(x, y, C3SOlciSlstrConstants.L1_F_LAND);
                     final boolean isLand =
-                            IdepixUtils.isLandPixel(x, y, sourceProduct.getSceneGeoCoding(), isL1bLand, waterFraction);
+                            IdepixUtils.isLandPixel(geoLocation.getLat(x, y), isL1bLand, waterFraction);
                     cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_LAND, isLand);
 
                     for (int i = 0; i < Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length; i++) {
@@ -241,7 +253,8 @@ public class C3SOlciSlstrClassificationOp extends Operator {
                             inputVector[i] = Math.sqrt(olciReflectance[i]);
                         }
 
-                        final double nnOutput = nnWrapper.getNeuralNet().calc(inputVector)[0];
+                        nnWrapper.calc(inputVector, nnWrapper.getOutputVector());
+                        final double nnOutput = nnWrapper.getOutputVector()[0];
 
                         if (!cloudFlagTargetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_INVALID)) {
                             cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
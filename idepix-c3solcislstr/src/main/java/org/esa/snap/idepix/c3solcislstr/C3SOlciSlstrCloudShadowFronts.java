@@ -27,7 +27,6 @@ import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.util.Bresenham;
 
 import java.awt.*;
-import java.util.List;
 
 /**
  * Specific cloud shadow algorithm for OLCI based on fronts, using cloud top height computation based on
@@ -52,6 +51,10 @@ class C3SOlciSlstrCloudShadowFronts {
     private final Tile[] temperatureProfileTPGTiles;
     private final Tile altTile;
 
+    // shadow path buffers, reused for all pixels of the tile
+    private int[] pathX = new int[0];
+    private int[] pathY = new int[0];
+
     C3SOlciSlstrCloudShadowFronts(GeoCoding geoCoding,
                                Tile szaTile, Tile saaTile,
                                Tile ozaTile, Tile oaaTile,
@@ -229,15 +232,20 @@ class C3SOlciSlstrCloudShadowFronts {
         endPointX = (int) Math.round(endPixPoint.x);
         endPointY = (int) Math.round(endPixPoint.y);
 
-        List<PixelPos> pathPixels = Bresenham.getPathPixels(x, y, endPointX, endPointY, sourceRectangle);
+        final int maxPathLength = Bresenham.getPathLength(x, y, endPointX, endPointY);
+        if (pathX.length < maxPathLength) {
+            pathX = new int[maxPathLength];
+            pathY = new int[maxPathLength];
+        }
+        final int numPathPixels = Bresenham.getPathPixels(x, y, endPointX, endPointY, sourceRectangle, pathX, pathY);
 
         double[] temperature = new double[temperatureProfileTPGTiles.length];
 
         GeoPos geoPosCurrent = new GeoPos();
-        for (PixelPos pathPixel : pathPixels) {
+        for (int p = 0; p < numPathPixels; p++) {
 
-            final int xCurrent = (int) pathPixel.getX();
-            final int yCurrent = (int) pathPixel.getY();
+            final int xCurrent = pathX[p];
+            final int yCurrent = pathY[p];
 
             if (sourceRectangle.contains(xCurrent, yCurrent)) {
                 if (isCloudForShadow(sourceFlagTile, targetTile, xCurrent, yCurrent)) {
@@ -18,6 +18,7 @@ import org.esa.snap.idepix.core.AlgorithmSelector;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.operators.BasisOp;
 import org.esa.snap.idepix.core.util.IdepixIO;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 
 import java.awt.*;
 import java.io.File;
@@ -133,6 +134,15 @@ public class C3SOlciSlstrCtpOp extends BasisOp {
 
     @Override
     public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
         final Rectangle targetRectangle = targetTile.getRectangle();
         final String targetBandName = targetBand.getName();
 
@@ -13,8 +13,9 @@ import org.esa.snap.core.util.ProductUtils;
 import org.esa.snap.core.util.RectangleExtender;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.operators.CloudBuffer;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
 import org.esa.snap.idepix.core.util.IdepixIO;
-import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 
 import java.awt.*;
 
@@ -143,26 +144,28 @@ public class C3SOlciSlstrPostProcessOp extends Operator {
 
     @Override
     public void computeTile(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
         Rectangle targetRectangle = targetTile.getRectangle();
         final Rectangle srcRectangle = rectCalculator.extend(targetRectangle);
         final Tile sourceFlagTile = getSourceTile(origCloudFlagBand, srcRectangle);
 
-        for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
-            checkForCancellation();
-            for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                combineFlags(x, y, sourceFlagTile, targetTile);
-            }
-        }
+        final FlagAccumulator flags = new FlagAccumulator(targetRectangle);
+        flags.combine(sourceFlagTile);
+        checkForCancellation();
 
         if (computeCloudBuffer) {
-            CloudBuffer.setCloudBuffer(targetTile, srcRectangle, sourceFlagTile, cloudBufferWidth);
-            for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
-                checkForCancellation();
-                for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                    IdepixUtils.consolidateCloudAndBuffer(targetTile, x, y);
-                }
-            }
+            CloudBuffer.setCloudBuffer(flags, srcRectangle, sourceFlagTile, cloudBufferWidth, false);
+            flags.consolidateCloudAndBuffer();
         }
+        flags.writeTo(targetTile);
 
         if (computeCloudShadow && ctpProduct != null) {
             Tile szaTile = getSourceTile(szaTPG, srcRectangle);
@@ -192,12 +195,6 @@ public class C3SOlciSlstrPostProcessOp extends Operator {
 
     }
 
-    private void combineFlags(int x, int y, Tile sourceFlagTile, Tile targetTile) {
-        int sourceFlags = sourceFlagTile.getSampleInt(x, y);
-        int computedFlags = targetTile.getSampleInt(x, y);
-        targetTile.setSample(x, y, sourceFlags | computedFlags);
-    }
-
     public static class Spi extends OperatorSpi {
 
         public Spi() {
@@ -32,6 +32,7 @@ import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.snap.core.image.ResolutionLevel;
 import org.esa.snap.core.image.VirtualBandOpImage;
 import org.esa.snap.core.util.ProductUtils;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 
 import java.awt.*;
 import java.awt.image.Raster;
@@ -131,6 +132,15 @@ public class C3SOlciSlstrRad2ReflOp extends Operator {
 
     @Override
     public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
         checkCancellation();
         int bandIndex = -1;
         for (int i = 0; i < spectralOutputBandNames.length; i++) {
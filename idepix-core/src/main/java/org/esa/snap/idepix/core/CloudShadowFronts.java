@@ -26,12 +26,23 @@ import org.esa.snap.core.util.math.MathUtils;
 import org.esa.snap.idepix.core.util.IdepixUtils;
 
 import java.awt.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Cloud shadow algorithm based on fronts
+ * <p>
+ * The shadow ray of a pixel, i.e. the pixel offsets towards the sun up to the maximum cloud height together with
+ * their distances on earth, only depends on the sun angles and slowly on the location. Therefore, the rays are
+ * traced once per block of {@link #RAY_BLOCK_SIZE} x {@link #RAY_BLOCK_SIZE} pixels of the target rectangle and
+ * per sun angle bin of {@link #RAY_ANGLE_BIN_WIDTH} degrees, and shared by all pixels of the block and bin.
  */
 public abstract class CloudShadowFronts {
 
+    static final int RAY_BLOCK_SIZE = 32;
+    static final double RAY_ANGLE_BIN_WIDTH = 0.1;
+
     private final GeoCoding geoCoding;
     private final Rectangle sourceRectangle;
     private final Rectangle targetRectangle;
@@ -69,10 +80,11 @@ public abstract class CloudShadowFronts {
         final int x0 = targetRectangle.x;
         final int y0 = targetRectangle.y;
         boolean[][] isCloudShadow = new boolean[w][h];
+        final Map<Long, ShadowRay> shadowRays = new HashMap<>();
         for (int y = y0; y < y0 + h; y++) {
             for (int x = x0; x < x0 + w; x++) {
                 if (isCloudFree(x, y)) {
-                    isCloudShadow[x - x0][y - y0] = getCloudShadow(x, y);
+                    isCloudShadow[x - x0][y - y0] = getCloudShadow(x, y, shadowRays);
                     if (isCloudShadow[x - x0][y - y0]) {
                         setCloudShadow(x, y);
                     }
@@ -144,7 +156,7 @@ public abstract class CloudShadowFronts {
         return (surroundingPixelCount * 1.0 / 9 >= 0.7);  // at least 6 pixel in a 3x3 box
     }
 
-    private boolean getCloudShadow(int x, int y) {
+    private boolean getCloudShadow(int x, int y, Map<Long, ShadowRay> shadowRays) {
 
         final double sza = szaTile.getSampleDouble(x, y);
         final double saa = saaTile.getSampleDouble(x, y);
@@ -155,35 +167,23 @@ public abstract class CloudShadowFronts {
                 alt = 0; // do NOT use bathimetry
             }
         }
-        final double saaRad = Math.toRadians(saa);
-
-        PixelPos pixelPos = new PixelPos(x + 0.5f, y + 0.5f);
-
-        final GeoPos geoPos = geoCoding.getGeoPos(pixelPos, null);
-        double tanSza = Math.tan(Math.toRadians(90.0 - sza));
-        final double cloudHeightMax = 12_000;
-        final double cloudDistanceMax = cloudHeightMax / tanSza;
+        final double tanSza = Math.tan(Math.toRadians(90.0 - sza));
 
-        GeoPos endGeoPoint = lineWithAngle(geoPos, cloudDistanceMax, saaRad + Math.PI);
-        PixelPos endPixPoint = geoCoding.getPixelPos(endGeoPoint, null);
-        if (endPixPoint.x == -1 || endPixPoint.y == -1) {
-            return false;
+        final long rayKey = getShadowRayKey(x, y, sza, saa);
+        ShadowRay shadowRay = shadowRays.get(rayKey);
+        if (shadowRay == null) {
+            shadowRay = traceShadowRay(x, y, tanSza, saa);
+            shadowRays.put(rayKey, shadowRay);
         }
-        final int endPointX = (int) Math.round(endPixPoint.x);
-        final int endPointY = (int) Math.round(endPixPoint.y);
-        java.util.List<PixelPos> pathPixels = Bresenham.getPathPixels(x, y, endPointX, endPointY, sourceRectangle);
 
-        GeoPos geoPosCurrent = new GeoPos();
-        for (PixelPos pathPixel : pathPixels) {
+        for (int i = 0; i < shadowRay.length; i++) {
 
-            final int xCurrent = (int) pathPixel.getX();
-            final int yCurrent = (int) pathPixel.getY();
+            final int xCurrent = x + shadowRay.dx[i];
+            final int yCurrent = y + shadowRay.dy[i];
 
             if (sourceRectangle.contains(xCurrent, yCurrent)) {
                 if (isCloudForShadow(xCurrent, yCurrent)) {
-                    pixelPos.setLocation(xCurrent + 0.5f, yCurrent + 0.5f);
-                    geoCoding.getGeoPos(pixelPos, geoPosCurrent);
-                    final double cloudSearchHeight = (IdepixUtils.computeDistanceOnEarth(geoPos, geoPosCurrent) * tanSza) + alt;
+                    final double cloudSearchHeight = (shadowRay.getDistance(i) * tanSza) + alt;
                     final float cloudHeight = computeHeightFromPressure(ctpTile.getSampleFloat(xCurrent, yCurrent));
                     if (cloudSearchHeight <= cloudHeight + 300) {
                         float cloudBase = getCloudBase(xCurrent, yCurrent);
@@ -201,6 +201,35 @@ public abstract class CloudShadowFronts {
         return false;
     }
 
+    private long getShadowRayKey(int x, int y, double sza, double saa) {
+        final int numBlocksX = (targetRectangle.width + RAY_BLOCK_SIZE - 1) / RAY_BLOCK_SIZE;
+        final int block = ((y - targetRectangle.y) / RAY_BLOCK_SIZE) * numBlocksX + (x - targetRectangle.x) / RAY_BLOCK_SIZE;
+        final long szaBin = Math.floorMod((long) Math.floor(sza / RAY_ANGLE_BIN_WIDTH), 1L << 20);
+        final long saaBin = Math.floorMod((long) Math.floor(saa / RAY_ANGLE_BIN_WIDTH), 1L << 20);
+        return ((long) block << 40) | (szaBin << 20) | saaBin;
+    }
+
+    // traces the shadow ray for the given pixel, the first pixel of its block and angle bin
+    private ShadowRay traceShadowRay(int x, int y, double tanSza, double saa) {
+        final double saaRad = Math.toRadians(saa);
+
+        final GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(x + 0.5f, y + 0.5f), null);
+        final double cloudHeightMax = 12_000;
+        final double cloudDistanceMax = cloudHeightMax / tanSza;
+
+        GeoPos endGeoPoint = lineWithAngle(geoPos, cloudDistanceMax, saaRad + Math.PI);
+        PixelPos endPixPoint = geoCoding.getPixelPos(endGeoPoint, null);
+        if (!endPixPoint.isValid() || endPixPoint.x == -1 || endPixPoint.y == -1) {
+            return new ShadowRay(geoPos, x, y, new int[0], new int[0], 0);
+        }
+        final int endPointX = (int) Math.round(endPixPoint.x);
+        final int endPointY = (int) Math.round(endPixPoint.y);
+
+        final int[] dx = new int[Bresenham.getPathLength(0, 0, endPointX - x, endPointY - y)];
+        final int[] dy = new int[dx.length];
+        final int length = Bresenham.getPathPixels(0, 0, endPointX - x, endPointY - y, null, dx, dy);
+        return new ShadowRay(geoPos, x, y, dx, dy, length);
+    }
 
     private float getCloudBase(int x, int y) {
         float cb;
@@ -239,4 +268,40 @@ public abstract class CloudShadowFronts {
         return (float) (-8000 * Math.log(pressure / 1013.0f));
     }
 
+    /**
+     * The pixel offsets of a shadow ray, in the order of the Bresenham line towards the sun,
+     * with the distances on earth from the start pixel, computed when first needed.
+     */
+    private class ShadowRay {
+
+        private final GeoPos startGeoPos;
+        private final int startX;
+        private final int startY;
+        private final int[] dx;
+        private final int[] dy;
+        private final int length;
+        private final double[] distances;
+
+        private ShadowRay(GeoPos startGeoPos, int startX, int startY, int[] dx, int[] dy, int length) {
+            this.startGeoPos = startGeoPos;
+            this.startX = startX;
+            this.startY = startY;
+            this.dx = dx;
+            this.dy = dy;
+            this.length = length;
+            distances = new double[length];
+            Arrays.fill(distances, -1.0);
+        }
+
+        private double getDistance(int i) {
+            if (distances[i] < 0.0) {
+                final PixelPos pixelPos = new PixelPos(startX + dx[i] + 0.5f, startY + dy[i] + 0.5f);
+                final GeoPos geoPos = geoCoding.getGeoPos(pixelPos, null);
+                // NaN if the position is outside the geo-coding, so that no shadow is found there
+                distances[i] = geoPos.isValid() ? IdepixUtils.computeDistanceOnEarth(startGeoPos, geoPos) : Double.NaN;
+            }
+            return distances[i];
+        }
+    }
+
 }
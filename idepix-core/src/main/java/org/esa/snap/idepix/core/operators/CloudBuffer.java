@@ -19,6 +19,8 @@ package org.esa.snap.idepix.core.operators;
 
 import org.esa.snap.core.gpf.Tile;
 import org.esa.snap.idepix.core.IdepixConstants;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
+import org.esa.snap.idepix.core.util.MaskDilation;
 
 import java.awt.*;
 
@@ -28,18 +30,125 @@ import java.awt.*;
 public class CloudBuffer {
 
     public static void setCloudBuffer(Tile targetTile, Rectangle srcRectangle, Tile sourceFlagTile, int cloudBufferWidth) {
-        for (int y = srcRectangle.y; y < srcRectangle.y + srcRectangle.height; y++) {
-            for (int x = srcRectangle.x; x < srcRectangle.x + srcRectangle.width; x++) {
-                final boolean isCloud = sourceFlagTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
-                if (isCloud) {
-                    computeSimpleCloudBuffer(x, y,
-                                             targetTile,
-                                             srcRectangle,
-                                             cloudBufferWidth,
-                                             IdepixConstants.IDEPIX_CLOUD_BUFFER);
+        setCloudBuffer(targetTile, srcRectangle, sourceFlagTile, cloudBufferWidth, false);
+    }
+
+    public static void setCloudBuffer(Tile targetTile, Rectangle srcRectangle, Tile sourceFlagTile,
+                                      int cloudBufferWidth, boolean roundBuffer) {
+        setCloudBuffer(targetTile, srcRectangle, sourceFlagTile, cloudBufferWidth,
+                       IdepixConstants.IDEPIX_CLOUD, IdepixConstants.IDEPIX_CLOUD_BUFFER, roundBuffer);
+    }
+
+    /**
+     * Sets the cloud buffer flag in the target tile for all pixels near a cloud pixel of the source flag tile.
+     * The buffer is computed as dilation of the cloud mask of the source rectangle, with a cost independent
+     * of the buffer width. The square buffer gives the same flags as {@link #computeSimpleCloudBuffer}
+     * applied to every cloud pixel.
+     *
+     * @param targetTile         - the target tile
+     * @param srcRectangle       - the source rectangle, i.e. the target rectangle extended by the buffer width
+     * @param sourceFlagTile     - the source flag tile, covering the source rectangle
+     * @param cloudBufferWidth   - the buffer width
+     * @param cloudFlagBit       - the flag bit of the clouds to be buffered
+     * @param cloudBufferFlagBit - the flag bit of the cloud buffer
+     * @param roundBuffer        - if true, the buffer is a circle of radius cloudBufferWidth instead of a square
+     */
+    public static void setCloudBuffer(Tile targetTile, Rectangle srcRectangle, Tile sourceFlagTile,
+                                      int cloudBufferWidth, int cloudFlagBit, int cloudBufferFlagBit,
+                                      boolean roundBuffer) {
+        final byte[] mask = computeBufferMask(srcRectangle, sourceFlagTile, cloudBufferWidth, cloudFlagBit,
+                                              roundBuffer);
+        if (mask == null) {
+            return;
+        }
+        final Rectangle rectangle = targetTile.getRectangle().intersection(srcRectangle);
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            final int lineOffset = (y - srcRectangle.y) * srcRectangle.width - srcRectangle.x;
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                if (mask[lineOffset + x] != 0) {
+                    targetTile.setSample(x, y, cloudBufferFlagBit, true);
+                }
+            }
+        }
+    }
+
+    public static void setCloudBuffer(FlagAccumulator targetFlags, Rectangle srcRectangle, Tile sourceFlagTile,
+                                      int cloudBufferWidth, boolean roundBuffer) {
+        setCloudBuffer(targetFlags, srcRectangle, sourceFlagTile, cloudBufferWidth,
+                       IdepixConstants.IDEPIX_CLOUD, IdepixConstants.IDEPIX_CLOUD_BUFFER, roundBuffer);
+    }
+
+    /**
+     * Same as {@link #setCloudBuffer(Tile, Rectangle, Tile, int, int, int, boolean)}, but sets the cloud buffer
+     * flag in the flags accumulated for the target tile.
+     *
+     * @param targetFlags        - the flags of the target tile
+     * @param srcRectangle       - the source rectangle, i.e. the target rectangle extended by the buffer width
+     * @param sourceFlagTile     - the source flag tile, covering the source rectangle
+     * @param cloudBufferWidth   - the buffer width
+     * @param cloudFlagBit       - the flag bit of the clouds to be buffered
+     * @param cloudBufferFlagBit - the flag bit of the cloud buffer
+     * @param roundBuffer        - if true, the buffer is a circle of radius cloudBufferWidth instead of a square
+     */
+    public static void setCloudBuffer(FlagAccumulator targetFlags, Rectangle srcRectangle, Tile sourceFlagTile,
+                                      int cloudBufferWidth, int cloudFlagBit, int cloudBufferFlagBit,
+                                      boolean roundBuffer) {
+        final byte[] mask = computeBufferMask(srcRectangle, sourceFlagTile, cloudBufferWidth, cloudFlagBit,
+                                              roundBuffer);
+        if (mask == null) {
+            return;
+        }
+        final int bufferMask = 1 << cloudBufferFlagBit;
+        final Rectangle targetRectangle = targetFlags.getRectangle();
+        final int[] flags = targetFlags.getFlags();
+        final Rectangle rectangle = targetRectangle.intersection(srcRectangle);
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            final int lineOffset = (y - srcRectangle.y) * srcRectangle.width - srcRectangle.x;
+            final int flagOffset = (y - targetRectangle.y) * targetRectangle.width - targetRectangle.x;
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                if (mask[lineOffset + x] != 0) {
+                    flags[flagOffset + x] |= bufferMask;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the LC-CCI cloud buffer (see {@link #computeCloudBufferLC(Tile)}) in the flags accumulated for a tile.
+     *
+     * @param targetFlags - the flags of the target tile
+     */
+    public static void computeCloudBufferLC(FlagAccumulator targetFlags) {
+        final Rectangle rectangle = targetFlags.getRectangle();
+        computeCloudBufferLC(targetFlags.getFlags(), rectangle.width, rectangle.height);
+    }
+
+    // the dilated cloud mask of the source rectangle, null if there is no cloud at all
+    private static byte[] computeBufferMask(Rectangle srcRectangle, Tile sourceFlagTile, int cloudBufferWidth,
+                                            int cloudFlagBit, boolean roundBuffer) {
+        final int width = srcRectangle.width;
+        final int height = srcRectangle.height;
+        final byte[] mask = new byte[width * height];
+        boolean hasCloud = false;
+        for (int y = srcRectangle.y; y < srcRectangle.y + height; y++) {
+            final int lineOffset = (y - srcRectangle.y) * width - srcRectangle.x;
+            for (int x = srcRectangle.x; x < srcRectangle.x + width; x++) {
+                if (sourceFlagTile.getSampleBit(x, y, cloudFlagBit)) {
+                    mask[lineOffset + x] = 1;
+                    hasCloud = true;
                 }
             }
         }
+        if (!hasCloud) {
+            return null;
+        }
+
+        if (roundBuffer) {
+            MaskDilation.dilateRound(mask, width, height, cloudBufferWidth, mask);
+        } else {
+            MaskDilation.dilateSquare(mask, width, height, cloudBufferWidth, mask);
+        }
+        return mask;
     }
 
     public static void computeSimpleCloudBuffer(int x, int y,
@@ -73,73 +182,81 @@ public class CloudBuffer {
         //    - if 2x2 square also has non-cloudy pixels, do the same but with cloud buffer of only 1
 
         Rectangle rectangle = targetTile.getRectangle();
-        for (int y = rectangle.y; y < rectangle.y + rectangle.height - 1; y++) {
-            for (int x = rectangle.x; x < rectangle.x + rectangle.width - 1; x++) {
-                if (targetTile.getSampleBit(x, y, org.esa.snap.idepix.core.IdepixConstants.IDEPIX_CLOUD)) {
-                    // reference pixel is upper left (x, y)
-                    // first set buffer of 1 in each direction
-                    int bufferWidth = 1;
-                    int LEFT_BORDER = Math.max(x - bufferWidth, rectangle.x);
-                    int RIGHT_BORDER = Math.min(x + bufferWidth, rectangle.x + rectangle.width - 1);
-                    int TOP_BORDER = Math.max(y - bufferWidth, rectangle.y);
-                    int BOTTOM_BORDER = Math.min(y + bufferWidth, rectangle.y + rectangle.height - 1);
-                    // now check if whole 2x2 square (x+1,y), (x, y+1), (x+1, y+1) is cloudy
-                    if (targetTile.getSampleBit(x + 1, y, org.esa.snap.idepix.core.IdepixConstants.IDEPIX_CLOUD) &&
-                            targetTile.getSampleBit(x, y + 1, org.esa.snap.idepix.core.IdepixConstants.IDEPIX_CLOUD) &&
-                            targetTile.getSampleBit(x + 1, y + 1, org.esa.snap.idepix.core.IdepixConstants.IDEPIX_CLOUD)) {
-                        // set buffer of 2 in each direction
-                        bufferWidth = 2;
-                        LEFT_BORDER = Math.max(x - bufferWidth, rectangle.x);
-                        RIGHT_BORDER = Math.min(x + 1 + bufferWidth, rectangle.x + rectangle.width - 1);
-                        TOP_BORDER = Math.max(y - bufferWidth, rectangle.y);
-                        BOTTOM_BORDER = Math.min(y + 1 + bufferWidth, rectangle.y + rectangle.height - 1);
-                    }
-                    for (int i = LEFT_BORDER; i <= RIGHT_BORDER; i++) {
-                        for (int j = TOP_BORDER; j <= BOTTOM_BORDER; j++) {
-                            targetTile.setSample(i, j, org.esa.snap.idepix.core.IdepixConstants.IDEPIX_CLOUD_BUFFER, true);
-                        }
-                    }
+        final int[] flags = targetTile.getSamplesInt();
+        computeCloudBufferLC(flags, rectangle.width, rectangle.height);
+        targetTile.setSamples(flags);
+    }
+
+    /**
+     * Sets the LC-CCI cloud buffer (see {@link #computeCloudBufferLC(Tile)}) in a flat flag array
+     * in a single pass over the tile.
+     *
+     * @param flags  - the IdePix flags of the tile, line by line
+     * @param width  - the tile width
+     * @param height - the tile height
+     */
+    static void computeCloudBufferLC(int[] flags, int width, int height) {
+        final int cloudMask = 1 << IdepixConstants.IDEPIX_CLOUD;
+        final int bufferMask = 1 << IdepixConstants.IDEPIX_CLOUD_BUFFER;
+        final int xEast = width - 1;
+        final int ySouth = height - 1;
+
+        for (int y = 0; y < height; y++) {
+            final int lineOffset = y * width;
+            for (int x = 0; x < width; x++) {
+                if ((flags[lineOffset + x] & cloudMask) == 0) {
+                    continue;
                 }
-            }
-        }
-        int bufferWidth = 1;
-
-        // south tile boundary...
-        final int ySouth = rectangle.y + rectangle.height - 1;
-        for (int x = rectangle.x; x < rectangle.x + rectangle.width - 1; x++) {
-            int LEFT_BORDER = Math.max(x - bufferWidth, rectangle.x);
-            int RIGHT_BORDER = Math.min(x + bufferWidth, rectangle.x + rectangle.width - 1);
-            int TOP_BORDER = Math.max(rectangle.y, ySouth - bufferWidth);
-            if (targetTile.getSampleBit(x, ySouth, org.esa.snap.idepix.core.IdepixConstants.IDEPIX_CLOUD)) {
-                for (int i = LEFT_BORDER; i <= RIGHT_BORDER; i++) {
-                    for (int j = TOP_BORDER; j <= ySouth; j++) {
-                        targetTile.setSample(i, j, org.esa.snap.idepix.core.IdepixConstants.IDEPIX_CLOUD_BUFFER, true);
+                int left;
+                int right;
+                int top;
+                int bottom;
+                if (x < xEast && y < ySouth) {
+                    // reference pixel is upper left (x, y), check if whole 2x2 square is cloudy
+                    final boolean isCloudSquare = (flags[lineOffset + x + 1] & cloudMask) != 0 &&
+                            (flags[lineOffset + width + x] & cloudMask) != 0 &&
+                            (flags[lineOffset + width + x + 1] & cloudMask) != 0;
+                    if (isCloudSquare) {
+                        left = x - 2;
+                        right = x + 3;
+                        top = y - 2;
+                        bottom = y + 3;
+                    } else {
+                        left = x - 1;
+                        right = x + 1;
+                        top = y - 1;
+                        bottom = y + 1;
                     }
+                } else if (x < xEast) {
+                    // south tile boundary
+                    left = x - 1;
+                    right = x + 1;
+                    top = y - 1;
+                    bottom = y;
+                } else if (y < ySouth) {
+                    // east tile boundary
+                    left = x - 1;
+                    right = x;
+                    top = y - 1;
+                    bottom = y + 1;
+                } else {
+                    // pixel in lower right corner
+                    left = x - 1;
+                    right = x;
+                    top = y - 1;
+                    bottom = y;
                 }
-            }
-        }
-
-        // east tile boundary...
-        final int xEast = rectangle.x + rectangle.width - 1;
-        for (int y = rectangle.y; y < rectangle.y + rectangle.height - 1; y++) {
-            int LEFT_BORDER = Math.max(rectangle.x, xEast - bufferWidth);
-            int TOP_BORDER = Math.max(y - bufferWidth, rectangle.y);
-            int BOTTOM_BORDER = Math.min(y + bufferWidth, rectangle.y + rectangle.height - 1);
-            if (targetTile.getSampleBit(xEast, y, org.esa.snap.idepix.core.IdepixConstants.IDEPIX_CLOUD)) {
-                for (int i = LEFT_BORDER; i <= xEast; i++) {
-                    for (int j = TOP_BORDER; j <= BOTTOM_BORDER; j++) {
-                        targetTile.setSample(i, j, org.esa.snap.idepix.core.IdepixConstants.IDEPIX_CLOUD_BUFFER, true);
+                left = Math.max(left, 0);
+                right = Math.min(right, xEast);
+                top = Math.max(top, 0);
+                bottom = Math.min(bottom, ySouth);
+                for (int j = top; j <= bottom; j++) {
+                    final int bufferLineOffset = j * width;
+                    for (int i = left; i <= right; i++) {
+                        flags[bufferLineOffset + i] |= bufferMask;
                     }
                 }
             }
         }
-        // pixel in lower right corner...
-        if (targetTile.getSampleBit(xEast, ySouth, org.esa.snap.idepix.core.IdepixConstants.IDEPIX_CLOUD)) {
-            for (int i = Math.max(rectangle.x, xEast - 1); i <= xEast; i++) {
-                for (int j = Math.max(rectangle.y, ySouth - 1); j <= ySouth; j++) {
-                    targetTile.setSample(i, j, org.esa.snap.idepix.core.IdepixConstants.IDEPIX_CLOUD_BUFFER, true);
-                }
-            }
-        }
     }
 }
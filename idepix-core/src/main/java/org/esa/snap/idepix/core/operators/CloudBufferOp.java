@@ -2,7 +2,8 @@ package org.esa.snap.idepix.core.operators;
 
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.idepix.core.IdepixConstants;
-import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.gpf.Operator;
@@ -36,6 +37,10 @@ public class CloudBufferOp extends Operator {
     @Parameter(defaultValue = "false", label = " Use the LandCover advanced cloud buffer algorithm")
     private boolean useLcCloudBuffer;
 
+    @Parameter(defaultValue = "false",
+            label = " Use a round instead of a square cloud buffer (ignored for the LandCover algorithm)")
+    private boolean useRoundCloudBuffer;
+
 
     @SourceProduct(alias = "classifiedProduct")
     private Product classifiedProduct;
@@ -76,40 +81,34 @@ public class CloudBufferOp extends Operator {
 
     @Override
     public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
 
         Rectangle targetRectangle = targetTile.getRectangle();
         final Rectangle srcRectangle = rectCalculator.extend(targetRectangle);
 
         final Tile sourceFlagTile = getSourceTile(origClassifFlagBand, srcRectangle);
 
-        for (int y = srcRectangle.y; y < srcRectangle.y + srcRectangle.height; y++) {
-            checkForCancellation();
-            for (int x = srcRectangle.x; x < srcRectangle.x + srcRectangle.width; x++) {
-
-                if (targetRectangle.contains(x, y)) {
-                    IdepixUtils.combineFlags(x, y, sourceFlagTile, targetTile);
-                }
-                boolean isCloud = sourceFlagTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
-                if (isCloud) {
-                    if (useLcCloudBuffer) {
-                        CloudBuffer.computeCloudBufferLC(targetTile);
-                    } else {
-                        CloudBuffer.computeSimpleCloudBuffer(x, y,
-                                                             targetTile,
-                                                             srcRectangle,
-                                                             cloudBufferWidth,
-                                                             IdepixConstants.IDEPIX_CLOUD_BUFFER);
-                    }
-                }
-            }
-        }
+        final FlagAccumulator flags = new FlagAccumulator(targetRectangle);
+        flags.combine(sourceFlagTile);
+        checkForCancellation();
 
-        for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
-            checkForCancellation();
-            for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                IdepixUtils.consolidateCloudAndBuffer(targetTile, x, y);
-            }
+        if (useLcCloudBuffer) {
+            // the LC buffer only depends on the cloud flags of the target tile, so one pass after combining is enough
+            CloudBuffer.computeCloudBufferLC(flags);
+        } else {
+            CloudBuffer.setCloudBuffer(flags, srcRectangle, sourceFlagTile, cloudBufferWidth, useRoundCloudBuffer);
         }
+
+        flags.consolidateCloudAndBuffer();
+        flags.writeTo(targetTile);
     }
 
     public static class Spi extends OperatorSpi {
@@ -18,24 +18,171 @@
 package org.esa.snap.idepix.core.seaice;
 
 import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.dataio.ProductIO;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.util.ResourceInstaller;
 import org.esa.snap.core.util.SystemUtils;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Installs the monthly lake and sea ice climatologies and provides them as {@link LakeSeaIceGrid}s.
+ * <p>
+ * Reading a climatology through the NetCDF reader is slow compared to the classification of a tile. Therefore each
+ * month is converted once into a raw grid file next to its NetCDF file, which is then memory-mapped. The grids are
+ * kept for the lifetime of the JVM and shared by all operators.
+ */
 public class LakeSeaIceAuxdata {
 
     public static final Path AUXDATA_DIRECTORY = SystemUtils.getAuxDataPath().resolve("idepix/icemaps");
+    static final String DEFAULT_ICE_MAPS_DIR_NAME = "1c_icelake_icesea_mask_1grad";
+    static final String GRID_FILE_NAME_EXTENSION = ".grid";
+    // width and height as int
+    private static final int GRID_HEADER_SIZE = 8;
+
     private static final AtomicBoolean installed = new AtomicBoolean(false);
+    private static final Map<Path, LakeSeaIceGrid> monthlyMaskGrids = new HashMap<>();
 
     public static void install() throws IOException {
         if (!installed.getAndSet(true)) {
-            Path codeBasePath = ResourceInstaller.findModuleCodeBasePath(LakeSeaIceClassification.class);
-            final Path sourceDirPath = codeBasePath.resolve("auxdata/icemaps");
-            final ResourceInstaller resourceInstaller = new ResourceInstaller(sourceDirPath, AUXDATA_DIRECTORY);
-            resourceInstaller.install(".*", ProgressMonitor.NULL);
+            install(AUXDATA_DIRECTORY);
+        }
+    }
+
+    /**
+     * Copies the climatologies of the module into the given directory, where they are missing.
+     *
+     * @param iceMapsAuxdataDir - the directory to install the ice maps in
+     * @throws IOException if the ice maps cannot be copied
+     */
+    static void install(Path iceMapsAuxdataDir) throws IOException {
+        Path codeBasePath = ResourceInstaller.findModuleCodeBasePath(LakeSeaIceClassification.class);
+        final Path sourceDirPath = codeBasePath.resolve("auxdata/icemaps");
+        final ResourceInstaller resourceInstaller = new ResourceInstaller(sourceDirPath, iceMapsAuxdataDir);
+        resourceInstaller.install(".*", ProgressMonitor.NULL);
+    }
+
+    /**
+     * Provides the default climatology of a month, converting it to a grid file on first use.
+     *
+     * @param iceMapsAuxdataDir - the directory the ice maps are installed in
+     * @param month             - the month, 1 to 12
+     * @return the grid, shared with all other callers asking for the same month
+     * @throws IOException if the climatology cannot be read
+     */
+    public static synchronized LakeSeaIceGrid getMonthlyMaskGrid(Path iceMapsAuxdataDir, int month) throws IOException {
+        final String fileName = String.format("ice_climatology_%02d_max", month);
+        final Path maskFile = iceMapsAuxdataDir.resolve(DEFAULT_ICE_MAPS_DIR_NAME)
+                .resolve(fileName + LakeSeaIceClassification.FILE_NAME_EXTENSION).toAbsolutePath();
+        LakeSeaIceGrid grid = monthlyMaskGrids.get(maskFile);
+        if (grid == null) {
+            final Path gridFile = maskFile.resolveSibling(fileName + GRID_FILE_NAME_EXTENSION);
+            if (!isUpToDate(gridFile, maskFile)) {
+                grid = readAndConvert(maskFile, gridFile);
+            }
+            if (grid == null) {
+                grid = mapGridFile(gridFile);
+            }
+            monthlyMaskGrids.put(maskFile, grid);
+        }
+        return grid;
+    }
+
+    /**
+     * Copies the raw values of the first band of a mask product into a grid on the heap.
+     *
+     * @param maskProduct - the mask product, e.g. a user defined ice mask
+     * @return the grid
+     * @throws IOException if the band cannot be read
+     */
+    static LakeSeaIceGrid createGrid(Product maskProduct) throws IOException {
+        final Band maskBand = maskProduct.getBandAt(0);
+        maskBand.readRasterDataFully(ProgressMonitor.NULL);
+        final int width = maskBand.getRasterWidth();
+        final int height = maskBand.getRasterHeight();
+        final float[] values = new float[width * height];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = maskBand.getRasterData().getElemFloatAt(i);
+        }
+        return new LakeSeaIceGrid(width, height, FloatBuffer.wrap(values));
+    }
+
+    private static boolean isUpToDate(Path gridFile, Path maskFile) throws IOException {
+        return Files.isRegularFile(gridFile) &&
+                Files.getLastModifiedTime(gridFile).compareTo(Files.getLastModifiedTime(maskFile)) >= 0;
+    }
+
+    // returns the grid on the heap if the grid file cannot be written, null otherwise
+    private static LakeSeaIceGrid readAndConvert(Path maskFile, Path gridFile) throws IOException {
+        final Product maskProduct = ProductIO.readProduct(maskFile.toString());
+        if (maskProduct == null) {
+            throw new IOException("No reader found for lake-sea-ice mask " + maskFile);
+        }
+        final LakeSeaIceGrid grid;
+        try {
+            grid = createGrid(maskProduct);
+        } finally {
+            maskProduct.dispose();
+        }
+        try {
+            writeGridFile(grid, gridFile);
+            return null;
+        } catch (IOException e) {
+            SystemUtils.LOG.warning("Cannot write lake-sea-ice grid " + gridFile + ", keeping it in memory: " +
+                                            e.getMessage());
+            return grid;
+        }
+    }
+
+    private static void writeGridFile(LakeSeaIceGrid grid, Path gridFile) throws IOException {
+        // other JVMs may convert the same month concurrently, so the file appears atomically
+        final Path tempFile = Files.createTempFile(gridFile.getParent(), gridFile.getFileName().toString(), ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(grid.getWidth());
+                out.writeInt(grid.getHeight());
+                for (int y = 0; y < grid.getHeight(); y++) {
+                    for (int x = 0; x < grid.getWidth(); x++) {
+                        out.writeFloat(grid.getValue(x, y));
+                    }
+                }
+            }
+            try {
+                Files.move(tempFile, gridFile, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, gridFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static LakeSeaIceGrid mapGridFile(Path gridFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(gridFile, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final int width = buffer.getInt(0);
+            final int height = buffer.getInt(4);
+            if (width <= 0 || height <= 0 || channel.size() != GRID_HEADER_SIZE + 4L * width * height) {
+                throw new IOException("Invalid lake-sea-ice grid file " + gridFile);
+            }
+            buffer.position(GRID_HEADER_SIZE);
+            final ByteBuffer values = buffer.slice();
+            return new LakeSeaIceGrid(width, height, values.asFloatBuffer());
         }
     }
 }
@@ -17,58 +17,76 @@
 
 package org.esa.snap.idepix.core.seaice;
 
-import com.bc.ceres.core.ProgressMonitor;
-import org.esa.snap.core.dataio.ProductIO;
-import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
 
 import java.io.IOException;
 import java.nio.file.Path;
 
 public class LakeSeaIceClassification {
 
-    private static final String DEFAULT_ICE_MAPS_DIR_NAME = "1c_icelake_icesea_mask_1grad";
     public static final String FILE_NAME_EXTENSION = ".nc";
 
-    private Product monthlyMaskProduct;
-    private Band monthlyMaskBand;
+    private final LakeSeaIceGrid monthlyMaskGrid;
 
     public LakeSeaIceClassification(Product userMaskProduct, Path iceMapsAuxdataDir, int month) {
         try {
-            provideMaskData(userMaskProduct, iceMapsAuxdataDir, month);
+            if (userMaskProduct == null) {
+                monthlyMaskGrid = LakeSeaIceAuxdata.getMonthlyMaskGrid(iceMapsAuxdataDir, month);
+            } else {
+                monthlyMaskGrid = LakeSeaIceAuxdata.createGrid(userMaskProduct);
+            }
         } catch (IOException e) {
             throw new IllegalStateException("Not able to initialise lake-sea-ice mask", e);
         }
     }
 
+    /**
+     * @param x - the column in the climatology grid
+     * @param y - the line in the climatology grid
+     * @return the mask value, NaN for a pixel outside of the grid
+     */
     public float getMonthlyMaskValue(int x, int y) {
-        final int rasterWidth = monthlyMaskBand.getRasterWidth();
-        int rasterDataIndex = y * rasterWidth + x;
-        return monthlyMaskBand.getRasterData().getElemFloatAt(rasterDataIndex);
+        return monthlyMaskGrid.getValue(x, y);
     }
 
-    Product getMonthlyMaskProduct() {
-        return monthlyMaskProduct;
+    /**
+     * Looks up the mask values of all pixels of a tile in the 1 degree climatology grid.
+     *
+     * @param geoLocation - the geo-location of the tile
+     * @return the mask values, line by line, NaN for positions outside of the grid
+     */
+    public float[] getMonthlyMaskValues(TileGeoLocation geoLocation) {
+        final float[] latitudes = geoLocation.getLatitudes();
+        final float[] longitudes = geoLocation.getLongitudes();
+        final float[] values = new float[latitudes.length];
+        getMonthlyMaskValues(latitudes, longitudes, values);
+        return values;
     }
 
-    private void provideMaskData(Product userMaskProduct, Path iceMapsAuxdataDir, int month) throws IOException {
-        if (userMaskProduct == null) {
-            readDefaultMonthlyMaskProduct(iceMapsAuxdataDir, month);
-        } else {
-            monthlyMaskProduct = userMaskProduct;
+    /**
+     * Looks up the mask values of the given positions in the 1 degree climatology grid.
+     *
+     * @param latitudes  - the latitudes
+     * @param longitudes - the longitudes
+     * @param values     - the mask values, NaN for invalid positions and positions outside of the grid
+     */
+    public void getMonthlyMaskValues(float[] latitudes, float[] longitudes, float[] values) {
+        for (int i = 0; i < values.length; i++) {
+            final float lat = latitudes[i];
+            final float lon = longitudes[i];
+            if (Float.isNaN(lat) || Float.isNaN(lon)) {
+                // a NaN would be cast to the grid pixel 0
+                values[i] = Float.NaN;
+            } else {
+                final int x = (int) Math.floor(180.0 + lon);
+                final int y = (int) Math.floor(90.0 - lat);
+                values[i] = getMonthlyMaskValue(x, y);
+            }
         }
-        monthlyMaskBand = monthlyMaskProduct.getBandAt(0);
-        monthlyMaskBand.readRasterDataFully(ProgressMonitor.NULL);
     }
 
-    private void readDefaultMonthlyMaskProduct(Path iceMapsAuxdataDir, int month) throws IOException {
-        Path iceMapsDir = iceMapsAuxdataDir.resolve(DEFAULT_ICE_MAPS_DIR_NAME);
-
-        final String seaIceMaskFileName = String.format("ice_climatology_%02d_max%s", month, FILE_NAME_EXTENSION);
-        Path seaIceMaskFile = iceMapsDir.resolve(seaIceMaskFileName);
-
-        monthlyMaskProduct = ProductIO.readProduct(seaIceMaskFile.toAbsolutePath().toString());
-        monthlyMaskBand = monthlyMaskProduct.getBandAt(0);
-        monthlyMaskBand.readRasterDataFully(ProgressMonitor.NULL);
+    LakeSeaIceGrid getMonthlyMaskGrid() {
+        return monthlyMaskGrid;
     }
 }
@@ -0,0 +1,43 @@
+package org.esa.snap.idepix.core.seaice;
+
+import java.nio.FloatBuffer;
+
+/**
+ * A lake and sea ice climatology grid in memory: the raw values of the first band of a mask product, line by line.
+ * The values are only read through absolute positions, so one instance can be shared by all operators and threads.
+ *
+ * @see LakeSeaIceAuxdata#getMonthlyMaskGrid
+ */
+public class LakeSeaIceGrid {
+
+    private final int width;
+    private final int height;
+    private final FloatBuffer values;
+
+    LakeSeaIceGrid(int width, int height, FloatBuffer values) {
+        if (values.capacity() != width * height) {
+            throw new IllegalArgumentException("Grid of " + width + " x " + height + " pixels cannot have " +
+                                                       values.capacity() + " values");
+        }
+        this.width = width;
+        this.height = height;
+        this.values = values;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param x - the column of the grid pixel
+     * @param y - the line of the grid pixel
+     * @return the value, NaN if the pixel is outside of the grid
+     */
+    public float getValue(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height ? values.get(y * width + x) : Float.NaN;
+    }
+}
@@ -27,15 +27,31 @@ import java.util.zip.ZipInputStream;
 
 /**
  * API class which provides access to static data maps for sea ice classification.
+ * <p>
+ * The map of a month is loaded once per JVM into a flat array and shared by all instances. Besides
+ * {@link #getClassification}, which creates an object for every call, the values can be looked up without
+ * allocation, for single positions or for whole tiles.
  *
  * @author Thomas Storm
  */
 public class SeaIceClassifier {
 
-    private final double[][][] map = new double[180][360][4];
+    public static final int MEAN = 0;
+    public static final int MIN = 1;
+    public static final int MAX = 2;
+    public static final int STANDARD_DEVIATION = 3;
+
+    private static final int NUM_LATS = 180;
+    private static final int NUM_LONS = 360;
+    private static final int NUM_VALUES = 4;
+
+    private static final double[][] monthlyMaps = new double[12][];
+
+    // NUM_LATS * NUM_LONS entries of NUM_VALUES values, shared with all instances for the same month
+    private final double[] map;
 
     /**
-     * Creates a new instance of SeaIceClassifier and loads the classification file.
+     * Creates a new instance of SeaIceClassifier and loads the classification file, if not yet done for the month.
      *
      * @param month The month the data shall be loaded for.
      *
@@ -45,13 +61,7 @@ public class SeaIceClassifier {
         if (month < 1 || month > 12) {
             throw new IllegalArgumentException("month must be in between 1 and 12.");
         }
-        InputStream classificationZipStream = getClass().getResourceAsStream("classification.zip");
-        ZipInputStream zip = new ZipInputStream(classificationZipStream);
-        try {
-            loadClassifications(month, zip);
-        } finally {
-            zip.close();
-        }
+        map = getMonthlyMap(month);
     }
 
     /**
@@ -64,29 +74,66 @@ public class SeaIceClassifier {
      */
     public SeaIceClassification getClassification(double lat, double lon) {
         validateParameters(lat, lon);
-        final double[] entry = getEntry(lat, lon);
-        final double mean = entry[0];
-        final double min = entry[1];
-        final double max = entry[2];
-        final double stdDev = entry[3];
+        final int entry = getEntryIndex(lat, lon);
+        final double mean = map[entry + MEAN];
+        final double min = map[entry + MIN];
+        final double max = map[entry + MAX];
+        final double stdDev = map[entry + STANDARD_DEVIATION];
         return SeaIceClassification.create(mean, min, max, stdDev);
     }
 
-    private double[] getEntry(double lat, double lon) {
+    /**
+     * Returns a single value of the classification for given latitude and longitude.
+     *
+     * @param lat   The latitude value of the classification, in the range [0..180].
+     * @param lon   The longitude value of the classification, in the range [0..360].
+     * @param value The value, one of {@link #MEAN}, {@link #MIN}, {@link #MAX} and {@link #STANDARD_DEVIATION}.
+     *
+     * @return The value.
+     */
+    public double getValue(double lat, double lon, int value) {
+        validateParameters(lat, lon);
+        return map[getEntryIndex(lat, lon) + checkValue(value)];
+    }
+
+    /**
+     * Returns a single value of the classification for many positions, e.g. all pixels of a tile.
+     *
+     * @param lats   The latitude values, in the range [0..180].
+     * @param lons   The longitude values, in the range [0..360].
+     * @param value  The value, one of {@link #MEAN}, {@link #MIN}, {@link #MAX} and {@link #STANDARD_DEVIATION}.
+     * @param values The array to fill, of the length of the latitudes.
+     */
+    public void getValues(double[] lats, double[] lons, int value, double[] values) {
+        checkValue(value);
+        for (int i = 0; i < values.length; i++) {
+            validateParameters(lats[i], lons[i]);
+            values[i] = map[getEntryIndex(lats[i], lons[i]) + value];
+        }
+    }
+
+    private static int getEntryIndex(double lat, double lon) {
         int latIndex = (int) lat;
-        if (latIndex == 180) {
+        if (latIndex == NUM_LATS) {
             // latitude of 180 is a valid value, but value range in map is 0..179
             // therefore we map 180 to 179
             latIndex--;
         }
         int lonIndex = (int) lon;
-        if (lonIndex == 360) {
+        if (lonIndex == NUM_LONS) {
             // latitude of 360 is a valid value, but value range in map is 0..359
             // therefore we map 360 to 359
             lonIndex--;
         }
 
-        return map[latIndex][lonIndex];
+        return (latIndex * NUM_LONS + lonIndex) * NUM_VALUES;
+    }
+
+    private static int checkValue(int value) {
+        if (value < MEAN || value > STANDARD_DEVIATION) {
+            throw new IllegalArgumentException("value must be in between 0 and 3, was '" + value + "'.");
+        }
+        return value;
     }
 
     private static void validateParameters(double lat, double lon) {
@@ -98,11 +145,25 @@ public class SeaIceClassifier {
         }
     }
 
-    private void loadClassifications(int month, ZipInputStream zip) throws IOException {
+    private static synchronized double[] getMonthlyMap(int month) throws IOException {
+        if (monthlyMaps[month - 1] == null) {
+            final InputStream classificationZipStream = SeaIceClassifier.class.getResourceAsStream("classification.zip");
+            if (classificationZipStream == null) {
+                throw new IOException("Resource 'classification.zip' not found.");
+            }
+            try (ZipInputStream zip = new ZipInputStream(classificationZipStream)) {
+                monthlyMaps[month - 1] = loadClassifications(month, zip);
+            }
+        }
+        return monthlyMaps[month - 1];
+    }
+
+    private static double[] loadClassifications(int month, ZipInputStream zip) throws IOException {
+        final double[] map = new double[NUM_LATS * NUM_LONS * NUM_VALUES];
+        final String fileName = String.format("classification_%d.csv", month);
         ZipEntry ze = zip.getNextEntry();
 
         while (ze != null) {
-            final String fileName = String.format("classification_%d.csv", month);
             if (ze.getName().equals(fileName)) {
                 final InputStreamReader reader = new InputStreamReader(zip);
                 final CsvReader csvReader = new CsvReader(reader, new char[]{' '}, true, "#");
@@ -110,13 +171,15 @@ public class SeaIceClassifier {
                 for (final String[] classification : classifications) {
                     final int latIndex = Integer.parseInt(classification[0]);
                     final int lonIndex = Integer.parseInt(classification[1]);
-                    for (int i = 0; i < 4; i++) {
-                        map[latIndex][lonIndex][i] = Double.parseDouble(classification[2 + i]);
+                    final int entry = (latIndex * NUM_LONS + lonIndex) * NUM_VALUES;
+                    for (int i = 0; i < NUM_VALUES; i++) {
+                        map[entry + i] = Double.parseDouble(classification[2 + i]);
                     }
                 }
-                return;
+                return map;
             }
             ze = zip.getNextEntry();
         }
+        return map;
     }
 }
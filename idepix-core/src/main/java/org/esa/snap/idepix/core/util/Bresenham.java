@@ -9,9 +9,27 @@ import java.util.List;
 
 /**
  * Bresenham's famous line drawing algorithm. Works for 2D.
+ * <p>
+ * Besides the {@link PixelPos} list of {@link #getPathPixels(int, int, int, int, Rectangle)}, the path pixels can be
+ * written to caller supplied int buffers or passed to a {@link PathVisitor}, without any allocation. The supercover
+ * variants provide all pixels touched by a path, so that e.g. thin structures cannot slip between the pixels of a
+ * diagonal path.
  */
 public class Bresenham {
 
+    /**
+     * Receives the pixels of a path, in the order of the path.
+     */
+    public interface PathVisitor {
+
+        /**
+         * @param x - pixel x coordinate
+         * @param y - pixel y coordinate
+         * @return true to continue with the next pixel, false to stop
+         */
+        boolean visit(int x, int y);
+    }
+
     /**
      * Used for calculation
      */
@@ -138,19 +156,198 @@ public class Bresenham {
      */
     public static List<PixelPos> getPathPixels(final int x1, final int y1, final int x2, final int y2, Rectangle rect) {
 
-        List<PixelPos> path = new ArrayList<PixelPos>();
-        Bresenham bresenham = new Bresenham();
-        int length = bresenham.plot(x1, y1, x2, y2);
+        final int[] xs = new int[getPathLength(x1, y1, x2, y2)];
+        final int[] ys = new int[xs.length];
+        final int numPixels = getPathPixels(x1, y1, x2, y2, rect, xs, ys);
+        List<PixelPos> path = new ArrayList<PixelPos>(numPixels);
+        for (int i = 0; i < numPixels; i++) {
+            path.add(new PixelPos(xs[i], ys[i]));
+        }
+
+        return path;
+
+    }
+
+    /**
+     * @return the maximum number of path pixels between (x1,y1) and (x2,y2), the buffer size needed
+     * for {@link #getPathPixels(int, int, int, int, Rectangle, int[], int[])}
+     */
+    public static int getPathLength(int x1, int y1, int x2, int y2) {
+        return Math.max(Math.abs(x2 - x1), Math.abs(y2 - y1)) + 1;
+    }
+
+    /**
+     * Provides the path pixels between (x1,y1) and (x2,y2), as {@link #getPathPixels(int, int, int, int, Rectangle)}
+     * does, in caller supplied buffers.
+     *
+     * @param x1   - first x coordinate
+     * @param y1   - first y coordinate
+     * @param x2   - second x coordinate
+     * @param y2   - second y coordinate
+     * @param rect - rectangle where the pixels need to be inside, null for all pixels
+     * @param xs   - the buffer for the x coordinates, of at least {@link #getPathLength} entries
+     * @param ys   - the buffer for the y coordinates, of at least {@link #getPathLength} entries
+     *
+     * @return the number of pixels written
+     */
+    public static int getPathPixels(int x1, int y1, int x2, int y2, Rectangle rect, int[] xs, int[] ys) {
+        return tracePath(x1, y1, x2, y2, rect, xs, ys, null);
+    }
+
+    /**
+     * Passes the path pixels between (x1,y1) and (x2,y2), as provided by
+     * {@link #getPathPixels(int, int, int, int, Rectangle)}, to a visitor.
+     *
+     * @param x1      - first x coordinate
+     * @param y1      - first y coordinate
+     * @param x2      - second x coordinate
+     * @param y2      - second y coordinate
+     * @param rect    - rectangle where the pixels need to be inside, null for all pixels
+     * @param visitor - the visitor
+     *
+     * @return true if the visitor stopped the path
+     */
+    public static boolean visitPathPixels(int x1, int y1, int x2, int y2, Rectangle rect, PathVisitor visitor) {
+        return tracePath(x1, y1, x2, y2, rect, null, null, visitor) < 0;
+    }
+
+    /**
+     * @return the maximum number of supercover path pixels between (x1,y1) and (x2,y2), the buffer size needed
+     * for {@link #getSupercoverPathPixels}
+     */
+    public static int getSupercoverPathLength(int x1, int y1, int x2, int y2) {
+        final int nx = Math.abs(x2 - x1);
+        final int ny = Math.abs(y2 - y1);
+        return nx + ny + Math.min(nx, ny);
+    }
+
+    /**
+     * Provides all pixels touched by the straight line from the centre of (x1,y1) to the centre of (x2,y2),
+     * without (x1,y1). Where the line passes exactly through a pixel corner, both pixels beside the corner are
+     * included. Unlike {@link #getPathPixels}, consecutive pixels always share an edge or the line passes
+     * through their common corner.
+     *
+     * @param x1   - first x coordinate
+     * @param y1   - first y coordinate
+     * @param x2   - second x coordinate
+     * @param y2   - second y coordinate
+     * @param rect - rectangle where the pixels need to be inside, null for all pixels
+     * @param xs   - the buffer for the x coordinates, of at least {@link #getSupercoverPathLength} entries
+     * @param ys   - the buffer for the y coordinates, of at least {@link #getSupercoverPathLength} entries
+     *
+     * @return the number of pixels written
+     */
+    public static int getSupercoverPathPixels(int x1, int y1, int x2, int y2, Rectangle rect, int[] xs, int[] ys) {
+        return traceSupercoverPath(x1, y1, x2, y2, rect, xs, ys, null);
+    }
+
+    /**
+     * Passes the pixels of {@link #getSupercoverPathPixels} to a visitor.
+     *
+     * @param x1      - first x coordinate
+     * @param y1      - first y coordinate
+     * @param x2      - second x coordinate
+     * @param y2      - second y coordinate
+     * @param rect    - rectangle where the pixels need to be inside, null for all pixels
+     * @param visitor - the visitor
+     *
+     * @return true if the visitor stopped the path
+     */
+    public static boolean visitSupercoverPathPixels(int x1, int y1, int x2, int y2, Rectangle rect,
+                                                    PathVisitor visitor) {
+        return traceSupercoverPath(x1, y1, x2, y2, rect, null, null, visitor) < 0;
+    }
+
+    // same steps as plot() and next(), returns the number of pixels written or -1 if the visitor stopped
+    private static int tracePath(int x1, int y1, int x2, int y2, Rectangle rect,
+                                 int[] xs, int[] ys, PathVisitor visitor) {
+        final int dx = Math.abs(x2 - x1);
+        final int dy = Math.abs(y2 - y1);
+        final int xInc = x2 >= x1 ? 1 : -1;
+        final int yInc = y2 >= y1 ? 1 : -1;
+        final int length = Math.max(dx, dy) + 1;
+        int error = dx > 0 ? dx >> 1 : dy >> 1;
+        int x = x1;
+        int y = y1;
+        int count = 0;
         for (int i = 0; i < length; i++) {
-            bresenham.next();
-            PixelPos pos = new PixelPos(bresenham.getX(), bresenham.getY());
-            if (rect.contains(bresenham.getX(), bresenham.getY())) {
-                path.add(pos);
+            if (dx > dy) {
+                error += dy;
+                if (error >= dx) {
+                    error -= dx;
+                    y += yInc;
+                }
+                x += xInc;
+            } else {
+                error += dx;
+                if (error >= dy) {
+                    error -= dy;
+                    x += xInc;
+                }
+                y += yInc;
+            }
+            count = addPathPixel(x, y, rect, xs, ys, visitor, count);
+            if (count < 0) {
+                return -1;
             }
         }
+        return count;
+    }
 
-        return path;
+    // returns the number of pixels written or -1 if the visitor stopped
+    private static int traceSupercoverPath(int x1, int y1, int x2, int y2, Rectangle rect,
+                                           int[] xs, int[] ys, PathVisitor visitor) {
+        final int nx = Math.abs(x2 - x1);
+        final int ny = Math.abs(y2 - y1);
+        final int xInc = x2 >= x1 ? 1 : -1;
+        final int yInc = y2 >= y1 ? 1 : -1;
+        int x = x1;
+        int y = y1;
+        int ix = 0;
+        int iy = 0;
+        int count = 0;
+        while (ix < nx || iy < ny) {
+            // sign of the position of the next vertical pixel edge relative to the next horizontal one
+            final long decision = (1L + 2L * ix) * ny - (1L + 2L * iy) * nx;
+            if (decision == 0) {
+                // through the corner: both pixels beside it, then the diagonal one
+                count = addPathPixel(x + xInc, y, rect, xs, ys, visitor, count);
+                if (count < 0) {
+                    return -1;
+                }
+                count = addPathPixel(x, y + yInc, rect, xs, ys, visitor, count);
+                if (count < 0) {
+                    return -1;
+                }
+                x += xInc;
+                y += yInc;
+                ix++;
+                iy++;
+            } else if (decision < 0) {
+                x += xInc;
+                ix++;
+            } else {
+                y += yInc;
+                iy++;
+            }
+            count = addPathPixel(x, y, rect, xs, ys, visitor, count);
+            if (count < 0) {
+                return -1;
+            }
+        }
+        return count;
+    }
 
+    private static int addPathPixel(int x, int y, Rectangle rect, int[] xs, int[] ys, PathVisitor visitor, int count) {
+        if (rect != null && !rect.contains(x, y)) {
+            return count;
+        }
+        if (visitor != null) {
+            return visitor.visit(x, y) ? count + 1 : -1;
+        }
+        xs[count] = x;
+        ys[count] = y;
+        return count + 1;
     }
 
     /**
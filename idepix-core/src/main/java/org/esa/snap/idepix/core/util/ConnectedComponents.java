@@ -0,0 +1,284 @@
+package org.esa.snap.idepix.core.util;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * Connected component labelling of binary masks given as flat arrays (line by line, non-zero means set).
+ * <p>
+ * The labelling is done in two raster scans with a union-find structure on primitive arrays:
+ * the first scan assigns provisional labels and merges the labels of touching pixels (union by smaller root,
+ * path halving), the second scan replaces every provisional label by the dense final label of its root.
+ * Equivalences are therefore resolved exactly, whatever the shape of the areas.
+ * Final labels run from 1 to {@link #getNumComponents()} in the order of the first pixel of each component;
+ * unset pixels get the label 0.
+ */
+public class ConnectedComponents {
+
+    private final int width;
+    private final int height;
+    private final int[] labels;
+    private final int numComponents;
+    // all per-component arrays are indexed by label, element 0 is unused
+    private final int[] pixelCounts;
+    private final int[] minX;
+    private final int[] minY;
+    private final int[] maxX;
+    private final int[] maxY;
+
+    // pixel indices ordered by label, created on demand
+    private int[] pixelIndices;
+    private int[] firstPixel;
+
+    private ConnectedComponents(int width, int height, int[] labels, int numComponents,
+                                int[] pixelCounts, int[] minX, int[] minY, int[] maxX, int[] maxY) {
+        this.width = width;
+        this.height = height;
+        this.labels = labels;
+        this.numComponents = numComponents;
+        this.pixelCounts = pixelCounts;
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+    }
+
+    /**
+     * Labels the connected areas of set pixels in the given mask.
+     *
+     * @param mask            - the mask, non-zero means set
+     * @param width           - the mask width
+     * @param height          - the mask height
+     * @param eightConnected  - if true, diagonal neighbours are connected as well, otherwise only the four direct ones
+     * @param labels          - the label image to be filled, may be the same array as the mask
+     * @return the labelling
+     */
+    public static ConnectedComponents label(int[] mask, int width, int height, boolean eightConnected, int[] labels) {
+        if (labels != mask) {
+            System.arraycopy(mask, 0, labels, 0, width * height);
+        }
+        return labelInPlace(labels, width, height, eightConnected);
+    }
+
+    /**
+     * Labels the connected areas of set pixels in the given mask.
+     *
+     * @param mask           - the mask, non-zero means set
+     * @param width          - the mask width
+     * @param height         - the mask height
+     * @param eightConnected - if true, diagonal neighbours are connected as well, otherwise only the four direct ones
+     * @param labels         - the label image to be filled
+     * @return the labelling
+     */
+    public static ConnectedComponents label(byte[] mask, int width, int height, boolean eightConnected, int[] labels) {
+        for (int i = 0; i < width * height; i++) {
+            labels[i] = mask[i] != 0 ? 1 : 0;
+        }
+        return labelInPlace(labels, width, height, eightConnected);
+    }
+
+    private static ConnectedComponents labelInPlace(int[] labels, int width, int height, boolean eightConnected) {
+        // parent[l] is the parent of provisional label l, a root is its own parent
+        int[] parent = new int[64];
+        int numProvisional = 0;
+
+        for (int y = 0; y < height; y++) {
+            final int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                final int index = offset + x;
+                if (labels[index] == 0) {
+                    continue;
+                }
+                int label = 0;
+                if (x > 0) {
+                    label = labels[index - 1];
+                }
+                if (y > 0) {
+                    label = merge(parent, label, labels[index - width]);
+                    if (eightConnected) {
+                        if (x > 0) {
+                            label = merge(parent, label, labels[index - width - 1]);
+                        }
+                        if (x < width - 1) {
+                            label = merge(parent, label, labels[index - width + 1]);
+                        }
+                    }
+                }
+                if (label == 0) {
+                    numProvisional++;
+                    if (numProvisional == parent.length) {
+                        parent = Arrays.copyOf(parent, 2 * parent.length);
+                    }
+                    parent[numProvisional] = numProvisional;
+                    label = numProvisional;
+                }
+                labels[index] = label;
+            }
+        }
+
+        // dense final labels for the roots, in the order of their first pixel
+        final int[] finalLabel = new int[numProvisional + 1];
+        int numComponents = 0;
+        for (int l = 1; l <= numProvisional; l++) {
+            final int root = find(parent, l);
+            if (root == l) {
+                finalLabel[l] = ++numComponents;
+            }
+        }
+        for (int l = 1; l <= numProvisional; l++) {
+            finalLabel[l] = finalLabel[find(parent, l)];
+        }
+
+        final int[] pixelCounts = new int[numComponents + 1];
+        final int[] minX = new int[numComponents + 1];
+        final int[] minY = new int[numComponents + 1];
+        final int[] maxX = new int[numComponents + 1];
+        final int[] maxY = new int[numComponents + 1];
+        Arrays.fill(minX, Integer.MAX_VALUE);
+        Arrays.fill(minY, Integer.MAX_VALUE);
+        Arrays.fill(maxX, -1);
+        Arrays.fill(maxY, -1);
+        for (int y = 0; y < height; y++) {
+            final int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                final int index = offset + x;
+                if (labels[index] == 0) {
+                    continue;
+                }
+                final int label = finalLabel[labels[index]];
+                labels[index] = label;
+                pixelCounts[label]++;
+                if (x < minX[label]) {
+                    minX[label] = x;
+                }
+                if (x > maxX[label]) {
+                    maxX[label] = x;
+                }
+                if (y < minY[label]) {
+                    minY[label] = y;
+                }
+                maxY[label] = y;
+            }
+        }
+        return new ConnectedComponents(width, height, labels, numComponents, pixelCounts, minX, minY, maxX, maxY);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the label image, 0 for unset pixels, 1 to {@link #getNumComponents()} otherwise
+     */
+    public int[] getLabels() {
+        return labels;
+    }
+
+    public int getNumComponents() {
+        return numComponents;
+    }
+
+    /**
+     * @param label - the component label, 1 to {@link #getNumComponents()}
+     * @return the number of pixels of the component
+     */
+    public int getPixelCount(int label) {
+        return pixelCounts[label];
+    }
+
+    /**
+     * @param label - the component label, 1 to {@link #getNumComponents()}
+     * @return the bounding box of the component in pixel coordinates of the mask
+     */
+    public Rectangle getBounds(int label) {
+        return new Rectangle(minX[label], minY[label],
+                             maxX[label] - minX[label] + 1, maxY[label] - minY[label] + 1);
+    }
+
+    /**
+     * Returns the indices of all pixels of a component in ascending order.
+     * The arrays needed for this are created with the first call.
+     *
+     * @param label - the component label, 1 to {@link #getNumComponents()}
+     * @return the pixel indices (y * width + x) of the component
+     */
+    public int[] getPixelIndices(int label) {
+        if (pixelIndices == null) {
+            createPixelIndices();
+        }
+        return Arrays.copyOfRange(pixelIndices, firstPixel[label], firstPixel[label + 1]);
+    }
+
+    /**
+     * Copies the indices of all pixels of a component in ascending order into the given buffer.
+     *
+     * @param label   - the component label, 1 to {@link #getNumComponents()}
+     * @param indices - the buffer, at least {@link #getPixelCount(int)} long
+     * @return the number of pixel indices copied
+     */
+    public int getPixelIndices(int label, int[] indices) {
+        if (pixelIndices == null) {
+            createPixelIndices();
+        }
+        final int pixelCount = pixelCounts[label];
+        System.arraycopy(pixelIndices, firstPixel[label], indices, 0, pixelCount);
+        return pixelCount;
+    }
+
+    /**
+     * @return the largest number of pixels of a component, 0 if there is none
+     */
+    public int getMaxPixelCount() {
+        int maxPixelCount = 0;
+        for (int l = 1; l <= numComponents; l++) {
+            maxPixelCount = Math.max(maxPixelCount, pixelCounts[l]);
+        }
+        return maxPixelCount;
+    }
+
+    private void createPixelIndices() {
+        final int[] first = new int[numComponents + 2];
+        for (int l = 1; l <= numComponents; l++) {
+            first[l + 1] = first[l] + pixelCounts[l];
+        }
+        final int[] indices = new int[first[numComponents + 1]];
+        final int[] next = Arrays.copyOf(first, numComponents + 1);
+        for (int i = 0; i < width * height; i++) {
+            if (labels[i] != 0) {
+                indices[next[labels[i]]++] = i;
+            }
+        }
+        firstPixel = first;
+        pixelIndices = indices;
+    }
+
+    // merges the sets of two provisional labels (0 means no label) and returns the root of the union
+    private static int merge(int[] parent, int label1, int label2) {
+        if (label1 == 0) {
+            return label2 == 0 ? 0 : find(parent, label2);
+        }
+        final int root1 = find(parent, label1);
+        if (label2 == 0) {
+            return root1;
+        }
+        final int root2 = find(parent, label2);
+        if (root1 < root2) {
+            parent[root2] = root1;
+            return root1;
+        }
+        parent[root1] = root2;
+        return root2;
+    }
+
+    private static int find(int[] parent, int label) {
+        while (parent[label] != label) {
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+}
@@ -0,0 +1,137 @@
+package org.esa.snap.idepix.core.util;
+
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.idepix.core.IdepixConstants;
+
+import java.awt.Rectangle;
+
+/**
+ * Builds the flags of a flag tile in a plain int array, using the bit layout of {@link IdepixConstants}
+ * and the sensor specific constants.
+ * <p>
+ * Setting single flag bits directly in a tile is a read-modify-write through the raster of the tile for every
+ * bit. The classification and post-processing operators touch 10 to 20 bits per pixel, therefore they collect
+ * the flags of a tile here and write them with one {@link Tile#setSamples(int[])} call at the end.
+ * The pixel positions are image coordinates, as for the tile. An instance is meant for one tile computation
+ * and is not thread-safe.
+ */
+public class FlagAccumulator {
+
+    private final Rectangle rectangle;
+    private final int[] flags;
+
+    /**
+     * @param rectangle - the rectangle of the target tile, all flags are initially cleared
+     */
+    public FlagAccumulator(Rectangle rectangle) {
+        this.rectangle = new Rectangle(rectangle);
+        flags = new int[rectangle.width * rectangle.height];
+    }
+
+    /**
+     * @param tile - a flag tile
+     * @return an accumulator for the rectangle of the tile, initialised with the flags of the tile
+     */
+    public static FlagAccumulator of(Tile tile) {
+        final FlagAccumulator accumulator = new FlagAccumulator(tile.getRectangle());
+        accumulator.combine(tile);
+        return accumulator;
+    }
+
+    public Rectangle getRectangle() {
+        return rectangle;
+    }
+
+    /**
+     * @return the flags, line by line, without copy
+     */
+    public int[] getFlags() {
+        return flags;
+    }
+
+    public int getFlags(int x, int y) {
+        return flags[index(x, y)];
+    }
+
+    public void setFlags(int x, int y, int value) {
+        flags[index(x, y)] = value;
+    }
+
+    public boolean getFlag(int x, int y, int bitIndex) {
+        return (flags[index(x, y)] & (1 << bitIndex)) != 0;
+    }
+
+    public void setFlag(int x, int y, int bitIndex, boolean value) {
+        final int index = index(x, y);
+        if (value) {
+            flags[index] |= 1 << bitIndex;
+        } else {
+            flags[index] &= ~(1 << bitIndex);
+        }
+    }
+
+    /**
+     * Combines the flags of the accumulator rectangle with the flags of a source flag tile, by bitwise or.
+     *
+     * @param sourceFlagTile - the source flag tile, must contain the accumulator rectangle
+     */
+    public void combine(Tile sourceFlagTile) {
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            final int lineOffset = (y - rectangle.y) * rectangle.width - rectangle.x;
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                flags[lineOffset + x] |= sourceFlagTile.getSampleInt(x, y);
+            }
+        }
+    }
+
+    /**
+     * Per-pixel variant of {@link #combine(Tile)}, see {@link IdepixUtils#combineFlags}.
+     *
+     * @param x              - the pixel x position
+     * @param y              - the pixel y position
+     * @param sourceFlagTile - the source flag tile, must contain the pixel
+     */
+    public void combine(int x, int y, Tile sourceFlagTile) {
+        flags[index(x, y)] |= sourceFlagTile.getSampleInt(x, y);
+    }
+
+    /**
+     * Clears the cloud buffer flag of all cloud pixels, see {@link IdepixUtils#consolidateCloudAndBuffer}.
+     */
+    public void consolidateCloudAndBuffer() {
+        consolidateCloudAndBuffer(IdepixConstants.IDEPIX_CLOUD, IdepixConstants.IDEPIX_CLOUD_BUFFER);
+    }
+
+    /**
+     * Clears the buffer flag of all pixels which have the cloud flag set, for sensor specific cloud flags.
+     *
+     * @param cloudFlagBit       - the flag bit of the clouds
+     * @param cloudBufferFlagBit - the flag bit of their buffer
+     */
+    public void consolidateCloudAndBuffer(int cloudFlagBit, int cloudBufferFlagBit) {
+        final int cloudMask = 1 << cloudFlagBit;
+        final int bufferMask = 1 << cloudBufferFlagBit;
+        for (int i = 0; i < flags.length; i++) {
+            if ((flags[i] & cloudMask) != 0) {
+                flags[i] &= ~bufferMask;
+            }
+        }
+    }
+
+    /**
+     * Writes all flags to the target tile with a single call.
+     *
+     * @param targetTile - the target tile, must have the rectangle of the accumulator
+     */
+    public void writeTo(Tile targetTile) {
+        if (!rectangle.equals(targetTile.getRectangle())) {
+            throw new IllegalArgumentException("Tile rectangle " + targetTile.getRectangle() +
+                                                       " differs from flag rectangle " + rectangle);
+        }
+        targetTile.setSamples(flags);
+    }
+
+    private int index(int x, int y) {
+        return (y - rectangle.y) * rectangle.width + x - rectangle.x;
+    }
+}
@@ -0,0 +1,159 @@
+package org.esa.snap.idepix.core.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.gpf.Operator;
+
+import java.awt.Rectangle;
+
+/**
+ * Java Flight Recorder event for the computation of a tile by an IdePix operator, emitted from the
+ * computeTile and computeTileStack methods, which delegate the actual computation:
+ * <pre>
+ *     final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetRectangle);
+ *     try {
+ *         computeTileStackImpl(targetTiles, targetRectangle, pm);
+ *     } finally {
+ *         tileEvent.commitTile();
+ *     }
+ * </pre>
+ * GPF computes the source tiles of an operator in the thread asking for them, so the event of an operator
+ * encloses the events of the operators upstream in the chain. Neural net evaluations and skipped pixels are
+ * counted for the innermost event only, the duration includes the enclosed events; see
+ * {@link IdepixTileEventSummary} for the time spent in the operator itself.
+ * <p>
+ * Record with e.g. {@code -XX:StartFlightRecording=filename=idepix.jfr}. Without a recording, the events are
+ * disabled and cost an allocation per tile only.
+ */
+@Name(IdepixTileEvent.NAME)
+@Label("IdePix Tile")
+@Category("IdePix")
+@Description("Computation of a tile by an IdePix operator")
+@StackTrace(false)
+public class IdepixTileEvent extends Event {
+
+    public static final String NAME = "org.esa.snap.idepix.Tile";
+
+    private static final ThreadLocal<IdepixTileEvent> currentEvent = new ThreadLocal<>();
+
+    @Label("Operator")
+    String operator;
+
+    @Label("Band")
+    @Description("The target band for computeTile, null for computeTileStack")
+    String band;
+
+    @Label("Tile X")
+    int tileX;
+
+    @Label("Tile Y")
+    int tileY;
+
+    @Label("Tile Width")
+    int tileWidth;
+
+    @Label("Tile Height")
+    int tileHeight;
+
+    @Label("Processed Pixels")
+    @Description("Pixels of the tile which were not skipped")
+    long processedPixels;
+
+    @Label("Skipped Pixels")
+    @Description("Pixels of the tile skipped as invalid, see InvalidTiles")
+    long skippedPixels;
+
+    @Label("NN Evaluations")
+    @Description("Pixels run through a Schiller neural net")
+    long nnEvaluations;
+
+    // not recorded
+    private transient boolean begun;
+    private transient IdepixTileEvent enclosingEvent;
+
+    /**
+     * Begins the event for a computeTileStack call.
+     *
+     * @param operator  - the operator computing the tile
+     * @param rectangle - the target rectangle
+     * @return the event, to be committed with {@link #commitTile()}
+     */
+    public static IdepixTileEvent begin(Operator operator, Rectangle rectangle) {
+        return begin(operator, null, rectangle);
+    }
+
+    /**
+     * Begins the event for a computeTile call.
+     *
+     * @param operator  - the operator computing the tile
+     * @param band      - the target band, may be null
+     * @param rectangle - the target rectangle
+     * @return the event, to be committed with {@link #commitTile()}
+     */
+    public static IdepixTileEvent begin(Operator operator, Band band, Rectangle rectangle) {
+        final IdepixTileEvent event = new IdepixTileEvent();
+        if (event.isEnabled()) {
+            event.operator = operator.getClass().getSimpleName();
+            event.band = band != null ? band.getName() : null;
+            event.tileX = rectangle.x;
+            event.tileY = rectangle.y;
+            event.tileWidth = rectangle.width;
+            event.tileHeight = rectangle.height;
+            event.enclosingEvent = currentEvent.get();
+            currentEvent.set(event);
+            event.begun = true;
+            event.begin();
+        }
+        return event;
+    }
+
+    /**
+     * Ends and commits the event, call it in a finally block.
+     */
+    public void commitTile() {
+        // a recording may have been started during the computation
+        if (begun) {
+            begun = false;
+            end();
+            if (enclosingEvent != null) {
+                currentEvent.set(enclosingEvent);
+            } else {
+                currentEvent.remove();
+            }
+            enclosingEvent = null;
+            if (shouldCommit()) {
+                processedPixels = Math.max((long) tileWidth * tileHeight - skippedPixels, 0L);
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Counts neural net evaluations for the tile computed in the current thread, if any.
+     *
+     * @param numPixels - the number of pixels evaluated
+     */
+    public static void countNnEvaluations(int numPixels) {
+        final IdepixTileEvent event = currentEvent.get();
+        if (event != null) {
+            event.nnEvaluations += numPixels;
+        }
+    }
+
+    /**
+     * Counts skipped pixels for the tile computed in the current thread, if any.
+     *
+     * @param rectangle - the skipped rectangle
+     */
+    public static void countSkippedPixels(Rectangle rectangle) {
+        final IdepixTileEvent event = currentEvent.get();
+        if (event != null) {
+            event.skippedPixels += (long) rectangle.width * rectangle.height;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package org.esa.snap.idepix.core.util;
+
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates the {@link IdepixTileEvent}s of a JFR recording into a report per operator (processing stage):
+ * <pre>
+ *     java -cp &lt;idepix-core jar&gt; org.esa.snap.idepix.core.util.IdepixTileEventSummary idepix.jfr
+ * </pre>
+ * The self time of a stage is the duration of its events without the events enclosed in them, i.e. without
+ * the time spent upstream in the chain computing the source tiles. The stages are reported by decreasing
+ * self time.
+ */
+public class IdepixTileEventSummary {
+
+    private final Map<String, Stage> stages = new LinkedHashMap<>();
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: IdepixTileEventSummary <recording.jfr>");
+            System.exit(1);
+        }
+        final IdepixTileEventSummary summary = new IdepixTileEventSummary();
+        summary.read(Paths.get(args[0]));
+        summary.print(System.out);
+    }
+
+    /**
+     * Adds the tile events of a recording to the summary.
+     *
+     * @param recordingFile - the JFR file
+     * @throws IOException if the file cannot be read
+     */
+    public void read(Path recordingFile) throws IOException {
+        final Map<Long, List<TileEvent>> eventsByThread = new HashMap<>();
+        try (RecordingFile recording = new RecordingFile(recordingFile)) {
+            while (recording.hasMoreEvents()) {
+                final RecordedEvent event = recording.readEvent();
+                if (IdepixTileEvent.NAME.equals(event.getEventType().getName())) {
+                    final long threadId = event.getThread() != null ? event.getThread().getId() : -1L;
+                    eventsByThread.computeIfAbsent(threadId, id -> new ArrayList<>()).add(new TileEvent(event));
+                }
+            }
+        }
+        for (List<TileEvent> threadEvents : eventsByThread.values()) {
+            subtractEnclosedEvents(threadEvents);
+            for (TileEvent event : threadEvents) {
+                stages.computeIfAbsent(event.operator, Stage::new).add(event);
+            }
+        }
+    }
+
+    /**
+     * @return the stages, by decreasing self time
+     */
+    public List<Stage> getStages() {
+        final List<Stage> result = new ArrayList<>(stages.values());
+        result.sort(Comparator.comparing((Stage stage) -> stage.selfTime).reversed());
+        return result;
+    }
+
+    public void print(PrintStream out) {
+        out.printf("%-40s %8s %12s %12s %10s %10s %14s %14s %14s%n", "operator", "tiles", "self [ms]",
+                   "total [ms]", "mean [ms]", "max [ms]", "pixels", "skipped", "nn evals");
+        for (Stage stage : getStages()) {
+            out.printf("%-40s %8d %12.1f %12.1f %10.2f %10.2f %14d %14d %14d%n", stage.operator, stage.numTiles,
+                       toMillis(stage.selfTime), toMillis(stage.totalTime),
+                       toMillis(stage.selfTime) / stage.numTiles, toMillis(stage.maxSelfTime),
+                       stage.processedPixels, stage.skippedPixels, stage.nnEvaluations);
+        }
+    }
+
+    // the events of one thread are either nested or disjoint
+    private static void subtractEnclosedEvents(List<TileEvent> threadEvents) {
+        threadEvents.sort(Comparator.comparing((TileEvent event) -> event.start)
+                                  .thenComparing(event -> event.end, Comparator.reverseOrder()));
+        final Deque<TileEvent> enclosing = new ArrayDeque<>();
+        for (TileEvent event : threadEvents) {
+            while (!enclosing.isEmpty() && !enclosing.peek().end.isAfter(event.start)) {
+                enclosing.pop();
+            }
+            if (!enclosing.isEmpty()) {
+                final TileEvent parent = enclosing.peek();
+                parent.selfTime = parent.selfTime.minus(event.duration);
+            }
+            enclosing.push(event);
+        }
+    }
+
+    private static double toMillis(Duration duration) {
+        return duration.toNanos() / 1.0e6;
+    }
+
+    /**
+     * The aggregated tile events of one operator.
+     */
+    public static class Stage {
+
+        private final String operator;
+        private int numTiles;
+        private Duration totalTime = Duration.ZERO;
+        private Duration selfTime = Duration.ZERO;
+        private Duration maxSelfTime = Duration.ZERO;
+        private long processedPixels;
+        private long skippedPixels;
+        private long nnEvaluations;
+
+        private Stage(String operator) {
+            this.operator = operator;
+        }
+
+        private void add(TileEvent event) {
+            numTiles++;
+            totalTime = totalTime.plus(event.duration);
+            selfTime = selfTime.plus(event.selfTime);
+            if (event.selfTime.compareTo(maxSelfTime) > 0) {
+                maxSelfTime = event.selfTime;
+            }
+            processedPixels += event.processedPixels;
+            skippedPixels += event.skippedPixels;
+            nnEvaluations += event.nnEvaluations;
+        }
+
+        public String getOperator() {
+            return operator;
+        }
+
+        public int getNumTiles() {
+            return numTiles;
+        }
+
+        public Duration getTotalTime() {
+            return totalTime;
+        }
+
+        public Duration getSelfTime() {
+            return selfTime;
+        }
+
+        public long getProcessedPixels() {
+            return processedPixels;
+        }
+
+        public long getSkippedPixels() {
+            return skippedPixels;
+        }
+
+        public long getNnEvaluations() {
+            return nnEvaluations;
+        }
+    }
+
+    private static class TileEvent {
+
+        private final String operator;
+        private final Instant start;
+        private final Instant end;
+        private final Duration duration;
+        private final long processedPixels;
+        private final long skippedPixels;
+        private final long nnEvaluations;
+        private Duration selfTime;
+
+        private TileEvent(RecordedEvent event) {
+            operator = event.getString("operator");
+            start = event.getStartTime();
+            end = event.getEndTime();
+            duration = event.getDuration();
+            processedPixels = event.getLong("processedPixels");
+            skippedPixels = event.getLong("skippedPixels");
+            nnEvaluations = event.getLong("nnEvaluations");
+            selfTime = duration;
+        }
+    }
+}
@@ -116,9 +116,18 @@ public class IdepixUtils {
         }
     }
 
+    /**
+     * @deprecated evaluates the geo-coding per pixel, use {@link #isLandPixel(double, boolean, int)} with the
+     * latitude from a {@link TileGeoLocation}
+     */
+    @Deprecated
     public static boolean isLandPixel(int x, int y, GeoCoding geoCoding, boolean isL1Land, int waterFraction) {
+        return isLandPixel(getGeoPos(geoCoding, x, y).lat, isL1Land, waterFraction);
+    }
+
+    public static boolean isLandPixel(double lat, boolean isL1Land, int waterFraction) {
         // the water mask ends at 59 Degree south, stop earlier to avoid artefacts
-        if (getGeoPos(geoCoding, x, y).lat > -58f) {
+        if (lat > -58f) {
             // values bigger than 100 indicate no data
             if (waterFraction <= 100) {
                 // todo: this does not work if we have a PixelGeocoding. In that case, waterFraction
@@ -132,6 +141,10 @@ public class IdepixUtils {
         }
     }
 
+    /**
+     * @deprecated evaluates the geo-coding per pixel, use a {@link TileGeoLocation} for the pixels of a tile
+     */
+    @Deprecated
     public static GeoPos getGeoPos(GeoCoding geoCoding, int x, int y) {
         final GeoPos geoPos = new GeoPos();
         final PixelPos pixelPos = new PixelPos(x, y);
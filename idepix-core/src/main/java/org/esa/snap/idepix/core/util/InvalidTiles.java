@@ -0,0 +1,181 @@
+package org.esa.snap.idepix.core.util;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.core.gpf.pointop.Sample;
+import org.esa.snap.idepix.core.IdepixConstants;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Short-circuit for tiles without any valid pixel, e.g. on the night side, at the swath edges or in fill areas.
+ * <p>
+ * The classification operators check the L1 invalid or no-data information of a tile before requesting any
+ * other source tile. If no pixel is valid, they write the invalid flag pattern directly and skip the
+ * source tiles, the neural nets and the geo-coding. The post-processing operators only copy the
+ * classification flags of such tiles. The pixel operators, which cannot skip whole tiles, check the no-data
+ * value of one source band per pixel instead and skip the neural net and the geo-coding of such pixels.
+ * <p>
+ * For skipped tiles and pixels only {@link IdepixConstants#IDEPIX_INVALID} is set, the land/water and coastline
+ * flags are not computed. Therefore the short-circuit has to be enabled with the system property
+ * {@link #SKIP_INVALID_TILES_PROPERTY}.
+ */
+public class InvalidTiles {
+
+    public static final String SKIP_INVALID_TILES_PROPERTY = "snap.idepix.skipInvalidTiles";
+
+    private static final int INVALID_FLAG = 1 << IdepixConstants.IDEPIX_INVALID;
+
+    private InvalidTiles() {
+    }
+
+    /**
+     * @return true if tiles without valid pixels shall be skipped
+     */
+    public static boolean isSkipInvalidTiles() {
+        return Boolean.getBoolean(SKIP_INVALID_TILES_PROPERTY);
+    }
+
+    /**
+     * @param flagTile  - a flag tile
+     * @param rectangle - the rectangle to check, must be contained in the tile rectangle
+     * @param bitIndex  - the index of the invalid flag
+     * @return true if the invalid flag is set for all pixels of the rectangle
+     */
+    public static boolean isFlagSetEverywhere(Tile flagTile, Rectangle rectangle, int bitIndex) {
+        final int mask = 1 << bitIndex;
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                if ((flagTile.getSampleInt(x, y) & mask) == 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param flagTile  - a flag tile
+     * @param rectangle - the rectangle to check, must be contained in the tile rectangle
+     * @param validMask - the flags which all have to be set for a valid pixel, e.g. the 'good' flags of the bands
+     * @return true if no pixel of the rectangle has all flags of the mask set
+     */
+    public static boolean isNoPixelFlaggedValid(Tile flagTile, Rectangle rectangle, int validMask) {
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                if ((flagTile.getSampleInt(x, y) & validMask) == validMask) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pre-scan of one band: stops at the first sample with data, which is usually the first one of a valid tile.
+     *
+     * @param tile      - a tile of a band
+     * @param rectangle - the rectangle to check, must be contained in the tile rectangle
+     * @return true if all samples of the rectangle are NaN or the no-data value of the band
+     */
+    public static boolean isNoDataEverywhere(Tile tile, Rectangle rectangle) {
+        final RasterDataNode node = tile.getRasterDataNode();
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                if (!isNoData(node, tile.getSampleDouble(x, y))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param node  - a band or tie-point grid
+     * @param value - a geophysical sample value of the node
+     * @return true if the value is NaN or the no-data value of the node
+     */
+    public static boolean isNoData(RasterDataNode node, double value) {
+        return Double.isNaN(value) || (node.isNoDataValueUsed() && value == node.getGeophysicalNoDataValue());
+    }
+
+    /**
+     * Per-pixel variant of the pre-scan, for the pixel operators which cannot skip whole tiles.
+     *
+     * @param sample - a source sample
+     * @return true if the sample is NaN or the no-data value of its band
+     */
+    public static boolean isNoData(Sample sample) {
+        return isNoData(sample.getNode(), sample.getDouble());
+    }
+
+    /**
+     * Writes the invalid flag pattern of a tile: only {@link IdepixConstants#IDEPIX_INVALID} in the flag tile,
+     * the no-data value (or NaN, if the band has none) in all other tiles.
+     *
+     * @param targetTiles - the target tiles as given to computeTileStack
+     * @param flagBand    - the classification flag band
+     */
+    public static void setInvalid(Map<Band, Tile> targetTiles, Band flagBand) {
+        if (!targetTiles.isEmpty()) {
+            // all tiles of the stack have the target rectangle
+            IdepixTileEvent.countSkippedPixels(targetTiles.values().iterator().next().getRectangle());
+        }
+        for (Map.Entry<Band, Tile> entry : targetTiles.entrySet()) {
+            if (entry.getKey() == flagBand) {
+                fillInvalid(entry.getValue());
+            } else {
+                setNoData(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @param flagTile - a classification flag tile, gets {@link IdepixConstants#IDEPIX_INVALID} set for all pixels
+     */
+    public static void setInvalid(Tile flagTile) {
+        IdepixTileEvent.countSkippedPixels(flagTile.getRectangle());
+        fillInvalid(flagTile);
+    }
+
+    /**
+     * Copies the classification flags of the target rectangle, as done by the post-processing operators for
+     * tiles without valid pixels.
+     *
+     * @param sourceFlagTile - the classification flag tile, may be larger than the target tile
+     * @param targetTile     - the target flag tile
+     */
+    public static void copyFlags(Tile sourceFlagTile, Tile targetTile) {
+        IdepixTileEvent.countSkippedPixels(targetTile.getRectangle());
+        final FlagAccumulator flags = new FlagAccumulator(targetTile.getRectangle());
+        flags.combine(sourceFlagTile);
+        flags.writeTo(targetTile);
+    }
+
+    private static void fillInvalid(Tile flagTile) {
+        final Rectangle rectangle = flagTile.getRectangle();
+        final int[] flags = new int[rectangle.width * rectangle.height];
+        Arrays.fill(flags, INVALID_FLAG);
+        flagTile.setSamples(flags);
+    }
+
+    private static void setNoData(Tile tile) {
+        final RasterDataNode node = tile.getRasterDataNode();
+        final double noDataValue;
+        if (node.isNoDataValueUsed()) {
+            noDataValue = node.getGeophysicalNoDataValue();
+        } else if (ProductData.isFloatingPointType(node.getDataType())) {
+            noDataValue = Double.NaN;
+        } else {
+            noDataValue = 0.0;
+        }
+        final Rectangle rectangle = tile.getRectangle();
+        final double[] samples = new double[rectangle.width * rectangle.height];
+        Arrays.fill(samples, noDataValue);
+        tile.setSamples(samples);
+    }
+}
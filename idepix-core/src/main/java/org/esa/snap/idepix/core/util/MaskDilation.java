@@ -0,0 +1,147 @@
+package org.esa.snap.idepix.core.util;
+
+/**
+ * Dilation of binary masks given as flat byte arrays (line by line, non-zero means set).
+ * The cost is linear in the number of pixels, independent of the dilation radius.
+ * <p>
+ * The square dilation is done separably: a pixel is set in a line pass if there is a set pixel
+ * at most radius pixels left or right of it, then the same is done in a column pass.
+ * The round dilation uses an exact Euclidean distance transform (Felzenszwalb and Huttenlocher)
+ * and sets every pixel with a set pixel at a distance of at most radius.
+ */
+public class MaskDilation {
+
+    /**
+     * Sets all pixels within a (2 * radius + 1) x (2 * radius + 1) square around a set pixel of the mask.
+     *
+     * @param mask   - the source mask
+     * @param width  - the mask width
+     * @param height - the mask height
+     * @param radius - the half size of the square
+     * @param result - the dilated mask, may be the same array as the source mask
+     */
+    public static void dilateSquare(byte[] mask, int width, int height, int radius, byte[] result) {
+        final byte[] lineDilated = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            dilate1D(mask, y * width, 1, width, radius, lineDilated);
+        }
+        for (int x = 0; x < width; x++) {
+            dilate1D(lineDilated, x, width, height, radius, result);
+        }
+    }
+
+    /**
+     * Sets all pixels with a Euclidean distance of at most radius to a set pixel of the mask.
+     *
+     * @param mask   - the source mask
+     * @param width  - the mask width
+     * @param height - the mask height
+     * @param radius - the buffer radius
+     * @param result - the dilated mask, may be the same array as the source mask
+     */
+    public static void dilateRound(byte[] mask, int width, int height, int radius, byte[] result) {
+        final double[] sqDist = new double[width * height];
+        computeSquaredDistances(mask, width, height, sqDist);
+        final double sqRadius = (double) radius * radius;
+        for (int i = 0; i < sqDist.length; i++) {
+            result[i] = (byte) (sqDist[i] <= sqRadius ? 1 : 0);
+        }
+    }
+
+    /**
+     * Computes the squared Euclidean distance of every pixel to the next set pixel of the mask.
+     * Pixels without any set pixel in the mask get a distance larger than any distance within the mask.
+     *
+     * @param mask   - the source mask
+     * @param width  - the mask width
+     * @param height - the mask height
+     * @param sqDist - the squared distances
+     */
+    public static void computeSquaredDistances(byte[] mask, int width, int height, double[] sqDist) {
+        if (width == 0 || height == 0) {
+            return;
+        }
+        final double infinity = (double) (width + height) * (width + height);
+        // vertical distances, column by column
+        for (int x = 0; x < width; x++) {
+            int last = -1;
+            for (int y = 0; y < height; y++) {
+                final int index = y * width + x;
+                if (mask[index] != 0) {
+                    last = y;
+                }
+                sqDist[index] = last < 0 ? infinity : y - last;
+            }
+            last = -1;
+            for (int y = height - 1; y >= 0; y--) {
+                final int index = y * width + x;
+                if (mask[index] != 0) {
+                    last = y;
+                }
+                if (last >= 0 && last - y < sqDist[index]) {
+                    sqDist[index] = last - y;
+                }
+                if (sqDist[index] < infinity) {
+                    sqDist[index] *= sqDist[index];
+                }
+            }
+        }
+        // lower envelope of parabolas, line by line
+        final double[] f = new double[width];
+        final int[] v = new int[width];
+        final double[] z = new double[width + 1];
+        for (int y = 0; y < height; y++) {
+            final int offset = y * width;
+            System.arraycopy(sqDist, offset, f, 0, width);
+            int k = 0;
+            v[0] = 0;
+            z[0] = Double.NEGATIVE_INFINITY;
+            z[1] = Double.POSITIVE_INFINITY;
+            for (int q = 1; q < width; q++) {
+                double s = intersection(f, q, v[k]);
+                while (s <= z[k]) {
+                    k--;
+                    s = intersection(f, q, v[k]);
+                }
+                k++;
+                v[k] = q;
+                z[k] = s;
+                z[k + 1] = Double.POSITIVE_INFINITY;
+            }
+            k = 0;
+            for (int q = 0; q < width; q++) {
+                while (z[k + 1] < q) {
+                    k++;
+                }
+                final double dx = q - v[k];
+                sqDist[offset + q] = Math.min(dx * dx + f[v[k]], infinity);
+            }
+        }
+    }
+
+    private static double intersection(double[] f, int q, int p) {
+        return ((f[q] + (double) q * q) - (f[p] + (double) p * p)) / (2.0 * q - 2.0 * p);
+    }
+
+    private static void dilate1D(byte[] src, int offset, int stride, int length, int radius, byte[] dst) {
+        // distance to the last set pixel seen from the left, then from the right
+        int last = Integer.MIN_VALUE / 2;
+        for (int i = 0; i < length; i++) {
+            final int index = offset + i * stride;
+            if (src[index] != 0) {
+                last = i;
+            }
+            dst[index] = (byte) (i - last <= radius ? 1 : 0);
+        }
+        last = Integer.MAX_VALUE / 2;
+        for (int i = length - 1; i >= 0; i--) {
+            final int index = offset + i * stride;
+            if (src[index] != 0) {
+                last = i;
+            }
+            if (last - i <= radius) {
+                dst[index] = 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.esa.snap.idepix.core.util;
+
+/**
+ * Least-squares fit of a quadratic polynomial to the samples of a fixed pixel segment of an image line,
+ * e.g. for the interpolation of view angles at the discontinuities of OLCI and MERIS products.
+ * <p>
+ * The fit is linear in the polynomial coefficients, so its pseudo-inverse depends on the segment only and is
+ * computed once. Fitting a line is then a small matrix-vector product, and the same instance can be used for
+ * all lines and threads. The pixel positions are centred and scaled to [-1, 1] internally, for numerical
+ * stability. Segments with less than three pixels are fitted with a polynomial of lower degree.
+ */
+public class QuadraticSegmentFit {
+
+    private static final int NUM_COEFFICIENTS = 3;
+
+    private final int xStart;
+    private final int xEnd;
+    private final double centre;
+    private final double scale;
+    // NUM_COEFFICIENTS rows of (xEnd - xStart) columns
+    private final double[] pseudoInverse;
+
+    /**
+     * @param xStart - the first pixel of the segment
+     * @param xEnd   - the pixel after the last pixel of the segment
+     */
+    public QuadraticSegmentFit(int xStart, int xEnd) {
+        if (xEnd <= xStart) {
+            throw new IllegalArgumentException("Empty segment [" + xStart + ", " + xEnd + ")");
+        }
+        this.xStart = xStart;
+        this.xEnd = xEnd;
+        final int numPixels = xEnd - xStart;
+        centre = 0.5 * (xStart + xEnd - 1);
+        scale = Math.max(0.5 * (numPixels - 1), 1.0);
+        pseudoInverse = computePseudoInverse(numPixels, Math.min(NUM_COEFFICIENTS, numPixels));
+    }
+
+    public int getXStart() {
+        return xStart;
+    }
+
+    public int getXEnd() {
+        return xEnd;
+    }
+
+    /**
+     * @param line - the samples of an image line, at least up to the end of the segment
+     * @return the coefficients of the fitted polynomial, to be passed to {@link #evaluate}
+     */
+    public double[] fit(float[] line) {
+        final int numPixels = xEnd - xStart;
+        final double[] coefficients = new double[NUM_COEFFICIENTS];
+        for (int k = 0; k < NUM_COEFFICIENTS; k++) {
+            final int rowOffset = k * numPixels;
+            double sum = 0.0;
+            for (int i = 0; i < numPixels; i++) {
+                sum += pseudoInverse[rowOffset + i] * line[xStart + i];
+            }
+            coefficients[k] = sum;
+        }
+        return coefficients;
+    }
+
+    /**
+     * @param coefficients - coefficients as returned by {@link #fit}
+     * @param x            - the pixel position, may be outside of the segment
+     * @return the value of the fitted polynomial at x
+     */
+    public double evaluate(double[] coefficients, int x) {
+        final double t = (x - centre) / scale;
+        return coefficients[0] + t * (coefficients[1] + t * coefficients[2]);
+    }
+
+    private double[] computePseudoInverse(int numPixels, int numCoefficients) {
+        // design matrix of the normalised positions
+        final double[][] design = new double[numPixels][numCoefficients];
+        for (int i = 0; i < numPixels; i++) {
+            final double t = (xStart + i - centre) / scale;
+            double power = 1.0;
+            for (int k = 0; k < numCoefficients; k++) {
+                design[i][k] = power;
+                power *= t;
+            }
+        }
+        // inverse of the normal matrix by Gauss-Jordan elimination, it is symmetric positive definite
+        final double[][] normal = new double[numCoefficients][2 * numCoefficients];
+        for (int j = 0; j < numCoefficients; j++) {
+            for (int k = 0; k < numCoefficients; k++) {
+                double sum = 0.0;
+                for (int i = 0; i < numPixels; i++) {
+                    sum += design[i][j] * design[i][k];
+                }
+                normal[j][k] = sum;
+            }
+            normal[j][numCoefficients + j] = 1.0;
+        }
+        for (int j = 0; j < numCoefficients; j++) {
+            final double pivot = normal[j][j];
+            for (int k = 0; k < 2 * numCoefficients; k++) {
+                normal[j][k] /= pivot;
+            }
+            for (int r = 0; r < numCoefficients; r++) {
+                if (r != j) {
+                    final double factor = normal[r][j];
+                    for (int k = 0; k < 2 * numCoefficients; k++) {
+                        normal[r][k] -= factor * normal[j][k];
+                    }
+                }
+            }
+        }
+        // pseudo-inverse = inverse normal matrix * transposed design matrix, zero rows for unused coefficients
+        final double[] result = new double[NUM_COEFFICIENTS * numPixels];
+        for (int k = 0; k < numCoefficients; k++) {
+            for (int i = 0; i < numPixels; i++) {
+                double sum = 0.0;
+                for (int j = 0; j < numCoefficients; j++) {
+                    sum += normal[k][numCoefficients + j] * design[i][j];
+                }
+                result[k * numPixels + i] = sum;
+            }
+        }
+        return result;
+    }
+}
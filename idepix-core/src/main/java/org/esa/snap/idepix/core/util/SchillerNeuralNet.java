@@ -0,0 +1,256 @@
+package org.esa.snap.idepix.core.util;
+
+import org.esa.snap.core.gpf.OperatorException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * The weights of a 'Schiller' feed-forward net, parsed from its textual representation,
+ * together with a layer-wise forward pass over a batch of pixels.
+ * <p>
+ * The forward pass reproduces {@link org.esa.snap.core.nn.NNffbpAlphaTabFast#calc(double[])}:
+ * inputs are scaled to [0,1] with the training ranges, every plane applies the tabulated
+ * sigmoid activation to bias plus weighted sum, and the last plane is scaled back to the output ranges.
+ * The summation order per neuron is the same as in the per-pixel implementation.
+ * <p>
+ * Instances are immutable; all working memory is passed in by the caller.
+ */
+public class SchillerNeuralNet {
+
+    // activation function tabulated as used during the training of the nets (same as NNffbpAlphaTabFast)
+    private static final double ALPHA_START = -10.0;
+    private static final int NUM_ALPHA = 100000;
+    private static final double[] ALPHA_TAB = new double[NUM_ALPHA];
+    private static final double REC_DELTA_ALPHA;
+
+    static {
+        final double delta = -2.0 * ALPHA_START / (NUM_ALPHA - 1.0);
+        double sum = ALPHA_START + (0.5 * delta);
+        for (int i = 0; i < NUM_ALPHA; i++) {
+            ALPHA_TAB[i] = 1.0 / (1.0 + Math.exp(-sum));
+            sum += delta;
+        }
+        REC_DELTA_ALPHA = 1.0 / delta;
+    }
+
+    private final double[] inMin;
+    private final double[] inMax;
+    private final double[] outMin;
+    private final double[] outMax;
+    private final int[] planeSizes;
+    // weights[pl][k * planeSizes[pl] + j]: weight from neuron j in plane pl to neuron k in plane pl + 1
+    private final double[][] weights;
+    // bias[pl][k]: bias of neuron k in plane pl + 1
+    private final double[][] bias;
+    private final int maxPlaneSize;
+
+    private SchillerNeuralNet(double[] inMin, double[] inMax, double[] outMin, double[] outMax,
+                              int[] planeSizes, double[][] weights, double[][] bias) {
+        this.inMin = inMin;
+        this.inMax = inMax;
+        this.outMin = outMin;
+        this.outMax = outMax;
+        this.planeSizes = planeSizes;
+        this.weights = weights;
+        this.bias = bias;
+        int max = 0;
+        for (int size : planeSizes) {
+            max = Math.max(max, size);
+        }
+        this.maxPlaneSize = max;
+    }
+
+    /**
+     * Parses a net given in the textual 'Schiller' format.
+     *
+     * @param netAsString - the content of the .net file
+     * @return the parsed net
+     */
+    public static SchillerNeuralNet parse(String netAsString) {
+        try (BufferedReader reader = new BufferedReader(new StringReader(netAsString))) {
+            String line;
+            while ((line = reader.readLine()) != null && !line.trim().equals("#")) {
+                // skip description header
+            }
+            if (line == null) {
+                throw new OperatorException("Invalid neural net: input/output ranges not found.");
+            }
+            final int numIn = Integer.parseInt(nextNonEmptyLine(reader));
+            final double[] inMin = new double[numIn];
+            final double[] inMax = new double[numIn];
+            readRanges(reader, inMin, inMax);
+            final int numOut = Integer.parseInt(nextNonEmptyLine(reader));
+            final double[] outMin = new double[numOut];
+            final double[] outMax = new double[numOut];
+            readRanges(reader, outMin, outMax);
+
+            while ((line = reader.readLine()) != null && !line.trim().startsWith("#planes=")) {
+                // skip '$' separator
+            }
+            if (line == null) {
+                throw new OperatorException("Invalid neural net: plane definition not found.");
+            }
+            final String[] planeTokens = line.trim().substring("#planes=".length()).trim().split("\\s+");
+            final int numPlanes = Integer.parseInt(planeTokens[0]);
+            final int[] planeSizes = new int[numPlanes];
+            for (int pl = 0; pl < numPlanes; pl++) {
+                planeSizes[pl] = Integer.parseInt(planeTokens[pl + 1]);
+            }
+            if (planeSizes[0] != numIn || planeSizes[numPlanes - 1] != numOut) {
+                throw new OperatorException("Invalid neural net: plane sizes do not match input/output ranges.");
+            }
+
+            final double[][] bias = new double[numPlanes - 1][];
+            for (int pl = 0; pl < numPlanes - 1; pl++) {
+                nextHeader(reader, "bias");
+                bias[pl] = readValues(reader, planeSizes[pl + 1]);
+            }
+            final double[][] weights = new double[numPlanes - 1][];
+            for (int pl = 0; pl < numPlanes - 1; pl++) {
+                nextHeader(reader, "wgt");
+                weights[pl] = readValues(reader, planeSizes[pl] * planeSizes[pl + 1]);
+            }
+            return new SchillerNeuralNet(inMin, inMax, outMin, outMax, planeSizes, weights, bias);
+        } catch (IOException | RuntimeException e) {
+            if (e instanceof OperatorException) {
+                throw (OperatorException) e;
+            }
+            throw new OperatorException("Cannot parse neural net: " + e.getMessage(), e);
+        }
+    }
+
+    public int getNumInputs() {
+        return planeSizes[0];
+    }
+
+    public int getNumOutputs() {
+        return planeSizes[planeSizes.length - 1];
+    }
+
+    /**
+     * @param i - the input index
+     * @return the lower bound of the training range of input {@code i}
+     */
+    public double getInMin(int i) {
+        return inMin[i];
+    }
+
+    /**
+     * @param numPixels - the number of pixels to be processed in one batch
+     * @return the length of the scratch buffers needed by {@link #calc}
+     */
+    public int getScratchLength(int numPixels) {
+        return maxPlaneSize * numPixels;
+    }
+
+    /**
+     * Runs the net for a batch of pixels.
+     * Inputs and outputs are given pixel by pixel, i.e. input {@code i} of pixel {@code p} is found at
+     * {@code nnInputs[p * getNumInputs() + i]}, output {@code o} is written to {@code nnOutputs[p * getNumOutputs() + o]}.
+     * Internally, activations are held plane by plane so that the inner loop runs over the pixels.
+     *
+     * @param nnInputs  - the net inputs of all pixels
+     * @param nnOutputs - the net outputs of all pixels
+     * @param numPixels - the number of pixels
+     * @param scratch1  - working memory of at least {@link #getScratchLength(int)} elements
+     * @param scratch2  - working memory of at least {@link #getScratchLength(int)} elements
+     */
+    public void calc(double[] nnInputs, double[] nnOutputs, int numPixels, double[] scratch1, double[] scratch2) {
+        final int numIn = planeSizes[0];
+        double[] act = scratch1;
+        double[] next = scratch2;
+
+        for (int i = 0; i < numIn; i++) {
+            final double min = inMin[i];
+            final double range = inMax[i] - min;
+            final int offset = i * numPixels;
+            for (int p = 0; p < numPixels; p++) {
+                act[offset + p] = (nnInputs[p * numIn + i] - min) / range;
+            }
+        }
+
+        for (int pl = 0; pl < planeSizes.length - 1; pl++) {
+            final int sizeIn = planeSizes[pl];
+            final int sizeOut = planeSizes[pl + 1];
+            final double[] planeWeights = weights[pl];
+            final double[] planeBias = bias[pl];
+            for (int k = 0; k < sizeOut; k++) {
+                final int outOffset = k * numPixels;
+                final double b = planeBias[k];
+                for (int p = 0; p < numPixels; p++) {
+                    next[outOffset + p] = b;
+                }
+                for (int j = 0; j < sizeIn; j++) {
+                    final double w = planeWeights[k * sizeIn + j];
+                    final int inOffset = j * numPixels;
+                    for (int p = 0; p < numPixels; p++) {
+                        next[outOffset + p] += w * act[inOffset + p];
+                    }
+                }
+                for (int p = outOffset; p < outOffset + numPixels; p++) {
+                    next[p] = activation(next[p]);
+                }
+            }
+            final double[] tmp = act;
+            act = next;
+            next = tmp;
+        }
+
+        final int numOut = getNumOutputs();
+        for (int o = 0; o < numOut; o++) {
+            final double min = outMin[o];
+            final double range = outMax[o] - min;
+            final int offset = o * numPixels;
+            for (int p = 0; p < numPixels; p++) {
+                nnOutputs[p * numOut + o] = act[offset + p] * range + min;
+            }
+        }
+    }
+
+    private static double activation(double x) {
+        final int index = (int) (REC_DELTA_ALPHA * (x - ALPHA_START));
+        if (index < 0) {
+            return ALPHA_TAB[0];
+        }
+        if (index >= NUM_ALPHA) {
+            return ALPHA_TAB[NUM_ALPHA - 1];
+        }
+        return ALPHA_TAB[index];
+    }
+
+    private static void readRanges(BufferedReader reader, double[] min, double[] max) throws IOException {
+        for (int i = 0; i < min.length; i++) {
+            final String[] tokens = nextNonEmptyLine(reader).split("\\s+");
+            min[i] = Double.parseDouble(tokens[0]);
+            max[i] = Double.parseDouble(tokens[1]);
+        }
+    }
+
+    private static void nextHeader(BufferedReader reader, String keyword) throws IOException {
+        final String line = nextNonEmptyLine(reader);
+        if (!line.startsWith(keyword)) {
+            throw new OperatorException("Invalid neural net: expected '" + keyword + "' but found '" + line + "'.");
+        }
+    }
+
+    private static double[] readValues(BufferedReader reader, int count) throws IOException {
+        final double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = Double.parseDouble(nextNonEmptyLine(reader));
+        }
+        return values;
+    }
+
+    private static String nextNonEmptyLine(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                return line;
+            }
+        }
+        throw new IOException("Unexpected end of neural net.");
+    }
+}
@@ -0,0 +1,48 @@
+package org.esa.snap.idepix.core.util;
+
+import org.esa.snap.core.gpf.OperatorException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of parsed 'Schiller' nets.
+ * <p>
+ * Nets are keyed by the SHA-256 checksum of their textual representation, so a net resource is parsed only
+ * once per JVM, no matter how many operators, products or threads use it. The cached {@link SchillerNeuralNet}
+ * instances are immutable and shared read-only; the working memory is held by the per-thread
+ * {@link SchillerNeuralNetWrapper}s. The number of distinct nets is small, so entries are never evicted.
+ */
+public class SchillerNeuralNetCache {
+
+    private static final Map<String, SchillerNeuralNet> NETS = new ConcurrentHashMap<>();
+
+    private SchillerNeuralNetCache() {
+    }
+
+    /**
+     * @param netAsString - the content of the .net file
+     * @return the parsed net, shared with all other users of a net with the same content
+     */
+    public static SchillerNeuralNet get(String netAsString) {
+        return NETS.computeIfAbsent(checksum(netAsString), key -> SchillerNeuralNet.parse(netAsString));
+    }
+
+    static String checksum(String netAsString) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final byte[] hash = digest.digest(netAsString.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder(2 * hash.length);
+            for (byte b : hash) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new OperatorException("Cannot compute neural net checksum", e);
+        }
+    }
+}
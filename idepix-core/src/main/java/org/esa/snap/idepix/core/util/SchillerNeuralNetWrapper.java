@@ -28,18 +28,44 @@ import java.io.Reader;
 /**
  * A wrapper around a neural net together with its input.
  * This wrapper support 'Schiller' nets.
+ * <p>
+ * The parsed net is taken from the {@link SchillerNeuralNetCache} and shared read-only between all threads,
+ * operators and products of the JVM. A wrapper only holds the small working memory of one thread:
+ * pixels are run through the net one by one with {@link #calc(double[], double[])}, and whole tile rows or
+ * tiles in one call with {@link #calc(double[], double[], int)}.
  */
 public class SchillerNeuralNetWrapper {
 
-    private final NNffbpAlphaTabFast neuralNet;
+    private final String netAsString;
+    private final SchillerNeuralNet batchNet;
     private final double[] nnIn;
+    private final double[] nnOut;
+    private double[] scratch1;
+    private double[] scratch2;
+    private NNffbpAlphaTabFast neuralNet;
 
-    private SchillerNeuralNetWrapper(NNffbpAlphaTabFast neuralNet, int in) {
-        this.neuralNet = neuralNet;
-        this.nnIn = new double[in];
+    private SchillerNeuralNetWrapper(String netAsString, SchillerNeuralNet batchNet) {
+        this.netAsString = netAsString;
+        this.batchNet = batchNet;
+        this.nnIn = new double[batchNet.getNumInputs()];
+        this.nnOut = new double[batchNet.getNumOutputs()];
+        this.scratch1 = new double[0];
+        this.scratch2 = new double[0];
     }
 
+    /**
+     * @return a per-thread instance of the SNAP implementation of the net, parsed on first use
+     * @deprecated the net is parsed again for every thread; use {@link #calc(double[])} instead
+     */
+    @Deprecated
     public NNffbpAlphaTabFast getNeuralNet() {
+        if (neuralNet == null) {
+            try {
+                neuralNet = new NNffbpAlphaTabFast(netAsString);
+            } catch (IOException e) {
+                throw new OperatorException("Cannot initialize neural nets: " + e.getMessage());
+            }
+        }
         return neuralNet;
     }
 
@@ -47,20 +73,74 @@ public class SchillerNeuralNetWrapper {
         return nnIn;
     }
 
+    public double[] getOutputVector() {
+        return nnOut;
+    }
+
+    public int getNumInputs() {
+        return batchNet.getNumInputs();
+    }
+
+    public int getNumOutputs() {
+        return batchNet.getNumOutputs();
+    }
+
+    /**
+     * @param i - the input index
+     * @return the lower bound of the training range of input {@code i}
+     */
+    public double getInMin(int i) {
+        return batchNet.getInMin(i);
+    }
+
+    /**
+     * Runs the net for a single pixel, allocating the output array.
+     *
+     * @param nnInput - the net inputs
+     * @return a new array holding the net outputs
+     * @deprecated allocates per pixel; use {@link #calc(double[], double[])} instead
+     */
+    @Deprecated
+    public double[] calc(double[] nnInput) {
+        final double[] nnOutput = new double[getNumOutputs()];
+        calc(nnInput, nnOutput);
+        return nnOutput;
+    }
+
+    /**
+     * Runs the net for a single pixel, e.g. with the inputs filled into {@link #getInputVector()}
+     * and the outputs written to {@link #getOutputVector()}.
+     *
+     * @param nnInput  - the net inputs
+     * @param nnOutput - the array receiving the net outputs
+     */
+    public void calc(double[] nnInput, double[] nnOutput) {
+        calc(nnInput, nnOutput, 1);
+    }
+
+    /**
+     * Runs the net for a batch of pixels, e.g. a tile row or a whole tile.
+     * Input {@code i} of pixel {@code p} is expected at {@code nnInputs[p * getNumInputs() + i]},
+     * output {@code o} of pixel {@code p} is written to {@code nnOutputs[p * getNumOutputs() + o]}.
+     *
+     * @param nnInputs  - the net inputs of all pixels
+     * @param nnOutputs - the array receiving the net outputs of all pixels
+     * @param numPixels - the number of pixels
+     */
+    public void calc(double[] nnInputs, double[] nnOutputs, int numPixels) {
+        final int scratchLength = batchNet.getScratchLength(numPixels);
+        if (scratch1.length < scratchLength) {
+            scratch1 = new double[scratchLength];
+            scratch2 = new double[scratchLength];
+        }
+        batchNet.calc(nnInputs, nnOutputs, numPixels, scratch1, scratch2);
+        IdepixTileEvent.countNnEvaluations(numPixels);
+    }
+
     public static ThreadLocal<SchillerNeuralNetWrapper> create(InputStream inputStream) {
         final String netAsString = readNeuralNetFromStream(inputStream);
-        return new ThreadLocal<SchillerNeuralNetWrapper>() {
-            @Override
-            protected SchillerNeuralNetWrapper initialValue() {
-                try {
-                    NNffbpAlphaTabFast nNffbpAlphaTabFast = new NNffbpAlphaTabFast(netAsString);
-                    int numIn = nNffbpAlphaTabFast.getInmin().length;
-                    return new SchillerNeuralNetWrapper(nNffbpAlphaTabFast, numIn);
-                } catch (IOException e) {
-                    throw new OperatorException("Cannot initialize neural nets: " + e.getMessage());
-                }
-            }
-        };
+        final SchillerNeuralNet batchNet = SchillerNeuralNetCache.get(netAsString);
+        return ThreadLocal.withInitial(() -> new SchillerNeuralNetWrapper(netAsString, batchNet));
     }
 
     private static String readNeuralNetFromStream(InputStream neuralNetStream) {
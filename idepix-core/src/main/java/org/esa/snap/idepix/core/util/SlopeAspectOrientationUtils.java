@@ -7,6 +7,8 @@ import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.gpf.Tile;
 import org.esa.snap.core.util.math.MathUtils;
 
+import java.awt.Rectangle;
+
 public class SlopeAspectOrientationUtils {
 
     private final static float EARTH_MIN_ELEVATION = -428.0f;  // at shoreline of Dead Sea
@@ -44,13 +46,86 @@ public class SlopeAspectOrientationUtils {
      */
     public static boolean is3x3ElevationDataValid(float[] elevationData) {
         for (final float elev : elevationData) {
-            if (elev == 0.0f || Float.isNaN(elev) || elev < EARTH_MIN_ELEVATION || elev > EARTH_MAX_ELEVATION) {
+            if (!isElevationValid(elev)) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Provides the source rectangle for the 3x3 boxes of all pixels of a target rectangle, i.e. the target rectangle
+     * extended by one pixel on each side. Source tiles must be requested with a border extender.
+     *
+     * @param targetRectangle - the target rectangle
+     * @return the source rectangle
+     */
+    public static Rectangle getSourceRectangle(Rectangle targetRectangle) {
+        return new Rectangle(targetRectangle.x - 1, targetRectangle.y - 1,
+                targetRectangle.width + 2, targetRectangle.height + 2);
+    }
+
+    /**
+     * Computes slope, aspect and orientation for all pixels of a target rectangle in one sweep, without
+     * allocations per pixel. Gives the same values as {@link #computeOrientation3x3Box} and
+     * {@link #computeSlopeAspect3x3} applied to the 3x3 boxes of each pixel.
+     * <p>
+     * All source arrays cover the source rectangle given by {@link #getSourceRectangle}, line by line, as provided by
+     * Tile.getSamplesFloat(). The angles are taken from the centre pixel of each box. The result arrays cover the
+     * target rectangle. Pixels with invalid elevation data in their 3x3 box get NaN for all three values.
+     *
+     * @param elevation         - elevations of the source rectangle
+     * @param lat               - latitudes of the source rectangle
+     * @param lon               - longitudes of the source rectangle
+     * @param vza               - view zenith angles of the source rectangle
+     * @param vaa               - view azimuth angles of the source rectangle
+     * @param saa               - sun azimuth angles of the source rectangle
+     * @param targetWidth       - width of the target rectangle
+     * @param targetHeight      - height of the target rectangle
+     * @param spatialResolution - spatial resolution in m
+     * @param slope             - the slopes of the target rectangle (output)
+     * @param aspect            - the aspects of the target rectangle (output)
+     * @param orientation       - the orientations of the target rectangle (output)
+     */
+    public static void computeSlopeAspectOrientation(float[] elevation, float[] lat, float[] lon,
+                                                     float[] vza, float[] vaa, float[] saa,
+                                                     int targetWidth, int targetHeight, double spatialResolution,
+                                                     float[] slope, float[] aspect, float[] orientation) {
+        final int sourceWidth = targetWidth + 2;
+        final boolean[] elevationValid = new boolean[elevation.length];
+        for (int i = 0; i < elevation.length; i++) {
+            elevationValid[i] = isElevationValid(elevation[i]);
+        }
+
+        for (int y = 0; y < targetHeight; y++) {
+            for (int x = 0; x < targetWidth; x++) {
+                final int targetIndex = y * targetWidth + x;
+                final int centre = (y + 1) * sourceWidth + x + 1;
+                final int upper = centre - sourceWidth;
+                final int lower = centre + sourceWidth;
+                if (elevationValid[upper - 1] && elevationValid[upper] && elevationValid[upper + 1] &&
+                        elevationValid[centre - 1] && elevationValid[centre] && elevationValid[centre + 1] &&
+                        elevationValid[lower - 1] && elevationValid[lower] && elevationValid[lower + 1]) {
+                    final float pixelOrientation =
+                            computeOrientation(lat[centre - 1], lat[centre + 1], lon[centre - 1], lon[centre + 1]);
+                    final float b = (elevation[upper + 1] + 2 * elevation[centre + 1] + elevation[lower + 1] -
+                            elevation[upper - 1] - 2 * elevation[centre - 1] - elevation[lower - 1]) / 8f;
+                    final float c = (elevation[upper - 1] + 2 * elevation[upper] + elevation[upper + 1] -
+                            elevation[lower - 1] - 2 * elevation[lower] - elevation[lower + 1]) / 8f;
+                    final float pixelSlope = computeSlope(b, c, pixelOrientation, vza[centre], vaa[centre],
+                            spatialResolution);
+                    orientation[targetIndex] = pixelOrientation;
+                    slope[targetIndex] = pixelSlope;
+                    aspect[targetIndex] = computeAspect(b, c, saa[centre], pixelSlope);
+                } else {
+                    orientation[targetIndex] = Float.NaN;
+                    slope[targetIndex] = Float.NaN;
+                    aspect[targetIndex] = Float.NaN;
+                }
+            }
+        }
+    }
+
     /**
      * Computes slope and aspect for a 3x3 altitude array
      *
@@ -69,10 +144,20 @@ public class SlopeAspectOrientationUtils {
         //DM: orientation in rad!
         float b = (elev[2] + 2 * elev[5] + elev[8] - elev[0] - 2 * elev[3] - elev[6]) / 8f; //direction x
         float c = (elev[0] + 2 * elev[1] + elev[2] - elev[6] - 2 * elev[7] - elev[8]) / 8f; //direction y
+        final float slope = computeSlope(b, c, orientation, vza, vaa, spatialResolution);
+        return new float[]{slope, computeAspect(b, c, saa, slope)};
+    }
+
+    private static float computeSlope(float b, float c, float orientation, float vza, float vaa,
+                                      double spatialResolution) {
         double vaa_orientation = (360.0 - (vaa + orientation / MathUtils.DTOR)) * MathUtils.DTOR;
         double spatialRes = spatialResolution / Math.cos(vza * MathUtils.DTOR);
-        float slope = (float) Math.atan(Math.sqrt(Math.pow(b / (spatialRes * Math.sin(vaa_orientation)), 2) +
-                Math.pow(c / (spatialRes * Math.cos(vaa_orientation)), 2)));
+        final double bRes = b / (spatialRes * Math.sin(vaa_orientation));
+        final double cRes = c / (spatialRes * Math.cos(vaa_orientation));
+        return (float) Math.atan(Math.sqrt(bRes * bRes + cRes * cRes));
+    }
+
+    private static float computeAspect(float b, float c, float saa, float slope) {
         float aspect = (float) Math.atan2(-b, -c);
         if (saa > 270. || saa < 90) { //Sun from North (mostly southern hemisphere)
             aspect -= Math.PI;
@@ -84,8 +169,11 @@ public class SlopeAspectOrientationUtils {
         if (slope <= 0.0) {
             aspect = Float.NaN;
         }
+        return aspect;
+    }
 
-        return new float[]{slope, aspect};
+    private static boolean isElevationValid(float elev) {
+        return elev != 0.0f && !Float.isNaN(elev) && elev >= EARTH_MIN_ELEVATION && elev <= EARTH_MAX_ELEVATION;
     }
 
     /**
@@ -0,0 +1,237 @@
+package org.esa.snap.idepix.core.util;
+
+import org.esa.snap.core.dataio.geocoding.ComponentGeoCoding;
+import org.esa.snap.core.dataio.geocoding.GeoRaster;
+import org.esa.snap.core.datamodel.BasicPixelGeoCoding;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.datamodel.TiePointGeoCoding;
+import org.esa.snap.core.datamodel.TiePointGrid;
+import org.esa.snap.core.gpf.Operator;
+import org.geotools.referencing.CRS;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.operation.MathTransform;
+import org.opengis.referencing.operation.TransformException;
+
+import java.awt.Rectangle;
+
+/**
+ * Latitudes and longitudes of all pixels of a tile rectangle, given at the pixel centres as flat float arrays
+ * (line by line). Computing them once per tile replaces the per pixel calls of {@link GeoCoding#getGeoPos}
+ * and the allocation of a {@link GeoPos} and {@link PixelPos} for every call.
+ * <p>
+ * Fast paths are taken for
+ * <ul>
+ * <li>a {@link CrsGeoCoding}: the pixel centres are transformed to WGS84 in one batch,</li>
+ * <li>geo-codings based on latitude/longitude bands or tie-point grids: the tiles of these rasters are used.</li>
+ * </ul>
+ * All other geo-codings are evaluated pixel by pixel, reusing one {@link PixelPos} and {@link GeoPos}.
+ *
+ * @see TileGeoLocationCache
+ */
+public class TileGeoLocation {
+
+    private final Rectangle rectangle;
+    private final float[] latitudes;
+    private final float[] longitudes;
+
+    private TileGeoLocation(Rectangle rectangle, float[] latitudes, float[] longitudes) {
+        this.rectangle = rectangle;
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+    }
+
+    /**
+     * Computes the geo-location of a tile rectangle from the scene geo-coding of the given product.
+     *
+     * @param operator  - the operator asking, used to get tiles of latitude/longitude rasters
+     * @param product   - the (source) product providing the geo-coding
+     * @param rectangle - the tile rectangle, must be within the scene raster
+     * @return the geo-location
+     */
+    public static TileGeoLocation create(Operator operator, Product product, Rectangle rectangle) {
+        final GeoCoding geoCoding = product.getSceneGeoCoding();
+        final Rectangle rect = new Rectangle(rectangle);
+        final int length = rect.width * rect.height;
+        float[] latitudes = null;
+        float[] longitudes = null;
+
+        if (geoCoding instanceof CrsGeoCoding) {
+            latitudes = new float[length];
+            longitudes = new float[length];
+            if (!computeFromCrs((CrsGeoCoding) geoCoding, rect, latitudes, longitudes)) {
+                latitudes = null;
+            }
+        } else {
+            final RasterDataNode[] latLonRasters = getLatLonRasters(geoCoding, product);
+            if (latLonRasters != null) {
+                latitudes = operator.getSourceTile(latLonRasters[0], rect).getSamplesFloat();
+                longitudes = operator.getSourceTile(latLonRasters[1], rect).getSamplesFloat();
+                if (latLonRasters[1] instanceof TiePointGrid && crossesAntimeridian(longitudes)) {
+                    // interpolated tie-point longitudes are not reliable here, let the geo-coding do it
+                    latitudes = null;
+                }
+            }
+        }
+
+        if (latitudes == null) {
+            latitudes = new float[length];
+            longitudes = new float[length];
+            computeFromGeoCoding(geoCoding, rect, latitudes, longitudes);
+        }
+        return new TileGeoLocation(rect, latitudes, longitudes);
+    }
+
+    public Rectangle getRectangle() {
+        return rectangle;
+    }
+
+    /**
+     * @return the latitudes of the rectangle, line by line
+     */
+    public float[] getLatitudes() {
+        return latitudes;
+    }
+
+    /**
+     * @return the longitudes of the rectangle, line by line
+     */
+    public float[] getLongitudes() {
+        return longitudes;
+    }
+
+    /**
+     * @param x - the pixel x coordinate in the scene raster
+     * @param y - the pixel y coordinate in the scene raster
+     * @return the latitude at the pixel centre
+     */
+    public float getLat(int x, int y) {
+        return latitudes[(y - rectangle.y) * rectangle.width + (x - rectangle.x)];
+    }
+
+    /**
+     * @param x - the pixel x coordinate in the scene raster
+     * @param y - the pixel y coordinate in the scene raster
+     * @return the longitude at the pixel centre
+     */
+    public float getLon(int x, int y) {
+        return longitudes[(y - rectangle.y) * rectangle.width + (x - rectangle.x)];
+    }
+
+    private static boolean computeFromCrs(CrsGeoCoding geoCoding, Rectangle rect,
+                                          float[] latitudes, float[] longitudes) {
+        final double[] pixelCoords = getPixelCentres(rect);
+        return transformToGeo(geoCoding, pixelCoords, rect.width * rect.height, latitudes, longitudes);
+    }
+
+    /**
+     * Computes the geo positions of arbitrary pixel positions, in one batch for a {@link CrsGeoCoding},
+     * otherwise point by point.
+     *
+     * @param geoCoding   - the geo-coding
+     * @param pixelCoords - x and y of all pixel positions, interleaved
+     * @param numPoints   - the number of pixel positions
+     * @param latitudes   - the latitudes of the pixel positions
+     * @param longitudes  - the longitudes of the pixel positions
+     */
+    static void computeGeoPositions(GeoCoding geoCoding, double[] pixelCoords, int numPoints,
+                                    float[] latitudes, float[] longitudes) {
+        if (geoCoding instanceof CrsGeoCoding &&
+                transformToGeo((CrsGeoCoding) geoCoding, pixelCoords, numPoints, latitudes, longitudes)) {
+            return;
+        }
+        final PixelPos pixelPos = new PixelPos();
+        final GeoPos geoPos = new GeoPos();
+        for (int p = 0; p < numPoints; p++) {
+            pixelPos.setLocation(pixelCoords[2 * p], pixelCoords[2 * p + 1]);
+            geoCoding.getGeoPos(pixelPos, geoPos);
+            latitudes[p] = (float) geoPos.lat;
+            longitudes[p] = (float) geoPos.lon;
+        }
+    }
+
+    private static double[] getPixelCentres(Rectangle rect) {
+        final double[] pixelCoords = new double[2 * rect.width * rect.height];
+        int i = 0;
+        for (int y = rect.y; y < rect.y + rect.height; y++) {
+            for (int x = rect.x; x < rect.x + rect.width; x++) {
+                pixelCoords[i++] = x + 0.5;
+                pixelCoords[i++] = y + 0.5;
+            }
+        }
+        return pixelCoords;
+    }
+
+    private static boolean transformToGeo(CrsGeoCoding geoCoding, double[] coords, int numPoints,
+                                          float[] latitudes, float[] longitudes) {
+        final double[] geoCoords = new double[2 * numPoints];
+        try {
+            final MathTransform mapToGeo = CRS.findMathTransform(geoCoding.getMapCRS(), DefaultGeographicCRS.WGS84);
+            geoCoding.getImageToMapTransform().transform(coords, 0, geoCoords, 0, numPoints);
+            mapToGeo.transform(geoCoords, 0, geoCoords, 0, numPoints);
+        } catch (FactoryException | TransformException e) {
+            return false;
+        }
+        for (int p = 0; p < numPoints; p++) {
+            double lon = geoCoords[2 * p];
+            if (lon > 180.0) {
+                lon -= 360.0;
+            } else if (lon < -180.0) {
+                lon += 360.0;
+            }
+            longitudes[p] = (float) lon;
+            latitudes[p] = (float) geoCoords[2 * p + 1];
+        }
+        return true;
+    }
+
+    // the latitude and longitude rasters, if the geo-coding just looks up their values at the pixel centres
+    private static RasterDataNode[] getLatLonRasters(GeoCoding geoCoding, Product product) {
+        if (geoCoding instanceof TiePointGeoCoding) {
+            final TiePointGeoCoding tpGeoCoding = (TiePointGeoCoding) geoCoding;
+            return new RasterDataNode[]{tpGeoCoding.getLatGrid(), tpGeoCoding.getLonGrid()};
+        }
+        if (geoCoding instanceof BasicPixelGeoCoding) {
+            final BasicPixelGeoCoding pixelGeoCoding = (BasicPixelGeoCoding) geoCoding;
+            return new RasterDataNode[]{pixelGeoCoding.getLatBand(), pixelGeoCoding.getLonBand()};
+        }
+        if (geoCoding instanceof ComponentGeoCoding) {
+            final ComponentGeoCoding componentGeoCoding = (ComponentGeoCoding) geoCoding;
+            final GeoRaster geoRaster = componentGeoCoding.getGeoRaster();
+            final String forwardKey = componentGeoCoding.getForwardCoding().getKey();
+            if (geoRaster != null && forwardKey.startsWith("FWD_PIXEL") &&
+                    geoRaster.getSubsamplingX() == 1.0 && geoRaster.getSubsamplingY() == 1.0) {
+                final RasterDataNode latRaster = product.getRasterDataNode(geoRaster.getLatVariableName());
+                final RasterDataNode lonRaster = product.getRasterDataNode(geoRaster.getLonVariableName());
+                if (latRaster != null && lonRaster != null) {
+                    return new RasterDataNode[]{latRaster, lonRaster};
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean crossesAntimeridian(float[] longitudes) {
+        float min = Float.MAX_VALUE;
+        float max = -Float.MAX_VALUE;
+        for (float lon : longitudes) {
+            if (lon < min) {
+                min = lon;
+            }
+            if (lon > max) {
+                max = lon;
+            }
+        }
+        return max - min > 180.0f;
+    }
+
+    private static void computeFromGeoCoding(GeoCoding geoCoding, Rectangle rect,
+                                             float[] latitudes, float[] longitudes) {
+        computeGeoPositions(geoCoding, getPixelCentres(rect), rect.width * rect.height, latitudes, longitudes);
+    }
+}
@@ -0,0 +1,60 @@
+package org.esa.snap.idepix.core.util;
+
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.gpf.Operator;
+
+import java.awt.Rectangle;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the {@link TileGeoLocation}s of the most recently used tile rectangles of an operator,
+ * so that all consumers of a tile (e.g. the computeTile calls for the different target bands)
+ * share one geo-location computation.
+ * <p>
+ * An instance belongs to one operator and one product; it is thread safe.
+ */
+public class TileGeoLocationCache {
+
+    private static final int DEFAULT_CAPACITY = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final Operator operator;
+    private final Product product;
+    private final Map<Rectangle, TileGeoLocation> cache;
+
+    public TileGeoLocationCache(Operator operator, Product product) {
+        this(operator, product, DEFAULT_CAPACITY);
+    }
+
+    public TileGeoLocationCache(Operator operator, Product product, int capacity) {
+        this.operator = operator;
+        this.product = product;
+        this.cache = new LinkedHashMap<Rectangle, TileGeoLocation>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Rectangle, TileGeoLocation> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the geo-location of the given rectangle, computing it if not yet available.
+     *
+     * @param rectangle - the tile rectangle
+     * @return the geo-location
+     */
+    public TileGeoLocation get(Rectangle rectangle) {
+        synchronized (cache) {
+            final TileGeoLocation geoLocation = cache.get(rectangle);
+            if (geoLocation != null) {
+                return geoLocation;
+            }
+        }
+        // computed outside the lock; if two threads ask for the same tile at once, one result is dropped
+        final TileGeoLocation geoLocation = TileGeoLocation.create(operator, product, rectangle);
+        synchronized (cache) {
+            cache.put(geoLocation.getRectangle(), geoLocation);
+        }
+        return geoLocation;
+    }
+}
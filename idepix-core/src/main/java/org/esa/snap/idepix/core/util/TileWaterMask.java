@@ -0,0 +1,191 @@
+package org.esa.snap.idepix.core.util;
+
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.watermask.operator.WatermaskClassifier;
+
+import java.awt.Rectangle;
+
+/**
+ * Provides the land/water mask fractions of a whole tile rectangle in one call, as an alternative to
+ * calling {@link WatermaskClassifier#getWaterMaskFraction} for every pixel.
+ * <p>
+ * The geo positions of all sub-samples of the rectangle are computed in one go (see {@link TileGeoLocation}),
+ * then the mask is sampled cell by cell of the 1 degree grid the auxdata is organised in, so that every
+ * auxdata tile is decoded once and used for all sub-samples falling into it.
+ * The fractions are averaged in the same way as by {@link WatermaskClassifier#getWaterMaskFraction}:
+ * the number of water sub-samples in percent of all sub-samples, or {@link WatermaskClassifier#INVALID_VALUE}
+ * if no sub-sample is valid.
+ */
+public class TileWaterMask {
+
+    private final Sampler sampler;
+    private final int subsamplingFactorX;
+    private final int subsamplingFactorY;
+
+    /**
+     * @param classifier         - the classifier providing the mask samples
+     * @param subsamplingFactorX - the number of sub-samples per pixel in x, as given to the classifier
+     * @param subsamplingFactorY - the number of sub-samples per pixel in y, as given to the classifier
+     */
+    public TileWaterMask(WatermaskClassifier classifier, int subsamplingFactorX, int subsamplingFactorY) {
+        this(classifier::getWaterMaskSample, subsamplingFactorX, subsamplingFactorY);
+    }
+
+    /**
+     * @param sampler            - the source of the mask samples, e.g. a synthetic mask without auxdata
+     * @param subsamplingFactorX - the number of sub-samples per pixel in x
+     * @param subsamplingFactorY - the number of sub-samples per pixel in y
+     */
+    public TileWaterMask(Sampler sampler, int subsamplingFactorX, int subsamplingFactorY) {
+        this.sampler = sampler;
+        this.subsamplingFactorX = subsamplingFactorX;
+        this.subsamplingFactorY = subsamplingFactorY;
+    }
+
+    /**
+     * Computes the water fractions of all pixels of a rectangle.
+     *
+     * @param geoCoding - the geo-coding of the scene
+     * @param rectangle - the rectangle
+     * @return the water fractions line by line, as returned by {@link WatermaskClassifier#getWaterMaskFraction}
+     */
+    public byte[] getWaterMaskFractions(GeoCoding geoCoding, Rectangle rectangle) {
+        final int samplesPerPixel = subsamplingFactorX * subsamplingFactorY;
+        final int numPixels = rectangle.width * rectangle.height;
+        final int numSamples = numPixels * samplesPerPixel;
+        final double xStep = 1.0 / subsamplingFactorX;
+        final double yStep = 1.0 / subsamplingFactorY;
+
+        // sub-samples are stored pixel by pixel, so that sample s belongs to pixel s / samplesPerPixel
+        final double[] pixelCoords = new double[2 * numSamples];
+        int i = 0;
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                for (int sx = 0; sx < subsamplingFactorX; sx++) {
+                    for (int sy = 0; sy < subsamplingFactorY; sy++) {
+                        pixelCoords[i++] = x + sx * xStep;
+                        pixelCoords[i++] = y + sy * yStep;
+                    }
+                }
+            }
+        }
+        final float[] latitudes = new float[numSamples];
+        final float[] longitudes = new float[numSamples];
+        TileGeoLocation.computeGeoPositions(geoCoding, pixelCoords, numSamples, latitudes, longitudes);
+
+        final int[] waterCounts = new int[numPixels];
+        final int[] invalidCounts = new int[numPixels];
+        sampleByCell(latitudes, longitudes, samplesPerPixel, waterCounts, invalidCounts);
+
+        final byte[] fractions = new byte[numPixels];
+        for (int p = 0; p < numPixels; p++) {
+            if (invalidCounts[p] == samplesPerPixel) {
+                fractions[p] = WatermaskClassifier.INVALID_VALUE;
+            } else {
+                fractions[p] = (byte) (100 * (float) waterCounts[p] / samplesPerPixel);
+            }
+        }
+        return fractions;
+    }
+
+    /**
+     * Computes the water fractions of all pixels of a geo-location raster, taking one sample per pixel.
+     *
+     * @param geoLocation - the geo-location of the tile
+     * @return the water fractions line by line
+     */
+    public byte[] getWaterMaskFractions(TileGeoLocation geoLocation) {
+        final float[] latitudes = geoLocation.getLatitudes();
+        final int numPixels = latitudes.length;
+        final int[] waterCounts = new int[numPixels];
+        final int[] invalidCounts = new int[numPixels];
+        sampleByCell(latitudes, geoLocation.getLongitudes(), 1, waterCounts, invalidCounts);
+
+        final byte[] fractions = new byte[numPixels];
+        for (int p = 0; p < numPixels; p++) {
+            fractions[p] = invalidCounts[p] == 1 ? WatermaskClassifier.INVALID_VALUE : (byte) (100 * waterCounts[p]);
+        }
+        return fractions;
+    }
+
+    // samples the mask for all positions, visiting the positions one 1 degree cell after the other
+    private void sampleByCell(float[] latitudes, float[] longitudes, int samplesPerPixel,
+                              int[] waterCounts, int[] invalidCounts) {
+        for (final int s : orderByCell(latitudes, longitudes)) {
+            final int sample = sampler.getWaterMaskSample(latitudes[s], longitudes[s]);
+            if (sample == WatermaskClassifier.INVALID_VALUE) {
+                invalidCounts[s / samplesPerPixel]++;
+            } else {
+                waterCounts[s / samplesPerPixel] += sample;
+            }
+        }
+    }
+
+    /**
+     * Orders the positions by the 1 degree cell they fall into, with a counting sort over the cells
+     * covered by the positions. Positions without geo-location come first.
+     *
+     * @return the position indices, cell by cell, in their original order within a cell
+     */
+    static int[] orderByCell(float[] latitudes, float[] longitudes) {
+        final int numSamples = latitudes.length;
+        final int[] cells = new int[numSamples];
+        int minCell = Integer.MAX_VALUE;
+        int maxCell = Integer.MIN_VALUE;
+        for (int s = 0; s < numSamples; s++) {
+            final int cell = getCell(latitudes[s], longitudes[s]);
+            cells[s] = cell;
+            if (cell >= 0) {
+                minCell = Math.min(minCell, cell);
+                maxCell = Math.max(maxCell, cell);
+            }
+        }
+        final int[] order = new int[numSamples];
+        if (minCell > maxCell) {
+            // no valid position at all
+            for (int s = 0; s < numSamples; s++) {
+                order[s] = s;
+            }
+            return order;
+        }
+        // slot 0 takes the positions without geo-location
+        final int[] counts = new int[maxCell - minCell + 2];
+        for (int cell : cells) {
+            counts[cell < 0 ? 0 : cell - minCell + 1]++;
+        }
+        int start = 0;
+        for (int c = 0; c < counts.length; c++) {
+            final int count = counts[c];
+            counts[c] = start;
+            start += count;
+        }
+        for (int s = 0; s < numSamples; s++) {
+            final int cell = cells[s];
+            order[counts[cell < 0 ? 0 : cell - minCell + 1]++] = s;
+        }
+        return order;
+    }
+
+    private static int getCell(float lat, float lon) {
+        if (Float.isNaN(lat) || Float.isNaN(lon)) {
+            return -1;
+        }
+        final int cellY = Math.min(Math.max((int) Math.floor(lat + 90.0), 0), 179);
+        final int cellX = Math.floorMod((int) Math.floor(lon + 180.0), 360);
+        return cellY * 360 + cellX;
+    }
+
+    /**
+     * Provides the land/water mask sample at a geo position.
+     */
+    public interface Sampler {
+
+        /**
+         * @param lat - the latitude
+         * @param lon - the longitude
+         * @return {@link WatermaskClassifier#WATER_VALUE}, {@link WatermaskClassifier#LAND_VALUE}
+         * or {@link WatermaskClassifier#INVALID_VALUE}, as {@link WatermaskClassifier#getWaterMaskSample}
+         */
+        int getWaterMaskSample(float lat, float lon);
+    }
+}
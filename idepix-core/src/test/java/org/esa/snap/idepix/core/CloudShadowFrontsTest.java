@@ -0,0 +1,286 @@
+package org.esa.snap.idepix.core;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.core.gpf.internal.TileImpl;
+import org.esa.snap.idepix.core.util.Bresenham;
+import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for class {@link CloudShadowFronts}.
+ */
+public class CloudShadowFrontsTest {
+
+    private static final int SIZE = 160;
+    private static final Rectangle SOURCE_RECTANGLE = new Rectangle(SIZE, SIZE);
+    // three blocks in x, the last one narrower, and two in y
+    private static final Rectangle TARGET_RECTANGLE = new Rectangle(40, 48, 80, 64);
+
+    @Test
+    public void testFirstPixelOfBlockAndBin_sameAsPerPixelTracing() throws Exception {
+        final Scene scene = new Scene(4711);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                // bins change across the block, pixels with equal (x + 7y) % 30 share the bin
+                scene.sza[y * SIZE + x] = 50.05f + 0.1f * ((x + 7 * y) % 30);
+                scene.saa[y * SIZE + x] = 120.05f + 0.1f * ((3 * x + y) % 20);
+            }
+        }
+
+        // only the first cloud free pixel of each block and bin is traced, and no two of them are neighbours,
+        // so that the post-corrections flag no further pixels
+        final boolean[] traced = new boolean[SIZE * SIZE];
+        final Set<String> keys = new HashSet<>();
+        for (int y = TARGET_RECTANGLE.y; y < TARGET_RECTANGLE.y + TARGET_RECTANGLE.height; y += 2) {
+            for (int x = TARGET_RECTANGLE.x; x < TARGET_RECTANGLE.x + TARGET_RECTANGLE.width; x += 2) {
+                final int index = y * SIZE + x;
+                if (!scene.cloud[index] && keys.add(getBlockAndBin(x, y, scene.sza[index], scene.saa[index]))) {
+                    traced[index] = true;
+                }
+            }
+        }
+
+        final boolean[] shadow = scene.computeCloudShadow(traced);
+
+        int numShadows = 0;
+        int numTraced = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                final int index = y * SIZE + x;
+                if (traced[index]) {
+                    numTraced++;
+                    final boolean expected = scene.getCloudShadowPerPixel(x, y);
+                    assertEquals("pixel " + x + ", " + y, expected, shadow[index]);
+                    if (expected) {
+                        numShadows++;
+                    }
+                } else {
+                    assertEquals(false, shadow[index]);
+                }
+            }
+        }
+        assertTrue(numShadows > 20);
+        assertTrue(numShadows < numTraced - 20);
+    }
+
+    @Test
+    public void testShadowRay_reusedWithinBlockAndBin() throws Exception {
+        final Scene scene = new Scene(815);
+        final Random random = new Random(815);
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            // all within the bins [55.0, 55.1) and [150.0, 150.1)
+            scene.sza[i] = 55.01f + 0.08f * random.nextFloat();
+            scene.saa[i] = 150.01f + 0.08f * random.nextFloat();
+        }
+
+        scene.computeCloudShadow(null);
+
+        assertEquals(6, scene.geoCoding.numPixelPosCalls);
+    }
+
+    @Test
+    public void testShadowRay_notReusedAcrossBins() throws Exception {
+        final Scene scene = new Scene(815);
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                // two sza bins in each block column, two saa bins in each block row
+                scene.sza[y * SIZE + x] = 55.05f + 0.1f * ((x - TARGET_RECTANGLE.x) / 16);
+                scene.saa[y * SIZE + x] = 150.05f + 0.1f * ((y - TARGET_RECTANGLE.y) / 16);
+            }
+        }
+
+        scene.computeCloudShadow(null);
+
+        // the last block column is 16 pixels wide and has one sza bin only
+        assertEquals((2 + 2 + 1) * (2 + 2), scene.geoCoding.numPixelPosCalls);
+    }
+
+    @Test
+    public void testShadowRay_notReusedAcrossBlocks() throws Exception {
+        final Scene scene = new Scene(815);
+        for (int i = 0; i < SIZE * SIZE; i++) {
+            scene.sza[i] = 55.0f;
+            scene.saa[i] = 150.0f;
+        }
+        // a single cloud free pixel per block, and one more in the first block
+        final boolean[] traced = new boolean[SIZE * SIZE];
+        for (int y = TARGET_RECTANGLE.y; y < TARGET_RECTANGLE.y + TARGET_RECTANGLE.height; y += 32) {
+            for (int x = TARGET_RECTANGLE.x; x < TARGET_RECTANGLE.x + TARGET_RECTANGLE.width; x += 32) {
+                traced[(y + 31) * SIZE + x + 5] = true;
+            }
+        }
+        traced[(TARGET_RECTANGLE.y + 10) * SIZE + TARGET_RECTANGLE.x + 10] = true;
+
+        scene.computeCloudShadow(traced);
+
+        assertEquals(6, scene.geoCoding.numPixelPosCalls);
+    }
+
+    private static String getBlockAndBin(int x, int y, double sza, double saa) {
+        return (x - TARGET_RECTANGLE.x) / CloudShadowFronts.RAY_BLOCK_SIZE + "/" +
+                (y - TARGET_RECTANGLE.y) / CloudShadowFronts.RAY_BLOCK_SIZE + "/" +
+                Math.floor(sza / CloudShadowFronts.RAY_ANGLE_BIN_WIDTH) + "/" +
+                Math.floor(saa / CloudShadowFronts.RAY_ANGLE_BIN_WIDTH);
+    }
+
+    /**
+     * A 300 m scene with round clouds, the higher the closer to their centres.
+     */
+    private static class Scene {
+
+        final CountingGeoCoding geoCoding;
+        final float[] sza = new float[SIZE * SIZE];
+        final float[] saa = new float[SIZE * SIZE];
+        final float[] ctp = new float[SIZE * SIZE];
+        final float[] alt = new float[SIZE * SIZE];
+        final boolean[] cloud = new boolean[SIZE * SIZE];
+
+        Scene(long seed) throws Exception {
+            geoCoding = new CountingGeoCoding();
+            final Random random = new Random(seed);
+            for (int i = 0; i < SIZE * SIZE; i++) {
+                ctp[i] = 1013.0f;
+                // including some bathymetry, which is not used
+                alt[i] = random.nextInt(400) - 100;
+            }
+            for (int c = 0; c < 25; c++) {
+                final int centreX = random.nextInt(SIZE);
+                final int centreY = random.nextInt(SIZE);
+                final int radius = 2 + random.nextInt(8);
+                final float topPressure = 300.0f + 500.0f * random.nextFloat();
+                for (int y = Math.max(0, centreY - radius); y < Math.min(SIZE, centreY + radius); y++) {
+                    for (int x = Math.max(0, centreX - radius); x < Math.min(SIZE, centreX + radius); x++) {
+                        final double r = Math.hypot(x - centreX, y - centreY) / radius;
+                        if (r < 1.0) {
+                            cloud[y * SIZE + x] = true;
+                            ctp[y * SIZE + x] = (float) (topPressure + (1013.0 - topPressure) * r * r);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param traced - the cloud free pixels, all non-cloud pixels if null
+         * @return the shadow flags set
+         */
+        boolean[] computeCloudShadow(boolean[] traced) {
+            final Product product = new Product("fronts", "test", SIZE, SIZE);
+            product.setSceneGeoCoding(geoCoding);
+            final Tile szaTile = createTile(product, "sza", sza);
+            final Tile saaTile = createTile(product, "saa", saa);
+            final Tile ctpTile = createTile(product, "ctp", ctp);
+            final Tile altTile = createTile(product, "alt", alt);
+            final boolean[] shadow = new boolean[SIZE * SIZE];
+            geoCoding.numPixelPosCalls = 0;
+            new CloudShadowFronts(geoCoding, SOURCE_RECTANGLE, TARGET_RECTANGLE, szaTile, saaTile, ctpTile, altTile) {
+                @Override
+                protected boolean isCloudForShadow(int x, int y) {
+                    return cloud[y * SIZE + x];
+                }
+
+                @Override
+                protected boolean isCloudFree(int x, int y) {
+                    return traced != null ? traced[y * SIZE + x] : !cloud[y * SIZE + x];
+                }
+
+                @Override
+                protected boolean isSurroundedByCloud(int x, int y) {
+                    return false;
+                }
+
+                @Override
+                protected void setCloudShadow(int x, int y) {
+                    shadow[y * SIZE + x] = true;
+                }
+            }.computeCloudShadow();
+            return shadow;
+        }
+
+        // the shadow search as it was done for every pixel on its own, before the rays were shared
+        boolean getCloudShadowPerPixel(int x, int y) {
+            final double pixelSza = sza[y * SIZE + x];
+            final double pixelSaa = saa[y * SIZE + x];
+            final double pixelAlt = Math.max(0.0, alt[y * SIZE + x]);
+            final GeoPos geoPos = geoCoding.getGeoPos(new PixelPos(x + 0.5f, y + 0.5f), null);
+            final double tanSza = Math.tan(Math.toRadians(90.0 - pixelSza));
+            final GeoPos endGeoPoint = CloudShadowFronts.lineWithAngle(geoPos, 12_000 / tanSza,
+                                                                       Math.toRadians(pixelSaa) + Math.PI);
+            final PixelPos endPixPoint = geoCoding.getPixelPos(endGeoPoint, null);
+            final List<PixelPos> pathPixels = Bresenham.getPathPixels(x, y, (int) Math.round(endPixPoint.x),
+                                                                      (int) Math.round(endPixPoint.y),
+                                                                      SOURCE_RECTANGLE);
+            for (PixelPos pathPixel : pathPixels) {
+                final int xCurrent = (int) pathPixel.getX();
+                final int yCurrent = (int) pathPixel.getY();
+                if (SOURCE_RECTANGLE.contains(xCurrent, yCurrent) && cloud[yCurrent * SIZE + xCurrent]) {
+                    final GeoPos geoPosCurrent = geoCoding.getGeoPos(new PixelPos(xCurrent + 0.5f, yCurrent + 0.5f),
+                                                                     null);
+                    final double cloudSearchHeight =
+                            IdepixUtils.computeDistanceOnEarth(geoPos, geoPosCurrent) * tanSza + pixelAlt;
+                    final float cloudHeight = computeHeightFromPressure(ctp[yCurrent * SIZE + xCurrent]);
+                    if (cloudSearchHeight <= cloudHeight + 300) {
+                        float cloudBase = cloudHeight;
+                        for (int i = xCurrent - 1; i <= xCurrent + 1; i++) {
+                            for (int j = yCurrent - 1; j <= yCurrent + 1; j++) {
+                                if (SOURCE_RECTANGLE.contains(i, j)) {
+                                    cloudBase = Math.min(cloudBase, computeHeightFromPressure(ctp[j * SIZE + i]));
+                                }
+                            }
+                        }
+                        cloudBase = (float) Math.min(cloudHeight - 300.0, cloudBase);
+                        cloudBase = (float) Math.max(300.0, cloudBase);
+                        if (cloudSearchHeight >= cloudBase - 300) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private static float computeHeightFromPressure(float pressure) {
+            return (float) (-8000 * Math.log(pressure / 1013.0f));
+        }
+
+        private static Tile createTile(Product product, String name, float[] data) {
+            final Band band = product.addBand(name, ProductData.TYPE_FLOAT32);
+            band.setRasterData(ProductData.createInstance(data));
+            return new TileImpl(band, band.getSourceImage().getData());
+        }
+    }
+
+    /**
+     * Counts the pixel position lookups, one for each traced shadow ray.
+     */
+    private static class CountingGeoCoding extends CrsGeoCoding {
+
+        int numPixelPosCalls;
+
+        CountingGeoCoding() throws Exception {
+            super(DefaultGeographicCRS.WGS84, SIZE, SIZE, 10.0, 50.0, 0.0027, 0.0027);
+        }
+
+        @Override
+        public PixelPos getPixelPos(GeoPos geoPos, PixelPos pixelPos) {
+            numPixelPosCalls++;
+            return super.getPixelPos(geoPos, pixelPos);
+        }
+    }
+}
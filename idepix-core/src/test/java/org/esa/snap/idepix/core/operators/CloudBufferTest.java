@@ -0,0 +1,117 @@
+package org.esa.snap.idepix.core.operators;
+
+import org.esa.snap.idepix.core.IdepixConstants;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests for class {@link CloudBuffer}.
+ */
+public class CloudBufferTest {
+
+    private static final int CLOUD = 1 << IdepixConstants.IDEPIX_CLOUD;
+
+    @Test
+    public void testCloudBufferLC_singleCloudPixels() {
+        // isolated pixel in the interior, on the south and east boundary and in the lower right corner
+        final int width = 9;
+        final int height = 7;
+        final int[] flags = new int[width * height];
+        flags[3 * width + 4] = CLOUD;
+        flags[6 * width + 1] = CLOUD;
+        flags[2 * width + 8] = CLOUD;
+        flags[6 * width + 8] = CLOUD;
+        assertLCBufferAsBefore(flags, width, height);
+    }
+
+    @Test
+    public void testCloudBufferLC_randomCloudCover() {
+        final Random random = new Random(4711);
+        final int[][] tileSizes = {{1, 1}, {1, 13}, {13, 1}, {2, 2}, {17, 11}, {64, 48}};
+        final double[] cloudFractions = {0.05, 0.3, 0.6, 0.95};
+        for (int[] tileSize : tileSizes) {
+            for (double cloudFraction : cloudFractions) {
+                final int width = tileSize[0];
+                final int height = tileSize[1];
+                final int[] flags = new int[width * height];
+                for (int i = 0; i < flags.length; i++) {
+                    // some other bits set to make sure they are preserved
+                    flags[i] = random.nextInt(4) << IdepixConstants.IDEPIX_SNOW_ICE;
+                    if (random.nextDouble() < cloudFraction) {
+                        flags[i] |= CLOUD;
+                    }
+                }
+                assertLCBufferAsBefore(flags, width, height);
+            }
+        }
+    }
+
+    private static void assertLCBufferAsBefore(int[] flags, int width, int height) {
+        final int[] expected = flags.clone();
+        computeCloudBufferLCReference(expected, width, height);
+        final int[] actual = flags.clone();
+        CloudBuffer.computeCloudBufferLC(actual, width, height);
+        assertArrayEquals(expected, actual);
+    }
+
+    // the former tile based implementation, transferred to a flat array
+    private static void computeCloudBufferLCReference(int[] flags, int width, int height) {
+        for (int y = 0; y < height - 1; y++) {
+            for (int x = 0; x < width - 1; x++) {
+                if (isCloud(flags, width, x, y)) {
+                    int bufferWidth = 1;
+                    int LEFT_BORDER = Math.max(x - bufferWidth, 0);
+                    int RIGHT_BORDER = Math.min(x + bufferWidth, width - 1);
+                    int TOP_BORDER = Math.max(y - bufferWidth, 0);
+                    int BOTTOM_BORDER = Math.min(y + bufferWidth, height - 1);
+                    if (isCloud(flags, width, x + 1, y) &&
+                            isCloud(flags, width, x, y + 1) &&
+                            isCloud(flags, width, x + 1, y + 1)) {
+                        bufferWidth = 2;
+                        LEFT_BORDER = Math.max(x - bufferWidth, 0);
+                        RIGHT_BORDER = Math.min(x + 1 + bufferWidth, width - 1);
+                        TOP_BORDER = Math.max(y - bufferWidth, 0);
+                        BOTTOM_BORDER = Math.min(y + 1 + bufferWidth, height - 1);
+                    }
+                    setBuffer(flags, width, LEFT_BORDER, RIGHT_BORDER, TOP_BORDER, BOTTOM_BORDER);
+                }
+            }
+        }
+        int bufferWidth = 1;
+
+        final int ySouth = height - 1;
+        for (int x = 0; x < width - 1; x++) {
+            if (isCloud(flags, width, x, ySouth)) {
+                setBuffer(flags, width, Math.max(x - bufferWidth, 0), Math.min(x + bufferWidth, width - 1),
+                          Math.max(0, ySouth - bufferWidth), ySouth);
+            }
+        }
+
+        final int xEast = width - 1;
+        for (int y = 0; y < height - 1; y++) {
+            if (isCloud(flags, width, xEast, y)) {
+                setBuffer(flags, width, Math.max(0, xEast - bufferWidth), xEast,
+                          Math.max(y - bufferWidth, 0), Math.min(y + bufferWidth, height - 1));
+            }
+        }
+
+        if (isCloud(flags, width, xEast, ySouth)) {
+            setBuffer(flags, width, Math.max(0, xEast - 1), xEast, Math.max(0, ySouth - 1), ySouth);
+        }
+    }
+
+    private static boolean isCloud(int[] flags, int width, int x, int y) {
+        return (flags[y * width + x] & CLOUD) != 0;
+    }
+
+    private static void setBuffer(int[] flags, int width, int left, int right, int top, int bottom) {
+        for (int i = left; i <= right; i++) {
+            for (int j = top; j <= bottom; j++) {
+                flags[j * width + i] |= 1 << IdepixConstants.IDEPIX_CLOUD_BUFFER;
+            }
+        }
+    }
+}
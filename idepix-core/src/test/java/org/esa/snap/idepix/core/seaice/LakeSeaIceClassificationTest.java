@@ -17,36 +17,93 @@
 
 package org.esa.snap.idepix.core.seaice;
 
-import org.esa.snap.core.datamodel.Product;
 import org.junit.BeforeClass;
+import org.junit.ClassRule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Calendar;
 
 import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class LakeSeaIceClassificationTest {
 
+    @ClassRule
+    public static final TemporaryFolder auxdataFolder = new TemporaryFolder();
+
+    private static Path iceMapsAuxdataDir;
+
     @BeforeClass
     public static void beforeClass() throws Exception {
-        LakeSeaIceAuxdata.install();
+        // the grid files are written next to the climatologies, so these go to a temporary folder, not the SNAP auxdata
+        iceMapsAuxdataDir = auxdataFolder.getRoot().toPath();
+        LakeSeaIceAuxdata.install(iceMapsAuxdataDir);
     }
 
     @Test
     public void testGetMonthlyLakeSeaIceMask() {
         LakeSeaIceClassification classification = new LakeSeaIceClassification(null,
-                LakeSeaIceAuxdata.AUXDATA_DIRECTORY, Calendar.MARCH + 1);
-        final Product monthlyMaskProduct = classification.getMonthlyMaskProduct();
-        assertNotNull(monthlyMaskProduct);
+                iceMapsAuxdataDir, Calendar.MARCH + 1);
+        final LakeSeaIceGrid monthlyMaskGrid = classification.getMonthlyMaskGrid();
 
-        assertEquals(360, monthlyMaskProduct.getSceneRasterWidth());
-        assertEquals(180, monthlyMaskProduct.getSceneRasterHeight());
-        assertEquals("ice_climatology_03_max", monthlyMaskProduct.getName());
-        assertEquals(1, monthlyMaskProduct.getNumBands());
-        assertEquals("ice_climatology", monthlyMaskProduct.getBandAt(0).getName());
+        assertEquals(360, monthlyMaskGrid.getWidth());
+        assertEquals(180, monthlyMaskGrid.getHeight());
+        assertTrue(Files.isRegularFile(iceMapsAuxdataDir
+                                               .resolve(LakeSeaIceAuxdata.DEFAULT_ICE_MAPS_DIR_NAME)
+                                               .resolve("ice_climatology_03_max" +
+                                                                LakeSeaIceAuxdata.GRID_FILE_NAME_EXTENSION)));
 
         // ice_climatology_03_max.dim has value 76.0 at pixel (16, 29):
         assertEquals(76.0f, classification.getMonthlyMaskValue(16, 29), 0.0f);
+        // pixels outside of the grid do not wrap around to the neighbouring line
+        assertTrue(Float.isNaN(classification.getMonthlyMaskValue(360, 28)));
+        assertTrue(Float.isNaN(classification.getMonthlyMaskValue(-1, 30)));
+        assertTrue(Float.isNaN(classification.getMonthlyMaskValue(0, 180)));
+        assertTrue(Float.isNaN(classification.getMonthlyMaskValue(0, -1)));
+    }
+
+    @Test
+    public void testMonthlyLakeSeaIceMaskIsShared() {
+        LakeSeaIceClassification first = new LakeSeaIceClassification(null,
+                iceMapsAuxdataDir, Calendar.MARCH + 1);
+        LakeSeaIceClassification second = new LakeSeaIceClassification(null,
+                iceMapsAuxdataDir, Calendar.MARCH + 1);
+        assertSame(first.getMonthlyMaskGrid(), second.getMonthlyMaskGrid());
+    }
+
+    @Test
+    public void testGetMonthlyMaskValues() {
+        LakeSeaIceClassification classification = new LakeSeaIceClassification(null,
+                iceMapsAuxdataDir, Calendar.MARCH + 1);
+        // pixel (16, 29) covers lon -164..-163 and lat 61..60, the last position is outside of the grid
+        final float[] latitudes = {60.5f, 60.01f, -91.0f};
+        final float[] longitudes = {-163.5f, -163.99f, 0.0f};
+        final float[] values = new float[latitudes.length];
+
+        classification.getMonthlyMaskValues(latitudes, longitudes, values);
+
+        assertEquals(76.0f, values[0], 0.0f);
+        assertEquals(76.0f, values[1], 0.0f);
+        assertTrue(Float.isNaN(values[2]));
+    }
+
+    @Test
+    public void testGetMonthlyMaskValues_invalidPositions() {
+        LakeSeaIceClassification classification = new LakeSeaIceClassification(null,
+                iceMapsAuxdataDir, Calendar.MARCH + 1);
+        // lon 180 is column 360, one beyond the grid; NaN positions would be cast to column or line 0
+        final float[] latitudes = {60.5f, Float.NaN, 60.5f, 90.5f, -90.0f};
+        final float[] longitudes = {180.0f, -163.5f, Float.NaN, -163.5f, -163.5f};
+        final float[] values = new float[latitudes.length];
+
+        classification.getMonthlyMaskValues(latitudes, longitudes, values);
+
+        for (int i = 0; i < values.length; i++) {
+            assertTrue("position " + i, Float.isNaN(values[i]));
+        }
     }
-}
\ No newline at end of file
+}
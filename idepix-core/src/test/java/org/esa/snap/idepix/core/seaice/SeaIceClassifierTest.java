@@ -0,0 +1,52 @@
+package org.esa.snap.idepix.core.seaice;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for class {@link SeaIceClassifier}.
+ */
+public class SeaIceClassifierTest {
+
+    @Test
+    public void testGetValue_sameAsClassification() throws Exception {
+        final SeaIceClassifier classifier = new SeaIceClassifier(1);
+        final double[][] positions = {{0.0, 0.0}, {0.5, 3.7}, {95.2, 181.9}, {179.9, 359.9}, {180.0, 360.0}};
+        for (double[] position : positions) {
+            final SeaIceClassification classification = classifier.getClassification(position[0], position[1]);
+            assertEquals(classification.min, classifier.getValue(position[0], position[1], SeaIceClassifier.MIN), 0.0);
+            assertEquals(classification.max, classifier.getValue(position[0], position[1], SeaIceClassifier.MAX), 0.0);
+        }
+        // first line of classification_1.csv
+        assertEquals(99.6923, classifier.getValue(0.0, 0.0, SeaIceClassifier.MEAN), 0.0);
+        assertEquals(0.6794, classifier.getValue(0.0, 0.0, SeaIceClassifier.STANDARD_DEVIATION), 0.0);
+    }
+
+    @Test
+    public void testGetValues() throws Exception {
+        final SeaIceClassifier classifier = new SeaIceClassifier(7);
+        final double[] lats = {10.5, 90.0, 170.2};
+        final double[] lons = {20.5, 180.0, 340.8};
+        final double[] values = new double[lats.length];
+
+        classifier.getValues(lats, lons, SeaIceClassifier.MAX, values);
+
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(classifier.getClassification(lats[i], lons[i]).max, values[i], 0.0);
+        }
+    }
+
+    @Test
+    public void testMonthIsShared() throws Exception {
+        final SeaIceClassifier first = new SeaIceClassifier(3);
+        final SeaIceClassifier second = new SeaIceClassifier(3);
+        assertEquals(first.getValue(170.0, 100.0, SeaIceClassifier.MAX),
+                     second.getValue(170.0, 100.0, SeaIceClassifier.MAX), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLatitude() throws Exception {
+        new SeaIceClassifier(1).getValue(-0.5, 10.0, SeaIceClassifier.MAX);
+    }
+}
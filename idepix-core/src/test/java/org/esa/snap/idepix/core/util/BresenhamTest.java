@@ -5,9 +5,12 @@ import org.junit.Test;
 
 import java.awt.*;
 import java.util.List;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 public class BresenhamTest {
 
@@ -290,4 +293,95 @@ public class BresenhamTest {
         assertEquals(7, (int) pathPixels.get(1).getX());
         assertEquals(6, (int) pathPixels.get(1).getY());
     }
+
+    @Test
+    public void testGetPathPixels_buffersSameAsPlotAndNext() {
+        final Random random = new Random(5);
+        final Rectangle clip = new Rectangle(-20, -10, 60, 45);
+        final int[] xs = new int[200];
+        final int[] ys = new int[200];
+        for (int i = 0; i < 2000; i++) {
+            final int x1 = random.nextInt(80) - 30;
+            final int y1 = random.nextInt(80) - 30;
+            final int x2 = random.nextInt(80) - 30;
+            final int y2 = random.nextInt(80) - 30;
+            final Rectangle r = i % 2 == 0 ? clip : null;
+
+            final Bresenham bresenham = new Bresenham();
+            final int length = bresenham.plot(x1, y1, x2, y2);
+            assertEquals(length, Bresenham.getPathLength(x1, y1, x2, y2));
+            final int numPixels = Bresenham.getPathPixels(x1, y1, x2, y2, r, xs, ys);
+            int count = 0;
+            for (int j = 0; j < length; j++) {
+                bresenham.next();
+                if (r == null || r.contains(bresenham.getX(), bresenham.getY())) {
+                    assertEquals(bresenham.getX(), xs[count]);
+                    assertEquals(bresenham.getY(), ys[count]);
+                    count++;
+                }
+            }
+            assertEquals(count, numPixels);
+        }
+    }
+
+    @Test
+    public void testVisitPathPixels_stops() {
+        final int[] numVisited = {0};
+        final boolean stopped = Bresenham.visitPathPixels(0, 0, 10, 4, null, (px, py) -> ++numVisited[0] < 3);
+        assertTrue(stopped);
+        assertEquals(3, numVisited[0]);
+
+        numVisited[0] = 0;
+        assertFalse(Bresenham.visitPathPixels(0, 0, 10, 4, null, (px, py) -> ++numVisited[0] > 0));
+        assertEquals(11, numVisited[0]);
+    }
+
+    @Test
+    public void testGetSupercoverPathPixels() {
+        final int[] xs = new int[Bresenham.getSupercoverPathLength(0, 0, 3, 3)];
+        final int[] ys = new int[xs.length];
+
+        // exact diagonal: both pixels beside each corner
+        int numPixels = Bresenham.getSupercoverPathPixels(0, 0, 3, 3, null, xs, ys);
+        assertEquals(9, numPixels);
+        final int[][] expected = {{1, 0}, {0, 1}, {1, 1}, {2, 1}, {1, 2}, {2, 2}, {3, 2}, {2, 3}, {3, 3}};
+        for (int i = 0; i < numPixels; i++) {
+            assertEquals(expected[i][0], xs[i]);
+            assertEquals(expected[i][1], ys[i]);
+        }
+
+        // clipped
+        numPixels = Bresenham.getSupercoverPathPixels(0, 0, 3, 3, new Rectangle(0, 0, 2, 2), xs, ys);
+        assertEquals(3, numPixels);
+
+        // no pixel besides the start
+        assertEquals(0, Bresenham.getSupercoverPathPixels(4, 4, 4, 4, null, xs, ys));
+    }
+
+    @Test
+    public void testGetSupercoverPathPixels_connected() {
+        final Random random = new Random(11);
+        for (int i = 0; i < 2000; i++) {
+            final int x1 = random.nextInt(60);
+            final int y1 = random.nextInt(60);
+            final int x2 = random.nextInt(60);
+            final int y2 = random.nextInt(60);
+            final int[] xs = new int[Bresenham.getSupercoverPathLength(x1, y1, x2, y2)];
+            final int[] ys = new int[xs.length];
+            final int numPixels = Bresenham.getSupercoverPathPixels(x1, y1, x2, y2, null, xs, ys);
+            if (x1 == x2 && y1 == y2) {
+                assertEquals(0, numPixels);
+                continue;
+            }
+            assertEquals(x2, xs[numPixels - 1]);
+            assertEquals(y2, ys[numPixels - 1]);
+            int previousX = x1;
+            int previousY = y1;
+            for (int j = 0; j < numPixels; j++) {
+                assertTrue(Math.abs(xs[j] - previousX) <= 1 && Math.abs(ys[j] - previousY) <= 1);
+                previousX = xs[j];
+                previousY = ys[j];
+            }
+        }
+    }
 }
@@ -0,0 +1,153 @@
+package org.esa.snap.idepix.core.util;
+
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for class {@link ConnectedComponents}.
+ */
+public class ConnectedComponentsTest {
+
+    @Test
+    public void testLabel_spiral() {
+        // a single spiral shaped area, which needs many equivalences to be resolved
+        final String[] rows = {
+                "#########",
+                "........#",
+                "#######.#",
+                "#.....#.#",
+                "#.###.#.#",
+                "#.#...#.#",
+                "#.#####.#",
+                "#.......#",
+                "#########"};
+        final int width = rows[0].length();
+        final int height = rows.length;
+        final int[] mask = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                mask[y * width + x] = rows[y].charAt(x) == '#' ? 1 : 0;
+            }
+        }
+        final int[] labels = new int[mask.length];
+        final ConnectedComponents components = ConnectedComponents.label(mask, width, height, false, labels);
+        assertEquals(1, components.getNumComponents());
+        assertEquals(new Rectangle(0, 0, width, height), components.getBounds(1));
+        int count = 0;
+        for (int m : mask) {
+            count += m;
+        }
+        assertEquals(count, components.getPixelCount(1));
+        assertEquals(count, components.getPixelIndices(1).length);
+    }
+
+    @Test
+    public void testLabel_diagonalNeighbours() {
+        final int[] mask = {
+                1, 0, 0,
+                0, 1, 0,
+                0, 0, 1};
+        final int[] labels = new int[mask.length];
+        assertEquals(3, ConnectedComponents.label(mask, 3, 3, false, labels).getNumComponents());
+        assertArrayEquals(new int[]{1, 0, 0, 0, 2, 0, 0, 0, 3}, labels);
+        assertEquals(1, ConnectedComponents.label(mask, 3, 3, true, labels).getNumComponents());
+        assertArrayEquals(new int[]{1, 0, 0, 0, 1, 0, 0, 0, 1}, labels);
+    }
+
+    @Test
+    public void testGetPixelIndices_intoBuffer() {
+        final int[] mask = {
+                1, 1, 0, 0,
+                0, 0, 0, 1,
+                1, 1, 0, 1};
+        final ConnectedComponents components = ConnectedComponents.label(mask, 4, 3, false, new int[mask.length]);
+        assertEquals(3, components.getNumComponents());
+        assertEquals(2, components.getMaxPixelCount());
+        final int[] buffer = new int[components.getMaxPixelCount()];
+        assertEquals(2, components.getPixelIndices(2, buffer));
+        assertArrayEquals(new int[]{7, 11}, buffer);
+        assertEquals(2, components.getPixelIndices(3, buffer));
+        assertArrayEquals(new int[]{8, 9}, buffer);
+        assertArrayEquals(components.getPixelIndices(3), buffer);
+    }
+
+    @Test
+    public void testLabel_sameAsFloodFill() {
+        final Random random = new Random(99);
+        for (boolean eightConnected : new boolean[]{false, true}) {
+            for (double fraction : new double[]{0.1, 0.45, 0.6, 0.9}) {
+                final int width = 61;
+                final int height = 37;
+                final byte[] mask = new byte[width * height];
+                for (int i = 0; i < mask.length; i++) {
+                    mask[i] = (byte) (random.nextDouble() < fraction ? 1 : 0);
+                }
+                final int[] labels = new int[mask.length];
+                final ConnectedComponents components =
+                        ConnectedComponents.label(mask, width, height, eightConnected, labels);
+                final int[] expected = floodFill(mask, width, height, eightConnected);
+                assertArrayEquals(expected, labels);
+
+                int numPixels = 0;
+                for (int label = 1; label <= components.getNumComponents(); label++) {
+                    final int[] indices = components.getPixelIndices(label);
+                    assertEquals(components.getPixelCount(label), indices.length);
+                    final Rectangle bounds = components.getBounds(label);
+                    for (int index : indices) {
+                        assertEquals(label, labels[index]);
+                        assertEquals(true, bounds.contains(index % width, index / width));
+                    }
+                    numPixels += indices.length;
+                }
+                int expectedNumPixels = 0;
+                for (byte m : mask) {
+                    expectedNumPixels += m;
+                }
+                assertEquals(expectedNumPixels, numPixels);
+            }
+        }
+    }
+
+    // labels areas by flood fill, numbered in the order of their first pixel
+    private static int[] floodFill(byte[] mask, int width, int height, boolean eightConnected) {
+        final int[] labels = new int[mask.length];
+        final ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int numLabels = 0;
+        for (int start = 0; start < mask.length; start++) {
+            if (mask[start] == 0 || labels[start] != 0) {
+                continue;
+            }
+            labels[start] = ++numLabels;
+            queue.add(start);
+            while (!queue.isEmpty()) {
+                final int index = queue.poll();
+                final int x = index % width;
+                final int y = index / width;
+                for (int dy = -1; dy <= 1; dy++) {
+                    for (int dx = -1; dx <= 1; dx++) {
+                        if ((dx == 0 && dy == 0) || (!eightConnected && dx != 0 && dy != 0)) {
+                            continue;
+                        }
+                        final int nx = x + dx;
+                        final int ny = y + dy;
+                        if (nx < 0 || ny < 0 || nx >= width || ny >= height) {
+                            continue;
+                        }
+                        final int neighbour = ny * width + nx;
+                        if (mask[neighbour] != 0 && labels[neighbour] == 0) {
+                            labels[neighbour] = numLabels;
+                            queue.add(neighbour);
+                        }
+                    }
+                }
+            }
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,50 @@
+package org.esa.snap.idepix.core.util;
+
+import org.esa.snap.idepix.core.IdepixConstants;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for class {@link FlagAccumulator}.
+ */
+public class FlagAccumulatorTest {
+
+    @Test
+    public void testSetAndGetFlag_imageCoordinates() {
+        final FlagAccumulator flags = new FlagAccumulator(new Rectangle(100, 200, 4, 3));
+
+        flags.setFlag(100, 200, IdepixConstants.IDEPIX_CLOUD, true);
+        flags.setFlag(103, 202, IdepixConstants.IDEPIX_LAND, true);
+        flags.setFlag(103, 202, IdepixConstants.IDEPIX_SNOW_ICE, true);
+        flags.setFlag(103, 202, IdepixConstants.IDEPIX_LAND, false);
+
+        assertTrue(flags.getFlag(100, 200, IdepixConstants.IDEPIX_CLOUD));
+        assertFalse(flags.getFlag(101, 200, IdepixConstants.IDEPIX_CLOUD));
+        assertFalse(flags.getFlag(103, 202, IdepixConstants.IDEPIX_LAND));
+        assertTrue(flags.getFlag(103, 202, IdepixConstants.IDEPIX_SNOW_ICE));
+        assertEquals(1 << IdepixConstants.IDEPIX_CLOUD, flags.getFlags()[0]);
+        assertEquals(1 << IdepixConstants.IDEPIX_SNOW_ICE, flags.getFlags()[11]);
+        assertEquals(1 << IdepixConstants.IDEPIX_SNOW_ICE, flags.getFlags(103, 202));
+    }
+
+    @Test
+    public void testConsolidateCloudAndBuffer() {
+        final FlagAccumulator flags = new FlagAccumulator(new Rectangle(0, 0, 3, 1));
+        final int cloud = 1 << IdepixConstants.IDEPIX_CLOUD;
+        final int buffer = 1 << IdepixConstants.IDEPIX_CLOUD_BUFFER;
+        final int land = 1 << IdepixConstants.IDEPIX_LAND;
+        flags.setFlags(0, 0, cloud | buffer | land);
+        flags.setFlags(1, 0, buffer | land);
+        flags.setFlags(2, 0, cloud);
+
+        flags.consolidateCloudAndBuffer();
+
+        assertArrayEquals(new int[]{cloud | land, buffer | land, cloud}, flags.getFlags());
+    }
+}
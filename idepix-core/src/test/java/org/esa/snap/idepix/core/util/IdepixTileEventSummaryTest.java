@@ -0,0 +1,101 @@
+package org.esa.snap.idepix.core.util;
+
+import jdk.jfr.Recording;
+import org.esa.snap.core.gpf.Operator;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for classes {@link IdepixTileEvent} and {@link IdepixTileEventSummary}.
+ */
+public class IdepixTileEventSummaryTest {
+
+    @Test
+    public void testNestedTileEvents() throws Exception {
+        final Path recordingFile = Files.createTempFile("idepix", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable(IdepixTileEvent.NAME).withThreshold(Duration.ZERO);
+                recording.start();
+                computeTiles();
+                recording.stop();
+                recording.dump(recordingFile);
+            }
+
+            final IdepixTileEventSummary summary = new IdepixTileEventSummary();
+            summary.read(recordingFile);
+            final List<IdepixTileEventSummary.Stage> stages = summary.getStages();
+
+            assertEquals(2, stages.size());
+            final IdepixTileEventSummary.Stage classification = getStage(stages, "ClassificationOp");
+            final IdepixTileEventSummary.Stage postProcessing = getStage(stages, "PostProcessOp");
+            assertEquals(2, classification.getNumTiles());
+            assertEquals(2, postProcessing.getNumTiles());
+            // counted for the innermost tile only
+            assertEquals(2 * 64, classification.getNnEvaluations());
+            assertEquals(0, postProcessing.getNnEvaluations());
+            assertEquals(64 + 64, classification.getProcessedPixels());
+            assertEquals(64, postProcessing.getProcessedPixels());
+            assertEquals(64, postProcessing.getSkippedPixels());
+            // the post-processing tiles enclose the classification tiles
+            assertEquals(postProcessing.getTotalTime(),
+                         postProcessing.getSelfTime().plus(classification.getTotalTime()));
+            assertTrue(classification.getSelfTime().equals(classification.getTotalTime()));
+        } finally {
+            Files.delete(recordingFile);
+        }
+    }
+
+    private static void computeTiles() {
+        final Operator classificationOp = new ClassificationOp();
+        final Operator postProcessOp = new PostProcessOp();
+        final Rectangle[] rectangles = {new Rectangle(0, 0, 8, 8), new Rectangle(8, 0, 8, 8)};
+        for (int i = 0; i < rectangles.length; i++) {
+            final IdepixTileEvent postProcessEvent = IdepixTileEvent.begin(postProcessOp, rectangles[i]);
+            try {
+                final IdepixTileEvent classificationEvent = IdepixTileEvent.begin(classificationOp, rectangles[i]);
+                try {
+                    IdepixTileEvent.countNnEvaluations(64);
+                } finally {
+                    classificationEvent.commitTile();
+                }
+                if (i == 1) {
+                    IdepixTileEvent.countSkippedPixels(rectangles[i]);
+                }
+            } finally {
+                postProcessEvent.commitTile();
+            }
+        }
+    }
+
+    private static IdepixTileEventSummary.Stage getStage(List<IdepixTileEventSummary.Stage> stages, String operator) {
+        for (IdepixTileEventSummary.Stage stage : stages) {
+            if (stage.getOperator().equals(operator)) {
+                return stage;
+            }
+        }
+        throw new AssertionError("No stage " + operator);
+    }
+
+    private static class ClassificationOp extends Operator {
+
+        @Override
+        public void initialize() {
+        }
+    }
+
+    private static class PostProcessOp extends Operator {
+
+        @Override
+        public void initialize() {
+        }
+    }
+}
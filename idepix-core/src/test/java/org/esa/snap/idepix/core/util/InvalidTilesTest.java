@@ -0,0 +1,178 @@
+package org.esa.snap.idepix.core.util;
+
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
+import org.esa.snap.core.gpf.Tile;
+import org.esa.snap.core.gpf.internal.TileImpl;
+import org.esa.snap.core.image.ImageManager;
+import org.esa.snap.idepix.core.IdepixConstants;
+import org.junit.Test;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for class {@link InvalidTiles}.
+ */
+public class InvalidTilesTest {
+
+    private static final int WIDTH = 12;
+    private static final int HEIGHT = 10;
+    private static final Rectangle RECTANGLE = new Rectangle(2, 1, 8, 6);
+
+    private static final int L1_INVALID = 3;
+    private static final int GOOD_FLAGS = 0x3;
+    private static final int INVALID = 1 << IdepixConstants.IDEPIX_INVALID;
+
+    @Test
+    public void testIsSkipInvalidTiles() {
+        final String oldValue = System.getProperty(InvalidTiles.SKIP_INVALID_TILES_PROPERTY);
+        try {
+            System.clearProperty(InvalidTiles.SKIP_INVALID_TILES_PROPERTY);
+            assertFalse(InvalidTiles.isSkipInvalidTiles());
+            System.setProperty(InvalidTiles.SKIP_INVALID_TILES_PROPERTY, "false");
+            assertFalse(InvalidTiles.isSkipInvalidTiles());
+            System.setProperty(InvalidTiles.SKIP_INVALID_TILES_PROPERTY, "true");
+            assertTrue(InvalidTiles.isSkipInvalidTiles());
+        } finally {
+            if (oldValue != null) {
+                System.setProperty(InvalidTiles.SKIP_INVALID_TILES_PROPERTY, oldValue);
+            } else {
+                System.clearProperty(InvalidTiles.SKIP_INVALID_TILES_PROPERTY);
+            }
+        }
+    }
+
+    @Test
+    public void testAllInvalidTile() {
+        final Product product = new Product("invalid", "test", WIDTH, HEIGHT);
+        final int[] l1Flags = new int[WIDTH * HEIGHT];
+        final float[] radiances = new float[WIDTH * HEIGHT];
+        for (int i = 0; i < l1Flags.length; i++) {
+            // other flags and at most one of the good flags set
+            l1Flags[i] = (1 << L1_INVALID) | (1 << (i % 2)) | (i % 3 == 0 ? 0x10 : 0);
+            radiances[i] = i % 2 == 0 ? Float.NaN : -1.0f;
+        }
+        final Tile l1FlagTile = createSourceTile(addBand(product, "l1_flags", l1Flags));
+        final Band radianceBand = addBand(product, "radiance", radiances);
+        radianceBand.setNoDataValue(-1.0);
+        radianceBand.setNoDataValueUsed(true);
+        final Tile radianceTile = createSourceTile(radianceBand);
+
+        assertTrue(InvalidTiles.isFlagSetEverywhere(l1FlagTile, RECTANGLE, L1_INVALID));
+        assertTrue(InvalidTiles.isNoPixelFlaggedValid(l1FlagTile, RECTANGLE, GOOD_FLAGS));
+        assertTrue(InvalidTiles.isNoDataEverywhere(radianceTile, RECTANGLE));
+
+        final Tile flagTile = createTargetTile(product.addBand("pixel_classif_flags", ProductData.TYPE_INT32));
+        InvalidTiles.setInvalid(flagTile);
+        assertSamples(flagTile, INVALID);
+    }
+
+    @Test
+    public void testPartlyValidTile() {
+        final Product product = new Product("partlyValid", "test", WIDTH, HEIGHT);
+        final int[] l1Flags = new int[WIDTH * HEIGHT];
+        final float[] radiances = new float[WIDTH * HEIGHT];
+        Arrays.fill(l1Flags, 1 << L1_INVALID);
+        Arrays.fill(radiances, Float.NaN);
+        // a single valid pixel in the lower right corner of the rectangle
+        final int validIndex = (RECTANGLE.y + RECTANGLE.height - 1) * WIDTH + RECTANGLE.x + RECTANGLE.width - 1;
+        l1Flags[validIndex] = GOOD_FLAGS;
+        radiances[validIndex] = 42.0f;
+        final Tile l1FlagTile = createSourceTile(addBand(product, "l1_flags", l1Flags));
+        final Tile radianceTile = createSourceTile(addBand(product, "radiance", radiances));
+
+        assertFalse(InvalidTiles.isFlagSetEverywhere(l1FlagTile, RECTANGLE, L1_INVALID));
+        assertFalse(InvalidTiles.isNoPixelFlaggedValid(l1FlagTile, RECTANGLE, GOOD_FLAGS));
+        assertFalse(InvalidTiles.isNoDataEverywhere(radianceTile, RECTANGLE));
+
+        // without the valid pixel
+        final Rectangle invalidPart = new Rectangle(RECTANGLE.x, RECTANGLE.y, RECTANGLE.width - 1, RECTANGLE.height);
+        assertTrue(InvalidTiles.isFlagSetEverywhere(l1FlagTile, invalidPart, L1_INVALID));
+        assertTrue(InvalidTiles.isNoPixelFlaggedValid(l1FlagTile, invalidPart, GOOD_FLAGS));
+        assertTrue(InvalidTiles.isNoDataEverywhere(radianceTile, invalidPart));
+    }
+
+    @Test
+    public void testSetInvalid_tileStack() {
+        final Product product = new Product("tileStack", "test", WIDTH, HEIGHT);
+        final Band flagBand = product.addBand("pixel_classif_flags", ProductData.TYPE_INT32);
+        final Band reflectanceBand = product.addBand("reflectance", ProductData.TYPE_FLOAT32);
+        final Band probabilityBand = product.addBand("probability", ProductData.TYPE_FLOAT32);
+        probabilityBand.setNoDataValue(-1.0);
+        probabilityBand.setNoDataValueUsed(true);
+        final Band countBand = product.addBand("count", ProductData.TYPE_UINT8);
+        final Map<Band, Tile> targetTiles = new HashMap<>();
+        targetTiles.put(flagBand, createTargetTile(flagBand));
+        targetTiles.put(reflectanceBand, createTargetTile(reflectanceBand));
+        targetTiles.put(probabilityBand, createTargetTile(probabilityBand));
+        targetTiles.put(countBand, createTargetTile(countBand));
+
+        InvalidTiles.setInvalid(targetTiles, flagBand);
+
+        assertSamples(targetTiles.get(flagBand), INVALID);
+        assertSamples(targetTiles.get(reflectanceBand), Double.NaN);
+        assertSamples(targetTiles.get(probabilityBand), -1.0);
+        assertSamples(targetTiles.get(countBand), 0);
+    }
+
+    @Test
+    public void testCopyFlags() {
+        final Product product = new Product("copy", "test", WIDTH, HEIGHT);
+        final int[] classifFlags = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < classifFlags.length; i++) {
+            classifFlags[i] = INVALID | (i % 5 == 0 ? 1 << IdepixConstants.IDEPIX_LAND : 0);
+        }
+        // the source tile is larger than the target tile, as in the post-processing
+        final Tile sourceFlagTile = createSourceTile(addBand(product, "pixel_classif_flags", classifFlags));
+        final Tile targetTile = createTargetTile(product.addBand("target_flags", ProductData.TYPE_INT32));
+
+        InvalidTiles.copyFlags(sourceFlagTile, targetTile);
+
+        for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+            for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                assertEquals(classifFlags[y * WIDTH + x], targetTile.getSampleInt(x, y));
+            }
+        }
+    }
+
+    private static void assertSamples(Tile tile, double expected) {
+        for (int y = RECTANGLE.y; y < RECTANGLE.y + RECTANGLE.height; y++) {
+            for (int x = RECTANGLE.x; x < RECTANGLE.x + RECTANGLE.width; x++) {
+                assertEquals(expected, tile.getSampleDouble(x, y), 0.0);
+            }
+        }
+    }
+
+    private static Band addBand(Product product, String name, int[] data) {
+        final Band band = product.addBand(name, ProductData.TYPE_INT32);
+        band.setRasterData(ProductData.createInstance(data));
+        return band;
+    }
+
+    private static Band addBand(Product product, String name, float[] data) {
+        final Band band = product.addBand(name, ProductData.TYPE_FLOAT32);
+        band.setRasterData(ProductData.createInstance(data));
+        return band;
+    }
+
+    private static Tile createSourceTile(Band band) {
+        return new TileImpl(band, band.getSourceImage().getData());
+    }
+
+    private static Tile createTargetTile(Band band) {
+        final SampleModel sampleModel = ImageManager.createSingleBandedSampleModel(
+                ImageManager.getDataBufferType(band.getDataType()), RECTANGLE.width, RECTANGLE.height);
+        return new TileImpl(band, Raster.createWritableRaster(sampleModel, new Point(RECTANGLE.x, RECTANGLE.y)));
+    }
+}
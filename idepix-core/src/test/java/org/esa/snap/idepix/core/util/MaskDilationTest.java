@@ -0,0 +1,102 @@
+package org.esa.snap.idepix.core.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for class {@link MaskDilation}.
+ */
+public class MaskDilationTest {
+
+    @Test
+    public void testDilateSquare_singlePixel() {
+        final int width = 7;
+        final int height = 6;
+        final byte[] mask = new byte[width * height];
+        mask[2 * width + 1] = 1;
+        final byte[] result = new byte[mask.length];
+        MaskDilation.dilateSquare(mask, width, height, 2, result);
+
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                final int expected = x <= 3 && y <= 4 ? 1 : 0;
+                assertEquals("x=" + x + ", y=" + y, expected, result[y * width + x]);
+            }
+        }
+    }
+
+    @Test
+    public void testDilateSquare_sameAsPerPixelWindow() {
+        final Random random = new Random(123);
+        for (int radius : new int[]{0, 1, 2, 5, 20}) {
+            for (double fraction : new double[]{0.001, 0.02, 0.3}) {
+                final int width = 53;
+                final int height = 41;
+                final byte[] mask = createRandomMask(random, width, height, fraction);
+                final byte[] result = new byte[mask.length];
+                MaskDilation.dilateSquare(mask, width, height, radius, result);
+                assertArrayEquals(dilateBruteForce(mask, width, height, radius, false), result);
+
+                // in place
+                MaskDilation.dilateSquare(mask, width, height, radius, mask);
+                assertArrayEquals(result, mask);
+            }
+        }
+    }
+
+    @Test
+    public void testDilateRound_sameAsPerPixelCircle() {
+        final Random random = new Random(321);
+        for (int radius : new int[]{0, 1, 3, 10}) {
+            for (double fraction : new double[]{0.001, 0.02, 0.3}) {
+                final int width = 47;
+                final int height = 38;
+                final byte[] mask = createRandomMask(random, width, height, fraction);
+                final byte[] result = new byte[mask.length];
+                MaskDilation.dilateRound(mask, width, height, radius, result);
+                assertArrayEquals(dilateBruteForce(mask, width, height, radius, true), result);
+            }
+        }
+    }
+
+    @Test
+    public void testDilate_emptyMask() {
+        final byte[] mask = new byte[12];
+        final byte[] result = new byte[12];
+        MaskDilation.dilateSquare(mask, 4, 3, 3, result);
+        assertArrayEquals(new byte[12], result);
+        MaskDilation.dilateRound(mask, 4, 3, 3, result);
+        assertArrayEquals(new byte[12], result);
+    }
+
+    private static byte[] createRandomMask(Random random, int width, int height, double fraction) {
+        final byte[] mask = new byte[width * height];
+        for (int i = 0; i < mask.length; i++) {
+            mask[i] = (byte) (random.nextDouble() < fraction ? 1 : 0);
+        }
+        return mask;
+    }
+
+    private static byte[] dilateBruteForce(byte[] mask, int width, int height, int radius, boolean round) {
+        final byte[] result = new byte[mask.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (mask[y * width + x] == 0) {
+                    continue;
+                }
+                for (int j = Math.max(0, y - radius); j <= Math.min(height - 1, y + radius); j++) {
+                    for (int i = Math.max(0, x - radius); i <= Math.min(width - 1, x + radius); i++) {
+                        if (!round || (i - x) * (i - x) + (j - y) * (j - y) <= radius * radius) {
+                            result[j * width + i] = 1;
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+}
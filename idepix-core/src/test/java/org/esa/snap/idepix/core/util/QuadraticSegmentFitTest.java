@@ -0,0 +1,76 @@
+package org.esa.snap.idepix.core.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for class {@link QuadraticSegmentFit}.
+ */
+public class QuadraticSegmentFitTest {
+
+    @Test
+    public void testFit_exactPolynomial() {
+        // OLCI FR view zenith segment left of the discontinuity
+        final QuadraticSegmentFit fit = new QuadraticSegmentFit(3500, 3580);
+        final float[] line = new float[4865];
+        for (int x = 0; x < line.length; x++) {
+            line[x] = (float) quadratic(x);
+        }
+
+        final double[] coefficients = fit.fit(line);
+
+        for (int x = 3500; x < 3649; x++) {
+            assertEquals("x=" + x, quadratic(x), fit.evaluate(coefficients, x), 1.0e-3);
+        }
+    }
+
+    @Test
+    public void testFit_leastSquares() {
+        final QuadraticSegmentFit fit = new QuadraticSegmentFit(2000, 3400);
+        final Random random = new Random(7);
+        final float[] line = new float[3400];
+        for (int x = 0; x < line.length; x++) {
+            line[x] = (float) (quadratic(x) + random.nextGaussian());
+        }
+
+        final double[] coefficients = fit.fit(line);
+
+        // the residuals of a least-squares fit are orthogonal to the basis functions
+        double sum0 = 0.0;
+        double sum1 = 0.0;
+        double sum2 = 0.0;
+        for (int x = 2000; x < 3400; x++) {
+            final double residual = line[x] - fit.evaluate(coefficients, x);
+            final double t = (x - 2699.5) / 699.5;
+            sum0 += residual;
+            sum1 += residual * t;
+            sum2 += residual * t * t;
+        }
+        assertEquals(0.0, sum0, 1.0e-6);
+        assertEquals(0.0, sum1, 1.0e-6);
+        assertEquals(0.0, sum2, 1.0e-6);
+    }
+
+    @Test
+    public void testFit_shortSegments() {
+        final float[] line = {1.0f, 3.0f, 5.0f};
+
+        final QuadraticSegmentFit singlePixel = new QuadraticSegmentFit(1, 2);
+        assertEquals(3.0, singlePixel.evaluate(singlePixel.fit(line), 0), 1.0e-9);
+
+        final QuadraticSegmentFit twoPixels = new QuadraticSegmentFit(1, 3);
+        assertEquals(1.0, twoPixels.evaluate(twoPixels.fit(line), 0), 1.0e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptySegment() {
+        new QuadraticSegmentFit(5, 5);
+    }
+
+    private static double quadratic(int x) {
+        return 12.5 - 0.004 * x + 1.0e-6 * x * x;
+    }
+}
@@ -0,0 +1,115 @@
+package org.esa.snap.idepix.core.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for class {@link SchillerNeuralNetWrapper}.
+ */
+public class SchillerNeuralNetWrapperTest {
+
+    private SchillerNeuralNetWrapper nnWrapper;
+
+    @Before
+    public void setUp() {
+        nnWrapper = SchillerNeuralNetWrapper.create(getClass().getResourceAsStream("6x3_166.0.net")).get();
+    }
+
+    @Test
+    public void testBatchCalcMatchesPerPixelCalc() {
+        final int numPixels = 317;
+        final int numIn = nnWrapper.getNumInputs();
+        final int numOut = nnWrapper.getNumOutputs();
+        assertEquals(8, numIn);
+        assertEquals(1, numOut);
+
+        final Random random = new Random(42);
+        final double[] nnInputs = new double[numPixels * numIn];
+        for (int i = 0; i < nnInputs.length; i++) {
+            nnInputs[i] = 3.0 * random.nextDouble();
+        }
+        final double[] nnOutputs = new double[numPixels * numOut];
+        nnWrapper.calc(nnInputs, nnOutputs, numPixels);
+
+        final double[] nnIn = nnWrapper.getInputVector();
+        for (int p = 0; p < numPixels; p++) {
+            System.arraycopy(nnInputs, p * numIn, nnIn, 0, numIn);
+            final double[] expected = nnWrapper.getNeuralNet().calc(nnIn);
+            for (int o = 0; o < numOut; o++) {
+                assertEquals(expected[o], nnOutputs[p * numOut + o], 1.0e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testBatchCalcWithVaryingBatchSizes() {
+        final int numIn = nnWrapper.getNumInputs();
+        final double[] nnInputs = new double[64 * numIn];
+        final Random random = new Random(7);
+        for (int i = 0; i < nnInputs.length; i++) {
+            nnInputs[i] = 3.0 * random.nextDouble();
+        }
+        final double[] allOutputs = new double[64];
+        nnWrapper.calc(nnInputs, allOutputs, 64);
+
+        // a smaller batch must not be affected by scratch memory left over from a larger one
+        final double[] firstOutputs = new double[5];
+        nnWrapper.calc(nnInputs, firstOutputs, 5);
+        for (int p = 0; p < 5; p++) {
+            assertEquals(allOutputs[p], firstOutputs[p], 0.0);
+        }
+    }
+
+    @Test
+    public void testPerPixelCalcMatchesSnapNet() {
+        final double[] nnIn = nnWrapper.getInputVector();
+        final Random random = new Random(11);
+        for (int p = 0; p < 100; p++) {
+            for (int i = 0; i < nnIn.length; i++) {
+                nnIn[i] = 3.0 * random.nextDouble();
+            }
+            final double[] expected = nnWrapper.getNeuralNet().calc(nnIn);
+            final double[] actual = nnWrapper.calc(nnIn);
+            assertEquals(expected.length, actual.length);
+            assertEquals(expected[0], actual[0], 1.0e-6);
+        }
+    }
+
+    @Test
+    public void testPerPixelCalcIntoOutputVector() {
+        final double[] nnIn = nnWrapper.getInputVector();
+        final double[] nnOut = nnWrapper.getOutputVector();
+        assertEquals(nnWrapper.getNumOutputs(), nnOut.length);
+        final Random random = new Random(13);
+        for (int p = 0; p < 100; p++) {
+            for (int i = 0; i < nnIn.length; i++) {
+                nnIn[i] = 3.0 * random.nextDouble();
+            }
+            final double[] expected = nnWrapper.getNeuralNet().calc(nnIn);
+            nnWrapper.calc(nnIn, nnOut);
+            assertSame(nnOut, nnWrapper.getOutputVector());
+            assertEquals(expected[0], nnOut[0], 1.0e-6);
+        }
+    }
+
+    @Test
+    public void testNetIsParsedOncePerContent() throws IOException {
+        final String netAsString;
+        try (InputStream inputStream = getClass().getResourceAsStream("6x3_166.0.net")) {
+            netAsString = new String(inputStream.readAllBytes(), StandardCharsets.US_ASCII);
+        }
+        final SchillerNeuralNet net = SchillerNeuralNetCache.get(netAsString);
+        assertSame(net, SchillerNeuralNetCache.get(new String(netAsString.toCharArray())));
+        assertNotEquals(SchillerNeuralNetCache.checksum(netAsString),
+                        SchillerNeuralNetCache.checksum(netAsString + "\n"));
+    }
+}
@@ -0,0 +1,79 @@
+package org.esa.snap.idepix.core.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for class {@link SlopeAspectOrientationUtils}.
+ */
+public class SlopeAspectOrientationUtilsTest {
+
+    @Test
+    public void testComputeSlopeAspectOrientation_sameAsPerPixel() {
+        final int targetWidth = 9;
+        final int targetHeight = 7;
+        final int sourceWidth = targetWidth + 2;
+        final int numSourcePixels = sourceWidth * (targetHeight + 2);
+        final Random random = new Random(42);
+        final float[] elevation = new float[numSourcePixels];
+        final float[] lat = new float[numSourcePixels];
+        final float[] lon = new float[numSourcePixels];
+        final float[] vza = new float[numSourcePixels];
+        final float[] vaa = new float[numSourcePixels];
+        final float[] saa = new float[numSourcePixels];
+        for (int i = 0; i < numSourcePixels; i++) {
+            elevation[i] = 500.0f + 2000.0f * random.nextFloat();
+            lat[i] = 46.0f + 0.003f * (i / sourceWidth) + 0.0001f * random.nextFloat();
+            lon[i] = 8.0f + 0.004f * (i % sourceWidth) + 0.0001f * random.nextFloat();
+            vza[i] = 40.0f * random.nextFloat();
+            vaa[i] = -180.0f + 360.0f * random.nextFloat();
+            saa[i] = 360.0f * random.nextFloat();
+        }
+        // invalid elevations: no data and a value above Mt. Everest
+        elevation[3 * sourceWidth + 4] = 0.0f;
+        elevation[numSourcePixels - 1] = 9000.0f;
+
+        final float[] slope = new float[targetWidth * targetHeight];
+        final float[] aspect = new float[slope.length];
+        final float[] orientation = new float[slope.length];
+        SlopeAspectOrientationUtils.computeSlopeAspectOrientation(elevation, lat, lon, vza, vaa, saa,
+                targetWidth, targetHeight, 300.0, slope, aspect, orientation);
+
+        int numInvalid = 0;
+        for (int y = 0; y < targetHeight; y++) {
+            for (int x = 0; x < targetWidth; x++) {
+                final int targetIndex = y * targetWidth + x;
+                final int centre = (y + 1) * sourceWidth + x + 1;
+                final float[] elevationBox = get3x3Box(elevation, centre, sourceWidth);
+                if (SlopeAspectOrientationUtils.is3x3ElevationDataValid(elevationBox)) {
+                    final float expectedOrientation = SlopeAspectOrientationUtils.computeOrientation3x3Box(
+                            get3x3Box(lat, centre, sourceWidth), get3x3Box(lon, centre, sourceWidth));
+                    final float[] expectedSlopeAspect = SlopeAspectOrientationUtils.computeSlopeAspect3x3(
+                            elevationBox, expectedOrientation, vza[centre], vaa[centre], saa[centre], 300.0);
+                    assertEquals(expectedOrientation, orientation[targetIndex], 0.0f);
+                    assertEquals(expectedSlopeAspect[0], slope[targetIndex], 0.0f);
+                    assertEquals(expectedSlopeAspect[1], aspect[targetIndex], 0.0f);
+                } else {
+                    assertTrue(Float.isNaN(orientation[targetIndex]));
+                    assertTrue(Float.isNaN(slope[targetIndex]));
+                    assertTrue(Float.isNaN(aspect[targetIndex]));
+                    numInvalid++;
+                }
+            }
+        }
+        // the first invalid elevation affects the 3x3 pixels around it, the one in the corner of the border only one
+        assertEquals(9 + 1, numInvalid);
+    }
+
+    private static float[] get3x3Box(float[] data, int centre, int width) {
+        return new float[]{
+                data[centre - width - 1], data[centre - width], data[centre - width + 1],
+                data[centre - 1], data[centre], data[centre + 1],
+                data[centre + width - 1], data[centre + width], data[centre + width + 1]
+        };
+    }
+}
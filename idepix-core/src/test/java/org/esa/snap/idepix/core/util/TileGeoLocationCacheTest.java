@@ -0,0 +1,68 @@
+package org.esa.snap.idepix.core.util;
+
+import org.esa.snap.core.datamodel.Product;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for class {@link TileGeoLocationCache}.
+ */
+public class TileGeoLocationCacheTest {
+
+    private Product product;
+
+    @Before
+    public void setUp() throws Exception {
+        product = TileGeoLocationTest.createCrsProduct();
+    }
+
+    @Test
+    public void testGet_reusesGeoLocationOfSameRectangle() {
+        final TileGeoLocationCache cache = new TileGeoLocationCache(new TileGeoLocationTest.DummyOperator(), product);
+
+        final TileGeoLocation first = cache.get(new Rectangle(0, 0, 5, 6));
+        final TileGeoLocation second = cache.get(new Rectangle(0, 0, 5, 6));
+        final TileGeoLocation other = cache.get(new Rectangle(5, 0, 5, 6));
+
+        assertSame(first, second);
+        assertNotSame(first, other);
+        assertEquals(new Rectangle(5, 0, 5, 6), other.getRectangle());
+        assertEquals(10.5f, other.getLon(5, 0), 1.0e-5f);
+    }
+
+    @Test
+    public void testGet_evictsLeastRecentlyUsed() {
+        final TileGeoLocationCache cache =
+                new TileGeoLocationCache(new TileGeoLocationTest.DummyOperator(), product, 2);
+        final Rectangle a = new Rectangle(0, 0, 5, 6);
+        final Rectangle b = new Rectangle(5, 0, 5, 6);
+        final Rectangle c = new Rectangle(0, 6, 5, 6);
+
+        final TileGeoLocation geoLocationA = cache.get(a);
+        final TileGeoLocation geoLocationB = cache.get(b);
+        // a is used again, so b is the eldest entry when c comes in
+        assertSame(geoLocationA, cache.get(a));
+        cache.get(c);
+
+        assertSame(geoLocationA, cache.get(a));
+        assertNotSame(geoLocationB, cache.get(b));
+    }
+
+    @Test
+    public void testGet_doesNotKeepCallersRectangle() {
+        final TileGeoLocationCache cache = new TileGeoLocationCache(new TileGeoLocationTest.DummyOperator(), product);
+        final Rectangle rectangle = new Rectangle(0, 0, 5, 6);
+
+        final TileGeoLocation geoLocation = cache.get(rectangle);
+        rectangle.translate(5, 0);
+
+        assertEquals(new Rectangle(0, 0, 5, 6), geoLocation.getRectangle());
+        assertSame(geoLocation, cache.get(new Rectangle(0, 0, 5, 6)));
+    }
+}
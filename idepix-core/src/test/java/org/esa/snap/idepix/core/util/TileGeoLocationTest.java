@@ -0,0 +1,132 @@
+package org.esa.snap.idepix.core.util;
+
+import org.esa.snap.core.datamodel.CrsGeoCoding;
+import org.esa.snap.core.datamodel.GeoCoding;
+import org.esa.snap.core.datamodel.GeoPos;
+import org.esa.snap.core.datamodel.PixelPos;
+import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.TiePointGeoCoding;
+import org.esa.snap.core.datamodel.TiePointGrid;
+import org.esa.snap.core.gpf.Operator;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.junit.Test;
+
+import java.awt.Rectangle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Tests for class {@link TileGeoLocation}.
+ */
+public class TileGeoLocationTest {
+
+    private static final int WIDTH = 10;
+    private static final int HEIGHT = 12;
+
+    @Test
+    public void testCrsGeoCoding_pixelCentres() throws Exception {
+        final Product product = createCrsProduct();
+        final Rectangle rectangle = new Rectangle(2, 3, 4, 5);
+
+        final TileGeoLocation geoLocation = TileGeoLocation.create(new DummyOperator(), product, rectangle);
+
+        assertEquals(rectangle, geoLocation.getRectangle());
+        assertEquals(20, geoLocation.getLatitudes().length);
+        assertEquals(20, geoLocation.getLongitudes().length);
+        // the reference pixel (0.5, 0.5) is at (10.0E, 50.0N), so pixel x is at 10.0 + 0.1 * x
+        assertEquals(49.7f, geoLocation.getLat(2, 3), 1.0e-5f);
+        assertEquals(10.2f, geoLocation.getLon(2, 3), 1.0e-5f);
+        assertEquals(49.3f, geoLocation.getLat(5, 7), 1.0e-5f);
+        assertEquals(10.5f, geoLocation.getLon(5, 7), 1.0e-5f);
+        // line by line
+        assertEquals(geoLocation.getLon(5, 3), geoLocation.getLongitudes()[3], 0.0f);
+        assertEquals(geoLocation.getLat(2, 4), geoLocation.getLatitudes()[4], 0.0f);
+
+        assertSameAsGeoCoding(product.getSceneGeoCoding(), geoLocation);
+        // the pixel corner, as used by the former per pixel helpers, is half a pixel off
+        final GeoPos corner = product.getSceneGeoCoding().getGeoPos(new PixelPos(2, 3), null);
+        assertNotEquals(corner.lon, geoLocation.getLon(2, 3), 1.0e-3);
+        assertNotEquals(corner.lat, geoLocation.getLat(2, 3), 1.0e-3);
+    }
+
+    @Test
+    public void testTiePointGeoCoding() {
+        final Product product = createTiePointProduct();
+        final Rectangle rectangle = new Rectangle(1, 4, 6, 7);
+
+        final TileGeoLocation geoLocation = TileGeoLocation.create(new DummyOperator(), product, rectangle);
+
+        assertEquals(42, geoLocation.getLatitudes().length);
+        assertEquals(49.6f, geoLocation.getLat(1, 4), 1.0e-4f);
+        assertEquals(10.1f, geoLocation.getLon(1, 4), 1.0e-4f);
+        assertEquals(49.0f, geoLocation.getLat(6, 10), 1.0e-4f);
+        assertEquals(10.6f, geoLocation.getLon(6, 10), 1.0e-4f);
+
+        assertSameAsGeoCoding(product.getSceneGeoCoding(), geoLocation);
+    }
+
+    @Test
+    public void testComputeGeoPositions() throws Exception {
+        final GeoCoding geoCoding = createCrsProduct().getSceneGeoCoding();
+        final double[] pixelCoords = {0.5, 0.5, 3.0, 4.0, 9.5, 11.5};
+        final float[] latitudes = new float[3];
+        final float[] longitudes = new float[3];
+
+        TileGeoLocation.computeGeoPositions(geoCoding, pixelCoords, 3, latitudes, longitudes);
+
+        assertEquals(50.0f, latitudes[0], 1.0e-5f);
+        assertEquals(10.0f, longitudes[0], 1.0e-5f);
+        assertEquals(49.65f, latitudes[1], 1.0e-5f);
+        assertEquals(10.25f, longitudes[1], 1.0e-5f);
+        assertEquals(48.9f, latitudes[2], 1.0e-5f);
+        assertEquals(10.9f, longitudes[2], 1.0e-5f);
+    }
+
+    static Product createCrsProduct() throws Exception {
+        final Product product = new Product("crs", "test", WIDTH, HEIGHT);
+        product.setSceneGeoCoding(new CrsGeoCoding(DefaultGeographicCRS.WGS84, WIDTH, HEIGHT,
+                                                   10.0, 50.0, 0.1, 0.1));
+        return product;
+    }
+
+    private static Product createTiePointProduct() {
+        final Product product = new Product("tiePoint", "test", WIDTH, HEIGHT);
+        // tie-points at every second pixel centre, linear in x and y, so the interpolation is exact
+        final int gridWidth = WIDTH / 2 + 1;
+        final int gridHeight = HEIGHT / 2 + 1;
+        final float[] lats = new float[gridWidth * gridHeight];
+        final float[] lons = new float[gridWidth * gridHeight];
+        for (int j = 0; j < gridHeight; j++) {
+            for (int i = 0; i < gridWidth; i++) {
+                lats[j * gridWidth + i] = 50.0f - 0.2f * j;
+                lons[j * gridWidth + i] = 10.0f + 0.2f * i;
+            }
+        }
+        final TiePointGrid latGrid = new TiePointGrid("lat", gridWidth, gridHeight, 0.5, 0.5, 2.0, 2.0, lats);
+        final TiePointGrid lonGrid = new TiePointGrid("lon", gridWidth, gridHeight, 0.5, 0.5, 2.0, 2.0, lons);
+        product.addTiePointGrid(latGrid);
+        product.addTiePointGrid(lonGrid);
+        product.setSceneGeoCoding(new TiePointGeoCoding(latGrid, lonGrid));
+        return product;
+    }
+
+    private static void assertSameAsGeoCoding(GeoCoding geoCoding, TileGeoLocation geoLocation) {
+        final Rectangle rectangle = geoLocation.getRectangle();
+        final GeoPos geoPos = new GeoPos();
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                geoCoding.getGeoPos(new PixelPos(x + 0.5, y + 0.5), geoPos);
+                assertEquals(geoPos.lat, geoLocation.getLat(x, y), 1.0e-4);
+                assertEquals(geoPos.lon, geoLocation.getLon(x, y), 1.0e-4);
+            }
+        }
+    }
+
+    static class DummyOperator extends Operator {
+
+        @Override
+        public void initialize() {
+        }
+    }
+}
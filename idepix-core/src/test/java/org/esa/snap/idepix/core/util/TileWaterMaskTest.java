@@ -0,0 +1,51 @@
+package org.esa.snap.idepix.core.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Tests for class {@link TileWaterMask}.
+ */
+public class TileWaterMaskTest {
+
+    @Test
+    public void testOrderByCell() {
+        final float[] lats = {10.5f, 11.5f, 10.2f, 11.1f, 10.9f, 10.1f};
+        final float[] lons = {20.5f, 20.5f, 21.5f, 20.1f, 20.9f, 20.2f};
+
+        final int[] order = TileWaterMask.orderByCell(lats, lons);
+
+        // cell (10N, 20E): 0, 4, 5 - cell (10N, 21E): 2 - cell (11N, 20E): 1, 3
+        assertArrayEquals(new int[]{0, 4, 5, 2, 1, 3}, order);
+    }
+
+    @Test
+    public void testOrderByCell_invalidPositionsFirst() {
+        final float[] lats = {10.5f, Float.NaN, 10.5f, 10.5f};
+        final float[] lons = {21.5f, 20.5f, 20.5f, Float.NaN};
+
+        final int[] order = TileWaterMask.orderByCell(lats, lons);
+
+        assertArrayEquals(new int[]{1, 3, 2, 0}, order);
+    }
+
+    @Test
+    public void testOrderByCell_noValidPosition() {
+        final float[] lats = {Float.NaN, Float.NaN};
+        final float[] lons = {Float.NaN, 1.0f};
+
+        assertArrayEquals(new int[]{0, 1}, TileWaterMask.orderByCell(lats, lons));
+    }
+
+    @Test
+    public void testOrderByCell_antimeridianAndPoles() {
+        final float[] lats = {90.0f, -90.0f, 0.5f, 0.5f, 89.5f};
+        final float[] lons = {180.0f, -180.0f, 179.5f, -179.5f, 0.5f};
+
+        final int[] order = TileWaterMask.orderByCell(lats, lons);
+
+        // 180E is the same cell as 180W; lat 90 is put into the northernmost cell
+        assertArrayEquals(new int[]{1, 3, 2, 0, 4}, order);
+    }
+}
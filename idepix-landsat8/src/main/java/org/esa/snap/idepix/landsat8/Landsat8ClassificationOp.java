@@ -3,12 +3,12 @@ package org.esa.snap.idepix.landsat8;
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.util.IdepixIO;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.FlagCoding;
-import org.esa.snap.core.datamodel.GeoCoding;
-import org.esa.snap.core.datamodel.GeoPos;
-import org.esa.snap.core.datamodel.PixelPos;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.gpf.Operator;
@@ -218,6 +218,7 @@ public class Landsat8ClassificationOp extends Operator {
     private static final int L8_F_DESIGNATED_FILL = 0;
     private static final int L8_F_WATER_CONFIDENCE_HIGH = 5;  // todo: do we need this?
     private String cloudFlagBandName;
+    private boolean skipInvalidTiles;
 
     private ThreadLocal<SchillerNeuralNetWrapper> landsat8CloudNet;
 
@@ -226,6 +227,7 @@ public class Landsat8ClassificationOp extends Operator {
         initCloudNet();
         setBands();
         createTargetProduct();
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
 
         if (waterMaskProduct != null) {
             landWaterBand = waterMaskProduct.getBand("land_water_fraction");
@@ -238,10 +240,28 @@ public class Landsat8ClassificationOp extends Operator {
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, rectangle);
+        try {
+            computeTileStackImpl(targetTiles, rectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
+        final Band l8FlagBand = sourceProduct.getBand(Landsat8Constants.Landsat8_FLAGS_NAME);
+        final Tile l8FlagTile = getSourceTile(l8FlagBand, rectangle);
+        if (skipInvalidTiles && InvalidTiles.isFlagSetEverywhere(l8FlagTile, rectangle, L8_F_DESIGNATED_FILL)) {
+            InvalidTiles.setInvalid(targetTiles, targetProduct.getBand(cloudFlagBandName));
+            return;
+        }
+
         // MERIS variables
         Tile landWaterTile = null;
+        TileGeoLocation geoLocation = null;
         if (waterMaskProduct != null) {
             landWaterTile = getSourceTile(landWaterBand, rectangle);
+            geoLocation = TileGeoLocation.create(this, sourceProduct, rectangle);
         }
 
         Tile clostTile = null;
@@ -251,9 +271,6 @@ public class Landsat8ClassificationOp extends Operator {
             otsuTile = getSourceTile(otsuBand, rectangle);
         }
 
-        final Band l8FlagBand = sourceProduct.getBand(Landsat8Constants.Landsat8_FLAGS_NAME);
-        final Tile l8FlagTile = getSourceTile(l8FlagBand, rectangle);
-
         Tile[] l8ReflectanceTiles = new Tile[Landsat8Constants.LANDSAT8_NUM_SPECTRAL_BANDS];
         for (int i = 0; i < Landsat8Constants.LANDSAT8_NUM_SPECTRAL_BANDS; i++) {
             l8ReflectanceTiles[i] = getSourceTile(l8ReflectanceBands[i], rectangle);
@@ -264,6 +281,14 @@ public class Landsat8ClassificationOp extends Operator {
 //        final Tile darkGlintTest1TargetTile = targetTiles.get(targetProduct.getBand(DARK_GLINT_TEST_ONE_BAND_NAME));
 //        final Tile darkGlintTest2TargetTile = targetTiles.get(targetProduct.getBand(DARK_Glint_TEST_TWO_BAND_NAME));
 
+        // the algorithms of a tile row are set up first, so that the net runs for the whole row in one batch
+        final SchillerNeuralNetWrapper nnWrapper = landsat8CloudNet.get();
+        final int numNNInputs = nnWrapper.getNumInputs();
+        final int numNNOutputs = nnWrapper.getNumOutputs();
+        final Landsat8Algorithm[] landsat8Algorithms = new Landsat8Algorithm[rectangle.width];
+        final double[] nnInputs = new double[rectangle.width * numNNInputs];
+        final double[] nnOutputs = new double[rectangle.width * numNNOutputs];
+        final double[] nnResult = new double[numNNOutputs];
         try {
             for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
                 checkForCancellation();
@@ -278,17 +303,26 @@ public class Landsat8ClassificationOp extends Operator {
 //                    }
 
                     // set up pixel properties for given instruments...
-                    Landsat8Algorithm landsat8Algorithm = createLandsat8Algorithm(
+                    landsat8Algorithms[x - rectangle.x] = createLandsat8Algorithm(
                             l8ReflectanceTiles,
                             l8FlagTile,
                             landWaterTile,
+                            geoLocation,
                             clostTile,
                             otsuTile,
-                            x, y
+                            x, y,
+                            nnWrapper, nnInputs, (x - rectangle.x) * numNNInputs
                     );
+                }
+                nnWrapper.calc(nnInputs, nnOutputs, rectangle.width);
+
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    final Landsat8Algorithm landsat8Algorithm = landsat8Algorithms[x - rectangle.x];
+                    System.arraycopy(nnOutputs, (x - rectangle.x) * numNNOutputs, nnResult, 0, numNNOutputs);
+                    landsat8Algorithm.setNnResult(nnResult);
 
                     setCloudFlag(cloudFlagTargetTile, x, y, landsat8Algorithm);
-                    nnResultTargetTile.setSample(x, y, landsat8Algorithm.getNnResult()[0]);
+                    nnResultTargetTile.setSample(x, y, nnResult[0]);
 //                    darkGlintTest1TargetTile.setSample(x, y, landsat8Algorithm.isDarkGlintTest1());
 //                    darkGlintTest2TargetTile.setSample(x, y, landsat8Algorithm.isDarkGlintTest2());
                 }
@@ -334,9 +368,9 @@ public class Landsat8ClassificationOp extends Operator {
         ProductUtils.copyMetadata(sourceProduct, targetProduct);
     }
 
-    private boolean isLandPixelSrtmBeam(int x, int y, Tile l8FlagTile, int waterFraction) {
+    private boolean isLandPixelSrtmBeam(int x, int y, float lat, Tile l8FlagTile, int waterFraction) {
         // this uses the SRTM Land/Water mask as implemented as BEAM plugin
-        if (getGeoPos(x, y).lat > WATER_MASK_SOUTH_BOUND) {
+        if (lat > WATER_MASK_SOUTH_BOUND) {
             // values bigger than 100 indicate no data
             if (waterFraction <= 100) {
                 // todo: this does not work if we have a PixelGeocoding. In that case, waterFraction
@@ -350,14 +384,6 @@ public class Landsat8ClassificationOp extends Operator {
         }
     }
 
-    private GeoPos getGeoPos(int x, int y) {
-        final GeoPos geoPos = new GeoPos();
-        final GeoCoding geoCoding = getSourceProduct().getSceneGeoCoding();
-        final PixelPos pixelPos = new PixelPos(x, y);
-        geoCoding.getGeoPos(pixelPos, geoPos);
-        return geoPos;
-    }
-
     private void setCloudFlag(Tile targetTile, int x, int y, Landsat8Algorithm l8Algorithm) {
         // for given instrument, compute boolean pixel properties and write to cloud flag band
         targetTile.setSample(x, y, IdepixConstants.IDEPIX_INVALID, l8Algorithm.isInvalid());
@@ -384,15 +410,18 @@ public class Landsat8ClassificationOp extends Operator {
     private Landsat8Algorithm createLandsat8Algorithm(Tile[] l8ReflectanceTiles,
                                                       Tile l8FlagTile,
                                                       Tile landWaterTile,
+                                                      TileGeoLocation geoLocation,
                                                       Tile clostTile,
                                                       Tile otsuTile,
-                                                      int x, int y) {
+                                                      int x, int y,
+                                                      SchillerNeuralNetWrapper nnWrapper,
+                                                      double[] nnInputs, int nnInputOffset) {
         Landsat8Algorithm l8Algorithm = new Landsat8Algorithm();
 
         boolean isLand = false;
         if (waterMaskProduct != null) {
             final int waterFraction = landWaterTile.getSampleInt(x, y);
-            isLand = isLandPixelSrtmBeam(x, y, l8FlagTile, waterFraction);
+            isLand = isLandPixelSrtmBeam(x, y, geoLocation.getLat(x, y), l8FlagTile, waterFraction);
         }
 
         float[] l8Reflectance = new float[Landsat8Constants.LANDSAT8_NUM_SPECTRAL_BANDS];
@@ -434,13 +463,14 @@ public class Landsat8ClassificationOp extends Operator {
         l8Algorithm.setWhitenessBand2Water(whitenessBand2Water);
         l8Algorithm.setWhitenessThreshWater(whitenessThreshWater);
 
-        double[] netResult = calcNeuralNetResult(l8Reflectance);
-        l8Algorithm.setNnResult(netResult);
+        // the net result is set once the net has run for the whole tile row
+        setNeuralNetInputs(l8Reflectance, nnWrapper, nnInputs, nnInputOffset);
 
         return l8Algorithm;
     }
 
-    private double[] calcNeuralNetResult(float[] l8Reflectance) {
+    private void setNeuralNetInputs(float[] l8Reflectance, SchillerNeuralNetWrapper neuralNetWrapper,
+                                    double[] cloudNetInputs, int offset) {
         // NNs and input bands being used:
 //        ALL("ALL", "20x4x2_1012.9.net", [default]: coastal_aerosol, blue, green, red, nir, swir1, swir2, cirrus
 //        LAND("LAND", "16x6x2_735.5.net", : coastal_aerosol, blue, green, red, nir, swir1, swir2, cirrus
@@ -450,20 +480,17 @@ public class Landsat8ClassificationOp extends Operator {
 //        WATER_USE_THERMAL("WATER_USE_THERMAL", "12x4x2_305.0.net", : coastal_aerosol, blue, green, red, nir, swir1, swir2, cirrus, tirs1, tirs2
 //        WATER_NOTIDAL_USE_THERMAL("WATER_NOTIDAL_USE_THERMAL", "12x4x2_307.5.net", : coastal_aerosol, blue, green, red, nir, swir1, swir2, cirrus, tirs1, tirs2
 
-        SchillerNeuralNetWrapper neuralNetWrapper = landsat8CloudNet.get();
-        double[] cloudNetInput = neuralNetWrapper.getInputVector();
         for (int i = 0; i < 7; i++) {
-            cloudNetInput[i] = Math.sqrt(l8Reflectance[i]);
+            cloudNetInputs[offset + i] = Math.sqrt(l8Reflectance[i]);
         }
         // cirrus band can have negative values
         // --> not allowing values lower as the net minimum
         // note that panchromatic band (l8Reflectance[8]) is not used as NN input and skipped!
-        cloudNetInput[7] = Math.max(Math.sqrt((double) l8Reflectance[8]), neuralNetWrapper.getNeuralNet().getInmin()[7]);
+        cloudNetInputs[offset + 7] = Math.max(Math.sqrt((double) l8Reflectance[8]), neuralNetWrapper.getInMin(7));
         if (nnSelector.getLabel().endsWith("_USE_THERMAL")) {
-            cloudNetInput[8] = Math.sqrt(l8Reflectance[9]);
-            cloudNetInput[9] = Math.sqrt(l8Reflectance[10]);
+            cloudNetInputs[offset + 8] = Math.sqrt(l8Reflectance[9]);
+            cloudNetInputs[offset + 9] = Math.sqrt(l8Reflectance[10]);
         }
-        return neuralNetWrapper.getNeuralNet().calc(cloudNetInput);
     }
 
 
@@ -14,8 +14,11 @@ import org.esa.snap.core.util.RectangleExtender;
 import org.esa.snap.idepix.core.CloudShadowFronts;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.operators.CloudBuffer;
-import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.idepix.core.util.OperatorUtils;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
 
 import java.awt.*;
 
@@ -61,13 +64,16 @@ public class Landsat8PostProcessOp extends Operator {
 
     private Band waterFractionBand;
     private Band origCloudFlagBand;
-    private GeoCoding geoCoding;
+    private boolean coastlineByLatitude;
 
     private RectangleExtender rectCalculator;
+    private boolean skipInvalidTiles;
 
     @Override
     public void initialize() throws OperatorException {
 
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
+
         if (!computeCloudBuffer && !computeCloudShadow && !refineClassificationNearCoastlines) {
             setTargetProduct(landsatCloudProduct);
         } else {
@@ -78,7 +84,8 @@ public class Landsat8PostProcessOp extends Operator {
                 waterFractionBand = waterMaskProduct.getBand("land_water_fraction");
             }
 
-            geoCoding = landsatCloudProduct.getSceneGeoCoding();
+            final GeoCoding geoCoding = landsatCloudProduct.getSceneGeoCoding();
+            coastlineByLatitude = geoCoding instanceof TiePointGeoCoding || geoCoding instanceof CrsGeoCoding;
 
             final String cloudClassifBandName = IdepixConstants.CLASSIF_BAND_NAME;
             origCloudFlagBand = landsatCloudProduct.getBand(cloudClassifBandName);
@@ -98,151 +105,116 @@ public class Landsat8PostProcessOp extends Operator {
 
     @Override
     public void computeTile(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
         Rectangle targetRectangle = targetTile.getRectangle();
         final Rectangle srcRectangle = rectCalculator.extend(targetRectangle);
 
         final Tile sourceFlagTile = getSourceTile(origCloudFlagBand, srcRectangle);
+        if (skipInvalidTiles &&
+                InvalidTiles.isFlagSetEverywhere(sourceFlagTile, srcRectangle, IdepixConstants.IDEPIX_INVALID)) {
+            InvalidTiles.copyFlags(sourceFlagTile, targetTile);
+            return;
+        }
         Tile waterFractionTile = null;
         if (waterFractionBand != null) {
             waterFractionTile = getSourceTile(waterFractionBand, srcRectangle);
         }
+        TileGeoLocation geoLocation = null;
+        if (refineClassificationNearCoastlines && waterFractionTile != null && coastlineByLatitude) {
+            geoLocation = TileGeoLocation.create(this, landsatCloudProduct, srcRectangle);
+        }
 
+        final FlagAccumulator flags = new FlagAccumulator(targetRectangle);
         for (int y = srcRectangle.y; y < srcRectangle.y + srcRectangle.height; y++) {
             checkForCancellation();
             for (int x = srcRectangle.x; x < srcRectangle.x + srcRectangle.width; x++) {
 
                 if (targetRectangle.contains(x, y)) {
-                    combineFlags(x, y, sourceFlagTile, targetTile);
+                    flags.combine(x, y, sourceFlagTile);
 
-                    postProcess(x, y, targetTile, srcRectangle, sourceFlagTile, waterFractionTile,
+                    postProcess(x, y, flags, srcRectangle, sourceFlagTile, waterFractionTile, geoLocation,
                                 Landsat8Constants.IDEPIX_CLOUD_SHIMEZ);
-                    postProcess(x, y, targetTile, srcRectangle, sourceFlagTile, waterFractionTile,
+                    postProcess(x, y, flags, srcRectangle, sourceFlagTile, waterFractionTile, geoLocation,
                                 Landsat8Constants.IDEPIX_CLOUD_HOT);
-                    postProcess(x, y, targetTile, srcRectangle, sourceFlagTile, waterFractionTile,
+                    postProcess(x, y, flags, srcRectangle, sourceFlagTile, waterFractionTile, geoLocation,
                                 Landsat8Constants.IDEPIX_CLOUD_OTSU);
-                    postProcess(x, y, targetTile, srcRectangle, sourceFlagTile, waterFractionTile,
+                    postProcess(x, y, flags, srcRectangle, sourceFlagTile, waterFractionTile, geoLocation,
                                 Landsat8Constants.IDEPIX_CLOUD_CLOST);
 
-                    postProcess(x, y, targetTile, srcRectangle, sourceFlagTile, waterFractionTile,
+                    postProcess(x, y, flags, srcRectangle, sourceFlagTile, waterFractionTile, geoLocation,
                                 IdepixConstants.IDEPIX_CLOUD_SURE);
-                    targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD,
-                                         targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD_SURE));
+                    flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD,
+                                  flags.getFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE));
                 }
             }
         }
 
         if (computeCloudBuffer) {
-            for (int y = srcRectangle.y; y < srcRectangle.y + srcRectangle.height; y++) {
-                for (int x = srcRectangle.x; x < srcRectangle.x + srcRectangle.width; x++) {
-                    // SHIMEZ
-                    final boolean isCloudShimez = sourceFlagTile.getSampleBit(x, y, Landsat8Constants.IDEPIX_CLOUD_SHIMEZ);
-                    if (isCloudShimez) {
-                        CloudBuffer.computeSimpleCloudBuffer(x, y,
-                                                             targetTile,
-                                                             srcRectangle,
-                                                             cloudBufferWidth,
-                                                             Landsat8Constants.IDEPIX_CLOUD_SHIMEZ_BUFFER);
-                    }
-                    // HOT
-                    final boolean isCloudHot = sourceFlagTile.getSampleBit(x, y, Landsat8Constants.IDEPIX_CLOUD_HOT);
-                    if (isCloudHot) {
-                        CloudBuffer.computeSimpleCloudBuffer(x, y,
-                                                             targetTile,
-                                                             srcRectangle,
-                                                             cloudBufferWidth,
-                                                             Landsat8Constants.IDEPIX_CLOUD_HOT_BUFFER);
-                    }
-                    // OTSU
-                    final boolean isCloudOtsu = sourceFlagTile.getSampleBit(x, y, Landsat8Constants.IDEPIX_CLOUD_OTSU);
-                    if (isCloudOtsu) {
-                        CloudBuffer.computeSimpleCloudBuffer(x, y,
-                                                             targetTile,
-                                                             srcRectangle,
-                                                             cloudBufferWidth,
-                                                             Landsat8Constants.IDEPIX_CLOUD_OTSU_BUFFER);
-                    }
-                    // CLOST
-                    final boolean isCloudClost = sourceFlagTile.getSampleBit(x, y, Landsat8Constants.IDEPIX_CLOUD_CLOST);
-                    if (isCloudClost) {
-                        CloudBuffer.computeSimpleCloudBuffer(x, y,
-                                                             targetTile,
-                                                             srcRectangle,
-                                                             cloudBufferWidth,
-                                                             Landsat8Constants.IDEPIX_CLOUD_CLOST_BUFFER);
-                    }
-                    // overall
-                    final boolean isCloud = sourceFlagTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
-                    if (isCloud) {
-                        CloudBuffer.computeSimpleCloudBuffer(x, y,
-                                                             targetTile,
-                                                             srcRectangle,
-                                                             cloudBufferWidth,
-                                                             IdepixConstants.IDEPIX_CLOUD_BUFFER);
-                    }
-                }
-            }
-
-            for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
-                checkForCancellation();
-                for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                    consolidateLandsatCloudsAndBuffers(targetTile, x, y,
-                                                       Landsat8Constants.IDEPIX_CLOUD_SHIMEZ,
-                                                       Landsat8Constants.IDEPIX_CLOUD_SHIMEZ_BUFFER);
-                    consolidateLandsatCloudsAndBuffers(targetTile, x, y,
-                                                       Landsat8Constants.IDEPIX_CLOUD_HOT,
-                                                       Landsat8Constants.IDEPIX_CLOUD_HOT_BUFFER);
-                    consolidateLandsatCloudsAndBuffers(targetTile, x, y,
-                                                       Landsat8Constants.IDEPIX_CLOUD_OTSU,
-                                                       Landsat8Constants.IDEPIX_CLOUD_OTSU_BUFFER);
-                    consolidateLandsatCloudsAndBuffers(targetTile, x, y,
-                                                       Landsat8Constants.IDEPIX_CLOUD_CLOST,
-                                                       Landsat8Constants.IDEPIX_CLOUD_CLOST_BUFFER);
-                    IdepixUtils.consolidateCloudAndBuffer(targetTile, x, y);
-                }
-            }
+            CloudBuffer.setCloudBuffer(flags, srcRectangle, sourceFlagTile, cloudBufferWidth,
+                                       Landsat8Constants.IDEPIX_CLOUD_SHIMEZ,
+                                       Landsat8Constants.IDEPIX_CLOUD_SHIMEZ_BUFFER, false);
+            CloudBuffer.setCloudBuffer(flags, srcRectangle, sourceFlagTile, cloudBufferWidth,
+                                       Landsat8Constants.IDEPIX_CLOUD_HOT,
+                                       Landsat8Constants.IDEPIX_CLOUD_HOT_BUFFER, false);
+            CloudBuffer.setCloudBuffer(flags, srcRectangle, sourceFlagTile, cloudBufferWidth,
+                                       Landsat8Constants.IDEPIX_CLOUD_OTSU,
+                                       Landsat8Constants.IDEPIX_CLOUD_OTSU_BUFFER, false);
+            CloudBuffer.setCloudBuffer(flags, srcRectangle, sourceFlagTile, cloudBufferWidth,
+                                       Landsat8Constants.IDEPIX_CLOUD_CLOST,
+                                       Landsat8Constants.IDEPIX_CLOUD_CLOST_BUFFER, false);
+            CloudBuffer.setCloudBuffer(flags, srcRectangle, sourceFlagTile, cloudBufferWidth,
+                                       IdepixConstants.IDEPIX_CLOUD,
+                                       IdepixConstants.IDEPIX_CLOUD_BUFFER, false);
+
+            flags.consolidateCloudAndBuffer(Landsat8Constants.IDEPIX_CLOUD_SHIMEZ,
+                                            Landsat8Constants.IDEPIX_CLOUD_SHIMEZ_BUFFER);
+            flags.consolidateCloudAndBuffer(Landsat8Constants.IDEPIX_CLOUD_HOT,
+                                            Landsat8Constants.IDEPIX_CLOUD_HOT_BUFFER);
+            flags.consolidateCloudAndBuffer(Landsat8Constants.IDEPIX_CLOUD_OTSU,
+                                            Landsat8Constants.IDEPIX_CLOUD_OTSU_BUFFER);
+            flags.consolidateCloudAndBuffer(Landsat8Constants.IDEPIX_CLOUD_CLOST,
+                                            Landsat8Constants.IDEPIX_CLOUD_CLOST_BUFFER);
+            flags.consolidateCloudAndBuffer();
         }
+        flags.writeTo(targetTile);
 
         if (computeCloudShadow) {
             // todo: algorithm needed
         }
     }
 
-    private static void consolidateLandsatCloudsAndBuffers(Tile targetTile, int x, int y,
-                                                           int cloudFlagBit, int cloudBufferFlagBit) {
-        if (targetTile.getSampleBit(x, y, cloudFlagBit)) {
-            targetTile.setSample(x, y, cloudBufferFlagBit, false);
-        }
-    }
-
-    private void postProcess(int x, int y, Tile targetTile, Rectangle srcRectangle, Tile sourceFlagTile, Tile waterFractionTile,
-                             int cloudFlagBit) {
+    private void postProcess(int x, int y, FlagAccumulator flags, Rectangle srcRectangle, Tile sourceFlagTile,
+                             Tile waterFractionTile, TileGeoLocation geoLocation, int cloudFlagBit) {
         boolean isCloud = sourceFlagTile.getSampleBit(x, y, cloudFlagBit);
         if (refineClassificationNearCoastlines && waterFractionTile != null) {
-            if (isNearCoastline(x, y, waterFractionTile, srcRectangle)) {
-                targetTile.setSample(x, y, IdepixConstants.IDEPIX_COASTLINE, true);
-                refineSnowIceFlaggingForCoastlines(x, y, sourceFlagTile, targetTile);
+            if (isNearCoastline(x, y, waterFractionTile, geoLocation, srcRectangle)) {
+                flags.setFlag(x, y, IdepixConstants.IDEPIX_COASTLINE, true);
+                refineSnowIceFlaggingForCoastlines(x, y, sourceFlagTile, flags);
                 if (isCloud) {
                     refineCloudFlaggingForCoastlines(x, y, cloudFlagBit,
-                                                     sourceFlagTile, waterFractionTile, targetTile, srcRectangle);
+                                                     sourceFlagTile, waterFractionTile, geoLocation, flags,
+                                                     srcRectangle);
                 }
             }
         }
-        boolean isCloudAfterRefinement = targetTile.getSampleBit(x, y, cloudFlagBit);
+        boolean isCloudAfterRefinement = flags.getFlag(x, y, cloudFlagBit);
         if (isCloudAfterRefinement) {
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
         }
     }
 
-    private void combineFlags(int x, int y, Tile sourceFlagTile, Tile targetTile) {
-        int sourceFlags = sourceFlagTile.getSampleInt(x, y);
-        int computedFlags = targetTile.getSampleInt(x, y);
-        targetTile.setSample(x, y, sourceFlags | computedFlags);
-    }
-
-    private boolean isCoastlinePixel(int x, int y, Tile waterFractionTile) {
+    private boolean isCoastlinePixel(int x, int y, Tile waterFractionTile, TileGeoLocation geoLocation) {
         boolean isCoastline = false;
         // the water mask ends at 59 Degree south, stop earlier to avoid artefacts
-        if (IdepixUtils.getGeoPos(geoCoding, x, y).lat > -58f) {
+        if (geoLocation.getLat(x, y) > -58f) {
             final int waterFraction = waterFractionTile.getSampleInt(x, y);
             // values bigger than 100 indicate no data
             if (waterFraction <= 100) {
@@ -254,7 +226,8 @@ public class Landsat8PostProcessOp extends Operator {
         return isCoastline;
     }
 
-    private boolean isNearCoastline(int x, int y, Tile waterFractionTile, Rectangle rectangle) {
+    private boolean isNearCoastline(int x, int y, Tile waterFractionTile, TileGeoLocation geoLocation,
+                                    Rectangle rectangle) {
         final int windowWidth = 1;
         final int LEFT_BORDER = Math.max(x - windowWidth, rectangle.x);
         final int RIGHT_BORDER = Math.min(x + windowWidth, rectangle.x + rectangle.width - 1);
@@ -264,13 +237,12 @@ public class Landsat8PostProcessOp extends Operator {
         for (int i = LEFT_BORDER; i <= RIGHT_BORDER; i++) {
             for (int j = TOP_BORDER; j <= BOTTOM_BORDER; j++) {
                 if (rectangle.contains(i, j)) {
-                    if (!(landsatCloudProduct.getSceneGeoCoding() instanceof TiePointGeoCoding) &&
-                            !(landsatCloudProduct.getSceneGeoCoding() instanceof CrsGeoCoding)) {
+                    if (!coastlineByLatitude) {
                         if (waterFractionTile.getSampleInt(i, j) != waterFractionCenter) {
                             return true;
                         }
                     } else {
-                        if (isCoastlinePixel(i, j, waterFractionTile)) {
+                        if (isCoastlinePixel(i, j, waterFractionTile, geoLocation)) {
                             return true;
                         }
                     }
@@ -281,7 +253,8 @@ public class Landsat8PostProcessOp extends Operator {
     }
 
     private void refineCloudFlaggingForCoastlines(int x, int y, int cloudFlagBit,
-                                                  Tile sourceFlagTile, Tile waterFractionTile, Tile targetTile,
+                                                  Tile sourceFlagTile, Tile waterFractionTile,
+                                                  TileGeoLocation geoLocation, FlagAccumulator flags,
                                                   Rectangle srcRectangle) {
         final int windowWidth = 1;
         final int LEFT_BORDER = Math.max(x - windowWidth, srcRectangle.x);
@@ -292,11 +265,11 @@ public class Landsat8PostProcessOp extends Operator {
         if (CloudShadowFronts.isPixelSurrounded(x, y, sourceFlagTile, cloudFlagBit)) {
             removeCloudFlag = false;
         } else {
-            Rectangle targetTileRectangle = targetTile.getRectangle();
+            Rectangle targetTileRectangle = flags.getRectangle();
             for (int i = LEFT_BORDER; i <= RIGHT_BORDER; i++) {
                 for (int j = TOP_BORDER; j <= BOTTOM_BORDER; j++) {
                     boolean is_cloud = sourceFlagTile.getSampleBit(i, j, cloudFlagBit);
-                    if (is_cloud && targetTileRectangle.contains(i, j) && !isNearCoastline(i, j, waterFractionTile, srcRectangle)) {
+                    if (is_cloud && targetTileRectangle.contains(i, j) && !isNearCoastline(i, j, waterFractionTile, geoLocation, srcRectangle)) {
                         removeCloudFlag = false;
                         break;
                     }
@@ -305,20 +278,20 @@ public class Landsat8PostProcessOp extends Operator {
         }
 
         if (removeCloudFlag) {
-            targetTile.setSample(x, y, Landsat8Constants.IDEPIX_CLOUD_SHIMEZ, false);
-            targetTile.setSample(x, y, Landsat8Constants.IDEPIX_CLOUD_CLOST, false);
-            targetTile.setSample(x, y, Landsat8Constants.IDEPIX_CLOUD_HOT, false);
-            targetTile.setSample(x, y, Landsat8Constants.IDEPIX_CLOUD_OTSU, false);
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
+            flags.setFlag(x, y, Landsat8Constants.IDEPIX_CLOUD_SHIMEZ, false);
+            flags.setFlag(x, y, Landsat8Constants.IDEPIX_CLOUD_CLOST, false);
+            flags.setFlag(x, y, Landsat8Constants.IDEPIX_CLOUD_HOT, false);
+            flags.setFlag(x, y, Landsat8Constants.IDEPIX_CLOUD_OTSU, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
         }
     }
 
-    private void refineSnowIceFlaggingForCoastlines(int x, int y, Tile sourceFlagTile, Tile targetTile) {
+    private void refineSnowIceFlaggingForCoastlines(int x, int y, Tile sourceFlagTile, FlagAccumulator flags) {
         final boolean isSnowIce = sourceFlagTile.getSampleBit(x, y, IdepixConstants.IDEPIX_SNOW_ICE);
         if (isSnowIce) {
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
         }
     }
 
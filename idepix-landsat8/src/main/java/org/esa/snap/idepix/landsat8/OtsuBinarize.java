@@ -1,138 +1,93 @@
 package org.esa.snap.idepix.landsat8;
 
-import java.awt.*;
-import java.awt.image.BufferedImage;
-
 /**
- * Image binarisation - Otsu algorithm
- *
- * Author: Bostjan Cigan (http://zerocool.is-a-geek.net)
- *
+ * Image binarisation - Otsu algorithm, working on grey levels 0..255
+ * (see e.g. http://zerocool.is-a-geek.net/java-image-binarization/)
+ * <p>
+ * Grey levels are derived from band values by the linear (or logarithmic) stretch of the band's image info,
+ * followed by the luminance weighting of the former RGB based implementation.
  */
 class OtsuBinarize {
 
+    static final int NUM_GREY_LEVELS = 256;
+
+    static final int BINARY_BELOW_THRESHOLD = 1;
+    static final int BINARY_ABOVE_THRESHOLD = 255;
+
     /**
-     * Provides grayscale from original image (luminance method)
+     * Provides the grey level of a band value.
      *
-     * @param original - original image
+     * @param value     - the band value
+     * @param min       - the band value mapped to grey level 0
+     * @param max       - the band value mapped to the upper end of grey level 255
+     * @param logScaled - whether the stretch is logarithmic
      *
-     * @return - grayscale image
+     * @return - the grey level
      */
-    static BufferedImage toGray(BufferedImage original) {
-
-        int alpha, red, green, blue;
-        int newPixel;
-
-        BufferedImage lum = new BufferedImage(original.getWidth(), original.getHeight(), original.getType());
-
-        for (int i = 0; i < original.getWidth(); i++) {
-            for (int j = 0; j < original.getHeight(); j++) {
-
-                // Get pixels by R, G, B
-                alpha = new Color(original.getRGB(i, j)).getAlpha();
-                red = new Color(original.getRGB(i, j)).getRed();
-                green = new Color(original.getRGB(i, j)).getGreen();
-                blue = new Color(original.getRGB(i, j)).getBlue();
-
-                red = (int) (0.21 * red + 0.71 * green + 0.07 * blue);
-                // Return back to original format
-                newPixel = colorToRGB(alpha, red, red, red);
-
-                // Write pixels into image
-                lum.setRGB(i, j, newPixel);
-
-            }
+    static int toGrey(double value, double min, double max, boolean logScaled) {
+        double v = value;
+        double vMin = min;
+        double vMax = max;
+        if (logScaled) {
+            v = Math.log10(v);
+            vMin = Math.log10(vMin);
+            vMax = Math.log10(vMax);
         }
-
-        return lum;
-
+        if (Double.isNaN(v) || vMax <= vMin) {
+            return 0;
+        }
+        int level = (int) Math.floor(NUM_GREY_LEVELS * (v - vMin) / (vMax - vMin));
+        if (level < 0) {
+            level = 0;
+        } else if (level > NUM_GREY_LEVELS - 1) {
+            level = NUM_GREY_LEVELS - 1;
+        }
+        // luminance method applied to a grey RGB value
+        return (int) (0.21 * level + 0.71 * level + 0.07 * level);
     }
 
     /**
-     * Provides binarized from original image (luminance method)
+     * Provides the binarized value of a grey level
      *
-     * @param original - original image
+     * @param grey      - the grey level
+     * @param threshold - the Otsu threshold
      *
-     * @return - binarized image
+     * @return - the binarized value
      */
-    static BufferedImage binarize(BufferedImage original) {
-
-        int red;
-        int newPixel;
-
-        int threshold = otsuTreshold(original);
-
-        BufferedImage binarized = new BufferedImage(original.getWidth(), original.getHeight(), original.getType());
-
-        for (int i = 0; i < original.getWidth(); i++) {
-            for (int j = 0; j < original.getHeight(); j++) {
-
-                // Get pixels
-                red = new Color(original.getRGB(i, j)).getRed();
-                int alpha = new Color(original.getRGB(i, j)).getAlpha();
-                if (red > threshold) {
-                    newPixel = 255;
-                } else {
-                    newPixel = 1;
-//                    newPixel = 0;
-                }
-                newPixel = colorToRGB(alpha, newPixel, newPixel, newPixel);
-                binarized.setRGB(i, j, newPixel);
-            }
-        }
-
-        return binarized;
-
+    static int binarize(int grey, int threshold) {
+        return grey > threshold ? BINARY_ABOVE_THRESHOLD : BINARY_BELOW_THRESHOLD;
     }
 
     /**
-     * Provides a histogram of the grayscale image
+     * Get binary treshold using Otsu's method
      *
-     * @param input - the grayscale image
+     * @param histogram - the histogram of grey levels
      *
-     * @return - the histogram
+     * @return - the threshold
      */
-    private static int[] imageHistogram(BufferedImage input) {
-
-        int[] histogram = new int[256];
-
-        for (int i = 0; i < histogram.length; i++) histogram[i] = 0;
-
-        for (int i = 0; i < input.getWidth(); i++) {
-            for (int j = 0; j < input.getHeight(); j++) {
-                int red = new Color(input.getRGB(i, j)).getRed();
-                histogram[red]++;
-            }
-        }
+    static int otsuTreshold(int[] histogram) {
 
-        return histogram;
-
-    }
-
-    // Get binary treshold using Otsu's method
-    private static int otsuTreshold(BufferedImage original) {
-
-        int[] histogram = imageHistogram(original);
-        int total = original.getHeight() * original.getWidth();
+        long total = 0;
+        for (int i = 0; i < NUM_GREY_LEVELS; i++) total += histogram[i];
 
         float sum = 0;
-        for (int i = 0; i < 256; i++) sum += i * histogram[i];
+        for (int i = 0; i < NUM_GREY_LEVELS; i++) sum += (float) i * histogram[i];
 
         float sumB = 0;
-        int wB = 0;
-        int wF;
+        long wB = 0;
+        long wF;
 
         float varMax = 0;
         int threshold = 0;
 
-        for (int i = 0; i < 256; i++) {
+        for (int i = 0; i < NUM_GREY_LEVELS; i++) {
             wB += histogram[i];
             if (wB == 0) continue;
             wF = total - wB;
 
             if (wF == 0) break;
 
-            sumB += (float) (i * histogram[i]);
+            sumB += (float) i * histogram[i];
             float mB = sumB / wB;
             float mF = (sum - sumB) / wF;
 
@@ -147,20 +102,4 @@ class OtsuBinarize {
         return threshold;
 
     }
-
-    // Convert R, G, B, Alpha to standard 8 bit
-    private static int colorToRGB(int alpha, int red, int green, int blue) {
-
-        int newPixel = 0;
-        newPixel += alpha;
-        newPixel = newPixel << 8;
-        newPixel += red;
-        newPixel = newPixel << 8;
-        newPixel += green;
-        newPixel = newPixel << 8;
-        newPixel += blue;
-
-        return newPixel;
-
-    }
 }
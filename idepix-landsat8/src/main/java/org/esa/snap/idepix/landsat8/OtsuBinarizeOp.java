@@ -4,32 +4,31 @@ import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.ImageInfo;
 import org.esa.snap.core.datamodel.Product;
+import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.datamodel.RasterDataNode;
 import org.esa.snap.core.gpf.Operator;
 import org.esa.snap.core.gpf.OperatorException;
 import org.esa.snap.core.gpf.OperatorSpi;
+import org.esa.snap.core.gpf.Tile;
 import org.esa.snap.core.gpf.annotations.OperatorMetadata;
 import org.esa.snap.core.gpf.annotations.Parameter;
 import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.snap.core.gpf.annotations.TargetProduct;
-import org.esa.snap.core.image.ImageManager;
 import org.esa.snap.core.util.ProductUtils;
-import org.esa.snap.core.util.jai.SingleBandedSampleModel;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 
-import javax.media.jai.ImageLayout;
-import javax.media.jai.JAI;
 import javax.media.jai.PlanarImage;
-import javax.media.jai.RenderedOp;
-import javax.media.jai.operator.BandSelectDescriptor;
-import javax.media.jai.operator.FormatDescriptor;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.awt.Rectangle;
 
 /**
  * Operator to generate grey or binary images with Otsu algorithm
  * (see e.g. http://zerocool.is-a-geek.net/java-image-binarization/)
  * Target product will contain just one band with this image
+ * <p>
+ * The grey levels are computed tile by tile from the CLOST band. For the binary image, the histogram of the
+ * grey levels is built once, when the first target tile is requested, in a pass over the tiles of the CLOST band
+ * shared by the threads computing target tiles (see {@link OtsuThresholdProvider}). The scene is never held in
+ * memory as a whole.
  *
  * @author olafd
  */
@@ -59,94 +58,102 @@ public class OtsuBinarizeOp extends Operator {
             label = "OTSU processing mode (grey or binary target image)")
     private String otsuMode;
 
+    private Band clostBand;
+    private boolean binaryMode;
+    private double greyMin;
+    private double greyMax;
+    private boolean greyLogScaled;
+    private OtsuThresholdProvider thresholdProvider;
 
     @Override
     public void initialize() throws OperatorException {
-        Band clostBand = clostProduct.getBand(ClostOp.CLOST_BAND_NAME);
+        clostBand = clostProduct.getBand(ClostOp.CLOST_BAND_NAME);
         final RasterDataNode[] rgbChannelNodes = new RasterDataNode[]{clostBand};
 
-        try {
-            final ImageInfo clostImageInfo = ProductUtils.createImageInfo(rgbChannelNodes, true, ProgressMonitor.NULL);
-            BufferedImage clostImageRgb = ProductUtils.createRgbImage(rgbChannelNodes, clostImageInfo, ProgressMonitor.NULL);
-            final BufferedImage clostImageGray = OtsuBinarize.toGray(clostImageRgb);
-            final BufferedImage clostImageBinarized = OtsuBinarize.binarize(clostImageGray);
-            Product otsuProduct;
-            if (otsuMode.equals("GREY")) {
-                otsuProduct = createGreyProduct(clostImageGray);
-            } else {
-                otsuProduct = createBinarizedProduct(clostImageBinarized);
-            }
-
-            ProductUtils.copyBand(ClostOp.CLOST_BAND_NAME, clostProduct, otsuProduct, true);
-            setTargetProduct(otsuProduct);
-        } catch (IOException e) {
-            throw new OperatorException("Cannot do OTSU binarization: " + e.getMessage());
+        final ImageInfo clostImageInfo = ProductUtils.createImageInfo(rgbChannelNodes, true, ProgressMonitor.NULL);
+        greyMin = clostImageInfo.getColorPaletteDef().getMinDisplaySample();
+        greyMax = clostImageInfo.getColorPaletteDef().getMaxDisplaySample();
+        greyLogScaled = clostImageInfo.isLogScaled();
+
+        binaryMode = !otsuMode.equals("GREY");
+        Product otsuProduct;
+        if (binaryMode) {
+            final PlanarImage clostImage = PlanarImage.wrapRenderedImage(clostBand.getSourceImage());
+            thresholdProvider = new OtsuThresholdProvider(clostImage.getNumXTiles() * clostImage.getNumYTiles(),
+                                                          tileIndex -> computeGreyHistogram(clostImage, tileIndex));
+            otsuProduct = createOtsuProduct("_binary", " (binarized)", "binary", OTSU_BINARY_BAND_NAME);
+        } else {
+            otsuProduct = createOtsuProduct("_grey", " (greyscaled)", "greyscale", OTSU_GREY_BAND_NAME);
         }
-    }
-
-    private Product createBinarizedProduct(BufferedImage sourceImage) {
-
-        Product product = new Product(sourceProduct.getName() + "_binary",
-                sourceProduct.getProductType() + " (binarized)",
-                sourceProduct.getSceneRasterWidth(),
-                sourceProduct.getSceneRasterHeight());
 
-        product.setSceneGeoCoding(sourceProduct.getSceneGeoCoding());
-        product.setDescription("Product holding RGB Image transformed to binary");
+        ProductUtils.copyBand(ClostOp.CLOST_BAND_NAME, clostProduct, otsuProduct, true);
+        setTargetProduct(otsuProduct);
+    }
 
-        final PlanarImage planarImage = PlanarImage.wrapRenderedImage(sourceImage);
-        RenderedOp bandImage = getBandSourceImage(planarImage);
-        Band band = product.addBand(OTSU_BINARY_BAND_NAME, ImageManager.getProductDataType(bandImage.getSampleModel().getDataType()));
-        band.setSourceImage(bandImage);
-        band.setUnit("dl");
-        band.setDescription("RGB Image transformed to binary");
-        final Band sourceProductReferenceBand = sourceProduct.getBand(Landsat8Constants.LANDSAT8_RED_BAND_NAME);
-        band.setNoDataValue(sourceProductReferenceBand.getNoDataValue());
-        band.setNoDataValueUsed(sourceProductReferenceBand.isNoDataValueUsed());
-        product.getBand(OTSU_BINARY_BAND_NAME).setValidPixelExpression(sourceProductReferenceBand.getValidPixelExpression());
+    @Override
+    public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
 
-        return product;
+    private void computeTileImpl(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final Rectangle rectangle = targetTile.getRectangle();
+        final Tile clostTile = getSourceTile(clostBand, rectangle);
+        final int otsuThreshold = binaryMode ? thresholdProvider.getThreshold() : 0;
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            checkForCancellation();
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                final int grey = clostTile.isSampleValid(x, y) ?
+                        OtsuBinarize.toGrey(clostTile.getSampleDouble(x, y), greyMin, greyMax, greyLogScaled) : 0;
+                targetTile.setSample(x, y, binaryMode ? OtsuBinarize.binarize(grey, otsuThreshold) : grey);
+            }
+        }
     }
 
-    private Product createGreyProduct(BufferedImage sourceImage) {
+    private Product createOtsuProduct(String nameSuffix, String typeSuffix, String imageType, String bandName) {
 
-        Product product = new Product(sourceProduct.getName() + "_grey",
-                sourceProduct.getProductType() + " (greyscaled)",
+        Product product = new Product(sourceProduct.getName() + nameSuffix,
+                sourceProduct.getProductType() + typeSuffix,
                 sourceProduct.getSceneRasterWidth(),
                 sourceProduct.getSceneRasterHeight());
 
         product.setSceneGeoCoding(sourceProduct.getSceneGeoCoding());
-        product.setDescription("Product holding RGB Image transformed to greyscale");
+        product.setDescription("Product holding RGB Image transformed to " + imageType);
 
-        final PlanarImage planarImage = PlanarImage.wrapRenderedImage(sourceImage);
-        RenderedOp bandImage = getBandSourceImage(planarImage);
-        Band band = product.addBand(OTSU_GREY_BAND_NAME, ImageManager.getProductDataType(bandImage.getSampleModel().getDataType()));
-        band.setSourceImage(bandImage);
+        Band band = product.addBand(bandName, ProductData.TYPE_UINT8);
         band.setUnit("dl");
-        band.setDescription("RGB Image transformed to greyscale");
+        band.setDescription("RGB Image transformed to " + imageType);
         final Band sourceProductReferenceBand = sourceProduct.getBand(Landsat8Constants.LANDSAT8_RED_BAND_NAME);
         band.setNoDataValue(sourceProductReferenceBand.getNoDataValue());
         band.setNoDataValueUsed(sourceProductReferenceBand.isNoDataValueUsed());
-        product.getBand(OTSU_GREY_BAND_NAME).setValidPixelExpression(sourceProductReferenceBand.getValidPixelExpression());
+        band.setValidPixelExpression(sourceProductReferenceBand.getValidPixelExpression());
 
         return product;
     }
 
-    private RenderedOp getBandSourceImage(PlanarImage planarImage) {
-        RenderedOp bandImage = BandSelectDescriptor.create(planarImage, new int[]{0}, null);
-        int tileWidth = bandImage.getTileWidth();
-        int tileHeight = bandImage.getTileHeight();
-        ImageLayout imageLayout = new ImageLayout();
-        boolean noSourceImageTiling = tileWidth == bandImage.getWidth() && tileHeight == bandImage.getHeight();
-        if (noSourceImageTiling) {
-            tileWidth = Math.min(bandImage.getWidth(), 512);
-            tileHeight = Math.min(bandImage.getHeight(), 512);
-            imageLayout.setTileWidth(tileWidth);
-            imageLayout.setTileHeight(tileHeight);
+    // histogram of the grey levels of one tile of the CLOST band, invalid pixels count as level 0
+    private int[] computeGreyHistogram(PlanarImage clostImage, int tileIndex) {
+        final Rectangle rectangle = clostImage.getTileRect(
+                clostImage.getMinTileX() + tileIndex % clostImage.getNumXTiles(),
+                clostImage.getMinTileY() + tileIndex / clostImage.getNumXTiles());
+        final int[] histogram = new int[OtsuBinarize.NUM_GREY_LEVELS];
+        if (rectangle.isEmpty()) {
+            return histogram;
+        }
+        final Tile clostTile = getSourceTile(clostBand, rectangle);
+        for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
+            checkForCancellation();
+            for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                final int grey = clostTile.isSampleValid(x, y) ?
+                        OtsuBinarize.toGrey(clostTile.getSampleDouble(x, y), greyMin, greyMax, greyLogScaled) : 0;
+                histogram[grey]++;
+            }
         }
-        imageLayout.setSampleModel(new SingleBandedSampleModel(bandImage.getSampleModel().getDataType(), tileWidth, tileHeight));
-        bandImage = FormatDescriptor.create(bandImage, bandImage.getSampleModel().getDataType(), new RenderingHints(JAI.KEY_IMAGE_LAYOUT, imageLayout));
-        return bandImage;
+        return histogram;
     }
 
 
@@ -0,0 +1,96 @@
+package org.esa.snap.idepix.landsat8;
+
+import org.esa.snap.core.gpf.OperatorException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+
+/**
+ * Provides the Otsu threshold of the grey levels of a whole scene.
+ * <p>
+ * The threshold is computed lazily from one grey level histogram per tile of the scene. The pass over the tiles
+ * is shared by all threads asking for the threshold: every thread claims and computes tiles until none are left,
+ * so the pass runs in parallel on the threads of the tile scheduler, and never waits for work which is queued but
+ * not running. If a tile fails, the remaining tiles are skipped and every thread asking for the threshold gets
+ * the failure.
+ */
+class OtsuThresholdProvider {
+
+    private final int numTiles;
+    private final IntFunction<int[]> tileHistogramComputer;
+    private final int[][] tileHistograms;
+    private final AtomicInteger nextTile;
+    private final CountDownLatch tilesDone;
+    private final AtomicReference<Throwable> tileFailure;
+    private volatile int threshold = -1;
+
+    /**
+     * @param numTiles              - the number of tiles of the scene
+     * @param tileHistogramComputer - computes the histogram of the grey levels of the tile of the given index
+     */
+    OtsuThresholdProvider(int numTiles, IntFunction<int[]> tileHistogramComputer) {
+        this.numTiles = numTiles;
+        this.tileHistogramComputer = tileHistogramComputer;
+        tileHistograms = new int[numTiles][];
+        nextTile = new AtomicInteger();
+        tilesDone = new CountDownLatch(numTiles);
+        tileFailure = new AtomicReference<>();
+    }
+
+    /**
+     * @return the Otsu threshold, computing the histograms of all tiles on first call
+     * @throws OperatorException if the computation of a tile histogram failed
+     */
+    int getThreshold() {
+        int otsuThreshold = threshold;
+        if (otsuThreshold < 0) {
+            computeTileHistograms();
+            synchronized (this) {
+                if (threshold < 0) {
+                    threshold = OtsuBinarize.otsuTreshold(mergeTileHistograms());
+                }
+                otsuThreshold = threshold;
+            }
+        }
+        return otsuThreshold;
+    }
+
+    private void computeTileHistograms() {
+        int tileIndex;
+        while ((tileIndex = nextTile.getAndIncrement()) < numTiles) {
+            try {
+                // the histogram is incomplete anyway after a failure, the tile is only counted
+                if (tileFailure.get() == null) {
+                    tileHistograms[tileIndex] = tileHistogramComputer.apply(tileIndex);
+                }
+            } catch (RuntimeException | Error e) {
+                tileFailure.compareAndSet(null, e);
+            } finally {
+                tilesDone.countDown();
+            }
+        }
+        try {
+            tilesDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperatorException("Interrupted while waiting for the grey level histogram", e);
+        }
+        final Throwable failure = tileFailure.get();
+        if (failure != null) {
+            throw new OperatorException("Failed to compute the grey level histogram: " + failure.getMessage(),
+                                        failure);
+        }
+    }
+
+    private int[] mergeTileHistograms() {
+        final int[] histogram = new int[OtsuBinarize.NUM_GREY_LEVELS];
+        for (int[] tileHistogram : tileHistograms) {
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += tileHistogram[i];
+            }
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,39 @@
+package org.esa.snap.idepix.landsat8;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class OtsuBinarizeTest {
+
+    @Test
+    public void testOtsuThreshold_bimodal() {
+        final int[] histogram = new int[OtsuBinarize.NUM_GREY_LEVELS];
+        histogram[20] = 100;
+        histogram[30] = 50;
+        histogram[200] = 80;
+        histogram[220] = 40;
+        final int threshold = OtsuBinarize.otsuTreshold(histogram);
+        assertEquals(30, threshold);
+        assertEquals(OtsuBinarize.BINARY_BELOW_THRESHOLD, OtsuBinarize.binarize(30, threshold));
+        assertEquals(OtsuBinarize.BINARY_ABOVE_THRESHOLD, OtsuBinarize.binarize(200, threshold));
+    }
+
+    @Test
+    public void testOtsuThreshold_largeCounts() {
+        final int[] histogram = new int[OtsuBinarize.NUM_GREY_LEVELS];
+        histogram[10] = 400_000_000;
+        histogram[250] = 400_000_000;
+        assertEquals(10, OtsuBinarize.otsuTreshold(histogram));
+    }
+
+    @Test
+    public void testToGrey() {
+        assertEquals(0, OtsuBinarize.toGrey(-1.0, 0.0, 1.0, false));
+        assertEquals(0, OtsuBinarize.toGrey(Double.NaN, 0.0, 1.0, false));
+        assertEquals(0, OtsuBinarize.toGrey(0.5, 1.0, 1.0, false));
+        assertEquals(126, OtsuBinarize.toGrey(0.5, 0.0, 1.0, false));
+        assertEquals(252, OtsuBinarize.toGrey(2.0, 0.0, 1.0, false));
+        assertEquals(126, OtsuBinarize.toGrey(10.0, 1.0, 100.0, true));
+    }
+}
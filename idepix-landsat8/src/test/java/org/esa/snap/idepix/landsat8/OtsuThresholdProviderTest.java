@@ -0,0 +1,135 @@
+package org.esa.snap.idepix.landsat8;
+
+import org.esa.snap.core.gpf.OperatorException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for class {@link OtsuThresholdProvider}.
+ */
+public class OtsuThresholdProviderTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTilesAreClaimedOnceAndHistogramsMerged() throws Exception {
+        final int numTiles = 37;
+        final AtomicIntegerArray tileCounts = new AtomicIntegerArray(numTiles);
+        final OtsuThresholdProvider provider = new OtsuThresholdProvider(numTiles, tileIndex -> {
+            tileCounts.incrementAndGet(tileIndex);
+            // the modes of the scene histogram are split across the tiles
+            final int[] histogram = new int[OtsuBinarize.NUM_GREY_LEVELS];
+            histogram[tileIndex % 2 == 0 ? 20 : 30] = 10;
+            histogram[tileIndex % 3 == 0 ? 200 : 220] = 5;
+            return histogram;
+        });
+
+        final List<Future<Integer>> thresholds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            thresholds.add(executor.submit(provider::getThreshold));
+        }
+        for (Future<Integer> threshold : thresholds) {
+            assertEquals(30, threshold.get(10, TimeUnit.SECONDS).intValue());
+        }
+        assertEquals(30, provider.getThreshold());
+
+        for (int i = 0; i < numTiles; i++) {
+            assertEquals(1, tileCounts.get(i));
+        }
+    }
+
+    @Test
+    public void testWaitsForTilesClaimedByOtherThreads() throws Exception {
+        final CountDownLatch firstTileStarted = new CountDownLatch(1);
+        final CountDownLatch firstTileReleased = new CountDownLatch(1);
+        final OtsuThresholdProvider provider = new OtsuThresholdProvider(2, tileIndex -> {
+            final int[] histogram = new int[OtsuBinarize.NUM_GREY_LEVELS];
+            if (tileIndex == 0) {
+                firstTileStarted.countDown();
+                await(firstTileReleased);
+                histogram[10] = 100;
+            } else {
+                histogram[100] = 100;
+            }
+            return histogram;
+        });
+
+        final Future<Integer> first = executor.submit(provider::getThreshold);
+        assertTrue(firstTileStarted.await(10, TimeUnit.SECONDS));
+        // claims the second tile, then has to wait for the first
+        final Future<Integer> second = executor.submit(provider::getThreshold);
+        Thread.sleep(100);
+        assertFalse(second.isDone());
+
+        firstTileReleased.countDown();
+        assertEquals(10, first.get(10, TimeUnit.SECONDS).intValue());
+        assertEquals(10, second.get(10, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void testTileFailureIsRethrown() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("tile 3");
+        final OtsuThresholdProvider provider = new OtsuThresholdProvider(8, tileIndex -> {
+            if (tileIndex == 3) {
+                throw failure;
+            }
+            return new int[OtsuBinarize.NUM_GREY_LEVELS];
+        });
+
+        final List<Future<Integer>> thresholds = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            thresholds.add(executor.submit(provider::getThreshold));
+        }
+        for (Future<Integer> threshold : thresholds) {
+            try {
+                threshold.get(10, TimeUnit.SECONDS);
+                fail("OperatorException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof OperatorException);
+                assertSame(failure, e.getCause().getCause());
+            }
+        }
+        // later calls fail as well, instead of returning a threshold from an incomplete histogram
+        try {
+            provider.getThreshold();
+            fail("OperatorException expected");
+        } catch (OperatorException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -38,8 +38,6 @@ public class IdepixMerisConstants {
     public static final String MERIS_VIEW_ZENITH_INTERPOLATED_BAND_NAME = "OZA_interp";
     public static final String MERIS_VIEW_AZIMUTH_INTERPOLATED_BAND_NAME = "OAA_interp";
 
-    public static final double[] POLYNOM_FIT_INITIAL = new double[]{0., 0., 0.};
-
     // view angle interpolation at discontinuities:
     static final int MERIS_FR_FULL_PRODUCT_WIDTH = 4481;
     static final int MERIS_RR_FULL_PRODUCT_WIDTH = 1121;
@@ -15,8 +15,12 @@ import org.esa.snap.core.util.ProductUtils;
 import org.esa.snap.dataio.envisat.EnvisatConstants;
 
 import org.esa.snap.idepix.core.IdepixConstants;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
 import org.esa.snap.idepix.core.util.IdepixIO;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
 
 import java.awt.*;
 import java.io.InputStream;
@@ -73,10 +77,12 @@ public class IdepixMerisLandClassificationOp extends Operator {
 
     private static final String MERIS_LAND_NET_NAME = "11x8x5x3_1062.5_land.net";
     private ThreadLocal<SchillerNeuralNetWrapper> merisLandNeuralNet;
+    private boolean skipInvalidTiles;
 
     @Override
     public void initialize() throws OperatorException {
         setBands();
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
 
         readSchillerNeuralNets();
         createTargetProduct();
@@ -126,11 +132,26 @@ public class IdepixMerisLandClassificationOp extends Operator {
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
-        // MERIS variables
-        final Tile waterFractionTile = getSourceTile(landWaterBand, rectangle);
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, rectangle);
+        try {
+            computeTileStackImpl(targetTiles, rectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
 
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
+        // MERIS variables
         final Band merisL1bFlagBand = sourceProduct.getBand(EnvisatConstants.MERIS_L1B_FLAGS_DS_NAME);
         final Tile merisL1bFlagTile = getSourceTile(merisL1bFlagBand, rectangle);
+        final Band cloudFlagTargetBand = targetProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
+        if (skipInvalidTiles &&
+                InvalidTiles.isFlagSetEverywhere(merisL1bFlagTile, rectangle, IdepixMerisConstants.L1_F_INVALID)) {
+            InvalidTiles.setInvalid(targetTiles, cloudFlagTargetBand);
+            return;
+        }
+
+        final Tile waterFractionTile = getSourceTile(landWaterBand, rectangle);
 
         Tile[] merisReflectanceTiles = new Tile[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
         float[] merisReflectance = new float[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
@@ -138,8 +159,7 @@ public class IdepixMerisLandClassificationOp extends Operator {
             merisReflectanceTiles[i] = getSourceTile(merisReflBands[i], rectangle);
         }
 
-        final Band cloudFlagTargetBand = targetProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
-        final Tile cloudFlagTargetTile = targetTiles.get(cloudFlagTargetBand);
+        final FlagAccumulator cloudFlags = new FlagAccumulator(rectangle);
 
         Band nnTargetBand;
         Tile nnTargetTile = null;
@@ -148,95 +168,113 @@ public class IdepixMerisLandClassificationOp extends Operator {
             nnTargetTile = targetTiles.get(nnTargetBand);
         }
         try {
+            final TileGeoLocation geoLocation = TileGeoLocation.create(this, getSourceProduct(), rectangle);
+            final SchillerNeuralNetWrapper nnWrapper = merisLandNeuralNet.get();
+            final int numNNOutputs = nnWrapper.getNumOutputs();
+            final boolean[] isLand = new boolean[rectangle.width];
+            final double[] nnInputs = new double[rectangle.width * nnWrapper.getNumInputs()];
+            final double[] nnOutputs = new double[rectangle.width * numNNOutputs];
             for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
                 checkForCancellation();
                 for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
-                    final int waterFraction = waterFractionTile.getSampleInt(x, y);
-                    initCloudFlag(merisL1bFlagTile, targetTiles.get(cloudFlagTargetBand), merisReflectance, y, x);
-                    if (!IdepixMerisUtils.isLandPixel(x, y, getGeoPos(x, y), merisL1bFlagTile, waterFraction)) {
-                        cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_LAND, false);
-                        cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
-                        cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+                    isLand[x - rectangle.x] = IdepixMerisUtils.isLandPixel(x, y, geoLocation.getLat(x, y),
+                                                                           merisL1bFlagTile,
+                                                                           waterFractionTile.getSampleInt(x, y));
+                }
+                computeMerisNNOutputRow(y, rectangle, merisReflectanceTiles, isLand, nnWrapper, nnInputs, nnOutputs);
+                int landPixelIndex = 0;
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    initCloudFlag(merisL1bFlagTile, cloudFlags, merisReflectance, y, x);
+                    if (!isLand[x - rectangle.x]) {
+                        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_LAND, false);
+                        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+                        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
                         if (nnTargetTile != null) {
                             nnTargetTile.setSample(x, y, Float.NaN);
                         }
                     } else {
+                        final double nnOutput = nnOutputs[landPixelIndex++ * numNNOutputs];
                         classifyPixel(merisReflectanceTiles, merisReflectance,
-                                cloudFlagTargetTile, nnTargetTile, y, x);
+                                cloudFlags, nnTargetTile, y, x, nnOutput);
                     }
                 }
             }
+            cloudFlags.writeTo(targetTiles.get(cloudFlagTargetBand));
         } catch (Exception e) {
             throw new OperatorException("Failed to provide GA cloud screening:\n" + e.getMessage(), e);
         }
     }
 
+    /**
+     * Runs the net for the land pixels of a tile row in one batch. The outputs of the land pixels are written
+     * to {@code nnOutputs} one after the other, in the order of the pixels.
+     */
+    private void computeMerisNNOutputRow(int y, Rectangle rectangle, Tile[] merisReflectanceTiles, boolean[] isLand,
+                                         SchillerNeuralNetWrapper nnWrapper, double[] nnInputs, double[] nnOutputs) {
+        final int numNNInputs = nnWrapper.getNumInputs();
+        int numLandPixels = 0;
+        for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+            if (isLand[x - rectangle.x]) {
+                final int offset = numLandPixels++ * numNNInputs;
+                for (int i = 0; i < numNNInputs; i++) {
+                    nnInputs[offset + i] = Math.sqrt(merisReflectanceTiles[i].getSampleFloat(x, y));
+                }
+            }
+        }
+        nnWrapper.calc(nnInputs, nnOutputs, numLandPixels);
+    }
+
     private void classifyPixel(Tile[] merisReflectanceTiles, float[] merisReflectance,
-                               Tile cloudFlagTargetTile, Tile nnTargetTile, int y, int x) {
+                               FlagAccumulator cloudFlags, Tile nnTargetTile, int y, int x, double nnOutput) {
         // only use Schiller NN approach...
         for (int i = 0; i < EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS; i++) {
             merisReflectance[i] = merisReflectanceTiles[i].getSampleFloat(x, y);
         }
 
-        SchillerNeuralNetWrapper nnWrapper = merisLandNeuralNet.get();
-        double[] inputVector = nnWrapper.getInputVector();
-        for (int i = 0; i < inputVector.length; i++) {
-            inputVector[i] = Math.sqrt(merisReflectance[i]);
-        }
-
-        final double[] nnOutput = nnWrapper.getNeuralNet().calc(inputVector);
-
-        if (!cloudFlagTargetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_INVALID)) {
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
-            if (nnOutput[0] > schillerNNCloudAmbiguousLowerBoundaryValue &&
-                    nnOutput[0] <= schillerNNCloudAmbiguousSureSeparationValue) {
+        if (!cloudFlags.getFlag(x, y, IdepixConstants.IDEPIX_INVALID)) {
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+            if (nnOutput > schillerNNCloudAmbiguousLowerBoundaryValue &&
+                    nnOutput <= schillerNNCloudAmbiguousSureSeparationValue) {
                 // this would be as 'CLOUD_AMBIGUOUS'...
-                cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, true);
-                cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, true);
+                cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, true);
+                cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, true);
             }
-            if (nnOutput[0] > schillerNNCloudAmbiguousSureSeparationValue &&
-                    nnOutput[0] <= schillerNNCloudSureSnowSeparationValue) {
+            if (nnOutput > schillerNNCloudAmbiguousSureSeparationValue &&
+                    nnOutput <= schillerNNCloudSureSnowSeparationValue) {
                 // this would be as 'CLOUD_SURE'...
-                cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, true);
-                cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, true);
+                cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, true);
+                cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, true);
             }
-            if (nnOutput[0] > schillerNNCloudSureSnowSeparationValue) {
+            if (nnOutput > schillerNNCloudSureSnowSeparationValue) {
                 // this would be as 'SNOW/ICE'...
-                cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, true);
+                cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, true);
             }
         }
 
         if (nnTargetTile != null) {
-            nnTargetTile.setSample(x, y, nnOutput[0]);
+            nnTargetTile.setSample(x, y, nnOutput);
         }
     }
 
-    private GeoPos getGeoPos(int x, int y) {
-        final GeoPos geoPos = new GeoPos();
-        final GeoCoding geoCoding = getSourceProduct().getSceneGeoCoding();
-        final PixelPos pixelPos = new PixelPos(x, y);
-        geoCoding.getGeoPos(pixelPos, geoPos);
-        return geoPos;
-    }
-
-    private void initCloudFlag(Tile merisL1bFlagTile, Tile targetTile, float[] merisReflectances, int y, int x) {
+    private void initCloudFlag(Tile merisL1bFlagTile, FlagAccumulator cloudFlags, float[] merisReflectances,
+                               int y, int x) {
         // for given instrument, compute boolean pixel properties and write to cloud flag band
         final boolean l1Invalid = merisL1bFlagTile.getSampleBit(x, y, IdepixMerisConstants.L1_F_INVALID);
         final boolean reflectancesValid = IdepixIO.areAllReflectancesValid(merisReflectances);
 
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_INVALID, l1Invalid || !reflectancesValid);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_BUFFER, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SHADOW, false);
-        targetTile.setSample(x, y, IdepixMerisConstants.IDEPIX_GLINT_RISK, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_COASTLINE, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_LAND, true);   // already checked
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_INVALID, l1Invalid || !reflectancesValid);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_BUFFER, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SHADOW, false);
+        cloudFlags.setFlag(x, y, IdepixMerisConstants.IDEPIX_GLINT_RISK, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_COASTLINE, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_LAND, true);   // already checked
     }
 
     public static class Spi extends OperatorSpi {
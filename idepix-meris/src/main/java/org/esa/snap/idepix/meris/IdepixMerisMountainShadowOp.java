@@ -1,28 +1,34 @@
 package org.esa.snap.idepix.meris;
 
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.GeoCoding;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
-import org.esa.snap.core.gpf.GPF;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.gpf.Operator;
 import org.esa.snap.core.gpf.OperatorException;
 import org.esa.snap.core.gpf.OperatorSpi;
+import org.esa.snap.core.gpf.Tile;
 import org.esa.snap.core.gpf.annotations.OperatorMetadata;
 import org.esa.snap.core.gpf.annotations.Parameter;
 import org.esa.snap.core.gpf.annotations.SourceProduct;
-import org.esa.snap.core.gpf.pointop.PixelOperator;
-import org.esa.snap.core.gpf.pointop.ProductConfigurer;
-import org.esa.snap.core.gpf.pointop.Sample;
-import org.esa.snap.core.gpf.pointop.SourceSampleConfigurer;
-import org.esa.snap.core.gpf.pointop.TargetSampleConfigurer;
-import org.esa.snap.core.gpf.pointop.WritableSample;
+import org.esa.snap.core.util.ProductUtils;
 import org.esa.snap.core.util.math.MathUtils;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.SlopeAspectOrientationUtils;
 
-import java.util.HashMap;
+import javax.media.jai.BorderExtender;
+import java.awt.Rectangle;
 
 /**
  * Computes mountain/hill shadow for a Sentinel-3 MERIS product using slope, aspect and orientation.
  * See theory e.g. at
  * <a href="https://www.e-education.psu.edu/geog480/node/490">...</a>, or
  * <a href="https://desktop.arcgis.com/en/arcmap/10.3/tools/spatial-analyst-toolbox/how-hillshade-works.htm">...</a>
+ * <p>
+ * Slope, aspect and orientation are computed per tile as in {@link IdepixMerisSlopeAspectOrientationOp}, but are
+ * used directly for the shadow test and never stored as bands.
  *
  * @author Tonio Fincke, Olaf Danne
  */
@@ -32,7 +38,7 @@ import java.util.HashMap;
         authors = "Tonio Fincke, Olaf Danne",
         copyright = "(c) 2018-2021 by Brockmann Consult",
         description = "Computes mountain/hill shadow for a Sentinel-3 OLCI product using slope, aspect and orientation.")
-public class IdepixMerisMountainShadowOp extends PixelOperator {
+public class IdepixMerisMountainShadowOp extends Operator {
 
     @SourceProduct(alias = "l1b")
     private Product l1bProduct;
@@ -41,74 +47,116 @@ public class IdepixMerisMountainShadowOp extends PixelOperator {
             description = "Extent of mountain shadow detection")
     private double mntShadowExtent;
 
-    private final static int SZA_INDEX = 0;
-    private final static int SAA_INDEX = 1;
-    private final static int OZA_INDEX = 2;
-    private final static int OAA_INDEX = 3;
-    private final static int SLOPE_INDEX = 4;
-    private final static int ASPECT_INDEX = 5;
-    private final static int ORIENTATION_INDEX = 6;
+    public final static String MOUNTAIN_SHADOW_FLAG_BAND_NAME = "mountainShadowFlag";
 
+    private double spatialResolution;
 
-    private final static int MOUNTAIN_SHADOW_FLAG_BAND_INDEX = 0;
+    private RasterDataNode latitudeNode;
+    private RasterDataNode longitudeNode;
+    private Band elevationBand;
+    private RasterDataNode sunZenithNode;
+    private RasterDataNode sunAzimuthNode;
+    private RasterDataNode viewZenithNode;
+    private RasterDataNode viewAzimuthNode;
 
-    public final static String MOUNTAIN_SHADOW_FLAG_BAND_NAME = "mountainShadowFlag";
+    @Override
+    public void initialize() throws OperatorException {
+        if (!(l1bProduct.containsBand(IdepixMerisConstants.MERIS_4RP_ALTITUDE_BAND_NAME))) {
+            throw new OperatorException("Mountain shadow requires altitude band at original resolution. " +
+                    "Use MERIS 4RP input product");
+        }
 
-    private Product saoProduct;
+        ensureSingleRasterSize(l1bProduct);
+        GeoCoding sourceGeoCoding = l1bProduct.getSceneGeoCoding();
+        if (sourceGeoCoding == null) {
+            throw new OperatorException("Source product has no geo-coding");
+        }
 
-    @Override
-    protected void prepareInputs() throws OperatorException {
-        super.prepareInputs();
-        HashMap<String, Product> input = new HashMap<>();
-        input.put("l1b", l1bProduct);
-        saoProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(IdepixMerisSlopeAspectOrientationOp.class),
-                GPF.NO_PARAMS, input);
-    }
+        spatialResolution = SlopeAspectOrientationUtils.computeSpatialResolution(l1bProduct, sourceGeoCoding);
 
-    @Override
-    protected void configureTargetProduct(ProductConfigurer productConfigurer) {
-        super.configureTargetProduct(productConfigurer);
-        productConfigurer.addBand(MOUNTAIN_SHADOW_FLAG_BAND_NAME, ProductData.TYPE_INT8);
-    }
+        elevationBand = l1bProduct.getBand(IdepixMerisConstants.MERIS_4RP_ALTITUDE_BAND_NAME);
+        if (elevationBand == null) {
+            throw new OperatorException("Elevation band required to compute mountain shadow");
+        }
+        latitudeNode = l1bProduct.getTiePointGrid(IdepixMerisConstants.MERIS_LATITUDE_BAND_NAME);
+        longitudeNode = l1bProduct.getTiePointGrid(IdepixMerisConstants.MERIS_LONGITUDE_BAND_NAME);
+
+        if (IdepixMerisUtils.isFullResolution(l1bProduct) || IdepixMerisUtils.isReducedResolution(l1bProduct)) {
+            IdepixMerisViewAngleInterpolationOp viewAngleInterpolationOp = new IdepixMerisViewAngleInterpolationOp();
+            viewAngleInterpolationOp.setParameterDefaultValues();
+            viewAngleInterpolationOp.setSourceProduct(l1bProduct);
+            Product viewAngleInterpolationProduct = viewAngleInterpolationOp.getTargetProduct();
+            viewZenithNode = viewAngleInterpolationProduct.getBand(
+                    IdepixMerisConstants.MERIS_VIEW_ZENITH_INTERPOLATED_BAND_NAME);
+            viewAzimuthNode = viewAngleInterpolationProduct.getBand(
+                    IdepixMerisConstants.MERIS_VIEW_AZIMUTH_INTERPOLATED_BAND_NAME);
+        } else {
+            viewZenithNode = l1bProduct.getTiePointGrid(IdepixMerisConstants.MERIS_VIEW_ZENITH_BAND_NAME);
+            viewAzimuthNode = l1bProduct.getTiePointGrid(IdepixMerisConstants.MERIS_VIEW_AZIMUTH_BAND_NAME);
+        }
+        sunZenithNode = l1bProduct.getTiePointGrid(IdepixMerisConstants.MERIS_SUN_ZENITH_BAND_NAME);
+        sunAzimuthNode = l1bProduct.getTiePointGrid(IdepixMerisConstants.MERIS_SUN_AZIMUTH_BAND_NAME);
 
-    @Override
-    protected void configureSourceSamples(SourceSampleConfigurer sampleConfigurer) throws OperatorException {
-        sampleConfigurer.defineSample(SZA_INDEX, IdepixMerisConstants.MERIS_SUN_ZENITH_BAND_NAME, l1bProduct);
-        sampleConfigurer.defineSample(SAA_INDEX, IdepixMerisConstants.MERIS_SUN_AZIMUTH_BAND_NAME, l1bProduct);
-        sampleConfigurer.defineSample(OZA_INDEX, IdepixMerisConstants.MERIS_VIEW_ZENITH_INTERPOLATED_BAND_NAME,
-                saoProduct);
-        sampleConfigurer.defineSample(OAA_INDEX, IdepixMerisConstants.MERIS_VIEW_AZIMUTH_INTERPOLATED_BAND_NAME,
-                saoProduct);
-        sampleConfigurer.defineSample(SLOPE_INDEX, IdepixMerisSlopeAspectOrientationOp.SLOPE_BAND_NAME, saoProduct);
-        sampleConfigurer.defineSample(ASPECT_INDEX, IdepixMerisSlopeAspectOrientationOp.ASPECT_BAND_NAME, saoProduct);
-        sampleConfigurer.defineSample(ORIENTATION_INDEX, IdepixMerisSlopeAspectOrientationOp.ORIENTATION_BAND_NAME,
-                saoProduct);
+        setTargetProduct(createTargetProduct());
     }
 
     @Override
-    protected void configureTargetSamples(TargetSampleConfigurer sampleConfigurer) throws OperatorException {
-        sampleConfigurer.defineSample(MOUNTAIN_SHADOW_FLAG_BAND_INDEX, MOUNTAIN_SHADOW_FLAG_BAND_NAME);
+    public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
     }
 
-    @Override
-    protected void computePixel(int x, int y, Sample[] sourceSamples, WritableSample[] targetSamples) {
-        final float slope = sourceSamples[SLOPE_INDEX].getFloat();
-        final float aspect = sourceSamples[ASPECT_INDEX].getFloat();
-        if (!Float.isNaN(slope) &&
-                !Float.isNaN(aspect)) {
-            final float sza = sourceSamples[SZA_INDEX].getFloat();
-            final float saa = sourceSamples[SAA_INDEX].getFloat();
-            final float oza = sourceSamples[OZA_INDEX].getFloat();
-            final float oaa = sourceSamples[OAA_INDEX].getFloat();
-            final float orientation = sourceSamples[ORIENTATION_INDEX].getFloat();
-
-            final double saaApparent = IdepixMerisUtils.computeApparentSaa(sza, saa, oza, oaa);
-
-            targetSamples[MOUNTAIN_SHADOW_FLAG_BAND_INDEX].set(isMountainShadow(sza, (float) saaApparent,
-                    slope, aspect, orientation, mntShadowExtent));
+    private void computeTileImpl(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final Rectangle targetRectangle = targetTile.getRectangle();
+        final Rectangle sourceRectangle = SlopeAspectOrientationUtils.getSourceRectangle(targetRectangle);
+        final BorderExtender borderExtender = BorderExtender.createInstance(BorderExtender.BORDER_COPY);
+        final float[] sza = getSourceTile(sunZenithNode, sourceRectangle, borderExtender).getSamplesFloat();
+        final float[] saa = getSourceTile(sunAzimuthNode, sourceRectangle, borderExtender).getSamplesFloat();
+        final float[] oza = getSourceTile(viewZenithNode, sourceRectangle, borderExtender).getSamplesFloat();
+        final float[] oaa = getSourceTile(viewAzimuthNode, sourceRectangle, borderExtender).getSamplesFloat();
+
+        final int numTargetPixels = targetRectangle.width * targetRectangle.height;
+        final float[] slope = new float[numTargetPixels];
+        final float[] aspect = new float[numTargetPixels];
+        final float[] orientation = new float[numTargetPixels];
+        SlopeAspectOrientationUtils.computeSlopeAspectOrientation(
+                getSourceTile(elevationBand, sourceRectangle, borderExtender).getSamplesFloat(),
+                getSourceTile(latitudeNode, sourceRectangle, borderExtender).getSamplesFloat(),
+                getSourceTile(longitudeNode, sourceRectangle, borderExtender).getSamplesFloat(),
+                oza, oaa, saa, targetRectangle.width, targetRectangle.height, spatialResolution,
+                slope, aspect, orientation);
+
+        for (int y = 0; y < targetRectangle.height; y++) {
+            for (int x = 0; x < targetRectangle.width; x++) {
+                final int targetIndex = y * targetRectangle.width + x;
+                final int sourceIndex = (y + 1) * sourceRectangle.width + x + 1;
+                boolean isMountainShadow = false;
+                if (!Float.isNaN(slope[targetIndex]) &&
+                        !Float.isNaN(aspect[targetIndex])) {
+                    final double saaApparent = IdepixMerisUtils.computeApparentSaa(sza[sourceIndex], saa[sourceIndex],
+                            oza[sourceIndex], oaa[sourceIndex]);
+                    isMountainShadow = isMountainShadow(sza[sourceIndex], (float) saaApparent, slope[targetIndex],
+                            aspect[targetIndex], orientation[targetIndex], mntShadowExtent);
+                }
+                targetTile.setSample(targetRectangle.x + x, targetRectangle.y + y, isMountainShadow);
+            }
         }
     }
 
+    private Product createTargetProduct() {
+        Product targetProduct = new Product(l1bProduct.getName(), l1bProduct.getProductType(),
+                l1bProduct.getSceneRasterWidth(), l1bProduct.getSceneRasterHeight());
+        ProductUtils.copyGeoCoding(l1bProduct, targetProduct);
+        targetProduct.setStartTime(l1bProduct.getStartTime());
+        targetProduct.setEndTime(l1bProduct.getEndTime());
+        targetProduct.addBand(MOUNTAIN_SHADOW_FLAG_BAND_NAME, ProductData.TYPE_INT8);
+        return targetProduct;
+    }
+
     /* package local for testing */
     static boolean isMountainShadow(float sza, float saa, float slope, float aspect, float orientation, double mntShadowExtent) {
         final double cosBeta = computeCosBeta(sza, saa, slope, aspect, orientation);
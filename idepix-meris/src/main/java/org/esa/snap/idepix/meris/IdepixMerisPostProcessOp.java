@@ -11,8 +11,11 @@ import org.esa.snap.core.util.RectangleExtender;
 import org.esa.snap.dataio.envisat.EnvisatConstants;
 import org.esa.snap.idepix.core.CloudShadowFronts;
 import org.esa.snap.idepix.core.IdepixConstants;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
 import org.esa.snap.idepix.core.util.IdepixIO;
-import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.InvalidTiles;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
 
 import java.awt.*;
 import java.util.HashMap;
@@ -66,9 +69,11 @@ public class IdepixMerisPostProcessOp extends Operator {
     private TiePointGrid saaTpg;
     private TiePointGrid altTpg;
     private GeoCoding geoCoding;
+    private boolean coastlineByLatitude;
     private Band mountainShadowFlagBand;
 
     private RectangleExtender rectCalculator;
+    private boolean skipInvalidTiles;
 
     @Override
     public void initialize() throws OperatorException {
@@ -77,9 +82,11 @@ public class IdepixMerisPostProcessOp extends Operator {
                                                                                    "postProcessedCloud",
                                                                                    true);
 
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
         waterFractionBand = waterMaskProduct.getBand("land_water_fraction");
 
         geoCoding = l1bProduct.getSceneGeoCoding();
+        coastlineByLatitude = geoCoding instanceof TiePointGeoCoding || geoCoding instanceof CrsGeoCoding;
 
         origCloudFlagBand = merisCloudProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
         szaTpg = l1bProduct.getTiePointGrid(EnvisatConstants.MERIS_SUN_ZENITH_DS_NAME);
@@ -135,39 +142,55 @@ public class IdepixMerisPostProcessOp extends Operator {
 
     @Override
     public void computeTile(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
         Rectangle targetRectangle = targetTile.getRectangle();
         final Rectangle srcRectangle = rectCalculator.extend(targetRectangle);
 
         final Tile sourceFlagTile = getSourceTile(origCloudFlagBand, srcRectangle);
+        if (skipInvalidTiles &&
+                InvalidTiles.isFlagSetEverywhere(sourceFlagTile, srcRectangle, IdepixConstants.IDEPIX_INVALID)) {
+            InvalidTiles.copyFlags(sourceFlagTile, targetTile);
+            return;
+        }
         Tile szaTile = getSourceTile(szaTpg, srcRectangle);
         Tile saaTile = getSourceTile(saaTpg, srcRectangle);
         Tile altTile = getSourceTile(altTpg, targetRectangle);
         Tile ctpTile =  (ctpBand != null) ? getSourceTile(ctpBand, srcRectangle) : null;
         Tile waterFractionTile = getSourceTile(waterFractionBand, srcRectangle);
+        final TileGeoLocation geoLocation = coastlineByLatitude &&
+                (refineClassificationNearCoastlines || computeCloudShadow) ?
+                TileGeoLocation.create(this, l1bProduct, srcRectangle) : null;
 
-        for (int y = srcRectangle.y; y < srcRectangle.y + srcRectangle.height; y++) {
+        final FlagAccumulator flags = new FlagAccumulator(targetRectangle);
+        flags.combine(sourceFlagTile);
+        for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
             checkForCancellation();
-            for (int x = srcRectangle.x; x < srcRectangle.x + srcRectangle.width; x++) {
-
-                if (targetRectangle.contains(x, y)) {
-                    boolean isCloud = sourceFlagTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
-                    combineFlags(x, y, sourceFlagTile, targetTile);
-
-                    if (refineClassificationNearCoastlines) {
-                        if (isNearCoastline(x, y, waterFractionTile, srcRectangle)) {
-                            targetTile.setSample(x, y, IdepixConstants.IDEPIX_COASTLINE, true);
-                            // this causes problems for 'coastlines' over frozen inland lakes (OD 20200421)
-                            // todo: this is a conflict between master and CGLOPS
-//                            refineSnowIceFlaggingForCoastlines(x, y, sourceFlagTile, targetTile);
-                            if (isCloud) {
-                                refineCloudFlaggingForCoastlines(x, y, sourceFlagTile, waterFractionTile, targetTile, srcRectangle);
-                            }
+            for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
+                boolean isCloud = flags.getFlag(x, y, IdepixConstants.IDEPIX_CLOUD);
+
+                if (refineClassificationNearCoastlines) {
+                    if (isNearCoastline(x, y, waterFractionTile, geoLocation, srcRectangle)) {
+                        flags.setFlag(x, y, IdepixConstants.IDEPIX_COASTLINE, true);
+                        // this causes problems for 'coastlines' over frozen inland lakes (OD 20200421)
+                        // todo: this is a conflict between master and CGLOPS
+//                        refineSnowIceFlaggingForCoastlines(x, y, sourceFlagTile, flags);
+                        if (isCloud) {
+                            refineCloudFlaggingForCoastlines(x, y, sourceFlagTile, waterFractionTile, geoLocation,
+                                                             flags, srcRectangle);
                         }
                     }
-                    boolean isCloudAfterRefinement = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
-                    if (isCloudAfterRefinement) {
-                        targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
-                    }
+                }
+                boolean isCloudAfterRefinement = flags.getFlag(x, y, IdepixConstants.IDEPIX_CLOUD);
+                if (isCloudAfterRefinement) {
+                    flags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
                 }
             }
         }
@@ -182,13 +205,13 @@ public class IdepixMerisPostProcessOp extends Operator {
                 @Override
                 protected boolean isCloudForShadow(int x, int y) {
                     final boolean is_cloud_current;
-                    if (!targetTile.getRectangle().contains(x, y)) {
+                    if (!targetRectangle.contains(x, y)) {
                         is_cloud_current = sourceFlagTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
                     } else {
-                        is_cloud_current = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
+                        is_cloud_current = flags.getFlag(x, y, IdepixConstants.IDEPIX_CLOUD);
                     }
                     if (is_cloud_current) {
-                        return !isNearCoastline(x, y, waterFractionTile, srcRectangle);
+                        return !isNearCoastline(x, y, waterFractionTile, geoLocation, srcRectangle);
                     }
                     return false;
                 }
@@ -205,7 +228,7 @@ public class IdepixMerisPostProcessOp extends Operator {
 
                 @Override
                 protected void setCloudShadow(int x, int y) {
-                    targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SHADOW, true);
+                    flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SHADOW, true);
                 }
             };
             cloudShadowFronts.computeCloudShadow();
@@ -217,20 +240,15 @@ public class IdepixMerisPostProcessOp extends Operator {
                 checkForCancellation();
                 for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
                     final boolean mountainShadow = mountainShadowFlagTile.getSampleInt(x, y) > 0;
-                    targetTile.setSample(x, y, IdepixMerisConstants.IDEPIX_MOUNTAIN_SHADOW, mountainShadow);
+                    flags.setFlag(x, y, IdepixMerisConstants.IDEPIX_MOUNTAIN_SHADOW, mountainShadow);
                 }
             }
         }
+        flags.writeTo(targetTile);
     }
 
-    private void combineFlags(int x, int y, Tile sourceFlagTile, Tile targetTile) {
-        int sourceFlags = sourceFlagTile.getSampleInt(x, y);
-        int computedFlags = targetTile.getSampleInt(x, y);
-        targetTile.setSample(x, y, sourceFlags | computedFlags);
-    }
-
-
-    private boolean isNearCoastline(int x, int y, Tile waterFractionTile, Rectangle rectangle) {
+    private boolean isNearCoastline(int x, int y, Tile waterFractionTile, TileGeoLocation geoLocation,
+                                    Rectangle rectangle) {
         final int windowWidth = 1;
         final int LEFT_BORDER = Math.max(x - windowWidth, rectangle.x);
         final int RIGHT_BORDER = Math.min(x + windowWidth, rectangle.x + rectangle.width - 1);
@@ -240,14 +258,13 @@ public class IdepixMerisPostProcessOp extends Operator {
         for (int i = LEFT_BORDER; i <= RIGHT_BORDER; i++) {
             for (int j = TOP_BORDER; j <= BOTTOM_BORDER; j++) {
                 if (rectangle.contains(i, j)) {
-                    if (!(l1bProduct.getSceneGeoCoding() instanceof TiePointGeoCoding) &&
-                            !(l1bProduct.getSceneGeoCoding() instanceof CrsGeoCoding)) {
+                    if (!coastlineByLatitude) {
                         if (waterFractionTile.getSampleInt(i, j) != waterFractionCenter) {
                             return true;
                         }
                     } else {
-                        GeoPos geoPos = IdepixUtils.getGeoPos(geoCoding, x, y);
-                        if (IdepixMerisUtils.isCoastlinePixel(geoPos, waterFractionCenter)) {
+                        final double lat = geoLocation.getLat(x, y);
+                        if (IdepixMerisUtils.isCoastlinePixel(lat, waterFractionCenter)) {
                             return true;
                         }
                     }
@@ -257,7 +274,9 @@ public class IdepixMerisPostProcessOp extends Operator {
         return false;
     }
 
-    private void refineCloudFlaggingForCoastlines(int x, int y, Tile sourceFlagTile, Tile waterFractionTile, Tile targetTile, Rectangle srcRectangle) {
+    private void refineCloudFlaggingForCoastlines(int x, int y, Tile sourceFlagTile, Tile waterFractionTile,
+                                                  TileGeoLocation geoLocation, FlagAccumulator flags,
+                                                  Rectangle srcRectangle) {
         final int windowWidth = 1;
         final int LEFT_BORDER = Math.max(x - windowWidth, srcRectangle.x);
         final int RIGHT_BORDER = Math.min(x + windowWidth, srcRectangle.x + srcRectangle.width - 1);
@@ -267,11 +286,11 @@ public class IdepixMerisPostProcessOp extends Operator {
         if (CloudShadowFronts.isPixelSurrounded(x, y, sourceFlagTile, IdepixConstants.IDEPIX_CLOUD)) {
             removeCloudFlag = false;
         } else {
-            Rectangle targetTileRectangle = targetTile.getRectangle();
+            Rectangle targetTileRectangle = flags.getRectangle();
             for (int i = LEFT_BORDER; i <= RIGHT_BORDER; i++) {
                 for (int j = TOP_BORDER; j <= BOTTOM_BORDER; j++) {
                     boolean is_cloud = sourceFlagTile.getSampleBit(i, j, IdepixConstants.IDEPIX_CLOUD);
-                    if (is_cloud && targetTileRectangle.contains(i, j) && !isNearCoastline(i, j, waterFractionTile, srcRectangle)) {
+                    if (is_cloud && targetTileRectangle.contains(i, j) && !isNearCoastline(i, j, waterFractionTile, geoLocation, srcRectangle)) {
                         removeCloudFlag = false;
                         break;
                     }
@@ -280,16 +299,16 @@ public class IdepixMerisPostProcessOp extends Operator {
         }
 
         if (removeCloudFlag) {
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
         }
     }
 
-    private void refineSnowIceFlaggingForCoastlines(int x, int y, Tile sourceFlagTile, Tile targetTile) {
+    private void refineSnowIceFlaggingForCoastlines(int x, int y, Tile sourceFlagTile, FlagAccumulator flags) {
         final boolean isSnowIce = sourceFlagTile.getSampleBit(x, y, IdepixConstants.IDEPIX_SNOW_ICE);
         if (isSnowIce) {
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
         }
     }
 
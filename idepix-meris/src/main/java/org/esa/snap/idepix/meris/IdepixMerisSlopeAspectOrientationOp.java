@@ -9,6 +9,7 @@ import org.esa.snap.core.gpf.Tile;
 import org.esa.snap.core.gpf.annotations.OperatorMetadata;
 import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.snap.core.util.ProductUtils;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 import org.esa.snap.idepix.core.util.SlopeAspectOrientationUtils;
 
 import javax.media.jai.BorderExtender;
@@ -125,7 +126,17 @@ public class IdepixMerisSlopeAspectOrientationOp extends Operator {
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm)
             throws OperatorException {
-        final Rectangle sourceRectangle = getSourceRectangle(targetRectangle);
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetRectangle);
+        try {
+            computeTileStackImpl(targetTiles, targetRectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm)
+            throws OperatorException {
+        final Rectangle sourceRectangle = SlopeAspectOrientationUtils.getSourceRectangle(targetRectangle);
         final BorderExtender borderExtender = BorderExtender.createInstance(BorderExtender.BORDER_COPY);
         final Tile latitudeTile = getSourceTile(latitudeTpg, sourceRectangle, borderExtender);
         final Tile longitudeTile = getSourceTile(longitudeTpg, sourceRectangle, borderExtender);
@@ -141,38 +152,18 @@ public class IdepixMerisSlopeAspectOrientationOp extends Operator {
         }
         final Tile sunAzimuthAngleTile = getSourceTile(sunAzimuthTpg, sourceRectangle, borderExtender);
 
-        final Tile slopeTile = targetTiles.get(slopeBand);
-        final Tile aspectTile = targetTiles.get(aspectBand);
-        final Tile orientationTile = targetTiles.get(orientationBand);
-        for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
-            for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                slopeTile.setSample(x, y, Float.NaN);
-                aspectTile.setSample(x, y, Float.NaN);
-                orientationTile.setSample(x, y, Float.NaN);
-                final float[] elevationDataMacropixel = SlopeAspectOrientationUtils.get3x3MacropixelData(elevationTile, y, x);
-                if (SlopeAspectOrientationUtils.is3x3ElevationDataValid(elevationDataMacropixel)) {
-                    final float vza = viewZenithAngleTile.getSampleFloat(x, y);
-                    final float vaa = viewAzimuthAngleTile.getSampleFloat(x, y);
-                    final float saa = sunAzimuthAngleTile.getSampleFloat(x, y);
-                    final float[] latitudeDataMacropixel =
-                            SlopeAspectOrientationUtils.get3x3MacropixelData(latitudeTile, y, x);
-                    final float[] longitudeDataMacropixel =
-                            SlopeAspectOrientationUtils.get3x3MacropixelData(longitudeTile, y, x);
-                    final float orientation = SlopeAspectOrientationUtils.computeOrientation3x3Box(latitudeDataMacropixel,
-                            longitudeDataMacropixel);
-                    orientationTile.setSample(x, y, orientation);
-                    final float[] slopeAspect = SlopeAspectOrientationUtils.computeSlopeAspect3x3(elevationDataMacropixel,
-                            orientation, vza, vaa, saa, spatialResolution);
-                    slopeTile.setSample(x, y, slopeAspect[0]);
-                    aspectTile.setSample(x, y, slopeAspect[1]);
-                }
-            }
-        }
-    }
-
-    private static Rectangle getSourceRectangle(Rectangle targetRectangle) {
-        return new Rectangle(targetRectangle.x - 1, targetRectangle.y - 1,
-                targetRectangle.width + 2, targetRectangle.height + 2);
+        final int numTargetPixels = targetRectangle.width * targetRectangle.height;
+        final float[] slope = new float[numTargetPixels];
+        final float[] aspect = new float[numTargetPixels];
+        final float[] orientation = new float[numTargetPixels];
+        SlopeAspectOrientationUtils.computeSlopeAspectOrientation(elevationTile.getSamplesFloat(),
+                latitudeTile.getSamplesFloat(), longitudeTile.getSamplesFloat(),
+                viewZenithAngleTile.getSamplesFloat(), viewAzimuthAngleTile.getSamplesFloat(),
+                sunAzimuthAngleTile.getSamplesFloat(), targetRectangle.width, targetRectangle.height,
+                spatialResolution, slope, aspect, orientation);
+        targetTiles.get(slopeBand).setSamples(slope);
+        targetTiles.get(aspectBand).setSamples(aspect);
+        targetTiles.get(orientationBand).setSamples(orientation);
     }
 
     private Product createTargetProduct() {
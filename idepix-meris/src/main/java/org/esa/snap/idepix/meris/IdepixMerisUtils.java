@@ -1,11 +1,9 @@
 package org.esa.snap.idepix.meris;
 
-import org.apache.commons.math3.fitting.PolynomialFitter;
 import eu.esa.opt.processor.rad2refl.Rad2ReflConstants;
 import eu.esa.opt.processor.rad2refl.Rad2ReflOp;
 import eu.esa.opt.processor.rad2refl.Sensor;
 import org.esa.snap.core.datamodel.FlagCoding;
-import org.esa.snap.core.datamodel.GeoPos;
 import org.esa.snap.core.datamodel.Mask;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.gpf.GPF;
@@ -16,6 +14,7 @@ import org.esa.snap.core.util.ProductUtils;
 import org.esa.snap.core.util.math.MathUtils;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.IdepixFlagCoding;
+import org.esa.snap.idepix.core.util.QuadraticSegmentFit;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -125,35 +124,26 @@ class IdepixMerisUtils {
         // less strict to allow subsets:
         return sourceProduct.getProductType().contains("_RR");
     }
-    static float[] interpolateViewAngles(PolynomialFitter curveFitter1, PolynomialFitter curveFitter2,
-                                         float[] viewAngleOrig, int[] nx, int nxChange) {
+    static float[] interpolateViewAngles(QuadraticSegmentFit fit1, QuadraticSegmentFit fit2,
+                                         float[] viewAngleOrig, int nxChange) {
         float[] viewAngleInterpol = viewAngleOrig.clone();
 
-        curveFitter1.clearObservations();
-        for (int x = nx[0]; x < nx[1]; x++) {
-            curveFitter1.addObservedPoint(x * 1.0f, viewAngleOrig[x]);
-        }
-        final double[] fit1 = curveFitter1.fit(IdepixMerisConstants.POLYNOM_FIT_INITIAL);
-
-        curveFitter2.clearObservations();
-        for (int x = nx[2]; x < nx[3]; x++) {
-            curveFitter2.addObservedPoint(x * 1.0f, viewAngleOrig[x]);
-        }
-        final double[] fit2 = curveFitter2.fit(IdepixMerisConstants.POLYNOM_FIT_INITIAL);
+        final double[] fit1Coefficients = fit1.fit(viewAngleOrig);
+        final double[] fit2Coefficients = fit2.fit(viewAngleOrig);
 
-        for (int x = nx[1]; x < nxChange; x++) {
-            viewAngleInterpol[x] = (float) (fit1[0] + fit1[1] * x + fit1[2] * x * x);
+        for (int x = fit1.getXEnd(); x < nxChange; x++) {
+            viewAngleInterpol[x] = (float) fit1.evaluate(fit1Coefficients, x);
         }
-        for (int x = nxChange; x < nx[2]; x++) {
-            viewAngleInterpol[x] = (float) (fit2[0] + fit2[1] * x + fit2[2] * x * x);
+        for (int x = nxChange; x < fit2.getXStart(); x++) {
+            viewAngleInterpol[x] = (float) fit2.evaluate(fit2Coefficients, x);
         }
 
         return viewAngleInterpol;
     }
 
-    static boolean isLandPixel(int x, int y, GeoPos geoPos, Tile l1FlagsTile, int waterFraction) {
+    static boolean isLandPixel(int x, int y, double lat, Tile l1FlagsTile, int waterFraction) {
         // the water mask ends at 59 Degree south, stop earlier to avoid artefacts
-        if (geoPos.lat > -58f) {
+        if (lat > -58f) {
             // values bigger than 100 indicate no data
             if (waterFraction <= 100) {
                 // todo: this does not work if we have a PixelGeocoding. In that case, waterFraction
@@ -167,11 +157,11 @@ class IdepixMerisUtils {
         }
     }
 
-    static boolean isCoastlinePixel(GeoPos geoPos, int waterFraction) {
+    static boolean isCoastlinePixel(double lat, int waterFraction) {
         // the water mask ends at 59 Degree south, stop earlier to avoid artefacts
         // values bigger than 100 indicate no data
         // todo: this does not work if we have a PixelGeocoding. In that case, waterFraction
         // is always 0 or 100!! (TS, OD, 20140502)
-        return geoPos.lat > -58f && waterFraction < 100 && waterFraction > 0;
+        return lat > -58f && waterFraction < 100 && waterFraction > 0;
     }
 }
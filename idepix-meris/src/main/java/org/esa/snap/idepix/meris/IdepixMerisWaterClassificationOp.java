@@ -9,9 +9,6 @@ import eu.esa.opt.util.math.FractIndex;
 import eu.esa.opt.util.math.Interp;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.FlagCoding;
-import org.esa.snap.core.datamodel.GeoCoding;
-import org.esa.snap.core.datamodel.GeoPos;
-import org.esa.snap.core.datamodel.PixelPos;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.gpf.Operator;
@@ -28,9 +25,14 @@ import org.esa.snap.dataio.envisat.EnvisatConstants;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.seaice.LakeSeaIceAuxdata;
 import org.esa.snap.idepix.core.seaice.LakeSeaIceClassification;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
 import org.esa.snap.idepix.core.util.IdepixIO;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
+import org.esa.snap.idepix.core.util.TileGeoLocationCache;
 
 import java.awt.Rectangle;
 import java.io.IOException;
@@ -100,6 +102,8 @@ public class IdepixMerisWaterClassificationOp extends Operator {
     private static final double SEA_ICE_CLIM_THRESHOLD = 10.0;
 
     private RectangleExtender rectExtender;
+    private TileGeoLocationCache geoLocationCache;
+    private boolean skipInvalidTiles;
 
     private LakeSeaIceClassification lakeSeaIceClassification;
 
@@ -120,6 +124,8 @@ public class IdepixMerisWaterClassificationOp extends Operator {
 
         rectExtender = new RectangleExtender(new Rectangle(l1bProduct.getSceneRasterWidth(),
                 l1bProduct.getSceneRasterHeight()), 1, 1);
+        geoLocationCache = new TileGeoLocationCache(this, getSourceProduct());
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
     }
 
     private void readSchillerNets() {
@@ -152,10 +158,32 @@ public class IdepixMerisWaterClassificationOp extends Operator {
 
     @Override
     public void computeTile(Band band, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, band, targetTile.getRectangle());
+        try {
+            computeTileImpl(band, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band band, Tile targetTile, ProgressMonitor pm) throws OperatorException {
         Rectangle targetRectangle = targetTile.getRectangle();
         try {
             final Rectangle sourceRectangle = rectExtender.extend(targetRectangle);
 
+            Tile l1FlagsTile = getSourceTile(l1bProduct.getBand(EnvisatConstants.MERIS_L1B_FLAGS_DS_NAME),
+                    sourceRectangle);
+            if (skipInvalidTiles &&
+                    InvalidTiles.isFlagSetEverywhere(l1FlagsTile, targetRectangle, IdepixMerisConstants.L1_F_INVALID)) {
+                // same as computed below: only the invalid flag, the NN output is not written for invalid pixels
+                if (band == cloudFlagBand) {
+                    InvalidTiles.setInvalid(targetTile);
+                } else {
+                    IdepixTileEvent.countSkippedPixels(targetRectangle);
+                }
+                return;
+            }
+
             Tile[] rhoToaTiles = new Tile[EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS];
             for (int i = 0; i < EnvisatConstants.MERIS_L1B_NUM_SPECTRAL_BANDS; i++) {
                 final int suffixStart = Rad2ReflConstants.MERIS_REFL_BAND_NAMES[i].indexOf("_");
@@ -164,9 +192,8 @@ public class IdepixMerisWaterClassificationOp extends Operator {
                 rhoToaTiles[i] = getSourceTile(rhoToaBand, sourceRectangle);
             }
 
-            Tile l1FlagsTile = getSourceTile(l1bProduct.getBand(EnvisatConstants.MERIS_L1B_FLAGS_DS_NAME),
-                    sourceRectangle);
             Tile waterFractionTile = getSourceTile(landWaterBand, sourceRectangle);
+            final TileGeoLocation geoLocation = geoLocationCache.get(targetRectangle);
 
             Tile szaTile = null;
             Tile vzaTile = null;
@@ -187,98 +214,127 @@ public class IdepixMerisWaterClassificationOp extends Operator {
                 windVTile = getSourceTile(l1bProduct.getTiePointGrid("merid_wind"), sourceRectangle);
             }
 
+            final FlagAccumulator flags = band == cloudFlagBand ? new FlagAccumulator(targetRectangle) : null;
+            final float[] lakeSeaIceMaskValues = band == cloudFlagBand ?
+                    lakeSeaIceClassification.getMonthlyMaskValues(geoLocation) : null;
+            final SchillerNeuralNetWrapper nnWrapper = merisAllNeuralNet.get();
+            final int numNNOutputs = nnWrapper.getNumOutputs();
+            final boolean[] isWater = new boolean[targetRectangle.width];
+            final double[] nnInputs = new double[targetRectangle.width * nnWrapper.getNumInputs()];
+            final double[] nnOutputs = new double[targetRectangle.width * numNNOutputs];
             for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
                 checkForCancellation();
+                for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
+                    isWater[x - targetRectangle.x] =
+                            !l1FlagsTile.getSampleBit(x, y, IdepixMerisConstants.L1_F_INVALID) &&
+                                    !IdepixMerisUtils.isLandPixel(x, y, geoLocation.getLat(x, y), l1FlagsTile,
+                                                                  waterFractionTile.getSampleInt(x, y));
+                }
+                computeMerisNNOutputRow(y, targetRectangle, rhoToaTiles, isWater, nnWrapper, nnInputs, nnOutputs);
+                int waterPixelIndex = 0;
                 for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
                     if (!l1FlagsTile.getSampleBit(x, y, IdepixMerisConstants.L1_F_INVALID)) {
                         final int waterFraction = waterFractionTile.getSampleInt(x, y);
 
-                        if (IdepixMerisUtils.isLandPixel(x, y, getGeoPos(x, y), l1FlagsTile, waterFraction)) {
+                        if (!isWater[x - targetRectangle.x]) {
                             if (band == cloudFlagBand) {
-                                targetTile.setSample(x, y, IdepixMerisConstants.L1_F_LAND, true);
+                                flags.setFlag(x, y, IdepixMerisConstants.L1_F_LAND, true);
                             } else {
                                 targetTile.setSample(x, y, Float.NaN);
                             }
                         } else {
+                            final double nnOutput = nnOutputs[waterPixelIndex++ * numNNOutputs];
                             if (band == cloudFlagBand) {
+                                final int index = (y - targetRectangle.y) * targetRectangle.width + x - targetRectangle.x;
                                 classifyCloud(x, y, rhoToaTiles, windUTile, windVTile, szaTile, vzaTile, saaTile, vaaTile,
-                                        targetTile, waterFraction);
+                                        flags, geoLocation, waterFraction, lakeSeaIceMaskValues[index], nnOutput);
                             }
                             if (outputSchillerNNValue && band == nnOutputBand) {
-                                final double[] nnOutput = getMerisNNOutput(x, y, rhoToaTiles);
-                                targetTile.setSample(x, y, nnOutput[0]);
+                                targetTile.setSample(x, y, nnOutput);
                             }
                         }
+                    } else if (band == cloudFlagBand) {
+                        flags.setFlag(x, y, IdepixConstants.IDEPIX_INVALID, true);
                     } else {
                         targetTile.setSample(x, y, IdepixConstants.IDEPIX_INVALID, true);
                     }
                 }
             }
+            if (flags != null) {
+                flags.writeTo(targetTile);
+            }
         } catch (Exception e) {
             throw new OperatorException(e);
         }
     }
 
     private void classifyCloud(int x, int y, Tile[] rhoToaTiles, Tile winduTile, Tile windvTile,
-                               Tile szaTile, Tile vzaTile, Tile saaTile, Tile vaaTile, Tile targetTile,
-                               int waterFraction) {
+                               Tile szaTile, Tile vzaTile, Tile saaTile, Tile vaaTile, FlagAccumulator flags,
+                               TileGeoLocation geoLocation, int waterFraction, float lakeSeaIceMaskValue,
+                               double nnOutput) {
 
-        GeoPos geoPos = getGeoPos(x, y);
-        final boolean isCoastline = IdepixMerisUtils.isCoastlinePixel(geoPos, waterFraction);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_COASTLINE, isCoastline);
+        final float lat = geoLocation.getLat(x, y);
+        final boolean isCoastline = IdepixMerisUtils.isCoastlinePixel(lat, waterFraction);
+        flags.setFlag(x, y, IdepixConstants.IDEPIX_COASTLINE, isCoastline);
 
         boolean is_glint_risk = !isCoastline &&
                 isGlintRisk(x, y, rhoToaTiles, winduTile, windvTile, szaTile, vzaTile, saaTile, vaaTile);
 
-        final boolean classifiedAsLakeSeaIce = isPixelClassifiedAsLakeSeaIce(geoPos);
+        final boolean classifiedAsLakeSeaIce = isPixelClassifiedAsLakeSeaIce(lakeSeaIceMaskValue);
         // glint makes sense only if we have no sea ice
         is_glint_risk = is_glint_risk && !classifiedAsLakeSeaIce;
 
         boolean isCloudSure = false;
 
-        double[] nnOutput = getMerisNNOutput(x, y, rhoToaTiles);
-        if (!targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_INVALID)) {
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
-            targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
-            if (nnOutput[0] > schillerNNCloudAmbiguousLowerBoundaryValue &&
-                    nnOutput[0] <= schillerNNCloudAmbiguousSureSeparationValue) {
+        if (!flags.getFlag(x, y, IdepixConstants.IDEPIX_INVALID)) {
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+            flags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+            if (nnOutput > schillerNNCloudAmbiguousLowerBoundaryValue &&
+                    nnOutput <= schillerNNCloudAmbiguousSureSeparationValue) {
                 // this would be as 'CLOUD_AMBIGUOUS'...
-                targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, true);
-                targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, true);
+                flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, true);
+                flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, true);
             }
             // check for snow_ice separation below if needed, first set all to cloud
-            isCloudSure = nnOutput[0] > schillerNNCloudAmbiguousSureSeparationValue;
+            isCloudSure = nnOutput > schillerNNCloudAmbiguousSureSeparationValue;
             if (isCloudSure) {
                 // this would be as 'CLOUD_SURE'...
-                targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, true);
-                targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, true);
+                flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, true);
+                flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, true);
             }
 
             if (ignoreSeaIceClimatology || classifiedAsLakeSeaIce) {
-                if (nnOutput[0] > schillerNNCloudSureSnowSeparationValue) {
+                if (nnOutput > schillerNNCloudSureSnowSeparationValue) {
                     // this would be as 'SNOW/ICE'...
-                    targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, true);
-                    targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
-                    targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+                    flags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, true);
+                    flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
+                    flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
 
                 }
             }
         }
-        targetTile.setSample(x, y, IdepixMerisConstants.IDEPIX_GLINT_RISK, is_glint_risk && !isCloudSure);
-    }
-
-    private double[] getMerisNNOutput(int x, int y, Tile[] rhoToaTiles) {
-        return getMerisNNOutputImpl(x, y, rhoToaTiles, merisAllNeuralNet.get());
+        flags.setFlag(x, y, IdepixMerisConstants.IDEPIX_GLINT_RISK, is_glint_risk && !isCloudSure);
     }
 
-    private double[] getMerisNNOutputImpl(int x, int y, Tile[] rhoToaTiles, SchillerNeuralNetWrapper nnWrapper) {
-        double[] nnInput = nnWrapper.getInputVector();
-        for (int i = 0; i < nnInput.length; i++) {
-            nnInput[i] = Math.sqrt(rhoToaTiles[i].getSampleFloat(x, y));
+    /**
+     * Runs the net for the valid water pixels of a tile row in one batch. The outputs of the water pixels are
+     * written to {@code nnOutputs} one after the other, in the order of the pixels.
+     */
+    private void computeMerisNNOutputRow(int y, Rectangle rectangle, Tile[] rhoToaTiles, boolean[] isWater,
+                                         SchillerNeuralNetWrapper nnWrapper, double[] nnInputs, double[] nnOutputs) {
+        final int numNNInputs = nnWrapper.getNumInputs();
+        int numWaterPixels = 0;
+        for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+            if (isWater[x - rectangle.x]) {
+                final int offset = numWaterPixels++ * numNNInputs;
+                for (int i = 0; i < numNNInputs; i++) {
+                    nnInputs[offset + i] = Math.sqrt(rhoToaTiles[i].getSampleFloat(x, y));
+                }
+            }
         }
-        return nnWrapper.getNeuralNet().calc(nnInput);
+        nnWrapper.calc(nnInputs, nnOutputs, numWaterPixels);
     }
 
     private boolean isGlintRisk(int x, int y, Tile[] rhoToaTiles, Tile winduTile, Tile windvTile,
@@ -320,21 +376,10 @@ public class IdepixMerisWaterClassificationOp extends Operator {
         return Interp.interpolate(auxData.rog.getJavaArray(), rogIndex);
     }
 
-    private boolean isPixelClassifiedAsLakeSeaIce(GeoPos geoPos) {
-        final int lakeSeaIceMaskX = (int) (180.0 + geoPos.lon);
-        final int lakeSeaIceMaskY = (int) (90.0 - geoPos.lat);
-        final float monthlyMaskValue = lakeSeaIceClassification.getMonthlyMaskValue(lakeSeaIceMaskX, lakeSeaIceMaskY);
+    private boolean isPixelClassifiedAsLakeSeaIce(float monthlyMaskValue) {
         return monthlyMaskValue >= SEA_ICE_CLIM_THRESHOLD;
     }
 
-    private GeoPos getGeoPos(int x, int y) {
-        final GeoPos geoPos = new GeoPos();
-        final GeoCoding geoCoding = getSourceProduct().getSceneGeoCoding();
-        final PixelPos pixelPos = new PixelPos(x, y);
-        geoCoding.getGeoPos(pixelPos, geoPos);
-        return geoPos;
-    }
-
     public static class Spi extends OperatorSpi {
         public Spi() {
             super(IdepixMerisWaterClassificationOp.class);
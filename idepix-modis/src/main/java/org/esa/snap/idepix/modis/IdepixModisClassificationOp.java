@@ -9,6 +9,7 @@ import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.snap.core.gpf.pointop.*;
 
 import org.esa.snap.idepix.core.IdepixConstants;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
 
 import java.io.IOException;
@@ -111,6 +112,7 @@ public class IdepixModisClassificationOp extends PixelOperator {
     private static final String MODIS_ALL_NET_NAME = "9x7x5x3_319.7_all.net";
 
     private ThreadLocal<SchillerNeuralNetWrapper> modisAllNeuralNet;
+    private boolean skipInvalidPixels;
 
     @Override
     public Product getSourceProduct() {
@@ -121,10 +123,16 @@ public class IdepixModisClassificationOp extends PixelOperator {
     @Override
     protected void prepareInputs() throws OperatorException {
         readSchillerNets();
+        skipInvalidPixels = InvalidTiles.isSkipInvalidTiles();
     }
 
     @Override
     protected void computePixel(int x, int y, Sample[] sourceSamples, WritableSample[] targetSamples) {
+        if (skipInvalidPixels && InvalidTiles.isNoData(sourceSamples[0])) {
+            targetSamples[0].set(IdepixConstants.IDEPIX_INVALID, true);
+            targetSamples[1].set(Double.NaN);
+            return;
+        }
         final IdepixModisAlgorithm algorithm = createModisAlgorithm(x, y, sourceSamples, targetSamples);
         setClassifFlag(targetSamples, algorithm);
     }
@@ -279,7 +287,8 @@ public class IdepixModisClassificationOp extends PixelOperator {
         final float emissive32Rad = sourceSamples[IdepixModisConstants.MODIS_SRC_RAD_OFFSET + 11].getFloat();
         modisNeuralNetInput[9] = Math.sqrt(emissive32Rad);                  // EV_1KM_Emissive.32   (12020nm)
 
-        neuralNetOutput = modisAllNeuralNet.get().getNeuralNet().calc(modisNeuralNetInput);
+        neuralNetOutput = modisAllNeuralNet.get().getOutputVector();
+        modisAllNeuralNet.get().calc(modisNeuralNetInput, neuralNetOutput);
 
         modisAlgorithm.setNnOutput(neuralNetOutput);
         targetSamples[1].set(neuralNetOutput[0]);
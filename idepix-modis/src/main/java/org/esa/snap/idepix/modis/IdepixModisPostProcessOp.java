@@ -14,7 +14,9 @@ import org.esa.snap.core.util.RectangleExtender;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.operators.BasisOp;
 import org.esa.snap.idepix.core.operators.CloudBuffer;
-import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 
 import java.awt.*;
 
@@ -56,13 +58,16 @@ public class IdepixModisPostProcessOp extends BasisOp {
 
     private RectangleExtender rectCalculatorPlus;
     private RectangleExtender rectCalculatorMinus;
+    private boolean skipInvalidTiles;
 
     private Band landWaterBand;
+    private boolean coastlineByLatitude;
 
     @Override
     public void initialize() throws OperatorException {
         createTargetProduct();
 
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
         rectCalculatorPlus = new RectangleExtender(new Rectangle(reflProduct.getSceneRasterWidth(),
                                                                  reflProduct.getSceneRasterHeight()),
                                                    cloudBufferWidth, cloudBufferWidth);
@@ -72,15 +77,31 @@ public class IdepixModisPostProcessOp extends BasisOp {
                                                     -cloudBufferWidth, -cloudBufferWidth);
 
         landWaterBand = waterMaskProduct.getBand("land_water_fraction");
+        final GeoCoding geoCoding = classifProduct.getSceneGeoCoding();
+        coastlineByLatitude = geoCoding instanceof TiePointGeoCoding || geoCoding instanceof CrsGeoCoding;
     }
 
     @Override
     public void computeTile(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
         final Band classifFlagSourceBand = classifProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
         final Rectangle targetRectangle = targetTile.getRectangle();
         final Rectangle extendedRectangle = rectCalculatorPlus.extend(targetRectangle);
         final Rectangle shrinkedRectangle = rectCalculatorMinus.extend(targetRectangle);
         final Tile classifFlagSourceTile = getSourceTile(classifFlagSourceBand, extendedRectangle);
+        if (skipInvalidTiles &&
+                InvalidTiles.isFlagSetEverywhere(classifFlagSourceTile, extendedRectangle, IdepixConstants.IDEPIX_INVALID)) {
+            InvalidTiles.copyFlags(classifFlagSourceTile, targetTile);
+            return;
+        }
         final Tile waterFractionTile = getSourceTile(landWaterBand, extendedRectangle);
 
         for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
@@ -89,8 +110,7 @@ public class IdepixModisPostProcessOp extends BasisOp {
                 if (targetRectangle.contains(x, y)) {
                     combineFlags(x, y, classifFlagSourceTile, targetTile);
 
-                    if (!(classifProduct.getSceneGeoCoding() instanceof TiePointGeoCoding) &&
-                            !(classifProduct.getSceneGeoCoding() instanceof CrsGeoCoding)) {
+                    if (!coastlineByLatitude) {
                         // in this case, coastline could not be determined per pixel earlier
                         if (isCoastline(x, y, classifFlagSourceTile, targetRectangle)) {
                             targetTile.setSample(x, y, IdepixConstants.IDEPIX_COASTLINE, true);
@@ -109,14 +129,11 @@ public class IdepixModisPostProcessOp extends BasisOp {
             }
         }
 
-        // cloud buffer:
-        CloudBuffer.setCloudBuffer(targetTile, extendedRectangle, classifFlagSourceTile, cloudBufferWidth);
-        for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
-            checkForCancellation();
-            for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                IdepixUtils.consolidateCloudAndBuffer(targetTile, x, y);
-            }
-        }
+        // cloud buffer: the first pass stays on the tile, as its coastline check reads the flags combined so far
+        final FlagAccumulator flags = FlagAccumulator.of(targetTile);
+        CloudBuffer.setCloudBuffer(flags, extendedRectangle, classifFlagSourceTile, cloudBufferWidth, false);
+        flags.consolidateCloudAndBuffer();
+        flags.writeTo(targetTile);
     }
 
     private boolean isCoastline(int x, int y, Tile sourceFlagTile, Rectangle rectangle) {
@@ -162,8 +179,7 @@ public class IdepixModisPostProcessOp extends BasisOp {
         final int TOP_BORDER = Math.max(y - windowWidth, rectangle.y);
         final int BOTTOM_BORDER = Math.min(y + windowWidth, rectangle.y + rectangle.height - 1);
 
-        if (!(classifProduct.getSceneGeoCoding() instanceof TiePointGeoCoding) &&
-                !(classifProduct.getSceneGeoCoding() instanceof CrsGeoCoding)) {
+        if (!coastlineByLatitude) {
             final int waterFractionCenter = waterFractionTile.getSampleInt(x, y);
             for (int i = LEFT_BORDER; i <= RIGHT_BORDER; i++) {
                 for (int j = TOP_BORDER; j <= BOTTOM_BORDER; j++) {
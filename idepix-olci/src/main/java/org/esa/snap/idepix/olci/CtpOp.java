@@ -20,6 +20,7 @@ import org.esa.snap.idepix.core.AlgorithmSelector;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.operators.BasisOp;
 import org.esa.snap.idepix.core.util.IdepixIO;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 
 import java.awt.*;
 import java.io.File;
@@ -116,7 +117,10 @@ public class CtpOp extends BasisOp {
     @Override
     public void dispose() {
         super.dispose();
-        nnCalculator.getModel().close();
+        if (nnCalculator != null) {
+            nnCalculator.dispose();
+            nnCalculator = null;
+        }
     }
 
     @Override
@@ -145,6 +149,15 @@ public class CtpOp extends BasisOp {
 
     @Override
     public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
         final Rectangle targetRectangle = targetTile.getRectangle();
         final String targetBandName = targetBand.getName();
 
@@ -160,8 +173,9 @@ public class CtpOp extends BasisOp {
 
         final Tile l1FlagsTile = getSourceTile(sourceProduct.getRasterDataNode("quality_flags"), targetRectangle);
 
-        float[][] nnInputs = new float[targetRectangle.height * targetRectangle.width][];
-        float[] dummyNnInput = new float[7];
+        final int numInputs = 7;
+        final float[] nnInputs = new float[targetRectangle.height * targetRectangle.width * numInputs];
+        int numValidPixels = 0;
         for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
             checkForCancellation();
             for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
@@ -188,24 +202,34 @@ public class CtpOp extends BasisOp {
                     final float tra15 = tra15Tile.getSampleFloat(x, y);
                     final float mLogTra15 = (float) -Math.log(tra15);
 
-                    float[] nnInput = new float[] {cosSza, cosOza, aziDiff, refl12, mLogTra13, mLogTra14, mLogTra15};
-                    nnInputs[(y-targetRectangle.y) * targetRectangle.width + (x-targetRectangle.x)] = nnInput;
-                } else {
-                    nnInputs[(y-targetRectangle.y) * targetRectangle.width + (x-targetRectangle.x)] = dummyNnInput;
+                    // valid pixels are packed in tile order, invalid ones are not passed to the NN at all
+                    final int offset = numValidPixels * numInputs;
+                    nnInputs[offset] = cosSza;
+                    nnInputs[offset + 1] = cosOza;
+                    nnInputs[offset + 2] = aziDiff;
+                    nnInputs[offset + 3] = refl12;
+                    nnInputs[offset + 4] = mLogTra13;
+                    nnInputs[offset + 5] = mLogTra14;
+                    nnInputs[offset + 6] = mLogTra15;
+                    numValidPixels++;
                 }
             }
         }
 
         // call tensorflow once with the complete tile stack
-        final float[][] nnResult = nnCalculator.calculate(nnInputs);
+        final float[] nnResult = numValidPixels > 0 ?
+                nnCalculator.calculate(nnInputs, numValidPixels, numInputs) : new float[0];
+        final int numOutputs = numValidPixels > 0 ? nnResult.length / numValidPixels : 0;
 
         // convert output of tf into ctp and set value into target tile
+        int validPixelIndex = 0;
         for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
             checkForCancellation();
             for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
                 final boolean pixelIsValid = !l1FlagsTile.getSampleBit(x, y, IdepixOlciConstants.L1_F_INVALID);
                 if (pixelIsValid) {
-                    targetTile.setSample(x, y, TensorflowNNCalculator.convertNNResultToCtp(nnResult[(y-targetRectangle.y) * targetRectangle.width + (x-targetRectangle.x)][0]));
+                    targetTile.setSample(x, y, TensorflowNNCalculator.convertNNResultToCtp(nnResult[validPixelIndex * numOutputs]));
+                    validPixelIndex++;
                 } else {
                     targetTile.setSample(x, y, Float.NaN);
                 }
@@ -17,9 +17,12 @@ import org.esa.snap.core.util.math.RsMathUtils;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.seaice.LakeSeaIceAuxdata;
 import org.esa.snap.idepix.core.seaice.LakeSeaIceClassification;
-import org.esa.snap.idepix.core.util.IdepixIO;
-import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
+import org.esa.snap.idepix.core.util.TileWaterMask;
 import org.esa.snap.watermask.operator.WatermaskClassifier;
 import org.json.simple.JSONArray;
 import org.json.simple.JSONObject;
@@ -114,7 +117,8 @@ public class IdepixOlciClassificationOp extends Operator {
             description = "User defined ice mask product. If not provided, default climatology is used.")
     private Product iceMaskProduct;
 
-    @SourceProduct(alias = "rhotoa")
+    @SourceProduct(alias = "rhotoa", optional = true,
+            description = "Reflectance product. If not provided, reflectances are computed from the L1b radiances.")
     private Product rad2reflProduct;
 
     @SourceProduct(alias = "o2Corr", optional = true)
@@ -124,6 +128,9 @@ public class IdepixOlciClassificationOp extends Operator {
     Product targetProduct;
 
     private Band[] olciReflBands;
+    private Band[] olciRadianceBands;
+    private Band[] olciSolarFluxBands;
+    private RasterDataNode szaNode;
 
     private Band surface13Band;
     private Band trans13Band;
@@ -147,14 +154,16 @@ public class IdepixOlciClassificationOp extends Operator {
     private GeometryFactory gf;
     private Polygon arcticPolygon;
     private Polygon antarcticaPolygon;
-    private WatermaskClassifier watermaskClassifier;
+    private TileWaterMask tileWaterMask;
 
     private LakeSeaIceClassification lakeSeaIceClassification;
+    private boolean skipInvalidTiles;
 
 
     @Override
     public void initialize() throws OperatorException {
         setBands();
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
 
         OLCI_202306_NET_NAME = useO2HarmonizedRadiancesForNN ? "class-sequential-i21x42x8x4x2o1-5489-new-lake-ice-o2harm.net" :
                 "class-sequential-i21x42x8x4x2o1-5489.net";
@@ -167,9 +176,7 @@ public class IdepixOlciClassificationOp extends Operator {
         createTargetProduct();
         if (useSrtmLandWaterMask) {
             try {
-                watermaskClassifier = new WatermaskClassifier(LAND_WATER_MASK_RESOLUTION,
-                        OVERSAMPLING_FACTOR_X,
-                        OVERSAMPLING_FACTOR_Y);
+                tileWaterMask = createTileWaterMask(OVERSAMPLING_FACTOR_X, OVERSAMPLING_FACTOR_Y);
             } catch (IOException e) {
                 throw new OperatorException("Could not initialise SRTM land-water mask", e);
             }
@@ -233,6 +240,21 @@ public class IdepixOlciClassificationOp extends Operator {
         }
     }
 
+    /**
+     * Creates the SRTM land/water mask; benchmarks override this to run without auxdata.
+     *
+     * @param subsamplingFactorX - the number of sub-samples per pixel in x
+     * @param subsamplingFactorY - the number of sub-samples per pixel in y
+     * @return the mask
+     * @throws IOException if the mask auxdata cannot be read
+     */
+    protected TileWaterMask createTileWaterMask(int subsamplingFactorX, int subsamplingFactorY) throws IOException {
+        final WatermaskClassifier watermaskClassifier = new WatermaskClassifier(LAND_WATER_MASK_RESOLUTION,
+                subsamplingFactorX,
+                subsamplingFactorY);
+        return new TileWaterMask(watermaskClassifier, subsamplingFactorX, subsamplingFactorY);
+    }
+
     private void initLakeSeaIceClassification() {
         final ProductData.UTC startTime = l1bProduct.getStartTime();
         final int monthIndex = startTime.getAsCalendar().get(Calendar.MONTH);
@@ -240,11 +262,35 @@ public class IdepixOlciClassificationOp extends Operator {
     }
 
     private void setBands() {
-        olciReflBands = new Band[Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length];
-        for (int i = 0; i < Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length; i++) {
-            final int suffixStart = Rad2ReflConstants.OLCI_REFL_BAND_NAMES[i].indexOf("_");
-            final String reflBandname = Rad2ReflConstants.OLCI_REFL_BAND_NAMES[i].substring(0, suffixStart);
-            olciReflBands[i] = rad2reflProduct.getBand(reflBandname + "_reflectance");
+        final int numBands = Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length;
+        if (rad2reflProduct != null) {
+            olciReflBands = new Band[numBands];
+            for (int i = 0; i < numBands; i++) {
+                final int suffixStart = Rad2ReflConstants.OLCI_REFL_BAND_NAMES[i].indexOf("_");
+                final String reflBandname = Rad2ReflConstants.OLCI_REFL_BAND_NAMES[i].substring(0, suffixStart);
+                olciReflBands[i] = rad2reflProduct.getBand(reflBandname + "_reflectance");
+            }
+        } else {
+            // reflectances are computed in the tile pass, so that no reflectance tiles go into the tile cache
+            olciRadianceBands = new Band[numBands];
+            olciSolarFluxBands = new Band[numBands];
+            for (int i = 0; i < numBands; i++) {
+                final int suffixStart = Rad2ReflConstants.OLCI_REFL_BAND_NAMES[i].indexOf("_");
+                final String radBandname =
+                        Rad2ReflConstants.OLCI_REFL_BAND_NAMES[i].substring(0, suffixStart) + "_radiance";
+                final String solarFluxBandname = "solar_flux_band_" + (i + 1);
+                olciRadianceBands[i] = l1bProduct.getBand(radBandname);
+                olciSolarFluxBands[i] = l1bProduct.getBand(solarFluxBandname);
+                if (olciRadianceBands[i] == null || olciSolarFluxBands[i] == null) {
+                    throw new OperatorException("Band '" + radBandname + "' or '" + solarFluxBandname +
+                            "' missing in L1b product - cannot compute reflectances.");
+                }
+            }
+            szaNode = l1bProduct.getRasterDataNode(IdepixOlciConstants.OLCI_SUN_ZENITH_BAND_NAME);
+            if (szaNode == null) {
+                throw new OperatorException("Tie-point grid '" + IdepixOlciConstants.OLCI_SUN_ZENITH_BAND_NAME +
+                        "' missing in L1b product - cannot compute reflectances.");
+            }
         }
     }
 
@@ -273,6 +319,24 @@ public class IdepixOlciClassificationOp extends Operator {
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, rectangle);
+        try {
+            computeTileStackImpl(targetTiles, rectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
+
+        final Band olciQualityFlagBand = l1bProduct.getBand(IdepixOlciConstants.OLCI_QUALITY_FLAGS_BAND_NAME);
+        final Tile olciQualityFlagTile = getSourceTile(olciQualityFlagBand, rectangle);
+        final Band cloudFlagTargetBand = targetProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
+        if (skipInvalidTiles &&
+                InvalidTiles.isFlagSetEverywhere(olciQualityFlagTile, rectangle, IdepixOlciConstants.L1_F_INVALID)) {
+            InvalidTiles.setInvalid(targetTiles, cloudFlagTargetBand);
+            return;
+        }
 
         Tile surface13Tile = null;
         Tile trans13Tile = null;
@@ -281,16 +345,9 @@ public class IdepixOlciClassificationOp extends Operator {
             trans13Tile = getSourceTile(trans13Band, rectangle);
         }
 
-        final Band olciQualityFlagBand = l1bProduct.getBand(IdepixOlciConstants.OLCI_QUALITY_FLAGS_BAND_NAME);
-        final Tile olciQualityFlagTile = getSourceTile(olciQualityFlagBand, rectangle);
+        final float[][] olciReflectances = getOlciReflectances(olciQualityFlagTile, rectangle);
 
-        Tile[] olciReflectanceTiles = new Tile[Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length];
-        for (int i = 0; i < Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length; i++) {
-            olciReflectanceTiles[i] = getSourceTile(olciReflBands[i], rectangle);
-        }
-
-        final Band cloudFlagTargetBand = targetProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
-        final Tile cloudFlagTargetTile = targetTiles.get(cloudFlagTargetBand);
+        final FlagAccumulator cloudFlags = new FlagAccumulator(rectangle);
 
 
         Tile nnTargetTile = null;
@@ -299,90 +356,105 @@ public class IdepixOlciClassificationOp extends Operator {
         }
         try {
             GeoCoding geoCoding = l1bProduct.getSceneGeoCoding();
+            final TileGeoLocation geoLocation = TileGeoLocation.create(this, l1bProduct, rectangle);
+            final byte[] waterFractions = useSrtmLandWaterMask ?
+                    tileWaterMask.getWaterMaskFractions(geoCoding, rectangle) : null;
+            final float[] lakeSeaIceMaskValues = useLakeAndSeaIceClimatology ?
+                    lakeSeaIceClassification.getMonthlyMaskValues(geoLocation) : null;
+            final SchillerNeuralNetWrapper nnWrapper = getOlciNeuralNet();
+            final int numNNInputs = nnWrapper.getNumInputs();
+            final double[] nnInputs = new double[rectangle.width * numNNInputs];
+            final double[] nnOutputs = new double[rectangle.width * nnWrapper.getNumOutputs()];
             for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
                 checkForCancellation();
+                final int rowOffset = (y - rectangle.y) * rectangle.width;
+                computeOlciNNOutputRow(rowOffset, rectangle.width, olciReflectances, nnWrapper, nnInputs, nnOutputs);
                 for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    final int index = rowOffset + (x - rectangle.x);
+                    final double nnOutput = nnOutputs[(x - rectangle.x) * nnWrapper.getNumOutputs()];
                     int waterFraction = -1;
                     if (useSrtmLandWaterMask) {
-                        waterFraction = watermaskClassifier.getWaterMaskFraction(geoCoding, x, y);
+                        waterFraction = waterFractions[index];
                     }
 
-                    initCloudFlag(olciQualityFlagTile, targetTiles.get(cloudFlagTargetBand), olciReflectanceTiles, y, x);
+                    initCloudFlag(olciQualityFlagTile, cloudFlags, olciReflectances, index, y, x);
                     final boolean isBright = olciQualityFlagTile.getSampleBit(x, y, IdepixOlciConstants.L1_F_BRIGHT);
-                    cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_BRIGHT, isBright);
-                    final boolean isCoastlineFromAppliedMask = classifyCoastline(olciQualityFlagTile, x, y, waterFraction);
-                    cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_COASTLINE, isCoastlineFromAppliedMask);
+                    cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_BRIGHT, isBright);
+                    final boolean isCoastlineFromAppliedMask = classifyCoastline(olciQualityFlagTile, geoLocation, x, y, waterFraction);
+                    cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_COASTLINE, isCoastlineFromAppliedMask);
 
-                    final boolean isLandFromAppliedMask = isOlciLandPixel(x, y, olciQualityFlagTile, waterFraction);
-                    final boolean isInlandWaterFromAppliedMask = isOlciInlandWaterPixel(x, y, olciQualityFlagTile, waterFraction);
+                    final boolean isLandFromAppliedMask = isOlciLandPixel(x, y, geoLocation, olciQualityFlagTile, waterFraction);
+                    final boolean isInlandWaterFromAppliedMask = isOlciInlandWaterPixel(x, y, geoLocation, olciQualityFlagTile, waterFraction);
                     //todo: for CGLOPS, coastlines are added to LAND to exclude them from L2 processing
-                    cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_LAND, isLandFromAppliedMask ||
+                    cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_LAND, isLandFromAppliedMask ||
                             isCoastlineFromAppliedMask);
 
                     // todo: for cglops, coastlines are treated as LAND
                     if ((isLandFromAppliedMask && !isInlandWaterFromAppliedMask) || isCoastlineFromAppliedMask) {
-                        classifyOverLand(olciReflectanceTiles, cloudFlagTargetTile, nnTargetTile,
-                                surface13Tile, trans13Tile, x, y);
+                        classifyOverLand(olciReflectances, index, cloudFlags, nnTargetTile,
+                                surface13Tile, trans13Tile, geoLocation, x, y, nnOutput);
                     } else {
-                        classifyOverWater(olciQualityFlagTile, olciReflectanceTiles,
-                                cloudFlagTargetTile, nnTargetTile, x, y, isInlandWaterFromAppliedMask);
+                        classifyOverWater(olciQualityFlagTile, olciReflectances, index,
+                                cloudFlags, nnTargetTile, lakeSeaIceMaskValues, x, y, isInlandWaterFromAppliedMask,
+                                nnOutput);
                     }
                 }
             }
+            cloudFlags.writeTo(targetTiles.get(cloudFlagTargetBand));
         } catch (Exception e) {
             throw new OperatorException("Failed to provide GA cloud screening:\n" + e.getMessage(), e);
         }
     }
 
-    private boolean classifyCoastline(Tile olciQualityFlagTile, int x, int y, int waterFraction) {
+    private boolean classifyCoastline(Tile olciQualityFlagTile, TileGeoLocation geoLocation, int x, int y,
+                                      int waterFraction) {
         return waterFraction < 0 ?
                 olciQualityFlagTile.getSampleBit(x, y, IdepixOlciConstants.L1_F_COASTLINE) :
-                isCoastlinePixel(x, y, waterFraction);
+                isCoastlinePixel(geoLocation.getLat(x, y), waterFraction);
     }
 
-    private void classifyOverWater(Tile olciQualityFlagTile, Tile[] olciReflectanceTiles,
-                                   Tile cloudFlagTargetTile, Tile nnTargetTile, int x, int y, boolean isInlandWater) {
-
+    private void classifyOverWater(Tile olciQualityFlagTile, float[][] olciReflectances, int index,
+                                   FlagAccumulator cloudFlags, Tile nnTargetTile, float[] lakeSeaIceMaskValues,
+                                   int x, int y, boolean isInlandWater, double nnOutput) {
 
-        double nnOutput = getOlciNNOutput(x, y, olciReflectanceTiles);
-        if (!cloudFlagTargetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_INVALID)) {
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+        if (!cloudFlags.getFlag(x, y, IdepixConstants.IDEPIX_INVALID)) {
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
 
             final boolean isGlint = isGlintPixel(x, y, olciQualityFlagTile);
             // CB 20170406:
-            final boolean cloudSure = olciReflectanceTiles[16].getSampleFloat(x, y) > THRESH_WATER_MINBRIGHT1 &&
+            final boolean cloudSure = olciReflectances[16][index] > THRESH_WATER_MINBRIGHT1 &&
                     nnInterpreter.isCloudSure(nnOutput);
-            final boolean cloudAmbiguous = olciReflectanceTiles[16].getSampleFloat(x, y) > THRESH_WATER_MINBRIGHT2 &&
+            final boolean cloudAmbiguous = olciReflectances[16][index] > THRESH_WATER_MINBRIGHT2 &&
                     nnInterpreter.isCloudAmbiguous(nnOutput, false, isGlint);
 
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, cloudAmbiguous);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, cloudSure);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, cloudAmbiguous || cloudSure);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, cloudAmbiguous);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, cloudSure);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, cloudAmbiguous || cloudSure);
 
-            final GeoPos geoPos = IdepixUtils.getGeoPos(l1bProduct.getSceneGeoCoding(), x, y);
-            final boolean checkForSeaIce = !useLakeAndSeaIceClimatology || isPixelClassifiedAsLakeSeaIce(geoPos);
+            final boolean checkForSeaIce = !useLakeAndSeaIceClimatology ||
+                    isPixelClassifiedAsLakeSeaIce(lakeSeaIceMaskValues[index]);
             if (checkForSeaIce && nnInterpreter.isSnowIce(nnOutput)) {
-                cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, true);
-                cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
-                cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+                cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, true);
+                cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
+                cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
             }
 
             if (isInlandWater && cloudAmbiguous) {
-                final double NDVI = getNDVI(x, y, olciReflectanceTiles);
+                final double NDVI = getNDVI(olciReflectances, index);
                 if (NDVI > 0.07) {
                     //catches mixed pixels at coast lines.
-                    cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
-                    cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+                    cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
+                    cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
                     // todo: for CGLOPS it is OK, if these mixed pixels are classified as LAND!
-                    cloudFlagTargetTile.setSample(x, y, IDEPIX_LAND, true);
+                    cloudFlags.setFlag(x, y, IDEPIX_LAND, true);
 
                 }
                 if (olciQualityFlagTile.getSampleBit(x, y, IdepixOlciConstants.L1_F_BRIGHT)) {
-                    cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, true);
-                    cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, true);
+                    cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, true);
+                    cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, true);
                 }
             }
         }
@@ -391,19 +463,17 @@ public class IdepixOlciClassificationOp extends Operator {
         }
     }
 
-    private void classifyOverLand(Tile[] olciReflectanceTiles,
-                                  Tile cloudFlagTargetTile, Tile nnTargetTile,
-                                  Tile surface13Tile, Tile trans13Tile,
-                                  int x, int y) {
+    private void classifyOverLand(float[][] olciReflectances, int index,
+                                  FlagAccumulator cloudFlags, Tile nnTargetTile,
+                                  Tile surface13Tile, Tile trans13Tile, TileGeoLocation geoLocation,
+                                  int x, int y, double nnOutput) {
 
-        final double nnOutput = getOlciNNOutput(x, y, olciReflectanceTiles);
-
-        if (!cloudFlagTargetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_INVALID)) {
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
-            final float olciReflectance3 = olciReflectanceTiles[2].getSampleFloat(x, y);
+        if (!cloudFlags.getFlag(x, y, IdepixConstants.IDEPIX_INVALID)) {
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+            final float olciReflectance3 = olciReflectances[2][index];
 
             // CB 20170406:
             boolean isCloudSure = olciReflectance3 > THRESH_LAND_MINBRIGHT1 &&
@@ -419,14 +489,13 @@ public class IdepixOlciClassificationOp extends Operator {
             double surface13;
             double trans13;
             if (surface13Tile != null && trans13Tile != null) {
-                GeoPos geoPos = IdepixUtils.getGeoPos(l1bProduct.getSceneGeoCoding(), x, y);
-                Coordinate coord = new Coordinate(geoPos.getLon(), geoPos.getLat());
+                Coordinate coord = new Coordinate(geoLocation.getLon(x, y), geoLocation.getLat(x, y));
                 boolean isInsideGreenland = IdepixOlciUtils.isCoordinateInsideGeometry(coord, arcticPolygon, gf);
                 boolean isInsideAntarctica = IdepixOlciUtils.isCoordinateInsideGeometry(coord, antarcticaPolygon, gf);
                 if (isInsideGreenland || isInsideAntarctica) {
                     surface13 = surface13Tile.getSampleDouble(x, y);
                     trans13 = trans13Tile.getSampleDouble(x, y);
-                    float olciReflectance21 = olciReflectanceTiles[Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length - 1].getSampleFloat(x, y);
+                    float olciReflectance21 = olciReflectances[Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length - 1][index];
                     boolean isCloudOverSnow = (olciReflectance21 > 0.5 && surface13 - trans13 < 0.01) || olciReflectance21 > 0.76f;
                     if (isCloudOverSnow) {
                         isCloudSure = true;
@@ -444,10 +513,10 @@ public class IdepixOlciClassificationOp extends Operator {
                 }
             }
 
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, isCloudAmbiguous);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, isCloudSure);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, isCloud);
-            cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, isSnowIce);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, isCloudAmbiguous);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, isCloudSure);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, isCloud);
+            cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, isSnowIce);
         }
 
         if (nnTargetTile != null) {
@@ -455,14 +524,14 @@ public class IdepixOlciClassificationOp extends Operator {
         }
     }
 
-    private boolean isOlciLandPixel(int x, int y, Tile olciL1bFlagTile, int waterFraction) {
+    private boolean isOlciLandPixel(int x, int y, TileGeoLocation geoLocation, Tile olciL1bFlagTile, int waterFraction) {
         if (waterFraction < 0) {
             boolean landFlag = olciL1bFlagTile.getSampleBit(x, y, IdepixOlciConstants.L1_F_LAND);
             boolean inlandWaterFlag = olciL1bFlagTile.getSampleBit(x, y, IdepixOlciConstants.L1_F_FRESH_INLAND_WATER);
             return landFlag && !inlandWaterFlag;
         } else {
             // the water mask ends at 59 Degree south, stop earlier to avoid artefacts
-            if (IdepixUtils.getGeoPos(l1bProduct.getSceneGeoCoding(), x, y).lat > -58f) {
+            if (geoLocation.getLat(x, y) > -58f) {
                 // values bigger than 100 indicate no data
                 if (waterFraction <= 100) {
                     // todo: this does not work if we have a PixelGeocoding. In that case, waterFraction
@@ -477,7 +546,8 @@ public class IdepixOlciClassificationOp extends Operator {
         }
     }
 
-    private boolean isOlciInlandWaterPixel(int x, int y, Tile olciL1bFlagTile, int waterFraction) {
+    private boolean isOlciInlandWaterPixel(int x, int y, TileGeoLocation geoLocation, Tile olciL1bFlagTile,
+                                           int waterFraction) {
         if (waterFraction < 0) {
             // SRTM has not been used! Rely on OLCI flags!
             return olciL1bFlagTile.getSampleBit(x, y, IdepixOlciConstants.L1_F_LAND) &&
@@ -485,7 +555,7 @@ public class IdepixOlciClassificationOp extends Operator {
         } else {
             // SRTM water mask is used.
             // the water mask ends at 59 Degree south, stop earlier to avoid artefacts
-            if (IdepixUtils.getGeoPos(l1bProduct.getSceneGeoCoding(), x, y).lat > -58f) {
+            if (geoLocation.getLat(x, y) > -58f) {
                 // values bigger than 100 indicate no data
                 if (waterFraction <= 100) {
                     // todo: this does not work if we have a PixelGeocoding. In that case, waterFraction
@@ -502,39 +572,76 @@ public class IdepixOlciClassificationOp extends Operator {
         }
     }
 
-    private double getOlciNNOutput(int x, int y, Tile[] rhoToaTiles) {
-        SchillerNeuralNetWrapper nnWrapper;
+    private SchillerNeuralNetWrapper getOlciNeuralNet() {
         try {
-            nnWrapper = olciAllNeuralNet.get();
+            return olciAllNeuralNet.get();
         } catch (Exception e) {
             throw new OperatorException("Cannot get values from Neural Net file - check format! " + e.getMessage());
         }
-        double[] nnInput = nnWrapper.getInputVector();
-        for (int i = 0; i < nnInput.length; i++) {
-            nnInput[i] = Math.sqrt(rhoToaTiles[i].getSampleFloat(x, y));
+    }
+
+    private void computeOlciNNOutputRow(int rowOffset, int width, float[][] rhoToa,
+                                        SchillerNeuralNetWrapper nnWrapper, double[] nnInputs, double[] nnOutputs) {
+        final int numNNInputs = nnWrapper.getNumInputs();
+        for (int i = 0; i < width; i++) {
+            final int offset = i * numNNInputs;
+            for (int j = 0; j < numNNInputs; j++) {
+                nnInputs[offset + j] = Math.sqrt(rhoToa[j][rowOffset + i]);
+            }
+        }
+        nnWrapper.calc(nnInputs, nnOutputs, width);
+    }
+
+    /**
+     * Provides the TOA reflectances of all OLCI bands for the tile rectangle, line by line. Without a reflectance
+     * source product, they are computed from the radiances as done by the Rad2Refl operator.
+     */
+    private float[][] getOlciReflectances(Tile olciQualityFlagTile, Rectangle rectangle) {
+        final int numBands = Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length;
+        final float[][] olciReflectances = new float[numBands][];
+        if (rad2reflProduct != null) {
+            for (int i = 0; i < numBands; i++) {
+                olciReflectances[i] = getSourceTile(olciReflBands[i], rectangle).getSamplesFloat();
+            }
+            return olciReflectances;
+        }
+
+        final int invalidMask = 1 << IdepixOlciConstants.L1_F_INVALID;
+        final int[] qualityFlags = olciQualityFlagTile.getSamplesInt();
+        final float[] sza = getSourceTile(szaNode, rectangle).getSamplesFloat();
+        for (int i = 0; i < numBands; i++) {
+            final float[] radiances = getSourceTile(olciRadianceBands[i], rectangle).getSamplesFloat();
+            final float[] solarFluxes = getSourceTile(olciSolarFluxBands[i], rectangle).getSamplesFloat();
+            final float[] reflectances = new float[radiances.length];
+            for (int j = 0; j < reflectances.length; j++) {
+                if ((qualityFlags[j] & invalidMask) != 0) {
+                    reflectances[j] = Rad2ReflConstants.RAD_TO_REFL_NODATA;
+                } else {
+                    final float reflectance = RsMathUtils.radianceToReflectance(radiances[j], sza[j], solarFluxes[j]);
+                    reflectances[j] = Float.isNaN(reflectance) ? Rad2ReflConstants.RAD_TO_REFL_NODATA : reflectance;
+                }
+            }
+            olciReflectances[i] = reflectances;
         }
-        return nnWrapper.getNeuralNet().calc(nnInput)[0];
+        return olciReflectances;
     }
 
-    private double getNDVI(int x, int y, Tile[] rhoToaTiles) {
-        double rho17 = rhoToaTiles[16].getSampleDouble(x, y);
-        double rho8 = rhoToaTiles[7].getSampleDouble(x, y);
+    private double getNDVI(float[][] rhoToa, int index) {
+        double rho17 = rhoToa[16][index];
+        double rho8 = rhoToa[7][index];
         return (rho17 - rho8) / (rho17 + rho8);
     }
 
-    private boolean isPixelClassifiedAsLakeSeaIce(GeoPos geoPos) {
-        final int lakeSeaIceMaskX = (int) (180.0 + geoPos.lon);
-        final int lakeSeaIceMaskY = (int) (90.0 - geoPos.lat);
-        final float monthlyMaskValue = lakeSeaIceClassification.getMonthlyMaskValue(lakeSeaIceMaskX, lakeSeaIceMaskY);
+    private boolean isPixelClassifiedAsLakeSeaIce(float monthlyMaskValue) {
         return monthlyMaskValue >= SEA_ICE_CLIM_THRESHOLD;
     }
 
-    private boolean isCoastlinePixel(int x, int y, int waterFraction) {
+    private boolean isCoastlinePixel(float lat, int waterFraction) {
         // the water mask ends at 59 Degree south, stop earlier to avoid artefacts
         // values bigger than 100 indicate no data
         // todo: this does not work if we have a PixelGeocoding. In that case, waterFraction
         // is always 0 or 100!! (TS, OD, 20140502)
-        return IdepixUtils.getGeoPos(l1bProduct.getSceneGeoCoding(), x, y).lat > -58f &&
+        return lat > -58f &&
                 waterFraction < 100 && waterFraction > 0;
     }
 
@@ -542,26 +649,30 @@ public class IdepixOlciClassificationOp extends Operator {
         return l1FlagsTile.getSampleBit(x, y, IdepixOlciConstants.L1_F_GLINT);
     }
 
-    private void initCloudFlag(Tile olciL1bFlagTile, Tile targetTile, Tile[] olciReflectanceTiles, int y, int x) {
+    private void initCloudFlag(Tile olciL1bFlagTile, FlagAccumulator cloudFlags, float[][] olciReflectances, int index,
+                               int y, int x) {
         // for given instrument, compute boolean pixel properties and write to cloud flag band
-        float[] olciReflectances = new float[Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length];
-        for (int i = 0; i < Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length; i++) {
-            olciReflectances[i] = olciReflectanceTiles[i].getSampleFloat(x, y);
+        boolean reflectancesValid = true;
+        for (float[] bandReflectances : olciReflectances) {
+            // same check as IdepixIO.areAllReflectancesValid
+            if (Float.isNaN(bandReflectances[index]) || bandReflectances[index] <= 0.0f) {
+                reflectancesValid = false;
+                break;
+            }
         }
 
         final boolean l1Invalid = olciL1bFlagTile.getSampleBit(x, y, IdepixOlciConstants.L1_F_INVALID);
-        final boolean reflectancesValid = IdepixIO.areAllReflectancesValid(olciReflectances);
-
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_INVALID, l1Invalid || !reflectancesValid);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_BUFFER, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SHADOW, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_COASTLINE, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_LAND, false);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_BRIGHT, false);
+
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_INVALID, l1Invalid || !reflectancesValid);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_BUFFER, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SHADOW, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_COASTLINE, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_LAND, false);
+        cloudFlags.setFlag(x, y, IdepixConstants.IDEPIX_BRIGHT, false);
     }
 
     /**
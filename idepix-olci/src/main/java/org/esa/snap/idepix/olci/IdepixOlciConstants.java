@@ -30,8 +30,6 @@ public class IdepixOlciConstants {
     public static final String OLCI_VIEW_AZIMUTH_BAND_NAME = "OAA";
     public static final String OLCI_VIEW_AZIMUTH_INTERPOLATED_BAND_NAME = "OAA_interp";
 
-    public static final double[] POLYNOM_FIT_INITIAL = new double[]{0., 0., 0.};
-
     static final String OLCI_QUALITY_FLAGS_BAND_NAME = "quality_flags";
 
     static final double[] referencePressureLevels = {
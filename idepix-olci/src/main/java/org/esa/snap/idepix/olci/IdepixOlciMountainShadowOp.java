@@ -1,25 +1,34 @@
 package org.esa.snap.idepix.olci;
 
-import org.esa.snap.core.datamodel.GeoPos;
-import org.esa.snap.core.datamodel.PixelPos;
+import com.bc.ceres.core.ProgressMonitor;
+import org.esa.snap.core.datamodel.Band;
+import org.esa.snap.core.datamodel.GeoCoding;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
-import org.esa.snap.core.gpf.GPF;
+import org.esa.snap.core.datamodel.RasterDataNode;
+import org.esa.snap.core.gpf.Operator;
 import org.esa.snap.core.gpf.OperatorException;
 import org.esa.snap.core.gpf.OperatorSpi;
+import org.esa.snap.core.gpf.Tile;
 import org.esa.snap.core.gpf.annotations.OperatorMetadata;
 import org.esa.snap.core.gpf.annotations.Parameter;
 import org.esa.snap.core.gpf.annotations.SourceProduct;
-import org.esa.snap.core.gpf.pointop.*;
+import org.esa.snap.core.util.ProductUtils;
 import org.esa.snap.core.util.math.MathUtils;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.SlopeAspectOrientationUtils;
 
-import java.util.HashMap;
+import javax.media.jai.BorderExtender;
+import java.awt.Rectangle;
 
 /**
  * Computes mountain/hill shadow for a Sentinel-3 OLCI product using slope, aspect and orientation.
  * See theory e.g. at
  * https://www.e-education.psu.edu/geog480/node/490, or
  * https://desktop.arcgis.com/en/arcmap/10.3/tools/spatial-analyst-toolbox/how-hillshade-works.htm
+ * <p>
+ * Slope, aspect and orientation are computed per tile as in {@link IdepixOlciSlopeAspectOrientationOp}, but are
+ * used directly for the shadow test and never stored as bands.
  *
  * @author Tonio Fincke, Olaf Danne
  */
@@ -29,7 +38,7 @@ import java.util.HashMap;
         authors = "Tonio Fincke, Olaf Danne",
         copyright = "(c) 2018-2021 by Brockmann Consult",
         description = "Computes mountain/hill shadow for a Sentinel-3 OLCI product using slope, aspect and orientation.")
-public class IdepixOlciMountainShadowOp extends PixelOperator {
+public class IdepixOlciMountainShadowOp extends Operator {
 
     @SourceProduct(alias = "l1b")
     private Product l1bProduct;
@@ -38,72 +47,109 @@ public class IdepixOlciMountainShadowOp extends PixelOperator {
             description = "Extent of mountain shadow detection")
     private double mntShadowExtent;
 
-    private final static int SZA_INDEX = 0;
-    private final static int SAA_INDEX = 1;
-    private final static int OZA_INDEX = 2;
-    private final static int OAA_INDEX = 3;
-    private final static int SLOPE_INDEX = 4;
-    private final static int ASPECT_INDEX = 5;
-    private final static int ORIENTATION_INDEX = 6;
+    public final static String MOUNTAIN_SHADOW_FLAG_BAND_NAME = "mountainShadowFlag";
 
+    private double spatialResolution;
 
-    private final static int MOUNTAIN_SHADOW_FLAG_BAND_INDEX = 0;
+    private Band latitudeBand;
+    private Band longitudeBand;
+    private Band elevationBand;
+    private RasterDataNode sunZenithNode;
+    private RasterDataNode sunAzimuthNode;
+    private RasterDataNode viewZenithNode;
+    private RasterDataNode viewAzimuthNode;
 
-    public final static String MOUNTAIN_SHADOW_FLAG_BAND_NAME = "mountainShadowFlag";
+    @Override
+    public void initialize() throws OperatorException {
+        ensureSingleRasterSize(l1bProduct);
+        GeoCoding sourceGeoCoding = l1bProduct.getSceneGeoCoding();
+        if (sourceGeoCoding == null) {
+            throw new OperatorException("Source product has no geo-coding");
+        }
 
-    private Product saoProduct;
+        spatialResolution = SlopeAspectOrientationUtils.computeSpatialResolution(l1bProduct, sourceGeoCoding);
 
-    @Override
-    protected void prepareInputs() throws OperatorException {
-        super.prepareInputs();
-        HashMap<String, Product> input = new HashMap<>();
-        input.put("l1b", l1bProduct);
-        saoProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(IdepixOlciSlopeAspectOrientationOp.class),
-                GPF.NO_PARAMS, input);
-    }
+        elevationBand = l1bProduct.getBand(IdepixOlciConstants.OLCI_ALTITUDE_BAND_NAME);
+        if (elevationBand == null) {
+            throw new OperatorException("Elevation band required to compute mountain shadow");
+        }
+        latitudeBand = l1bProduct.getBand(IdepixOlciConstants.OLCI_LATITUDE_BAND_NAME);
+        longitudeBand = l1bProduct.getBand(IdepixOlciConstants.OLCI_LONGITUDE_BAND_NAME);
+
+        if (IdepixOlciUtils.isFullResolution(l1bProduct) || IdepixOlciUtils.isReducedResolution(l1bProduct)) {
+            IdepixOlciViewAngleInterpolationOp viewAngleInterpolationOp = new IdepixOlciViewAngleInterpolationOp();
+            viewAngleInterpolationOp.setParameterDefaultValues();
+            viewAngleInterpolationOp.setSourceProduct(l1bProduct);
+            Product viewAngleInterpolationProduct = viewAngleInterpolationOp.getTargetProduct();
+            viewZenithNode = viewAngleInterpolationProduct.getBand(
+                    IdepixOlciConstants.OLCI_VIEW_ZENITH_INTERPOLATED_BAND_NAME);
+            viewAzimuthNode = viewAngleInterpolationProduct.getBand(
+                    IdepixOlciConstants.OLCI_VIEW_AZIMUTH_INTERPOLATED_BAND_NAME);
+        } else {
+            viewZenithNode = l1bProduct.getTiePointGrid(IdepixOlciConstants.OLCI_VIEW_ZENITH_BAND_NAME);
+            viewAzimuthNode = l1bProduct.getTiePointGrid(IdepixOlciConstants.OLCI_VIEW_AZIMUTH_BAND_NAME);
+        }
+        sunZenithNode = l1bProduct.getTiePointGrid(IdepixOlciConstants.OLCI_SUN_ZENITH_BAND_NAME);
+        sunAzimuthNode = l1bProduct.getTiePointGrid(IdepixOlciConstants.OLCI_SUN_AZIMUTH_BAND_NAME);
 
-    @Override
-    protected void configureTargetProduct(ProductConfigurer productConfigurer) {
-        super.configureTargetProduct(productConfigurer);
-        productConfigurer.addBand(MOUNTAIN_SHADOW_FLAG_BAND_NAME, ProductData.TYPE_INT8);
+        setTargetProduct(createTargetProduct());
     }
 
     @Override
-    protected void configureSourceSamples(SourceSampleConfigurer sampleConfigurer) throws OperatorException {
-        sampleConfigurer.defineSample(SZA_INDEX, IdepixOlciConstants.OLCI_SUN_ZENITH_BAND_NAME, l1bProduct);
-        sampleConfigurer.defineSample(SAA_INDEX, IdepixOlciConstants.OLCI_SUN_AZIMUTH_BAND_NAME, l1bProduct);
-        sampleConfigurer.defineSample(OZA_INDEX, IdepixOlciConstants.OLCI_VIEW_ZENITH_INTERPOLATED_BAND_NAME,
-                                      saoProduct);
-        sampleConfigurer.defineSample(OAA_INDEX, IdepixOlciConstants.OLCI_VIEW_AZIMUTH_INTERPOLATED_BAND_NAME,
-                                      saoProduct);
-        sampleConfigurer.defineSample(SLOPE_INDEX, IdepixOlciSlopeAspectOrientationOp.SLOPE_BAND_NAME, saoProduct);
-        sampleConfigurer.defineSample(ASPECT_INDEX, IdepixOlciSlopeAspectOrientationOp.ASPECT_BAND_NAME, saoProduct);
-        sampleConfigurer.defineSample(ORIENTATION_INDEX, IdepixOlciSlopeAspectOrientationOp.ORIENTATION_BAND_NAME,
-                saoProduct);
+    public void computeTile(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
     }
 
-    @Override
-    protected void configureTargetSamples(TargetSampleConfigurer sampleConfigurer) throws OperatorException {
-        sampleConfigurer.defineSample(MOUNTAIN_SHADOW_FLAG_BAND_INDEX, MOUNTAIN_SHADOW_FLAG_BAND_NAME);
+    private void computeTileImpl(Band targetBand, Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final Rectangle targetRectangle = targetTile.getRectangle();
+        final Rectangle sourceRectangle = SlopeAspectOrientationUtils.getSourceRectangle(targetRectangle);
+        final BorderExtender borderExtender = BorderExtender.createInstance(BorderExtender.BORDER_COPY);
+        final float[] sza = getSourceTile(sunZenithNode, sourceRectangle, borderExtender).getSamplesFloat();
+        final float[] saa = getSourceTile(sunAzimuthNode, sourceRectangle, borderExtender).getSamplesFloat();
+        final float[] oza = getSourceTile(viewZenithNode, sourceRectangle, borderExtender).getSamplesFloat();
+        final float[] oaa = getSourceTile(viewAzimuthNode, sourceRectangle, borderExtender).getSamplesFloat();
+
+        final int numTargetPixels = targetRectangle.width * targetRectangle.height;
+        final float[] slope = new float[numTargetPixels];
+        final float[] aspect = new float[numTargetPixels];
+        final float[] orientation = new float[numTargetPixels];
+        SlopeAspectOrientationUtils.computeSlopeAspectOrientation(
+                getSourceTile(elevationBand, sourceRectangle, borderExtender).getSamplesFloat(),
+                getSourceTile(latitudeBand, sourceRectangle, borderExtender).getSamplesFloat(),
+                getSourceTile(longitudeBand, sourceRectangle, borderExtender).getSamplesFloat(),
+                oza, oaa, saa, targetRectangle.width, targetRectangle.height, spatialResolution,
+                slope, aspect, orientation);
+
+        for (int y = 0; y < targetRectangle.height; y++) {
+            for (int x = 0; x < targetRectangle.width; x++) {
+                final int targetIndex = y * targetRectangle.width + x;
+                final int sourceIndex = (y + 1) * sourceRectangle.width + x + 1;
+                boolean isMountainShadow = false;
+                if (!Float.isNaN(slope[targetIndex]) &&
+                        !Float.isNaN(aspect[targetIndex])) {
+                    final double saaApparent = IdepixOlciUtils.computeApparentSaa(sza[sourceIndex], saa[sourceIndex],
+                            oza[sourceIndex], oaa[sourceIndex]);
+                    isMountainShadow = isMountainShadow(sza[sourceIndex], (float) saaApparent, slope[targetIndex],
+                            aspect[targetIndex], orientation[targetIndex], mntShadowExtent);
+                }
+                targetTile.setSample(targetRectangle.x + x, targetRectangle.y + y, isMountainShadow);
+            }
+        }
     }
 
-    @Override
-    protected void computePixel(int x, int y, Sample[] sourceSamples, WritableSample[] targetSamples) {
-        final float slope = sourceSamples[SLOPE_INDEX].getFloat();
-        final float aspect = sourceSamples[ASPECT_INDEX].getFloat();
-        if (!Float.isNaN(slope) &&
-                !Float.isNaN(aspect)) {
-            final float sza = sourceSamples[SZA_INDEX].getFloat();
-            final float saa = sourceSamples[SAA_INDEX].getFloat();
-            final float oza = sourceSamples[OZA_INDEX].getFloat();
-            final float oaa = sourceSamples[OAA_INDEX].getFloat();
-            final float orientation = sourceSamples[ORIENTATION_INDEX].getFloat();
-
-            final double saaApparent = IdepixOlciUtils.computeApparentSaa(sza, saa, oza, oaa);
-
-            targetSamples[MOUNTAIN_SHADOW_FLAG_BAND_INDEX].set(isMountainShadow(sza, (float) saaApparent,
-                    slope, aspect, orientation, mntShadowExtent));
-        }
+    private Product createTargetProduct() {
+        Product targetProduct = new Product(l1bProduct.getName(), l1bProduct.getProductType(),
+                l1bProduct.getSceneRasterWidth(), l1bProduct.getSceneRasterHeight());
+        ProductUtils.copyGeoCoding(l1bProduct, targetProduct);
+        targetProduct.setStartTime(l1bProduct.getStartTime());
+        targetProduct.setEndTime(l1bProduct.getEndTime());
+        targetProduct.addBand(MOUNTAIN_SHADOW_FLAG_BAND_NAME, ProductData.TYPE_INT8);
+        return targetProduct;
     }
 
     /* package local for testing */
@@ -270,7 +270,10 @@ public class IdepixOlciOp extends BasisOp {
             l1bProductToProcess = sourceProduct;
         }
 
-        rad2reflProduct = IdepixOlciUtils.computeRadiance2ReflectanceProduct(l1bProductToProcess);
+        if (outputRad2Refl) {
+            // the classification computes its reflectances itself, this product only provides the output bands
+            rad2reflProduct = IdepixOlciUtils.computeRadiance2ReflectanceProduct(l1bProductToProcess);
+        }
     }
 
     private void setClassificationParameters() {
@@ -293,7 +296,6 @@ public class IdepixOlciOp extends BasisOp {
     private void setClassificationInputProducts() {
         classificationInputProducts = new HashMap<>();
         classificationInputProducts.put("l1b", l1bProductToProcess);
-        classificationInputProducts.put("rhotoa", rad2reflProduct);
         if (considerCloudsOverSnow) {
             classificationInputProducts.put("o2Corr", o2CorrProduct);
         }
@@ -13,8 +13,10 @@ import org.esa.snap.core.util.ProductUtils;
 import org.esa.snap.core.util.RectangleExtender;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.operators.CloudBuffer;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
 import org.esa.snap.idepix.core.util.IdepixIO;
-import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 
 import java.awt.*;
 import java.util.HashMap;
@@ -81,6 +83,7 @@ public class IdepixOlciPostProcessOp extends Operator {
     private GeoCoding geoCoding;
 
     private RectangleExtender rectExtender;
+    private boolean skipInvalidTiles;
 
     @Override
     public void initialize() throws OperatorException {
@@ -89,6 +92,7 @@ public class IdepixOlciPostProcessOp extends Operator {
                 "postProcessedCloud",
                 true);
 
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
         geoCoding = l1bProduct.getSceneGeoCoding();
 
         if (computeCloudShadow && (ctpProduct == null || !ctpProduct.containsBand("ctp"))) {
@@ -149,34 +153,53 @@ public class IdepixOlciPostProcessOp extends Operator {
 
     @Override
     public void computeTile(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
         Rectangle targetRectangle = targetTile.getRectangle();
         final Rectangle srcRectangle = rectExtender.extend(targetRectangle);
 
         final Tile sourceFlagTile = getSourceTile(origCloudFlagBand, srcRectangle);
+        if (skipInvalidTiles &&
+                InvalidTiles.isFlagSetEverywhere(sourceFlagTile, srcRectangle, IdepixConstants.IDEPIX_INVALID)) {
+            InvalidTiles.copyFlags(sourceFlagTile, targetTile);
+            return;
+        }
 
-        for (int y = srcRectangle.y; y < srcRectangle.y + srcRectangle.height; y++) {
+        final FlagAccumulator flags = new FlagAccumulator(targetRectangle);
+        flags.combine(sourceFlagTile);
+        for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
             checkForCancellation();
-            for (int x = srcRectangle.x; x < srcRectangle.x + srcRectangle.width; x++) {
-
-                if (targetRectangle.contains(x, y)) {
-                    boolean isCloud = sourceFlagTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
-                    combineFlags(x, y, sourceFlagTile, targetTile);
-                    if (isCloud) {
-                        targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);   // necessary??
-                    }
+            for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
+                if (flags.getFlag(x, y, IdepixConstants.IDEPIX_CLOUD)) {
+                    flags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);   // necessary??
                 }
             }
         }
 
         if (computeCloudBuffer) {
-            CloudBuffer.setCloudBuffer(targetTile, srcRectangle, sourceFlagTile, cloudBufferWidth);
+            CloudBuffer.setCloudBuffer(flags, srcRectangle, sourceFlagTile, cloudBufferWidth, false);
+            flags.consolidateCloudAndBuffer();
+        }
+
+        // the mountain shadow does not depend on the cloud shadow, which is set afterwards in the written tile
+        if (computeMountainShadow) {
+            final Tile mountainShadowFlagTile = getSourceTile(mountainShadowFlagBand, targetRectangle);
             for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
                 checkForCancellation();
                 for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                    IdepixUtils.consolidateCloudAndBuffer(targetTile, x, y);
+                    final boolean mountainShadow = mountainShadowFlagTile.getSampleInt(x, y) > 0;
+                    flags.setFlag(x, y, IdepixOlciConstants.IDEPIX_MOUNTAIN_SHADOW, mountainShadow);
                 }
             }
         }
+        flags.writeTo(targetTile);
 
         if (computeCloudShadow) {
             Tile szaTile = getSourceTile(szaTPG, srcRectangle);
@@ -204,22 +227,6 @@ public class IdepixOlciPostProcessOp extends Operator {
             cloudShadowFronts.computeCloudShadow(sourceFlagTile, targetTile);
         }
 
-        if (computeMountainShadow) {
-            final Tile mountainShadowFlagTile = getSourceTile(mountainShadowFlagBand, targetRectangle);
-            for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
-                checkForCancellation();
-                for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                    final boolean mountainShadow = mountainShadowFlagTile.getSampleInt(x, y) > 0;
-                    targetTile.setSample(x, y, IdepixOlciConstants.IDEPIX_MOUNTAIN_SHADOW, mountainShadow);
-                }
-            }
-        }
-    }
-
-    private void combineFlags(int x, int y, Tile sourceFlagTile, Tile targetTile) {
-        int sourceFlags = sourceFlagTile.getSampleInt(x, y);
-        int computedFlags = targetTile.getSampleInt(x, y);
-        targetTile.setSample(x, y, sourceFlags | computedFlags);
     }
 
     /**
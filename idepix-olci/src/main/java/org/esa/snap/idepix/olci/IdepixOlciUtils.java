@@ -1,7 +1,6 @@
 package org.esa.snap.idepix.olci;
 
 import com.bc.ceres.core.ProgressMonitor;
-import org.apache.commons.math3.fitting.PolynomialFitter;
 import eu.esa.opt.processor.rad2refl.Rad2ReflConstants;
 import eu.esa.opt.processor.rad2refl.Rad2ReflOp;
 import eu.esa.opt.processor.rad2refl.Sensor;
@@ -15,6 +14,7 @@ import org.esa.snap.core.util.*;
 import org.esa.snap.core.util.math.MathUtils;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.IdepixFlagCoding;
+import org.esa.snap.idepix.core.util.QuadraticSegmentFit;
 import org.locationtech.jts.geom.Coordinate;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
@@ -265,27 +265,18 @@ class IdepixOlciUtils {
         return sourceProduct.getProductType().contains("OL_1_EFR");
     }
 
-    static float[] interpolateViewAngles(PolynomialFitter curveFitter1, PolynomialFitter curveFitter2,
-                                         float[] viewAngleOrig, int[] nx, int nxChange) {
+    static float[] interpolateViewAngles(QuadraticSegmentFit fit1, QuadraticSegmentFit fit2,
+                                         float[] viewAngleOrig, int nxChange) {
         float[] viewAngleInterpol = viewAngleOrig.clone();
 
-        curveFitter1.clearObservations();
-        for (int x = nx[0]; x < nx[1]; x++) {
-            curveFitter1.addObservedPoint(x * 1.0f, viewAngleOrig[x]);
-        }
-        final double[] fit1 = curveFitter1.fit(IdepixOlciConstants.POLYNOM_FIT_INITIAL);
-
-        curveFitter2.clearObservations();
-        for (int x = nx[2]; x < nx[3]; x++) {
-            curveFitter2.addObservedPoint(x * 1.0f, viewAngleOrig[x]);
-        }
-        final double[] fit2 = curveFitter2.fit(IdepixOlciConstants.POLYNOM_FIT_INITIAL);
+        final double[] fit1Coefficients = fit1.fit(viewAngleOrig);
+        final double[] fit2Coefficients = fit2.fit(viewAngleOrig);
 
-        for (int x = nx[1]; x < nxChange; x++) {
-            viewAngleInterpol[x] = (float) (fit1[0] + fit1[1] * x + fit1[2] * x * x);
+        for (int x = fit1.getXEnd(); x < nxChange; x++) {
+            viewAngleInterpol[x] = (float) fit1.evaluate(fit1Coefficients, x);
         }
-        for (int x = nxChange; x < nx[2]; x++) {
-            viewAngleInterpol[x] = (float) (fit2[0] + fit2[1] * x + fit2[2] * x * x);
+        for (int x = nxChange; x < fit2.getXStart(); x++) {
+            viewAngleInterpol[x] = (float) fit2.evaluate(fit2Coefficients, x);
         }
 
         return viewAngleInterpol;
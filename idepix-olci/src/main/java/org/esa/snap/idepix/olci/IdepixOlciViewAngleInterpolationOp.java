@@ -1,8 +1,6 @@
 package org.esa.snap.idepix.olci;
 
 import com.bc.ceres.core.ProgressMonitor;
-import org.apache.commons.math3.fitting.PolynomialFitter;
-import org.apache.commons.math3.optim.nonlinear.vector.jacobian.LevenbergMarquardtOptimizer;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
@@ -18,6 +16,8 @@ import org.esa.snap.core.util.ProductUtils;
 import org.esa.snap.idepix.core.AlgorithmSelector;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.util.IdepixIO;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.QuadraticSegmentFit;
 
 import java.awt.*;
 import java.util.Map;
@@ -46,6 +46,11 @@ public class IdepixOlciViewAngleInterpolationOp extends Operator {
     private int[] nx_vza;
     private int[] nx_vaa;
 
+    private QuadraticSegmentFit vzaFit1;
+    private QuadraticSegmentFit vzaFit2;
+    private QuadraticSegmentFit vaaFit1;
+    private QuadraticSegmentFit vaaFit2;
+
     private Band vzaInterpolBand;
     private Band vaaInterpolBand;
 
@@ -59,6 +64,7 @@ public class IdepixOlciViewAngleInterpolationOp extends Operator {
         }
 
         setInterpolationIntervals();
+        setInterpolationFits();
 
         targetProduct = createTargetProduct();
 
@@ -67,44 +73,54 @@ public class IdepixOlciViewAngleInterpolationOp extends Operator {
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetRectangle);
+        try {
+            computeTileStackImpl(targetTiles, targetRectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws OperatorException {
 
         try {
-            final Tile vzaTile = getSourceTile(sourceProduct.getTiePointGrid(IdepixOlciConstants.OLCI_VIEW_ZENITH_BAND_NAME), targetRectangle);
-            final Tile vaaTile = getSourceTile(sourceProduct.getTiePointGrid(IdepixOlciConstants.OLCI_VIEW_AZIMUTH_BAND_NAME), targetRectangle);
+            // tiles touching the interpolated pixels need whole image lines for the fits
+            final int width = sourceProduct.getSceneRasterWidth();
+            final boolean interpolate = vzaFit1 != null &&
+                    targetRectangle.x < Math.max(vzaFit2.getXStart(), vaaFit2.getXStart()) &&
+                    targetRectangle.x + targetRectangle.width > Math.min(vzaFit1.getXEnd(), vaaFit1.getXEnd());
+            final Rectangle sourceRectangle = interpolate ?
+                    new Rectangle(0, targetRectangle.y, width, targetRectangle.height) : targetRectangle;
+            final Tile vzaTile =
+                    getSourceTile(sourceProduct.getTiePointGrid(IdepixOlciConstants.OLCI_VIEW_ZENITH_BAND_NAME),
+                            sourceRectangle);
+            final Tile vaaTile =
+                    getSourceTile(sourceProduct.getTiePointGrid(IdepixOlciConstants.OLCI_VIEW_AZIMUTH_BAND_NAME),
+                            sourceRectangle);
 
             final Tile vzaInterpolTile = targetTiles.get(vzaInterpolBand);
             final Tile vaaInterpolTile = targetTiles.get(vaaInterpolBand);
 
-            float[] vzaOrigLine = new float[targetRectangle.width];
-            float[] vaaOrigLine = new float[targetRectangle.width];
-
-            PolynomialFitter curveFitter1 = new PolynomialFitter(new LevenbergMarquardtOptimizer());
-            PolynomialFitter curveFitter2 = new PolynomialFitter(new LevenbergMarquardtOptimizer());
+            float[] vzaOrigLine = new float[width];
+            float[] vaaOrigLine = new float[width];
 
             for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
                 checkForCancellation();
 
-                for (int x = 0; x < targetRectangle.width; x++) {
+                for (int x = sourceRectangle.x; x < sourceRectangle.x + sourceRectangle.width; x++) {
                     vzaOrigLine[x] = vzaTile.getSampleFloat(x, y);
                     vaaOrigLine[x] = vaaTile.getSampleFloat(x, y);
                 }
 
-                if (nxChange != -1 && nx_vza[1] > 0 && nx_vza[2] < targetRectangle.width &&
-                        nx_vaa[1] > 0 && nx_vaa[2] < targetRectangle.width) {
-                    // we need a sufficient product width to do interpolation...
-                    float[] vzaInterpolLine = IdepixOlciUtils.interpolateViewAngles(curveFitter1, curveFitter2,
-                            vzaOrigLine, nx_vza, nxChange);
-                    float[] vaaInterpolLine = IdepixOlciUtils.interpolateViewAngles(curveFitter1, curveFitter2,
-                            vaaOrigLine, nx_vaa, nxChange);
-                    for (int x = 0; x < targetRectangle.width; x++) {
-                        vzaInterpolTile.setSample(x, y, vzaInterpolLine[x]);
-                        vaaInterpolTile.setSample(x, y, vaaInterpolLine[x]);
-                    }
-                } else {
-                    for (int x = 0; x < targetRectangle.width; x++) {
-                        vzaInterpolTile.setSample(x, y, vzaOrigLine[x]);
-                        vaaInterpolTile.setSample(x, y, vaaOrigLine[x]);
-                    }
+                float[] vzaInterpolLine = vzaOrigLine;
+                float[] vaaInterpolLine = vaaOrigLine;
+                if (interpolate) {
+                    vzaInterpolLine = IdepixOlciUtils.interpolateViewAngles(vzaFit1, vzaFit2, vzaOrigLine, nxChange);
+                    vaaInterpolLine = IdepixOlciUtils.interpolateViewAngles(vaaFit1, vaaFit2, vaaOrigLine, nxChange);
+                }
+                for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
+                    vzaInterpolTile.setSample(x, y, vzaInterpolLine[x]);
+                    vaaInterpolTile.setSample(x, y, vaaInterpolLine[x]);
                 }
             }
         } catch (Exception e) {
@@ -116,7 +132,6 @@ public class IdepixOlciViewAngleInterpolationOp extends Operator {
         final int w = sourceProduct.getSceneRasterWidth();
         final int h = sourceProduct.getSceneRasterHeight();
         Product targetProduct = new Product(sourceProduct.getName(), sourceProduct.getProductType(), w, h);
-        targetProduct.setPreferredTileSize(w, 16);  // we need tiles over whole source width
 
         ProductUtils.copyMetadata(sourceProduct, targetProduct);
         ProductUtils.copyGeoCoding(sourceProduct, targetProduct);
@@ -180,6 +195,20 @@ public class IdepixOlciViewAngleInterpolationOp extends Operator {
         }
     }
 
+    private void setInterpolationFits() {
+        final int productWidth = sourceProduct.getSceneRasterWidth();
+        // we need a sufficient product width to do interpolation...
+        if (nxChange != -1 && nx_vza[1] > 0 && nx_vza[2] < productWidth &&
+                nx_vaa[1] > 0 && nx_vaa[2] < productWidth &&
+                nx_vza[0] < nx_vza[1] && nx_vza[2] < nx_vza[3] && nx_vaa[0] < nx_vaa[1] && nx_vaa[2] < nx_vaa[3]) {
+            // the segments are the same for all lines, so the fits are set up once
+            vzaFit1 = new QuadraticSegmentFit(nx_vza[0], nx_vza[1]);
+            vzaFit2 = new QuadraticSegmentFit(nx_vza[2], nx_vza[3]);
+            vaaFit1 = new QuadraticSegmentFit(nx_vaa[0], nx_vaa[1]);
+            vaaFit2 = new QuadraticSegmentFit(nx_vaa[2], nx_vaa[3]);
+        }
+    }
+
     public static class Spi extends OperatorSpi {
 
         public Spi() {
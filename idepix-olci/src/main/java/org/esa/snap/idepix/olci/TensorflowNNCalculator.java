@@ -9,20 +9,41 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 /**
  * Applies a tensorflow model and provides corresponding NN output for given input.
+ * <p>
+ * The loaded models are kept in a pool per model directory which is shared by all calculators in the JVM.
+ * The pool holds at most {@link #MAX_SESSIONS_PROPERTY} sessions (default: 4), each of them is used by
+ * only one thread at a time. The pool is reference counted: its sessions are closed when the last calculator
+ * using it is disposed. Input and output tensors are filled from direct buffers which are reused per thread.
  *
  * @author olafd
  */
 class TensorflowNNCalculator {
 
+    static final String MAX_SESSIONS_PROPERTY = "snap.idepix.olci.ctp.tfSessions";
+
+    // guarded by itself
+    private static final Map<String, SessionPool> SESSION_POOLS = new HashMap<>();
+
     private final String modelDir;
     private final String transformMethod;
 
     private String firstNodeName;
     private String lastNodeName;
-    private SavedModelBundle model;
+    private SessionPool sessionPool;
+
+    private final ThreadLocal<TensorBuffers> tensorBuffers = ThreadLocal.withInitial(TensorBuffers::new);
 
     /**
      * Provides NN result for given input, applying a neural net which is based on a tensorflow model .
@@ -64,15 +85,6 @@ class TensorflowNNCalculator {
         return nnResult * 228.03508502f + 590.0f;
     }
 
-    /**
-     * Getter for the Tensorflow model
-     *
-     * @return model
-     */
-    SavedModelBundle getModel() {
-        return model;
-    }
-
     /**
      * Getter for the first node name
      *
@@ -141,7 +153,8 @@ class TensorflowNNCalculator {
 
     private void loadModel() throws Exception {
         // Load a model previously saved by tensorflow Python package
-        model = SavedModelBundle.load(modelDir, "serve");
+        sessionPool = SessionPool.retain(modelDir);
+        sessionPool.release(sessionPool.acquire());
 //        setFirstAndLastNodeNameFromBinaryProtocolBuffer(model);
         setFirstAndLastNodeNameFromTextProtocolBuffer();
     }
@@ -170,32 +183,189 @@ class TensorflowNNCalculator {
      * @return float[][] - image vector of output band vector (length 1)
      */
     float[][] calculate(float[][] nnInput) {
+        final int numPixels = nnInput.length;
+        final int numInputs = numPixels > 0 ? nnInput[0].length : 0;
+        final float[] flatInput = new float[numPixels * numInputs];
+        for (int i = 0; i < numPixels; i++) {
+            System.arraycopy(nnInput[i], 0, flatInput, i * numInputs, numInputs);
+        }
+        final float[] flatOutput = calculate(flatInput, numPixels, numInputs);
+        final int numOutputVars = numPixels > 0 ? flatOutput.length / numPixels : 0;
+        float[][] m = new float[numPixels][numOutputVars];
+        for (int i = 0; i < numPixels; i++) {
+            System.arraycopy(flatOutput, i * numOutputVars, m[i], 0, numOutputVars);
+        }
+        return m;
+    }
+
+    /**
+     * Applies NN to a flat array of pixel band stacks, as needed for a complete tile.
+     * The input transformation is applied in place.
+     * Makes sure the Tensors are closed after use.
+     *
+     * @param nnInput   - band values of all pixels, input {@code i} of pixel {@code p} at {@code p * numInputs + i}
+     * @param numPixels - the number of pixels
+     * @param numInputs - the number of NN inputs per pixel
+     * @return float[] - output values of all pixels, output {@code o} of pixel {@code p} at {@code p * numOutputs + o}
+     */
+    float[] calculate(float[] nnInput, int numPixels, int numInputs) {
+        final int numValues = numPixels * numInputs;
         if (transformMethod.equals("sqrt")) {
-            for (int i = 0; i < nnInput.length; i++) {
-                for (int j = 0; j < nnInput[i].length; j++) {
-                    nnInput[i][j] = (float) Math.sqrt(nnInput[i][j]);
-                }
+            for (int i = 0; i < numValues; i++) {
+                nnInput[i] = (float) Math.sqrt(nnInput[i]);
             }
         } else if (transformMethod.equals("log")) {
-            for (int i = 0; i < nnInput.length; i++) {
-                for (int j = 0; j < nnInput[i].length; j++) {
-                    nnInput[i][j] = (float) Math.log10(nnInput[i][j]);
+            for (int i = 0; i < numValues; i++) {
+                nnInput[i] = (float) Math.log10(nnInput[i]);
+            }
+        }
+
+        final TensorBuffers buffers = tensorBuffers.get();
+        final FloatBuffer inputBuffer = buffers.getInputBuffer(numValues);
+        inputBuffer.put(nnInput, 0, numValues);
+        inputBuffer.flip();
+
+        final SavedModelBundle model = sessionPool.acquire();
+        try {
+            final Session.Runner runner = model.session().runner();
+            try (
+                    Tensor<Float> inputTensor = Tensor.create(new long[]{numPixels, numInputs}, inputBuffer);
+                    Tensor<?> outputTensor = runner.feed(firstNodeName, inputTensor).fetch(lastNodeName).run().get(0)
+            ) {
+                final int numOutputValues = outputTensor.numElements();
+                final FloatBuffer outputBuffer = buffers.getOutputBuffer(numOutputValues);
+                outputTensor.writeTo(outputBuffer);
+                outputBuffer.flip();
+                final float[] result = new float[numOutputValues];
+                outputBuffer.get(result);
+                return result;
+            }
+        } finally {
+            sessionPool.release(model);
+        }
+    }
+
+    /**
+     * Releases the session pool of this calculator. The sessions are closed if no other calculator uses the pool.
+     * The calculator cannot be used afterwards.
+     */
+    void dispose() {
+        if (sessionPool != null) {
+            sessionPool.dispose();
+            sessionPool = null;
+        }
+    }
+
+    // package local for testing
+    static boolean hasSessionPool(String modelDir) {
+        synchronized (SESSION_POOLS) {
+            return SESSION_POOLS.containsKey(modelDir);
+        }
+    }
+
+    private static int getMaxSessions() {
+        return Math.max(1, Integer.parseInt(System.getProperty(MAX_SESSIONS_PROPERTY, "4")));
+    }
+
+    /**
+     * A bounded pool of sessions for one model directory. Sessions are loaded lazily, up to the maximum number.
+     */
+    private static class SessionPool {
+
+        private final String modelDir;
+        private final BlockingQueue<SavedModelBundle> idleModels;
+        private final int maxModels;
+        private int numModels;
+        // guarded by SESSION_POOLS
+        private int numReferences;
+        private volatile boolean closed;
+
+        SessionPool(String modelDir) {
+            this.modelDir = modelDir;
+            this.maxModels = getMaxSessions();
+            this.idleModels = new ArrayBlockingQueue<>(maxModels);
+        }
+
+        static SessionPool retain(String modelDir) {
+            synchronized (SESSION_POOLS) {
+                final SessionPool pool = SESSION_POOLS.computeIfAbsent(modelDir, SessionPool::new);
+                pool.numReferences++;
+                return pool;
+            }
+        }
+
+        void dispose() {
+            synchronized (SESSION_POOLS) {
+                if (--numReferences > 0) {
+                    return;
                 }
+                SESSION_POOLS.remove(modelDir);
+                closed = true;
+            }
+            // sessions still in use are closed when they are released
+            final List<SavedModelBundle> models = new ArrayList<>();
+            idleModels.drainTo(models);
+            for (SavedModelBundle model : models) {
+                model.close();
             }
         }
-        final Session.Runner runner = model.session().runner();
-        try (
-                Tensor<?> inputTensor = Tensor.create(nnInput);
-                Tensor<?> outputTensor = runner.feed(firstNodeName, inputTensor).fetch(lastNodeName).run().get(0)
-        ) {
-            long[] ts = outputTensor.shape();
-            int numPixels = (int) ts[0];
-            int numOutputVars = (int) ts[1];
-            float[][] m = new float[numPixels][numOutputVars];
-            outputTensor.copyTo(m);
-            return m;
+
+        SavedModelBundle acquire() {
+            SavedModelBundle model = idleModels.poll();
+            if (model != null) {
+                return model;
+            }
+            synchronized (this) {
+                if (numModels < maxModels) {
+                    model = SavedModelBundle.load(modelDir, "serve");
+                    numModels++;
+                    return model;
+                }
+            }
+            try {
+                return idleModels.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a Tensorflow session.", e);
+            }
+        }
+
+        void release(SavedModelBundle model) {
+            idleModels.offer(model);
+            if (closed && idleModels.remove(model)) {
+                model.close();
+            }
         }
     }
 
+    /**
+     * Direct buffers for tensor input and output, grown to the largest tile seen by the thread.
+     */
+    private static class TensorBuffers {
+
+        private FloatBuffer inputBuffer = allocate(0);
+        private FloatBuffer outputBuffer = allocate(0);
 
+        FloatBuffer getInputBuffer(int size) {
+            if (inputBuffer.capacity() < size) {
+                inputBuffer = allocate(size);
+            }
+            inputBuffer.clear();
+            inputBuffer.limit(size);
+            return inputBuffer;
+        }
+
+        FloatBuffer getOutputBuffer(int size) {
+            if (outputBuffer.capacity() < size) {
+                outputBuffer = allocate(size);
+            }
+            outputBuffer.clear();
+            outputBuffer.limit(size);
+            return outputBuffer;
+        }
+
+        private static FloatBuffer allocate(int size) {
+            return ByteBuffer.allocateDirect(size * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+    }
 }
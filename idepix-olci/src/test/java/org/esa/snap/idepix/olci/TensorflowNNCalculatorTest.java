@@ -22,6 +22,8 @@ import org.junit.Test;
 import java.io.File;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 public class TensorflowNNCalculatorTest {
@@ -93,6 +95,51 @@ public class TensorflowNNCalculatorTest {
         System.out.println("ctp for I7x32x64x64x64xO1 = " + ctp);
     }
 
+    @Test
+    public void testNNTensorflowApplyModel_flatTileInput() {
+        String modelDir = new File(getClass().getResource("nn_training_20190131_I7x24x24x24xO1").getFile()).getAbsolutePath();
+        TensorflowNNCalculator nntest = new TensorflowNNCalculator(modelDir, "none");
+
+        final int numPixels = 3;
+        float[] flatInput = new float[numPixels * input.length];
+        for (int i = 0; i < numPixels; i++) {
+            System.arraycopy(input, 0, flatInput, i * input.length, input.length);
+        }
+        float[] result = nntest.calculate(flatInput, numPixels, input.length);
+        assertEquals(numPixels, result.length);
+        for (float value : result) {
+            assertEquals(1.3985262f, value, 1.E-6);
+        }
+
+        // buffers are reused for a smaller tile
+        result = nntest.calculate(input.clone(), 1, input.length);
+        assertEquals(1, result.length);
+        assertEquals(1.3985262f, result[0], 1.E-6);
+    }
+
+    @Test
+    public void testNNTensorflowDispose_closesSharedPoolWithLastCalculator() {
+        String modelDir = new File(getClass().getResource("nn_training_20190131_I7x24x24x24xO1").getFile()).getAbsolutePath();
+        TensorflowNNCalculator first = new TensorflowNNCalculator(modelDir, "none");
+        TensorflowNNCalculator second = new TensorflowNNCalculator(modelDir, "none");
+        assertTrue(TensorflowNNCalculator.hasSessionPool(modelDir));
+
+        first.dispose();
+        first.dispose();
+        assertTrue(TensorflowNNCalculator.hasSessionPool(modelDir));
+        float[] result = second.calculate(input.clone(), 1, input.length);
+        assertEquals(1.3985262f, result[0], 1.E-6);
+
+        second.dispose();
+        assertFalse(TensorflowNNCalculator.hasSessionPool(modelDir));
+
+        // a new calculator loads the model again
+        TensorflowNNCalculator third = new TensorflowNNCalculator(modelDir, "none");
+        result = third.calculate(input.clone(), 1, input.length);
+        assertEquals(1.3985262f, result[0], 1.E-6);
+        third.dispose();
+    }
+
     @Test
     public void testSetFirstAndLastNodeName() {
         try {
@@ -3,8 +3,10 @@ package org.esa.snap.idepix.olcislstr;
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.util.IdepixIO;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 import org.esa.snap.idepix.core.util.IdepixUtils;
 import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
 import eu.esa.opt.processor.rad2refl.Rad2ReflConstants;
 import org.esa.snap.core.datamodel.*;
 import org.esa.snap.core.gpf.Operator;
@@ -121,6 +123,15 @@ public class OlciSlstrClassificationOp extends Operator {
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, rectangle);
+        try {
+            computeTileStackImpl(targetTiles, rectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
         final Tile waterFractionTile = getSourceTile(landWaterBand, rectangle);
 
         final Band olciQualityFlagBand = sourceProduct.getBand(OlciSlstrConstants.OLCI_QUALITY_FLAGS_BAND_NAME);
@@ -137,6 +148,7 @@ public class OlciSlstrClassificationOp extends Operator {
 
         final Band cloudFlagTargetBand = targetProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
         final Tile cloudFlagTargetTile = targetTiles.get(cloudFlagTargetBand);
+        final TileGeoLocation geoLocation = TileGeoLocation.create(this, sourceProduct, rectangle);
 
         Band nnTargetBand;
         Tile nnTargetTile = null;
@@ -152,7 +164,7 @@ public class OlciSlstrClassificationOp extends Operator {
                     final int waterFraction = waterFractionTile.getSampleInt(x, y);
                     final boolean isL1bLand = olciQualityFlagTile.getSampleBit(x, y, OlciSlstrConstants.L1_F_LAND);
                     final boolean isLand =
-                            IdepixUtils.isLandPixel(x, y, sourceProduct.getSceneGeoCoding(), isL1bLand, waterFraction);
+                            IdepixUtils.isLandPixel(geoLocation.getLat(x, y), isL1bLand, waterFraction);
                     cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_LAND, isLand);
 
                     for (int i = 0; i < Rad2ReflConstants.OLCI_REFL_BAND_NAMES.length; i++) {
@@ -176,7 +188,8 @@ public class OlciSlstrClassificationOp extends Operator {
                             inputVector[i] = Math.sqrt(olciReflectance[i]);
                         }
 
-                        final double nnOutput = nnWrapper.getNeuralNet().calc(inputVector)[0];
+                        nnWrapper.calc(inputVector, nnWrapper.getOutputVector());
+                        final double nnOutput = nnWrapper.getOutputVector()[0];
 
                         if (!cloudFlagTargetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_INVALID)) {
                             cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
@@ -39,7 +39,6 @@ public class ProbaVAlgorithm extends AbstractPixelProperties {
 
     private double elevation;
 
-    private double[] nnOutput;
     private float[] refl;
 
     public boolean isInvalid() {
@@ -373,12 +372,4 @@ public class ProbaVAlgorithm extends AbstractPixelProperties {
     void setElevation(double elevation) {
         this.elevation = elevation;
     }
-
-    void setNnOutput(double[] nnOutput) {
-        this.nnOutput = nnOutput;
-    }
-
-    double[] getNnOutput() {
-        return nnOutput;
-    }
 }
@@ -4,7 +4,10 @@ import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.pixel.AbstractPixelProperties;
 import org.esa.snap.idepix.core.util.IdepixIO;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
 import org.esa.snap.core.datamodel.*;
 import org.esa.snap.core.dataop.dem.ElevationModel;
 import org.esa.snap.core.dataop.dem.ElevationModelDescriptor;
@@ -131,6 +134,7 @@ public class ProbaVClassificationOp extends Operator {
 
     private static final String VGT_NET_NAME = "3x2x2_341.8.net";
     private ThreadLocal<SchillerNeuralNetWrapper> vgtNeuralNet;
+    private boolean skipInvalidTiles;
 
 
     @Override
@@ -139,6 +143,7 @@ public class ProbaVClassificationOp extends Operator {
         readSchillerNeuralNets();
         createTargetProduct();
         extendTargetProduct();
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
 
         final String demName = "GETASSE30";
         final ElevationModelDescriptor demDescriptor = ElevationModelRegistry.getInstance().getDescriptor(
@@ -158,24 +163,46 @@ public class ProbaVClassificationOp extends Operator {
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, rectangle);
+        try {
+            computeTileStackImpl(targetTiles, rectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
         // PROBA-V variables
         final Band smFlagBand = sourceProduct.getBand("SM_FLAGS");
         final Tile smFlagTile = getSourceTile(smFlagBand, rectangle);
+        final Band cloudFlagTargetBand = targetProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
+        if (skipInvalidTiles && InvalidTiles.isNoPixelFlaggedValid(smFlagTile, rectangle, getValidSmFlagsMask())) {
+            InvalidTiles.setInvalid(targetTiles, cloudFlagTargetBand);
+            return;
+        }
 
         Tile waterFractionTile = getSourceTile(landWaterBand, rectangle);
 
         Tile[] probavReflectanceTiles = new Tile[IdepixConstants.PROBAV_REFLECTANCE_BAND_NAMES.length];
-        float[] probavReflectance = new float[IdepixConstants.PROBAV_REFLECTANCE_BAND_NAMES.length];
         for (int i = 0; i < IdepixConstants.PROBAV_REFLECTANCE_BAND_NAMES.length; i++) {
             probavReflectanceTiles[i] = getSourceTile(probavReflectanceBands[i], rectangle);
         }
 
-        final Band cloudFlagTargetBand = targetProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
         final Tile cloudFlagTargetTile = targetTiles.get(cloudFlagTargetBand);
+        final TileGeoLocation geoLocation = TileGeoLocation.create(this, sourceProduct, rectangle);
 
         final Band nnTargetBand = targetProduct.getBand("probav_nn_value");
         final Tile nnTargetTile = targetTiles.get(nnTargetBand);
 
+        // the algorithms of a tile row are set up first, so that the net runs for the whole row in one batch
+        final SchillerNeuralNetWrapper nnWrapper = vgtNeuralNet.get();
+        final int numNNInputs = nnWrapper.getNumInputs();
+        final int numNNOutputs = nnWrapper.getNumOutputs();
+        final ProbaVAlgorithm[] probaVAlgorithms = new ProbaVAlgorithm[rectangle.width];
+        final float[][] probavReflectances =
+                new float[rectangle.width][IdepixConstants.PROBAV_REFLECTANCE_BAND_NAMES.length];
+        final double[] nnInputs = new double[rectangle.width * numNNInputs];
+        final double[] nnOutputs = new double[rectangle.width * numNNOutputs];
         try {
             for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
                 checkForCancellation();
@@ -187,39 +214,53 @@ public class ProbaVClassificationOp extends Operator {
                     }
 
                     // set up pixel properties for given instruments...
-                    ProbaVAlgorithm probaVAlgorithm = createProbavAlgorithm(smFlagTile, probavReflectanceTiles,
-                                                                                    probavReflectance,
-                                                                                    waterMaskFraction,
-                                                                                    y, x);
+                    final float[] probavReflectance = probavReflectances[x - rectangle.x];
+                    probaVAlgorithms[x - rectangle.x] = createProbavAlgorithm(smFlagTile, probavReflectanceTiles,
+                                                                             probavReflectance,
+                                                                             waterMaskFraction,
+                                                                             geoLocation,
+                                                                             y, x);
+                    if (applySchillerNN) {
+                        final int offset = (x - rectangle.x) * numNNInputs;
+                        for (int i = 0; i < numNNInputs; i++) {
+                            nnInputs[offset + i] = Math.sqrt(probavReflectance[i]);
+                        }
+                    }
+                }
+                if (applySchillerNN) {
+                    nnWrapper.calc(nnInputs, nnOutputs, rectangle.width);
+                }
 
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    final ProbaVAlgorithm probaVAlgorithm = probaVAlgorithms[x - rectangle.x];
                     setCloudFlag(cloudFlagTargetTile, y, x, probaVAlgorithm);
 
                     // apply improvement from NN approach...
-                    final double[] nnOutput = probaVAlgorithm.getNnOutput();
                     if (applySchillerNN) {
+                        final double nnOutput = nnOutputs[(x - rectangle.x) * numNNOutputs];
                         if (!cloudFlagTargetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_INVALID)) {
                             cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
                             cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
                             cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
                             cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
-                            if (nnOutput[0] > schillerNNCloudAmbiguousLowerBoundaryValue &&
-                                    nnOutput[0] <= schillerNNCloudAmbiguousSureSeparationValue) {
+                            if (nnOutput > schillerNNCloudAmbiguousLowerBoundaryValue &&
+                                    nnOutput <= schillerNNCloudAmbiguousSureSeparationValue) {
                                 // this would be as 'CLOUD_AMBIGUOUS'...
                                 cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, true);
                                 cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, true);
                             }
-                            if (nnOutput[0] > schillerNNCloudAmbiguousSureSeparationValue &&
-                                    nnOutput[0] <= schillerNNCloudSureSnowSeparationValue) {
+                            if (nnOutput > schillerNNCloudAmbiguousSureSeparationValue &&
+                                    nnOutput <= schillerNNCloudSureSnowSeparationValue) {
                                 // this would be as 'CLOUD_SURE'...
                                 cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, true);
                                 cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, true);
                             }
-                            if (nnOutput[0] > schillerNNCloudSureSnowSeparationValue) {
+                            if (nnOutput > schillerNNCloudSureSnowSeparationValue) {
                                 // this would be as 'SNOW/ICE'...
                                 cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, true);
                             }
                         }
-                        nnTargetTile.setSample(x, y, nnOutput[0]);
+                        nnTargetTile.setSample(x, y, nnOutput);
                     }
 
                     for (Band band : targetProduct.getBands()) {
@@ -275,6 +316,7 @@ public class ProbaVClassificationOp extends Operator {
     private ProbaVAlgorithm createProbavAlgorithm(Tile smFlagTile, Tile[] probavReflectanceTiles,
                                                       float[] probavReflectance,
                                                       byte watermaskFraction,
+                                                      TileGeoLocation geoLocation,
                                                       int y, int x) {
 
         ProbaVAlgorithm probaVAlgorithm = new ProbaVAlgorithm();
@@ -285,19 +327,12 @@ public class ProbaVClassificationOp extends Operator {
             probavReflectance[i] = probavReflectanceTiles[i].getSampleFloat(x, y);
         }
 
-        final double altitude = computeGetasseAltitude(x, y);
+        final double altitude = computeGetasseAltitude(geoLocation.getLat(x, y), geoLocation.getLon(x, y));
         probaVAlgorithm.setElevation(altitude);
 
         checkProbavReflectanceQuality(probaVAlgorithm, probavReflectance, smFlagTile, x, y);
         probaVAlgorithm.setRefl(probavReflectance);
 
-        SchillerNeuralNetWrapper nnWrapper = vgtNeuralNet.get();
-        double[] inputVector = nnWrapper.getInputVector();
-        for (int i = 0; i < inputVector.length; i++) {
-            inputVector[i] = Math.sqrt(probavReflectance[i]);
-        }
-        probaVAlgorithm.setNnOutput(nnWrapper.getNeuralNet().calc(inputVector));
-
         if (useL1bLandWaterFlag) {
             final boolean isLand = smFlagTile.getSampleBit(x, y, SM_F_LAND);
             probaVAlgorithm.setL1bLand(isLand);
@@ -422,9 +457,8 @@ public class ProbaVClassificationOp extends Operator {
         pixelProperties.setIsWater(isWater);
     }
 
-    private double computeGetasseAltitude(float x, float y) {
-        final PixelPos pixelPos = new PixelPos(x + 0.5f, y + 0.5f);
-        GeoPos geoPos = sourceProduct.getSceneGeoCoding().getGeoPos(pixelPos, null);
+    private double computeGetasseAltitude(float lat, float lon) {
+        final GeoPos geoPos = new GeoPos(lat, lon);
         double altitude;
         try {
             altitude = getasseElevationModel.getElevation(geoPos);
@@ -436,6 +470,16 @@ public class ProbaVClassificationOp extends Operator {
         return altitude;
     }
 
+    private int getValidSmFlagsMask() {
+        // the SM flags which have to be set for a valid pixel, see ProbaVAlgorithm.isInvalid()
+        if (isProcessingForC3SLot5) {
+            return 1 << SM_F_LAND;
+        } else {
+            return (1 << SM_F_BLUE_GOOD) | (1 << SM_F_RED_GOOD) | (1 << SM_F_NIR_GOOD) | (1 << SM_F_SWIR_GOOD) |
+                    (1 << SM_F_LAND);
+        }
+    }
+
     private void checkProbavReflectanceQuality(ProbaVAlgorithm probaVAlgorithm,
                                                float[] probavReflectance,
                                                Tile smFlagTile,
@@ -3,7 +3,9 @@ package org.esa.snap.idepix.probav;
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.idepix.core.operators.CloudBuffer;
 import org.esa.snap.idepix.core.IdepixConstants;
-import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.gpf.Operator;
@@ -51,6 +53,7 @@ public class ProbaVPostProcessOp extends Operator {
     private Band origSmFlagBand;
 
     private RectangleExtender rectCalculator;
+    private boolean skipInvalidTiles;
 
     @Override
     public void initialize() throws OperatorException {
@@ -58,6 +61,7 @@ public class ProbaVPostProcessOp extends Operator {
         Product postProcessedCloudProduct = createTargetProduct(probavCloudProduct,
                                                                 "postProcessedCloud", "postProcessedCloud");
 
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
         origCloudFlagBand = probavCloudProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
         origSmFlagBand = l1bProduct.getBand("SM_FLAGS");
 
@@ -86,6 +90,15 @@ public class ProbaVPostProcessOp extends Operator {
 
     @Override
     public void computeTile(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
         Rectangle targetRectangle = targetTile.getRectangle();
 
         Rectangle srcRectangle = null;
@@ -94,57 +107,53 @@ public class ProbaVPostProcessOp extends Operator {
         }
 
         final Tile cloudFlagTile = getSourceTile(origCloudFlagBand, srcRectangle);
+        if (skipInvalidTiles && InvalidTiles.isFlagSetEverywhere(cloudFlagTile, cloudFlagTile.getRectangle(),
+                                                                 IdepixConstants.IDEPIX_INVALID)) {
+            InvalidTiles.copyFlags(cloudFlagTile, targetTile);
+            return;
+        }
         final Tile smFlagTile = getSourceTile(origSmFlagBand, srcRectangle);
 
+        final FlagAccumulator flags = new FlagAccumulator(targetRectangle);
         for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
             checkForCancellation();
             for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
 
-                boolean isInvalid = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_INVALID);
+                boolean isInvalid = flags.getFlag(x, y, IdepixConstants.IDEPIX_INVALID);
                 if (!isInvalid) {
-                    combineFlags(x, y, cloudFlagTile, targetTile);
-                    consolidateFlagging(x, y, smFlagTile, targetTile);
-                    setCloudShadow(x, y, smFlagTile, targetTile);
+                    flags.combine(x, y, cloudFlagTile);
+                    consolidateFlagging(x, y, smFlagTile, flags);
+                    setCloudShadow(x, y, smFlagTile, flags);
                 }
             }
         }
 
         // cloud buffer:
         if (computeCloudBuffer) {
-            CloudBuffer.setCloudBuffer(targetTile, srcRectangle, cloudFlagTile, cloudBufferWidth);
-            for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
-                checkForCancellation();
-                for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                    IdepixUtils.consolidateCloudAndBuffer(targetTile, x, y);
-                }
-            }
+            CloudBuffer.setCloudBuffer(flags, srcRectangle, cloudFlagTile, cloudBufferWidth, false);
+            flags.consolidateCloudAndBuffer();
         }
+        flags.writeTo(targetTile);
     }
 
-    private void setCloudShadow(int x, int y, Tile smFlagTile, Tile targetTile) {
+    private void setCloudShadow(int x, int y, Tile smFlagTile, FlagAccumulator flags) {
         // as requested by JM, 20160302:
         final boolean smCloudShadow = smFlagTile.getSampleBit(x, y, ProbaVClassificationOp.SM_F_CLOUDSHADOW);
-        final boolean safeCloudFinal = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
-        final boolean isLand = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_LAND);
+        final boolean safeCloudFinal = flags.getFlag(x, y, IdepixConstants.IDEPIX_CLOUD);
+        final boolean isLand = flags.getFlag(x, y, IdepixConstants.IDEPIX_LAND);
 
         final boolean isCloudShadow = smCloudShadow && !safeCloudFinal && isLand;
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SHADOW, isCloudShadow);
-    }
-
-    private void combineFlags(int x, int y, Tile sourceFlagTile, Tile targetTile) {
-        int sourceFlags = sourceFlagTile.getSampleInt(x, y);
-        int computedFlags = targetTile.getSampleInt(x, y);
-        targetTile.setSample(x, y, sourceFlags | computedFlags);
+        flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SHADOW, isCloudShadow);
     }
 
-    private void consolidateFlagging(int x, int y, Tile smFlagTile, Tile targetTile) {
+    private void consolidateFlagging(int x, int y, Tile smFlagTile, FlagAccumulator flags) {
         final boolean smClear = smFlagTile.getSampleBit(x, y, ProbaVClassificationOp.SM_F_CLEAR);
-        final boolean idepixLand = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_LAND);
-        final boolean idepixClearLand = targetTile.getSampleBit(x, y, ProbaVConstants.IDEPIX_CLEAR_LAND);
-        final boolean idepixWater = targetTile.getSampleBit(x, y, ProbaVConstants.IDEPIX_WATER);
-        final boolean idepixClearWater = targetTile.getSampleBit(x, y, ProbaVConstants.IDEPIX_CLEAR_WATER);
-        final boolean idepixClearSnow = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_SNOW_ICE);
-        final boolean idepixCloud = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
+        final boolean idepixLand = flags.getFlag(x, y, IdepixConstants.IDEPIX_LAND);
+        final boolean idepixClearLand = flags.getFlag(x, y, ProbaVConstants.IDEPIX_CLEAR_LAND);
+        final boolean idepixWater = flags.getFlag(x, y, ProbaVConstants.IDEPIX_WATER);
+        final boolean idepixClearWater = flags.getFlag(x, y, ProbaVConstants.IDEPIX_CLEAR_WATER);
+        final boolean idepixClearSnow = flags.getFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE);
+        final boolean idepixCloud = flags.getFlag(x, y, IdepixConstants.IDEPIX_CLOUD);
 
         final boolean safeClearLand = smClear && idepixLand && idepixClearLand && !idepixClearSnow;
         final boolean safeClearWater = smClear && idepixWater && idepixClearWater && !idepixClearSnow;
@@ -159,10 +168,10 @@ public class ProbaVPostProcessOp extends Operator {
 
 
         // GK 20151201;
-        targetTile.setSample(x, y, ProbaVConstants.IDEPIX_CLEAR_LAND, safeClearLandFinal);
-        targetTile.setSample(x, y, ProbaVConstants.IDEPIX_CLEAR_WATER, safeClearWaterFinal);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, safeCloudFinal);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, safeSnowIce);
+        flags.setFlag(x, y, ProbaVConstants.IDEPIX_CLEAR_LAND, safeClearLandFinal);
+        flags.setFlag(x, y, ProbaVConstants.IDEPIX_CLEAR_WATER, safeClearWaterFinal);
+        flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, safeCloudFinal);
+        flags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, safeSnowIce);
     }
 
     public static class Spi extends OperatorSpi {
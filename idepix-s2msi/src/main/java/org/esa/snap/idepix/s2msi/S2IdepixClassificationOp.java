@@ -3,10 +3,7 @@ package org.esa.snap.idepix.s2msi;
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.FlagCoding;
-import org.esa.snap.core.datamodel.GeoCoding;
-import org.esa.snap.core.datamodel.GeoPos;
 import org.esa.snap.core.datamodel.Mask;
-import org.esa.snap.core.datamodel.PixelPos;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.datamodel.ProductData;
 import org.esa.snap.core.gpf.Operator;
@@ -18,6 +15,9 @@ import org.esa.snap.core.gpf.annotations.Parameter;
 import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.snap.core.gpf.annotations.TargetProduct;
 import org.esa.snap.core.util.ProductUtils;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
+import org.esa.snap.idepix.core.util.TileWaterMask;
 import org.esa.snap.idepix.s2msi.util.S2IdepixConstants;
 import org.esa.snap.idepix.s2msi.util.S2IdepixUtils;
 import org.esa.snap.watermask.operator.WatermaskClassifier;
@@ -121,7 +121,7 @@ public class S2IdepixClassificationOp extends Operator {
     Band tc4CirrusBand;
     Band ndwiBand;
 
-    private WatermaskClassifier watermaskClassifier;
+    private TileWaterMask tileWaterMask;
 
     @Override
     public void initialize() throws OperatorException {
@@ -143,9 +143,9 @@ public class S2IdepixClassificationOp extends Operator {
                 && sourceProduct.getBand("B2").getGeoCoding().getMapCRS().getName().toString().contains("UTM")
                 && sourceProduct.getBand("B2").getImageToModelTransform().getScaleX() < LAND_WATER_MASK_RESOLUTION;
         try {
-            watermaskClassifier = new WatermaskClassifier(LAND_WATER_MASK_RESOLUTION,
-                    isHigherResolutionInput ? 1 : OVERSAMPLING_FACTOR_X,
-                    isHigherResolutionInput ? 1 : OVERSAMPLING_FACTOR_Y);
+            final int subsamplingFactorX = isHigherResolutionInput ? 1 : OVERSAMPLING_FACTOR_X;
+            final int subsamplingFactorY = isHigherResolutionInput ? 1 : OVERSAMPLING_FACTOR_Y;
+            tileWaterMask = createTileWaterMask(subsamplingFactorX, subsamplingFactorY);
         } catch (IOException e) {
             throw new OperatorException("Could not initialise SRTM land-water mask", e);
         }
@@ -154,6 +154,21 @@ public class S2IdepixClassificationOp extends Operator {
         extendTargetProduct();
     }
 
+    /**
+     * Creates the SRTM land/water mask; benchmarks override this to run without auxdata.
+     *
+     * @param subsamplingFactorX - the number of sub-samples per pixel in x
+     * @param subsamplingFactorY - the number of sub-samples per pixel in y
+     * @return the mask
+     * @throws IOException if the mask auxdata cannot be read
+     */
+    protected TileWaterMask createTileWaterMask(int subsamplingFactorX, int subsamplingFactorY) throws IOException {
+        final WatermaskClassifier watermaskClassifier = new WatermaskClassifier(LAND_WATER_MASK_RESOLUTION,
+                subsamplingFactorX,
+                subsamplingFactorY);
+        return new TileWaterMask(watermaskClassifier, subsamplingFactorX, subsamplingFactorY);
+    }
+
     private void validateInputBandsExist(String[] bandNames) {
         for (String bandName : bandNames) {
             if (!sourceProduct.containsBand(bandName)) {
@@ -164,6 +179,15 @@ public class S2IdepixClassificationOp extends Operator {
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, rectangle);
+        try {
+            computeTileStackImpl(targetTiles, rectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
 
         Tile[] s2ReflectanceTiles = new Tile[S2IdepixConstants.S2_MSI_REFLECTANCE_BAND_NAMES.length];
         float[] s2MsiReflectance = new float[S2IdepixConstants.S2_MSI_REFLECTANCE_BAND_NAMES.length];
@@ -183,7 +207,8 @@ public class S2IdepixClassificationOp extends Operator {
         final Band elevationBand = targetProduct.getBand(S2IdepixConstants.ELEVATION_BAND_NAME);
         final Tile elevationTile = getSourceTile(elevationBand, rectangle);
         final Tile validPixelTile = getSourceTile(validPixelMask, rectangle);
-
+        final TileGeoLocation geoLocation = TileGeoLocation.create(this, sourceProduct, rectangle);
+        final byte[] waterFractions = tileWaterMask.getWaterMaskFractions(sourceProduct.getSceneGeoCoding(), rectangle);
 
         try {
             for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
@@ -202,7 +227,8 @@ public class S2IdepixClassificationOp extends Operator {
                             szaTile, vzaTile, saaTile, vaaTile,
                             elevationTile,
                             validPixelTile,
-                            watermaskClassifier,
+                            geoLocation,
+                            waterFractions[(y - rectangle.y) * rectangle.width + (x - rectangle.x)],
                             s2MsiReflectance,
                             y,
                             x);
@@ -265,7 +291,8 @@ public class S2IdepixClassificationOp extends Operator {
                                                    Tile szaTile, Tile vzaTile, Tile saaTile, Tile vaaTile,
                                                    Tile elevationTile,
                                                    Tile validPixelTile,
-                                                   WatermaskClassifier classifier, float[] s2MsiReflectances,
+                                                   TileGeoLocation geoLocation,
+                                                   byte waterFraction, float[] s2MsiReflectances,
                                                    int y,
                                                    int x) {
         S2IdepixAlgorithm s2MsiAlgorithm = new S2IdepixAlgorithm();
@@ -275,16 +302,15 @@ public class S2IdepixClassificationOp extends Operator {
         }
         s2MsiAlgorithm.setRefl(s2MsiReflectances);
 
-        final byte waterFraction = classifier.getWaterMaskFraction(sourceProduct.getSceneGeoCoding(), x, y);
-
-        boolean isLand = isLandPixel(x, y, waterFraction, s2MsiAlgorithm);
+        final float lat = geoLocation.getLat(x, y);
+        boolean isLand = isLandPixel(lat, waterFraction, s2MsiAlgorithm);
         s2MsiAlgorithm.setIsLand(isLand);
 
         final double sza = szaTile.getSampleDouble(x, y);
         final double vza = vzaTile.getSampleDouble(x, y);
         final double saa = saaTile.getSampleDouble(x, y);
         final double vaa = vaaTile.getSampleDouble(x, y);
-        s2MsiAlgorithm.setLat(getGeoPos(x, y).lat);
+        s2MsiAlgorithm.setLat(lat);
         final double elevation = elevationTile.getSampleDouble(x, y);
         s2MsiAlgorithm.setElevation(elevation);
         final double rhoToa442Thresh = calcRhoToa442ThresholdTerm(sza, vza, saa, vaa);
@@ -300,8 +326,8 @@ public class S2IdepixClassificationOp extends Operator {
         return s2MsiAlgorithm;
     }
 
-    private boolean isLandPixel(int x, int y, int waterFraction, S2IdepixAlgorithm s2MsiAlgorithm) {
-        if (getGeoPos(x, y).lat > WATER_MASK_SOUTH_BOUND) {
+    private boolean isLandPixel(float lat, int waterFraction, S2IdepixAlgorithm s2MsiAlgorithm) {
+        if (lat > WATER_MASK_SOUTH_BOUND) {
             // values bigger than 100 indicate no data
             if (waterFraction <= 100) {
                 // todo: this does not work if we have a PixelGeocoding. In that case, waterFraction
@@ -315,14 +341,6 @@ public class S2IdepixClassificationOp extends Operator {
         }
     }
 
-    private GeoPos getGeoPos(int x, int y) {
-        final GeoPos geoPos = new GeoPos();
-        final GeoCoding geoCoding = sourceProduct.getSceneGeoCoding();
-        final PixelPos pixelPos = new PixelPos(x, y);
-        geoCoding.getGeoPos(pixelPos, geoPos);
-        return geoPos;
-    }
-
     private double calcRhoToa442ThresholdTerm(double sza, double vza, double saa, double vaa) {
         final double cosThetaScatt = S2IdepixUtils.calcScatteringCos(sza, vza, saa, vaa);
         return RHO_TOA_442_THRESHOLD + DELTA_RHO_TOA_442_THRESHOLD * cosThetaScatt * cosThetaScatt;
@@ -12,6 +12,8 @@ import org.esa.snap.core.gpf.annotations.OperatorMetadata;
 import org.esa.snap.core.gpf.annotations.Parameter;
 import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.snap.core.util.ProductUtils;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 import org.esa.snap.idepix.s2msi.operators.cloudshadow.S2IdepixCloudShadowOp;
 import org.esa.snap.idepix.s2msi.operators.cloudshadow.S2IdepixPreCloudShadowOp;
 import org.esa.snap.idepix.s2msi.operators.mountainshadow.S2IdepixMountainShadowOp;
@@ -58,37 +60,50 @@ public class S2IdepixPostProcessOp extends Operator {
     @Parameter(defaultValue = "true", label = "Compute cloud shadow", description = "Compute cloud shadow")
     private boolean computeCloudShadow;
 
-    @Parameter(defaultValue = "true", label = " Compute a cloud buffer")
+    @Parameter(description = "The mode by which clouds are detected. There are three options: Land/Water, Multiple Bands" +
+            "or Single Band", valueSet = {"LandWater", "MultiBand", "SingleBand"}, defaultValue = "LandWater")
+    private String mode;
+
+    // The following parameters were meant to be passed on to the cloud shadow computation, which does not use them.
+    // They are kept so that existing graphs and parameter files remain valid, but are ignored.
+
+    @Deprecated
+    @Parameter(defaultValue = "true", label = " Compute a cloud buffer",
+            description = "Deprecated and ignored.")
     private boolean computeCloudBuffer;
 
-    @Parameter(defaultValue = "true", label = " Compute a cloud buffer also for cloud ambiguous pixels")
+    @Deprecated
+    @Parameter(defaultValue = "true", label = " Compute a cloud buffer also for cloud ambiguous pixels",
+            description = "Deprecated and ignored.")
     private boolean computeCloudBufferForCloudAmbiguous;
 
+    @Deprecated
     @Parameter(defaultValue = "2", interval = "[0,100]",
             label = " Width of cloud buffer (# of pixels)",
-            description = " The width of the 'safety buffer' around a pixel identified as cloudy.")
+            description = " The width of the 'safety buffer' around a pixel identified as cloudy. Deprecated and ignored.")
     private int cloudBufferWidth;
 
-    @Parameter(description = "The mode by which clouds are detected. There are three options: Land/Water, Multiple Bands" +
-            "or Single Band", valueSet = {"LandWater", "MultiBand", "SingleBand"}, defaultValue = "LandWater")
-    private String mode;
-
+    @Deprecated
     @Parameter(defaultValue = "0.01",
             label = " Threshold CW_THRESH",
-            description = " Threshold CW_THRESH")
+            description = " Threshold CW_THRESH. Deprecated and ignored.")
     private double cwThresh;
 
+    @Deprecated
     @Parameter(defaultValue = "-0.11",
             label = " Threshold GCL_THRESH",
-            description = " Threshold GCL_THRESH")
+            description = " Threshold GCL_THRESH. Deprecated and ignored.")
     private double gclThresh;
 
+    @Deprecated
     @Parameter(defaultValue = "0.01",
             label = " Threshold CL_THRESH",
-            description = " Threshold CL_THRESH")
+            description = " Threshold CL_THRESH. Deprecated and ignored.")
     private double clThresh;
 
-    @Parameter(description = "The digital elevation model.", defaultValue = "SRTM 3Sec", label = "Digital Elevation Model")
+    @Deprecated
+    @Parameter(description = "The digital elevation model. Deprecated and ignored.", defaultValue = "SRTM 3Sec",
+            label = "Digital Elevation Model")
     private String demName = "SRTM 3Sec";
 
     private Band cloudBufferFlagBand;
@@ -125,14 +140,7 @@ public class S2IdepixPostProcessOp extends Operator {
             //      - add || computeMountainShadow to the condition above
             //      - consider the flag results in computeTile
             params.put("computeMountainShadow", false);
-            params.put("computeCloudBuffer", computeCloudBuffer);
-            params.put("cloudBufferWidth", cloudBufferWidth);
-            params.put("computeCloudBufferForCloudAmbiguous", computeCloudBufferForCloudAmbiguous);
             params.put("mode", mode);
-            params.put("cwThresh", cwThresh);
-            params.put("gclThresh", gclThresh);
-            params.put("clThresh", clThresh);
-            params.put("demName", demName);
             final Product cloudShadowProduct = GPF.createProduct(OperatorSpi.getOperatorAlias(S2IdepixCloudShadowOp.class),
                     params, input);
             cloudShadowFlagBand = cloudShadowProduct.getBand(S2IdepixCloudShadowOp.BAND_NAME_CLOUD_SHADOW);
@@ -157,17 +165,27 @@ public class S2IdepixPostProcessOp extends Operator {
 
     @Override
     public void computeTile(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
         Rectangle targetRectangle = targetTile.getRectangle();
 
+        final FlagAccumulator flags = new FlagAccumulator(targetRectangle);
         if (s2CloudBufferProduct != null) {
             Tile cloudBufferFlagTile = getSourceTile(cloudBufferFlagBand, targetRectangle);
             for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
                 checkForCancellation();
                 for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
                     if (targetRectangle.contains(x, y)) {
-                        boolean isInvalid = targetTile.getSampleBit(x, y, IDEPIX_INVALID);
+                        boolean isInvalid = flags.getFlag(x, y, IDEPIX_INVALID);
                         if (!isInvalid) {
-                            combineFlags(x, y, cloudBufferFlagTile, targetTile);
+                            flags.combine(x, y, cloudBufferFlagTile);
                         }
                     }
                 }
@@ -180,7 +198,7 @@ public class S2IdepixPostProcessOp extends Operator {
                 checkForCancellation();
                 for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
                     final boolean mountainShadow = mountainShadowFlagTile.getSampleInt(x, y) > 0;
-                    targetTile.setSample(x, y, IDEPIX_MOUNTAIN_SHADOW, mountainShadow);
+                    flags.setFlag(x, y, IDEPIX_MOUNTAIN_SHADOW, mountainShadow);
                 }
             }
         }
@@ -195,26 +213,21 @@ public class S2IdepixPostProcessOp extends Operator {
                 for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
                     final int flagValue = flagTile.getSampleInt(x, y);
                     if ((flagValue & recommendedCloudShadow) == recommendedCloudShadow ) {
-                        targetTile.setSample(x, y, IDEPIX_CLOUD_SHADOW, true);
+                        flags.setFlag(x, y, IDEPIX_CLOUD_SHADOW, true);
                     }
                     if ((flagValue & cloudBufferFlag) == cloudBufferFlag) {
-                        targetTile.setSample(x, y, IDEPIX_CLOUD_BUFFER, true);
+                        flags.setFlag(x, y, IDEPIX_CLOUD_BUFFER, true);
                     }
                     if ((flagValue & potentialShadowFlag) == potentialShadowFlag) {
-                        targetTile.setSample(x, y, IDEPIX_POTENTIAL_SHADOW, true);
+                        flags.setFlag(x, y, IDEPIX_POTENTIAL_SHADOW, true);
                     }
                     if ((flagValue & clusteredCloudShadowFlag) == clusteredCloudShadowFlag) {
-                        targetTile.setSample(x, y, IDEPIX_CLUSTERED_CLOUD_SHADOW, true);
+                        flags.setFlag(x, y, IDEPIX_CLUSTERED_CLOUD_SHADOW, true);
                     }
                 }
             }
         }
-    }
-
-    private void combineFlags(int x, int y, Tile sourceFlagTile, Tile targetTile) {
-        int sourceFlags = sourceFlagTile.getSampleInt(x, y);
-        int computedFlags = targetTile.getSampleInt(x, y);
-        targetTile.setSample(x, y, sourceFlags | computedFlags);
+        flags.writeTo(targetTile);
     }
 
     /**
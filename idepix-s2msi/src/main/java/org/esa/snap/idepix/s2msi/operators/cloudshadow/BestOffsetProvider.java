@@ -0,0 +1,244 @@
+package org.esa.snap.idepix.s2msi.operators.cloudshadow;
+
+import org.esa.snap.core.gpf.OperatorException;
+import org.esa.snap.core.util.SystemUtils;
+
+import javax.media.jai.PlanarImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Provides the offset along the cloud path at which the reflectance, averaged over all tiles, has its first
+ * relative minimum, i.e. the most likely distance between the clouds and their shadows.
+ * <p>
+ * The offset is computed lazily from the statistics which {@link S2IdepixPreCloudShadowOp} collects per tile.
+ * The pass over the tiles of the pre-processing operator is shared by all threads asking for the offset:
+ * every thread claims and computes tiles until none are left, so the pass runs in parallel on the threads
+ * of the tile scheduler, and never waits for work which is queued but not running. If a tile fails, the
+ * remaining tiles are skipped and every thread asking for the offset gets the failure.
+ */
+class BestOffsetProvider {
+
+    private static final Logger LOGGER = SystemUtils.LOG;
+
+    private final int numTiles;
+    private final IntConsumer tileComputer;
+    private final IntSupplier offsetAnalysis;
+    private final AtomicInteger nextTile;
+    private final CountDownLatch tilesDone;
+    private final AtomicReference<Throwable> tileFailure;
+    private volatile int bestOffset = -1;
+
+    BestOffsetProvider(S2IdepixPreCloudShadowOp preCloudShadowOp) {
+        this(PlanarImage.wrapRenderedImage(
+                     preCloudShadowOp.getTargetProduct().getBandAt(0).getSourceImage().getImage(0)),
+             () -> computeBestOffset(preCloudShadowOp));
+    }
+
+    private BestOffsetProvider(PlanarImage preCloudShadowImage, IntSupplier offsetAnalysis) {
+        this(preCloudShadowImage.getNumXTiles() * preCloudShadowImage.getNumYTiles(),
+             tileIndex -> preCloudShadowImage.getTile(
+                     preCloudShadowImage.getMinTileX() + tileIndex % preCloudShadowImage.getNumXTiles(),
+                     preCloudShadowImage.getMinTileY() + tileIndex / preCloudShadowImage.getNumXTiles()),
+             offsetAnalysis);
+    }
+
+    /**
+     * @param numTiles       - the number of tiles of the pre-processing
+     * @param tileComputer   - computes the pre-processing tile of the given index
+     * @param offsetAnalysis - derives the best offset from the statistics of all tiles
+     */
+    BestOffsetProvider(int numTiles, IntConsumer tileComputer, IntSupplier offsetAnalysis) {
+        this.numTiles = numTiles;
+        this.tileComputer = tileComputer;
+        this.offsetAnalysis = offsetAnalysis;
+        nextTile = new AtomicInteger();
+        tilesDone = new CountDownLatch(numTiles);
+        tileFailure = new AtomicReference<>();
+    }
+
+    /**
+     * @return the best offset, computing the statistics of all tiles on first call
+     * @throws OperatorException if the computation of a pre-processing tile failed
+     */
+    int getBestOffset() {
+        int offset = bestOffset;
+        if (offset < 0) {
+            computePreCloudShadowTiles();
+            synchronized (this) {
+                if (bestOffset < 0) {
+                    bestOffset = offsetAnalysis.getAsInt();
+                }
+                offset = bestOffset;
+            }
+        }
+        return offset;
+    }
+
+    private void computePreCloudShadowTiles() {
+        int tileIndex;
+        while ((tileIndex = nextTile.getAndIncrement()) < numTiles) {
+            try {
+                // the statistics are incomplete anyway after a failure, the tile is only counted
+                if (tileFailure.get() == null) {
+                    tileComputer.accept(tileIndex);
+                }
+            } catch (RuntimeException | Error e) {
+                tileFailure.compareAndSet(null, e);
+            } finally {
+                tilesDone.countDown();
+            }
+        }
+        try {
+            tilesDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new OperatorException("Interrupted while waiting for cloud shadow statistics", e);
+        }
+        final Throwable failure = tileFailure.get();
+        if (failure != null) {
+            throw new OperatorException("Failed to compute the cloud shadow statistics: " + failure.getMessage(),
+                                        failure);
+        }
+    }
+
+    private static int computeBestOffset(S2IdepixPreCloudShadowOp preCloudShadowOp) {
+        final int[] bestOffsets = findOverallMinimumReflectance(preCloudShadowOp.getMeanReflPerTile());
+        final int offset = chooseBestOffset(bestOffsets, preCloudShadowOp.getNCloudOverLandPerTile(),
+                                            preCloudShadowOp.getNCloudOverWaterPerTile());
+        LOGGER.fine("bestOffset all " + bestOffsets[0]);
+        LOGGER.fine("bestOffset land " + bestOffsets[1]);
+        LOGGER.fine("bestOffset water " + bestOffsets[2]);
+        LOGGER.fine("chosen Offset " + offset);
+        return offset;
+    }
+
+    static int chooseBestOffset(int[] bestOffset, Map<Integer, Integer> NCloudOverLand,
+                                Map<Integer, Integer> NCloudOverWater) {
+        int NCloudWater = 0;
+        int NCloudLand = 0;
+        int out;
+        if (NCloudOverWater.size() > 0) {
+            for (int index : NCloudOverWater.keySet()) {
+                NCloudWater += NCloudOverWater.get(index);
+            }
+        }
+        if (NCloudOverLand.size() > 0) {
+            for (int index : NCloudOverLand.keySet()) {
+                NCloudLand += NCloudOverLand.get(index);
+            }
+        }
+        int Nall = NCloudLand + NCloudWater;
+        float relCloudLand = (float) NCloudLand / Nall;
+        float relCloudWater = (float) NCloudWater / Nall;
+        if (relCloudLand > 2 * relCloudWater) {
+            out = bestOffset[1];
+        } else if (relCloudWater > 2 * relCloudLand) {
+            out = bestOffset[2];
+        } else out = bestOffset[0];
+        return out;
+    }
+
+    static int[] findOverallMinimumReflectance(Map<Integer, double[][]> meanReflPerTile) {
+        // catch cases of tiles completely invalid are skipped
+        if (meanReflPerTile.keySet().size() == 0) {
+            return new int[3];
+        }
+        // we need to account for that not all mean values in meanReflPerTile are of the same length
+        int pathLength = 0;
+        for (double[][] meanRefls : meanReflPerTile.values()) {
+            pathLength = Math.max(pathLength, meanRefls[0].length);
+        }
+        double[][] scaledTotalReflectance = new double[3][pathLength];
+        for (int j = 0; j < 3; j++) {
+            /*Checking the meanReflPerTile:
+                - if it has no relative minimum other than the first or the last value, it is excluded.
+                - if it contains NaNs, it is excluded.
+                Exclusion works by setting values to NaN.
+            */
+            for (int key : meanReflPerTile.keySet()) {
+                double[][] meanValues = meanReflPerTile.get(key);
+                boolean exclude = false;
+                List<Integer> relativeMinimum = indecesRelativMaxInArray(meanValues[j]);
+                if (relativeMinimum.contains(0)) relativeMinimum.remove(relativeMinimum.indexOf(0));
+                if (relativeMinimum.contains(meanValues[j].length - 1))
+                    relativeMinimum.remove(relativeMinimum.indexOf(meanValues[j].length - 1));
+
+                //smallest relative minimum is in second part of the path -> exclude
+                if (relativeMinimum.indexOf(0) > meanValues[j].length / 2.) exclude = true;
+                if (relativeMinimum.size() == 0) exclude = true;
+                if (exclude) {
+                    Arrays.fill(meanValues[j], Double.NaN);
+                }
+            }
+            //Finding the minimum in brightness in the scaled mean function.
+            for (int key : meanReflPerTile.keySet()) {
+                double[][] meanValues = meanReflPerTile.get(key);
+                double[] maxValue = new double[3];
+                for (int i = 0; i < meanValues[j].length; i++) {
+                    if (!Double.isNaN(meanValues[j][i])) {
+                        if (meanValues[j][i] > maxValue[j]) {
+                            maxValue[j] = meanValues[j][i];
+                        }
+                    }
+                }
+                for (int i = 0; i < meanValues[j].length; i++) {
+                    if (!Double.isNaN(meanValues[j][i]) && maxValue[j] > 0) {
+                        scaledTotalReflectance[j][i] += meanValues[j][i] / maxValue[j];
+                    }
+                }
+            }
+        }
+        int[] offset = new int[3];
+        for (int j = 0; j < 3; j++) {
+            List<Integer> test = indecesRelativMaxInArray(scaledTotalReflectance[j]);
+            if (test.contains(0)) test.remove(test.indexOf(0));
+            if (test.contains(scaledTotalReflectance[j].length - 1))
+                test.remove(test.indexOf(scaledTotalReflectance[j].length - 1));
+
+            if (test.size() > 0) {
+                offset[j] = test.get(0);
+            }
+        }
+        return offset;
+    }
+
+    private static List<Integer> indecesRelativMaxInArray(double[] x) {
+        int lx = x.length;
+        List<Integer> ID = new ArrayList<>();
+        boolean valid = true;
+        int i = 0;
+        while (i < lx && valid) {
+            if (Double.isNaN(x[i])) valid = false;
+            i++;
+        }
+        if (lx == 0) {
+            LOGGER.fine("indecesRelativMaxInArray x.length=" + lx);
+        } else if (lx == 1) {
+            LOGGER.fine("indecesRelativMaxInArray x.length=" + lx);
+            ID.add(0);
+        } else if (valid) {
+            double fac = -1.;
+
+            if (fac * x[0] > fac * x[1]) ID.add(0);
+            if (fac * x[lx - 1] > fac * x[lx - 2]) ID.add(lx - 1);
+
+            for (i = 1; i < lx - 1; i++) {
+                if (fac * x[i] > fac * x[i - 1] && fac * x[i] > fac * x[i + 1]) ID.add(i);
+            }
+        } else {
+            ID.add(0);
+            ID.add(lx - 1);
+        }
+
+        return ID;
+    }
+}
@@ -1,11 +1,10 @@
 package org.esa.snap.idepix.s2msi.operators.cloudshadow;
 
-import org.esa.snap.core.util.SystemUtils;
+import org.esa.snap.idepix.core.util.ConnectedComponents;
 
 import java.awt.geom.Point2D;
 import java.util.*;
 import java.util.List;
-import java.util.logging.Logger;
 
 /**
  * @author Grit Kirches
@@ -15,8 +14,6 @@ import java.util.logging.Logger;
  */
 class CloudShadowFlaggerCombination {
 
-    private static Logger logger = SystemUtils.LOG;
-
     private int[] flagArray;
     private int bestOffset;
 
@@ -24,17 +21,30 @@ class CloudShadowFlaggerCombination {
     private int height;
 
     private double meanReflShift;
+    private int[] cloud;
     private int cloudSize;
-    private List<Integer> cloud;
     private Point2D[] cloudPath;
 
+    // scratch buffers, allocated once per tile:
+    // the potential shadow pixels of the current cloud without duplicates and their offsets along the cloud path
+    private int[] positions;
+    private int[] offsets;
+    // per pixel of the source rectangle, 0 and -1 outside of their use
+    private int[] pixelOffset;
+    private int[] pixelSlot;
+    // per potential shadow pixel of the current cloud
+    private double[] band;
+    private double[] sortedBand;
+    private int[] shadowIndex;
+    private int[] shadowOffset;
+
     // for testing, which cluster to use: the one, which mean distance is closer to the shift, which has been calculated before...
     //private int offsetCloudShift;
 
     private final static int CLUSTER_COUNT = S2IdepixPostCloudShadowOp.clusterCountDefine;
 
     void flagCloudShadowAreas(float[][] sourceBands, int[] flagArray, Map<Integer, List<Integer>> potentialShadowPositions,
-                              Map<Integer, List<Integer>> offsetAtPotentialShadow, Map<Integer, List<Integer>> cloudList,
+                              Map<Integer, List<Integer>> offsetAtPotentialShadow, ConnectedComponents clouds,
                               int bestOffset, Mode mode, int sourceWidth, int sourceHeight, int[] shadowIDArray, Point2D[] cloudPath) {
 
         this.flagArray = flagArray;
@@ -43,55 +53,35 @@ class CloudShadowFlaggerCombination {
         this.height = sourceHeight;
         this.cloudPath = cloudPath;
 
+        int maxNumPositions = 0;
+        for (List<Integer> positionList : potentialShadowPositions.values()) {
+            maxNumPositions = Math.max(maxNumPositions, positionList.size());
+        }
+        final int maxCloudSize = clouds.getMaxPixelCount();
+        positions = new int[maxNumPositions];
+        offsets = new int[maxNumPositions];
+        band = new double[maxNumPositions];
+        sortedBand = new double[maxNumPositions];
+        shadowIndex = new int[maxNumPositions];
+        shadowOffset = new int[maxNumPositions];
+        cloud = new int[maxCloudSize];
+        pixelOffset = new int[flagArray.length];
+        pixelSlot = new int[flagArray.length];
+        Arrays.fill(pixelSlot, -1);
+
         AnalyzerMode analyzerMode = new AnalyzerModeFactory().getAnalyzerMode(mode, sourceBands);
+        analyzerMode.initArrays(maxNumPositions);
 
         for (int key : potentialShadowPositions.keySet()) {
-            /*
-            positions and offsetAtPosition can contain duplicates!
-            Removing duplicates, Keeping the smaller offset at a position...
-             */
-            List<Integer> positions = potentialShadowPositions.get(key);
-            List<Integer> offsetAtPos = offsetAtPotentialShadow.get(key);
-
-            List<Integer> noduplicatesPositions = new ArrayList<>(new LinkedHashSet<>(positions));
-
-            if (noduplicatesPositions.size() < positions.size()) {
-                int[] test = new int[flagArray.length];
-                for (int i = 0; i < positions.size(); i++) {
-                    int off = offsetAtPos.get(i);
-                    int ind = positions.get(i);
-                    if (ind < test.length) {
-                        if (test[ind] > off || test[ind] == 0) {
-                            test[ind] = off;
-                        }
-                    } else
-                        logger.info("Index: " + ind + " outside range");
-                }
-
-                List<Integer> noduplicatesOffsets = new ArrayList<>();
-                for (int i : noduplicatesPositions) {
-                    noduplicatesOffsets.add(test[i]);
-                }
-
-                positions.clear();
-                positions.addAll(noduplicatesPositions);
-                offsetAtPos.clear();
-                offsetAtPos.addAll(noduplicatesOffsets);
-            }
+            final int numPositions = removeDuplicates(potentialShadowPositions.get(key), offsetAtPotentialShadow.get(key));
 
             //caution! the cloud list has a different length!
-            this.cloud = cloudList.get(key);
-            this.cloudSize = cloud.size();
-            this.meanReflShift = computeMeanRefl(cloud, bestOffset, sourceBands[1], cloudPath);
-
-
-            analyzerMode.initArrays(positions.size());
-            for (int i = 0; i < positions.size(); i++) {
+            cloudSize = clouds.getPixelIndices(key, cloud);
+            this.meanReflShift = computeMeanRefl(bestOffset, sourceBands[1]);
 
-                int index = positions.get(i);
-
-                int offset = offsetAtPos.get(i);
-                analyzerMode.doIterationStep(index, offset);
+            analyzerMode.startCloud();
+            for (int i = 0; i < numPositions; i++) {
+                analyzerMode.doIterationStep(positions[i], offsets[i]);
             }
             analyzerMode.doCloudShadowAnalysis(CLUSTER_COUNT * 2 + 1, shadowIDArray, sourceBands[1]);
         }
@@ -107,39 +97,55 @@ class CloudShadowFlaggerCombination {
          */
 
         if (bestOffset > 0) {
-            int[] test = new int[flagArray.length];
-            for (int i = 0; i < flagArray.length; i++) {
-                if ((flagArray[i] & PreparationMaskBand.CLOUD_SHADOW_FLAG) == PreparationMaskBand.CLOUD_SHADOW_FLAG) {
-                    test[i] = 1;
-                }
-            }
-            FindContinuousAreas testContinuousShadow = new FindContinuousAreas(test);
-            Map<Integer, List<Integer>> clusteredShadowTileID = testContinuousShadow.computeAreaID(width, height, shadowIDArray, false);
-
-            setCombinedCloudShadowFlagOnTile(clusteredShadowTileID);
+            setCombinedCloudShadowFlagOnTile(shadowIDArray);
         }
 
     }
 
-    private double computeMeanRefl(List<Integer> cloud, int bestOffset, float[] sourceBand, Point2D[] cloudPath) {
-        int N = 0;
-        double refl = 0.;
+    /*
+    positions and offsetAtPosition can contain duplicates!
+    Removing duplicates, keeping the first occurrence of a position and the smaller offset at it.
+    The result is written to the positions and offsets buffers.
+     */
+    private int removeDuplicates(List<Integer> positionList, List<Integer> offsetList) {
+        final int numEntries = positionList.size();
+        for (int i = 0; i < numEntries; i++) {
+            final int index = positionList.get(i);
+            final int offset = offsetList.get(i);
+            if (pixelSlot[index] < 0) {
+                pixelSlot[index] = 0;
+                pixelOffset[index] = offset;
+            } else if (pixelOffset[index] > offset || pixelOffset[index] == 0) {
+                pixelOffset[index] = offset;
+            }
+        }
+        int numPositions = 0;
+        for (int i = 0; i < numEntries; i++) {
+            final int index = positionList.get(i);
+            if (pixelSlot[index] == 0) {
+                positions[numPositions] = index;
+                offsets[numPositions] = pixelOffset[index];
+                numPositions++;
+                pixelSlot[index] = -1;
+                pixelOffset[index] = 0;
+            }
+        }
+        return numPositions;
+    }
 
-        boolean haveOffset = bestOffset < cloudPath.length;
-        int bestOffsetX = 0;
-        int bestOffsetY = 0;
-        if (haveOffset) {
-            bestOffsetX = (int) cloudPath[bestOffset].getX();
-            bestOffsetY = (int) cloudPath[bestOffset].getY();
+    private double computeMeanRefl(int offset, float[] sourceBand) {
+        if (offset >= cloudPath.length) {
+            return 0;
         }
-        for (int index : cloud) {
-            int[] x = revertIndexToXY(index, width);
-            if (!haveOffset) {
-                break;
-            }
+        int N = 0;
+        double refl = 0.;
 
-            int x1 = x[0] + bestOffsetX;
-            int y1 = x[1] + bestOffsetY;
+        final int offsetX = (int) cloudPath[offset].getX();
+        final int offsetY = (int) cloudPath[offset].getY();
+        for (int i = 0; i < cloudSize; i++) {
+            final int index = cloud[i];
+            final int x1 = index % width + offsetX;
+            final int y1 = index / width + offsetY;
 
             if (x1 >= width || y1 >= height || x1 < 0 || y1 < 0) {
                 break;
@@ -160,14 +166,13 @@ class CloudShadowFlaggerCombination {
         return out;
     }
 
-    private void switchOffShiftedCloudShadowFlag(List<Integer> cloud, int Offset, Point2D[] cloudPath) {
-        int cloudPathOffsetX = (int) cloudPath[Offset].getX();
-        int cloudPathOffsetY = (int) cloudPath[Offset].getY();
-        for (int index : cloud) {
-            int[] x = revertIndexToXY(index, width);
-
-            int x1 = x[0] + cloudPathOffsetX;
-            int y1 = x[1] + cloudPathOffsetY;
+    private void switchOffShiftedCloudShadowFlag(int offset) {
+        final int cloudPathOffsetX = (int) cloudPath[offset].getX();
+        final int cloudPathOffsetY = (int) cloudPath[offset].getY();
+        for (int i = 0; i < cloudSize; i++) {
+            final int index = cloud[i];
+            final int x1 = index % width + cloudPathOffsetX;
+            final int y1 = index / width + cloudPathOffsetY;
 
             if (x1 >= width || y1 >= height || x1 < 0 || y1 < 0) {
                 break;
@@ -180,14 +185,13 @@ class CloudShadowFlaggerCombination {
         }
     }
 
-    private void setShiftedCloudShadowFlag(List<Integer> cloud, int Offset, Point2D[] cloudPath) {
-        int cloudPathOffsetX = (int) cloudPath[Offset].getX();
-        int cloudPathOffsetY = (int) cloudPath[Offset].getY();
-        for (int index : cloud) {
-            int[] x = revertIndexToXY(index, width);
-
-            int x1 = x[0] + cloudPathOffsetX;
-            int y1 = x[1] + cloudPathOffsetY;
+    private void setShiftedCloudShadowFlag(int offset) {
+        final int cloudPathOffsetX = (int) cloudPath[offset].getX();
+        final int cloudPathOffsetY = (int) cloudPath[offset].getY();
+        for (int i = 0; i < cloudSize; i++) {
+            final int index = cloud[i];
+            final int x1 = index % width + cloudPathOffsetX;
+            final int y1 = index / width + cloudPathOffsetY;
 
             if (x1 >= width || y1 >= height || x1 < 0 || y1 < 0) {
                 break;
@@ -203,128 +207,35 @@ class CloudShadowFlaggerCombination {
         }
     }
 
-    private void setCombinedCloudShadowFlagOnTile(Map<Integer, List<Integer>> clusteredShadowTileID) {
+    private void setCombinedCloudShadowFlagOnTile(int[] shadowIDArray) {
         //if a continuous clustered shadow coincides with a shifted (adjusted) shadow, keep it.
-
-        List<Integer> coincideKey = new ArrayList<>();
-
-        for (int key : clusteredShadowTileID.keySet()) {
-            List<Integer> positions = clusteredShadowTileID.get(key);
-
-            for (Integer position : positions) {
-                int ind = position;
-                if (((flagArray[ind] & PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG) == PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG)) {
-                    coincideKey.add(key);
-                    break;
-                }
-            }
-        }
-
-        if (coincideKey.size() > 0) {
-            for (int key : coincideKey) {
-                List<Integer> positions = clusteredShadowTileID.get(key);
-
-                for (int index1 : positions) {
-                    int flag = flagArray[index1];
-                    if (!((flag & PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG) == PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG) &&
-                            !((flag & PreparationMaskBand.CLOUD_FLAG) == PreparationMaskBand.CLOUD_FLAG) &&
-                            !((flag & PreparationMaskBand.INVALID_FLAG) == PreparationMaskBand.INVALID_FLAG)) {
-                        flagArray[index1] += PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG;
-                    }
-                }
-
-            }
+        final int sourceLength = width * height;
+        for (int i = 0; i < sourceLength; i++) {
+            shadowIDArray[i] = (flagArray[i] & PreparationMaskBand.CLOUD_SHADOW_FLAG) == PreparationMaskBand.CLOUD_SHADOW_FLAG ? 1 : 0;
         }
-
-
-    }
-
-    private void setANDTestCombinedCloudShadowFlag(List<Integer> cloud, int Offset, int indexForOffset, Point2D[] cloudPath, Map<Integer, List<Integer>> ListShadowID) {
-
-        List<Integer> indexShiftedCloud = new ArrayList<>();
-        if (Offset == 0) {
-            //shifted cloud as is (at BestOffset)
-            Offset = bestOffset;
-        }
-
-        int cloudPathOffsetX = (int) cloudPath[Offset].getX();
-        int cloudPathOffsetY = (int) cloudPath[Offset].getY();
-        for (int index : cloud) {
-            int[] x = revertIndexToXY(index, width);
-
-            int x1 = x[0] + cloudPathOffsetX;
-            int y1 = x[1] + cloudPathOffsetY;
-
-            if (x1 >= width || y1 >= height || x1 < 0 || y1 < 0) {
-                break;
-            }
-            int index1 = y1 * width + x1;
-
-            if ( //!((flagArray[index1] & PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG) == PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG) &&
-                    !((flagArray[index1] & PreparationMaskBand.CLOUD_FLAG) == PreparationMaskBand.CLOUD_FLAG) &&
-                            !((flagArray[index1] & PreparationMaskBand.INVALID_FLAG) == PreparationMaskBand.INVALID_FLAG)) {
-                //flagArray[index1] += PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG;
-                indexShiftedCloud.add(index1);
-            }
-        }
-
-
-        //coinciding pixels between cluster and shift?
-        List<Integer> coincideKey = new ArrayList<>();
-        for (int key : ListShadowID.keySet()) {
-            List<Integer> positions = ListShadowID.get(key);
-            int[] test = new int[flagArray.length];
-            for (int ind : positions) {
-                if (ind < test.length) {
-                    test[ind] += 1;
-                }
-            }
-
-            for (int ind : indexShiftedCloud) {
-                if (ind < test.length) {
-                    if (test[ind] > 0) {
-                        coincideKey.add(key);
-                        //break;
-                    }
-                }
-            }
+        final ConnectedComponents clusteredShadow = ConnectedComponents.label(shadowIDArray, width, height, false, shadowIDArray);
+        if (clusteredShadow.getNumComponents() == 0) {
+            return;
         }
 
-        List<Integer> noduplCoincideKey = new ArrayList<>(new LinkedHashSet<>(coincideKey));
-
-        if (noduplCoincideKey.size() > 0) {
-            for (int key : noduplCoincideKey) {
-                List<Integer> positions = ListShadowID.get(key);
-
-                for (int index1 : positions) {
-                    if (!((flagArray[index1] & PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG) == PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG) &&
-                            !((flagArray[index1] & PreparationMaskBand.CLOUD_FLAG) == PreparationMaskBand.CLOUD_FLAG) &&
-                            !((flagArray[index1] & PreparationMaskBand.INVALID_FLAG) == PreparationMaskBand.INVALID_FLAG)) {
-                        flagArray[index1] += PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG;
-                    }
-                }
-
+        final boolean[] coincides = new boolean[clusteredShadow.getNumComponents() + 1];
+        for (int i = 0; i < sourceLength; i++) {
+            if (shadowIDArray[i] > 0 &&
+                    (flagArray[i] & PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG) == PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG) {
+                coincides[shadowIDArray[i]] = true;
             }
         }
 
-
-        if (indexShiftedCloud.size() > 0) {
-            for (int index1 : indexShiftedCloud) {
-                if (!((flagArray[index1] & PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG) == PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG) &&
-                        !((flagArray[index1] & PreparationMaskBand.CLOUD_FLAG) == PreparationMaskBand.CLOUD_FLAG) &&
-                        !((flagArray[index1] & PreparationMaskBand.INVALID_FLAG) == PreparationMaskBand.INVALID_FLAG)) {
+        for (int index1 = 0; index1 < sourceLength; index1++) {
+            if (coincides[shadowIDArray[index1]]) {
+                int flag = flagArray[index1];
+                if (!((flag & PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG) == PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG) &&
+                        !((flag & PreparationMaskBand.CLOUD_FLAG) == PreparationMaskBand.CLOUD_FLAG) &&
+                        !((flag & PreparationMaskBand.INVALID_FLAG) == PreparationMaskBand.INVALID_FLAG)) {
                     flagArray[index1] += PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG;
-
                 }
             }
         }
-
-    }
-
-    private int[] revertIndexToXY(int index, int width) {
-        int y = Math.floorDiv(index, width);
-        int x = index - y * width;
-        return new int[]{x, y};
     }
 
     private static float[] nonCloudMeans(float[][] clusterData, int[] flagArray, boolean onWater, boolean onLand) {
@@ -499,10 +410,10 @@ class CloudShadowFlaggerCombination {
 
     private void analysePotentialCloudShadowArea_clustering(int counter, double[][] arrayBands, int[] arrayIndexes,
                                                             int[] arrayOffsets, int[] shadowIDArray, float[] sourceBand) {
-        double[] band = new double[counter];
         double darkestBand = Double.MAX_VALUE;
         double[] darkestBands = new double[arrayBands.length];
         for (int i = 0; i < counter; i++) {
+            band[i] = 0;
             for (double[] arrayBand : arrayBands) {
                 band[i] += Math.pow(arrayBand[i], Math.min(2, arrayBands.length));
             }
@@ -515,32 +426,31 @@ class CloudShadowFlaggerCombination {
         }
         int counterWhiteness = (int) (Math.floor(counter * S2IdepixPreCloudShadowOp.OUTLIER_THRESHOLD));
         if (counterWhiteness >= counter) counterWhiteness = counter - 1;
-        double[] sortedBand = band.clone();
-        Arrays.sort(sortedBand);
+        System.arraycopy(band, 0, sortedBand, 0, counter);
+        Arrays.sort(sortedBand, 0, counter);
         double thresholdWhiteness = sortedBand[counterWhiteness];
 
-        final List<Double>[] clusterableLists = new List[arrayBands.length];
-        for (int i = 0; i < clusterableLists.length; i++) {
-            clusterableLists[i] = new ArrayList<>();
-        }
-        for (int i = 0; i < band.length; i++) {
+        int numClusterable = 0;
+        for (int i = 0; i < counter; i++) {
             if (band[i] < thresholdWhiteness) {
-                for (int j = 0; j < clusterableLists.length; j++) {
-                    clusterableLists[j].add(arrayBands[j][i]);
-                }
+                numClusterable++;
             }
         }
 
         // add 0.5% of darkest values to shadow array but at least one pixel is added
         int addedDarkValues = 1 + (int) Math.floor(0.05 * counterWhiteness + 0.5);
 
-        double[][] arrayClusterableBands = new double[clusterableLists.length][clusterableLists[0].size() + addedDarkValues];
+        double[][] arrayClusterableBands = new double[arrayBands.length][numClusterable + addedDarkValues];
         for (int i = 0; i < arrayClusterableBands.length; i++) {
             Arrays.fill(arrayClusterableBands[i], darkestBands[i]);
         }
-        for (int i = 0; i < clusterableLists.length; i++) {
-            for (int j = 0; j < clusterableLists[0].size(); j++) {
-                arrayClusterableBands[i][j] = clusterableLists[i].get(j);
+        int clusterableIndex = 0;
+        for (int i = 0; i < counter; i++) {
+            if (band[i] < thresholdWhiteness) {
+                for (int j = 0; j < arrayClusterableBands.length; j++) {
+                    arrayClusterableBands[j][clusterableIndex] = arrayBands[j][i];
+                }
+                clusterableIndex++;
             }
         }
 
@@ -548,7 +458,7 @@ class CloudShadowFlaggerCombination {
 
         double[][] clusterCentroidArray = ClusteringKMeans.computedKMeansCluster(numberOfClusters, arrayClusterableBands);
 
-        final ArrayList<Double> sortedCluster = new ArrayList<>();
+        final double[] sortedCluster = new double[numberOfClusters];
         for (int i = 0; i < numberOfClusters; i++) {
             double clusterCentroid = 0;
             for (double clusterCentroidArr : clusterCentroidArray[i]) {
@@ -556,26 +466,19 @@ class CloudShadowFlaggerCombination {
             }
             int j;
             for (j = 0; j < i; j++) {
-                if (clusterCentroid < sortedCluster.get(j)) {
+                if (clusterCentroid < sortedCluster[j]) {
                     break;
                 }
             }
-            sortedCluster.add(j, clusterCentroid);
+            System.arraycopy(sortedCluster, j, sortedCluster, j + 1, i - j);
+            sortedCluster[j] = clusterCentroid;
         }
-        double maxDist = sortedCluster.get(sortedCluster.size() - 1) - sortedCluster.get(0);
+        double maxDist = sortedCluster[numberOfClusters - 1] - sortedCluster[0];
         if (maxDist <= 0) {
             return;
         }
-        double averageDistance = maxDist / (numberOfClusters - 1);
-        for (int i = 0; i < sortedCluster.size() - 2; i++) {
-            if (sortedCluster.get(i + 1) - sortedCluster.get(i) > averageDistance) {
-                break;
-            }
-        }
-        double threshold = sortedCluster.get(0) + (sortedCluster.get(1) - sortedCluster.get(0)) / 2;
-        List<Integer> shadowIndex = new ArrayList<>();
-        List<Integer> shadowOffset = new ArrayList<>();
-        List<Double> shadowRefl = new ArrayList<>();
+        double threshold = sortedCluster[0] + (sortedCluster[1] - sortedCluster[0]) / 2;
+        int numShadow = 0;
 
         for (int j = 0; j < counter; j++) { //potential cloud shadow
             //cloudTestArray[arrayIndexes[j]] = key; //potential cloud shadow in the analysis
@@ -583,10 +486,9 @@ class CloudShadowFlaggerCombination {
                 int flagIndex = arrayIndexes[j];
                 if (bestOffset > 0) {
                     if (arrayOffsets[j] < 3 * bestOffset && arrayOffsets[j] > 0) {
-                        shadowOffset.add(arrayOffsets[j]);
-                        shadowIndex.add(flagIndex);
-
-                        shadowRefl.add(band[j]);
+                        shadowOffset[numShadow] = arrayOffsets[j];
+                        shadowIndex[numShadow] = flagIndex;
+                        numShadow++;
                     }
                     if (!((flagArray[flagIndex] & PreparationMaskBand.CLOUD_SHADOW_FLAG) == PreparationMaskBand.CLOUD_SHADOW_FLAG)
                             && arrayOffsets[j] < 3 * bestOffset && arrayOffsets[j] > 0 && cloudSize > 1) {
@@ -594,9 +496,9 @@ class CloudShadowFlaggerCombination {
                     }
                 } else {
                     if (arrayOffsets[j] > 0) {
-                        shadowOffset.add(arrayOffsets[j]);
-                        shadowIndex.add(flagIndex);
-                        shadowRefl.add(band[j]);
+                        shadowOffset[numShadow] = arrayOffsets[j];
+                        shadowIndex[numShadow] = flagIndex;
+                        numShadow++;
                     }
                     if (!((flagArray[flagIndex] & PreparationMaskBand.CLOUD_SHADOW_FLAG) == PreparationMaskBand.CLOUD_SHADOW_FLAG)
                             && arrayOffsets[j] > 0 && cloudSize > 1) {
@@ -616,62 +518,64 @@ class CloudShadowFlaggerCombination {
         */
 
 
-        if (bestOffset > 0 && shadowIndex.size() > 20 && cloudSize > 1) {
+        if (bestOffset > 0 && numShadow > 20 && cloudSize > 1) {
             //duplicates are removed!
             //initialize with shadow flags from clustering.
-            int[] test = new int[flagArray.length];
-            for (Integer aShadowIndex : shadowIndex) {
-                test[aShadowIndex] = 1;
+            final int sourceLength = width * height;
+            Arrays.fill(shadowIDArray, 0, sourceLength, 0);
+            for (int k = 0; k < numShadow; k++) {
+                shadowIDArray[shadowIndex[k]] = 1;
             }
             //find continuous cluster
-
-            FindContinuousAreas testContinuousShadow = new FindContinuousAreas(test);
-            Map<Integer, List<Integer>> listShadowID = testContinuousShadow.computeAreaID(width, height, shadowIDArray, false);
-            if (listShadowID.size() > 1) {
-                Map<Integer, Integer> meanOffsetClust = new HashMap<>();
-
-                //calculate mean offset and mean Refl for each of the continuous shadow areas from the clustering
-                for (int i : listShadowID.keySet()) {
-
-                    List<Integer> pos = listShadowID.get(i);
-//                    double meanShadowRefl = 0.;
-                    int meanOffset = 0;
-                    int N = 0;
-                    for (int j : pos) {
-
-                        shadowIDArray[j] = i;
-                        int k = shadowIndex.indexOf(j);
+            final ConnectedComponents shadowAreas = ConnectedComponents.label(shadowIDArray, width, height, false, shadowIDArray);
+            final int numShadowAreas = shadowAreas.getNumComponents();
+            if (numShadowAreas > 1) {
+                // position of each shadow pixel in the shadow list, the first one if it is listed twice
+                for (int k = numShadow - 1; k >= 0; k--) {
+                    pixelSlot[shadowIndex[k]] = k;
+                }
+                //calculate mean offset for each of the continuous shadow areas from the clustering
+                final int[] offsetSum = new int[numShadowAreas + 1];
+                final int[] offsetCount = new int[numShadowAreas + 1];
+                for (int i = 0; i < sourceLength; i++) {
+                    final int areaId = shadowIDArray[i];
+                    if (areaId > 0) {
+                        final int k = pixelSlot[i];
+                        // as ever, the first pixel of the shadow list does not contribute
                         if (k > 0) {
-                            meanOffset += shadowOffset.get(k);
-//                            meanShadowRefl += shadowRefl.get(k);
-                            N += 1;
+                            offsetSum[areaId] += shadowOffset[k];
+                            offsetCount[areaId]++;
                         }
                     }
-
-                    if (N > 0) {
-                        meanOffsetClust.put(i, meanOffset / N);
-                    }
-
                 }
-                Map<Integer, Double> clusterTest = new HashMap<>();
-                double minRefl = 0.;
-                for (int i : meanOffsetClust.keySet()) {
+                for (int k = 0; k < numShadow; k++) {
+                    pixelSlot[shadowIndex[k]] = -1;
+                }
 
-                    double meanRefl = computeMeanRefl(cloud, meanOffsetClust.get(i), sourceBand, cloudPath);
-                    clusterTest.put(i, meanRefl);
+                // the areas are visited in ascending order of their IDs,
+                // which is the order the areas had been visited in when they were held in hash maps
+                final int[] meanOffsetClust = new int[numShadowAreas + 1];
+                final double[] clusterTest = new double[numShadowAreas + 1];
+                double minRefl = 0.;
+                for (int i = 1; i <= numShadowAreas; i++) {
+                    if (offsetCount[i] > 0) {
+                        meanOffsetClust[i] = offsetSum[i] / offsetCount[i];
+                        double meanRefl = computeMeanRefl(meanOffsetClust[i], sourceBand);
+                        clusterTest[i] = meanRefl;
 
-                    if (minRefl == 0 || meanRefl < minRefl) minRefl = meanRefl;
+                        if (minRefl == 0 || meanRefl < minRefl) minRefl = meanRefl;
+                    }
                 }
                 if (minRefl > 0) {
                     if (minRefl < meanReflShift) {
-                        for (int index : clusterTest.keySet()) {
-                            if (clusterTest.get(index) == minRefl) {
-                                int offset = meanOffsetClust.get(index);
+                        for (int i = 1; i <= numShadowAreas; i++) {
+                            if (offsetCount[i] > 0 && clusterTest[i] == minRefl) {
+                                int offset = meanOffsetClust[i];
                                 if (offset < 2 * bestOffset) {
                                     //remove flags for shifted shadow for bestOffset
-                                    switchOffShiftedCloudShadowFlag(cloud, bestOffset, cloudPath);
+                                    switchOffShiftedCloudShadowFlag(bestOffset);
                                     //add flags for shifted shadow for this offset.
-                                    setShiftedCloudShadowFlag(cloud, offset, cloudPath);
+                                    setShiftedCloudShadowFlag(offset);
                                 }
                             }
                         }
@@ -708,8 +612,15 @@ class CloudShadowFlaggerCombination {
 
     interface AnalyzerMode {
 
+        /**
+         * Allocates the arrays for the potential shadow pixels of a cloud, once per tile.
+         *
+         * @param size - the maximum number of potential shadow pixels of a cloud in the tile
+         */
         void initArrays(int size);
 
+        void startCloud();
+
         void doIterationStep(int index, int offset);
 
         void doCloudShadowAnalysis(int minNumberMemberCluster, int[] shadowIDArray, float[] sourceBand);
@@ -747,12 +658,13 @@ class CloudShadowFlaggerCombination {
             arrayIndexes = new int[2][size];
             arrayOffsets = new int[2][size];
             minArrayBands = new double[2];
+        }
+
+        @Override
+        public void startCloud() {
             counterA = 0;
             counterB = 0;
             for (int i = 0; i < 2; i++) {
-                Arrays.fill(arrayBands[i], Double.NaN);
-                Arrays.fill(arrayIndexes[i], -1);
-                Arrays.fill(arrayOffsets[i], -1);
                 minArrayBands[i] = Double.MAX_VALUE;
             }
         }
@@ -823,12 +735,11 @@ class CloudShadowFlaggerCombination {
             arrayBandB = new double[size];
             arrayIndexes = new int[size];
             arrayOffsets = new int[size];
-            counter = 0;
-            Arrays.fill(arrayBandA, Double.NaN);
-            Arrays.fill(arrayBandB, Double.NaN);
-            Arrays.fill(arrayIndexes, -1);
-            Arrays.fill(arrayOffsets, -1);
+        }
 
+        @Override
+        public void startCloud() {
+            counter = 0;
             minArrayBandA = Double.MAX_VALUE;
             minArrayBandB = Double.MAX_VALUE;
             minArrayBandAB = Double.MAX_VALUE;
@@ -883,9 +794,11 @@ class CloudShadowFlaggerCombination {
             arrayBandA = new double[size];
             arrayIndexes = new int[size];
             arrayOffsets = new int[size];
+        }
+
+        @Override
+        public void startCloud() {
             counter = 0;
-            Arrays.fill(arrayBandA, Double.NaN);
-            Arrays.fill(arrayIndexes, -1);
             minArrayBandA = Double.MAX_VALUE;
         }
 
@@ -1,15 +1,12 @@
 package org.esa.snap.idepix.s2msi.operators.cloudshadow;
 
+import org.esa.snap.idepix.core.util.ConnectedComponents;
 import org.esa.snap.idepix.s2msi.operators.cloudshadow.fft.PhaseFilter;
 import org.esa.snap.core.util.SystemUtils;
 import org.jblas.ComplexDoubleMatrix;
 import org.jblas.DoubleMatrix;
 
 import java.awt.*;
-import java.awt.geom.Point2D;
-import java.util.ArrayList;
-import java.util.Map;
-import java.util.List;
 import java.util.logging.Logger;
 
 class CloudShadowFlaggerShiftInCloudGaps {
@@ -18,16 +15,16 @@ class CloudShadowFlaggerShiftInCloudGaps {
 
     private int[] flagArray;
 
-    void setShiftedCloudInCloudGaps(Rectangle sourceRectangle, int[] flagArray, Map<Integer, List<Integer>> cloudList,
+    void setShiftedCloudInCloudGaps(Rectangle sourceRectangle, int[] flagArray, ConnectedComponents clouds,
                                            double[] cloudTestArray, double spatialResolution) {
         int sourceWidth = sourceRectangle.width;
         int sourceHeight = sourceRectangle.height;
         this.flagArray = flagArray;
-        if (cloudList.size() > 0) {
+        if (clouds.getNumComponents() > 0) {
             DoubleMatrix cloudFlag = DoubleMatrix.zeros(sourceWidth, sourceHeight);
-            for (int key : cloudList.keySet()) {
-                List<Integer> positions = cloudList.get(key);
-                for (int index : positions) {
+            final int[] cloudLabels = clouds.getLabels();
+            for (int index = 0; index < sourceWidth * sourceHeight; index++) {
+                if (cloudLabels[index] > 0) {
                     cloudFlag.put(index, 1.);
                 }
             }
@@ -60,8 +57,8 @@ class CloudShadowFlaggerShiftInCloudGaps {
             }
             FindContinuousAreas testContinuousShadow = new FindContinuousAreas(shifted);
             int[] shadowIDArray = new int[sourceWidth * sourceHeight];
-            Map<Integer, List<Integer>> shiftedShadowTileID =
-                    testContinuousShadow.computeAreaID(sourceWidth, sourceHeight, shadowIDArray, false);
+            final ConnectedComponents shiftedShadowTileID =
+                    testContinuousShadow.computeAreas(sourceWidth, sourceHeight, shadowIDArray, false);
 
             setCoincidingShiftedCloudShadowWithCloudGaps(shiftedShadowTileID, cloudTestArray);
 
@@ -70,32 +67,29 @@ class CloudShadowFlaggerShiftInCloudGaps {
     }
 
 
-    private void setCoincidingShiftedCloudShadowWithCloudGaps(Map<Integer, List<Integer>> shiftedShadowTileID, double[] cloudGaps) {
+    private void setCoincidingShiftedCloudShadowWithCloudGaps(ConnectedComponents shiftedShadowTileID, double[] cloudGaps) {
         //if a continuous shifted shadow coincides with a cloud gap, keep it.
-        List<Integer> coincideKey = new ArrayList<>();
-        if (shiftedShadowTileID.size() > 0) {
-            for (int key : shiftedShadowTileID.keySet()) {
-                List<Integer> positions = shiftedShadowTileID.get(key);
-                for (Integer position : positions) {
-                    int ind = position;
-                    if (((flagArray[ind] & PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG) == PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG)
-                            && (cloudGaps[ind] < -0.1)) {
-                        coincideKey.add(key);
-                        break;
-                    }
+        final int numAreas = shiftedShadowTileID.getNumComponents();
+        if (numAreas > 0) {
+            final int[] shadowIDs = shiftedShadowTileID.getLabels();
+            final boolean[] coincide = new boolean[numAreas + 1];
+            boolean anyCoincide = false;
+            for (int ind = 0; ind < shadowIDs.length; ind++) {
+                if (shadowIDs[ind] > 0 &&
+                        ((flagArray[ind] & PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG) == PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG)
+                        && (cloudGaps[ind] < -0.1)) {
+                    coincide[shadowIDs[ind]] = true;
+                    anyCoincide = true;
                 }
             }
-            if (coincideKey.size() > 0) {
-                for (int key : coincideKey) {
-                    List<Integer> positions = shiftedShadowTileID.get(key);
-                    for (int index1 : positions) {
-                        if (!((flagArray[index1] & PreparationMaskBand.SHIFTED_CLOUD_SHADOW_GAPS_FLAG) == PreparationMaskBand.SHIFTED_CLOUD_SHADOW_GAPS_FLAG) &&
-                                !((flagArray[index1] & PreparationMaskBand.CLOUD_FLAG) == PreparationMaskBand.CLOUD_FLAG) &&
-                                !((flagArray[index1] & PreparationMaskBand.INVALID_FLAG) == PreparationMaskBand.INVALID_FLAG)) {
-                            flagArray[index1] += PreparationMaskBand.SHIFTED_CLOUD_SHADOW_GAPS_FLAG;
-                        }
+            if (anyCoincide) {
+                for (int index1 = 0; index1 < shadowIDs.length; index1++) {
+                    if (coincide[shadowIDs[index1]] &&
+                            !((flagArray[index1] & PreparationMaskBand.SHIFTED_CLOUD_SHADOW_GAPS_FLAG) == PreparationMaskBand.SHIFTED_CLOUD_SHADOW_GAPS_FLAG) &&
+                            !((flagArray[index1] & PreparationMaskBand.CLOUD_FLAG) == PreparationMaskBand.CLOUD_FLAG) &&
+                            !((flagArray[index1] & PreparationMaskBand.INVALID_FLAG) == PreparationMaskBand.INVALID_FLAG)) {
+                        flagArray[index1] += PreparationMaskBand.SHIFTED_CLOUD_SHADOW_GAPS_FLAG;
                     }
-
                 }
             }
         }
@@ -0,0 +1,80 @@
+package org.esa.snap.idepix.s2msi.operators.cloudshadow;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The statistics which {@link S2IdepixPreCloudShadowOp} collects per tile, held in one slot per tile of the
+ * target product. A tile is computed by one thread which writes only to the slots of this tile, so no locking
+ * is needed. The results are read after all tiles have been computed and are returned in tile order, which
+ * makes any merge of them independent of the order in which the tiles have been computed.
+ */
+class CloudShadowTileStatistics {
+
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int numXTiles;
+    private final double[][][] meanReflPerTile;
+    private final int[] nCloudOverLand;
+    private final int[] nCloudOverWater;
+    private final int[] nValidPixel;
+
+    CloudShadowTileStatistics(int sceneWidth, int sceneHeight, Dimension tileSize) {
+        tileWidth = tileSize.width;
+        tileHeight = tileSize.height;
+        numXTiles = (sceneWidth + tileWidth - 1) / tileWidth;
+        final int numTiles = numXTiles * ((sceneHeight + tileHeight - 1) / tileHeight);
+        meanReflPerTile = new double[numTiles][][];
+        nCloudOverLand = new int[numTiles];
+        nCloudOverWater = new int[numTiles];
+        nValidPixel = new int[numTiles];
+    }
+
+    int getTileIndex(Rectangle tileRectangle) {
+        return (tileRectangle.y / tileHeight) * numXTiles + tileRectangle.x / tileWidth;
+    }
+
+    void setTileStatistics(Rectangle tileRectangle, double[][] meanRefl, int cloudOverLand, int cloudOverWater,
+                           int validPixel) {
+        final int tileIndex = getTileIndex(tileRectangle);
+        nCloudOverLand[tileIndex] = cloudOverLand;
+        nCloudOverWater[tileIndex] = cloudOverWater;
+        nValidPixel[tileIndex] = validPixel;
+        meanReflPerTile[tileIndex] = meanRefl;
+    }
+
+    Map<Integer, double[][]> getMeanReflPerTile() {
+        final Map<Integer, double[][]> map = new LinkedHashMap<>();
+        for (int i = 0; i < meanReflPerTile.length; i++) {
+            if (meanReflPerTile[i] != null) {
+                map.put(i, meanReflPerTile[i]);
+            }
+        }
+        return map;
+    }
+
+    Map<Integer, Integer> getNCloudOverLandPerTile() {
+        return toMap(nCloudOverLand);
+    }
+
+    Map<Integer, Integer> getNCloudOverWaterPerTile() {
+        return toMap(nCloudOverWater);
+    }
+
+    Map<Integer, Integer> getNValidPixelPerTile() {
+        return toMap(nValidPixel);
+    }
+
+    // only tiles which have been computed, i.e. which are not completely invalid
+    private Map<Integer, Integer> toMap(int[] values) {
+        final Map<Integer, Integer> map = new LinkedHashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            if (meanReflPerTile[i] != null) {
+                map.put(i, values[i]);
+            }
+        }
+        return map;
+    }
+}
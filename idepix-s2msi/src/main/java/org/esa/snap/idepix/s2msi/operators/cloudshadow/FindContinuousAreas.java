@@ -1,12 +1,10 @@
 package org.esa.snap.idepix.s2msi.operators.cloudshadow;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import org.esa.snap.idepix.core.util.ConnectedComponents;
 
 /**
- * todo: add comment
+ * Identifies continuous areas (4-connected) of cloud or shadow pixels and numbers them.
+ * The labelling itself is done by {@link ConnectedComponents}.
  */
 class FindContinuousAreas {
 
@@ -16,317 +14,24 @@ class FindContinuousAreas {
         this.flagArray = flagArray;
     }
 
-    Map<Integer, List<Integer>> computeAreaID(int sourceWidth, int sourceHeight, int[] cloudIdArray, boolean useFlagBand) {
-
-        int id = 0;
-        Map<Integer, List<Integer>> output = new TreeMap<>();
-
-        //first pixel (top left)
-        if (isTarget(0, useFlagBand)) {
-            cloudIdArray[0] = ++id;
-        }
-
-        // first row (top row)
-        for (int i = 1; i < sourceWidth; i++) {
-            if (isTarget(i, useFlagBand)) {
-                if (cloudIdArray[i - 1] != 0) {
-                    cloudIdArray[i] = cloudIdArray[i - 1];
-                } else {
-                    cloudIdArray[i] = ++id;
-                }
-            }
-        }
-
-        for (int j = 1; j < sourceHeight; j++) {
-            for (int i = 0; i < sourceWidth; i++) {
-                int index = j * (sourceWidth) + i;
-                if (isTarget(index, useFlagBand)) {
-                    int leftNeighbour = cloudIdArray[index - 1];
-                    int upperNeighbour = cloudIdArray[index - sourceWidth];
-                    if (i == 0) {
-                        if (upperNeighbour == 0) {
-                            cloudIdArray[index] = ++id;
-                        } else {
-                            cloudIdArray[index] = upperNeighbour;
-                        }
-                    } else if (leftNeighbour == 0 && upperNeighbour == 0) {
-                        cloudIdArray[index] = ++id;
-                    } else if (upperNeighbour == 0 || leftNeighbour == upperNeighbour) {
-                        cloudIdArray[index] = leftNeighbour;
-                    } else if (leftNeighbour == 0) {
-                        cloudIdArray[index] = upperNeighbour;
-                    } else {
-                        cloudIdArray[index] = upperNeighbour;
-                    }
-                }
-            }
-        }
-        //adjusting the numbering by using the other direction (from bottom upwards).
-        for (int j = sourceHeight - 2; j >= 0; j--) {
-            for (int i = sourceWidth - 2; i >= 0; i--) {
-                int index = j * (sourceWidth) + i;
-
-                if (isTarget(index, useFlagBand)) {
-                    int rightNeighbour = cloudIdArray[index + 1];
-
-                    if (rightNeighbour > 0) {
-                        cloudIdArray[index] = rightNeighbour;
-                    }
-
-                }
-            }
+    /**
+     * Labels the continuous areas.
+     *
+     * @param sourceWidth  - the width of the source rectangle
+     * @param sourceHeight - the height of the source rectangle
+     * @param cloudIdArray - filled with the area IDs, 0 for pixels not belonging to an area
+     * @param useFlagBand  - if true, areas are made of valid cloud pixels of the preparation mask,
+     *                     otherwise of pixels with flag value 1
+     * @return the labelling
+     */
+    ConnectedComponents computeAreas(int sourceWidth, int sourceHeight, int[] cloudIdArray, boolean useFlagBand) {
+        final int sourceLength = sourceWidth * sourceHeight;
+        for (int index = 0; index < sourceLength; index++) {
+            cloudIdArray[index] = isTarget(index, useFlagBand) ? 1 : 0;
         }
-
-        int count = 1;
-        int k = 0;
-
-        //reverting directions during the search repeatedly allows to identify spiraling areas as continuous areas.
-        while (count > 0 && k < 10) {    //test in all four next neighbours, from bottom right to top left
-            count = 0;
-            for (int j = sourceHeight - 2; j > 0; j--) {
-                for (int i = sourceWidth - 2; i > 0; i--) {
-                    int index = j * (sourceWidth) + i;
-
-                    if (isTarget(index, useFlagBand)) {
-                        int lowerNeighbour = cloudIdArray[index + sourceWidth];
-                        int upperNeighbour = cloudIdArray[index - sourceWidth];
-                        int leftNeighbour = cloudIdArray[index - 1];
-                        int rightNeighbour = cloudIdArray[index + 1];
-                        int center = cloudIdArray[index];
-
-                        int thisMax = lowerNeighbour;
-                        if (leftNeighbour > thisMax) thisMax = leftNeighbour;
-                        if (rightNeighbour > thisMax) thisMax = rightNeighbour;
-                        if (upperNeighbour > thisMax) thisMax = upperNeighbour;
-                        if (center > thisMax) thisMax = center;
-
-                        if (center < thisMax) {
-                            cloudIdArray[index] = thisMax;
-                            count++;
-                        } else if (lowerNeighbour > 0 && lowerNeighbour < thisMax) {
-                            cloudIdArray[index + sourceWidth] = thisMax;
-                            count++;
-                        } else if (upperNeighbour > 0 && upperNeighbour < thisMax) {
-                            cloudIdArray[index - sourceWidth] = thisMax;
-                            count++;
-                        } else if (leftNeighbour > 0 && leftNeighbour < thisMax) {
-                            cloudIdArray[index - 1] = thisMax;
-                            count++;
-                        } else if (rightNeighbour > 0 && rightNeighbour < thisMax) {
-                            cloudIdArray[index + 1] = thisMax;
-                            count++;
-                        }
-                    }
-                }
-            }
-            //test in all four next neighbours, from top left to bottom right (reversed to the iterations before)
-            for (int j = 1; j < sourceHeight - 2; j++) {
-                for (int i = 1; i < sourceWidth - 2; i++) {
-                    int index = j * (sourceWidth) + i;
-                    if (isTarget(index, useFlagBand)) {
-                        int lowerNeighbour = cloudIdArray[index + sourceWidth];
-                        int upperNeighbour = cloudIdArray[index - sourceWidth];
-                        int leftNeighbour = cloudIdArray[index - 1];
-                        int rightNeighbour = cloudIdArray[index + 1];
-
-                        int thisMax = lowerNeighbour;
-                        if (leftNeighbour > thisMax) thisMax = leftNeighbour;
-                        if (rightNeighbour > thisMax) thisMax = rightNeighbour;
-                        if (upperNeighbour > thisMax) thisMax = upperNeighbour;
-                        int center = cloudIdArray[index];
-
-                        if (center < thisMax) {
-                            cloudIdArray[index] = thisMax;
-                            count++;
-                        } else if (lowerNeighbour > 0 && lowerNeighbour < thisMax) {
-                            cloudIdArray[index + sourceWidth] = thisMax;
-                            count++;
-                        } else if (upperNeighbour > 0 && upperNeighbour < thisMax) {
-                            cloudIdArray[index - sourceWidth] = thisMax;
-                            count++;
-                        } else if (leftNeighbour > 0 && leftNeighbour < thisMax) {
-                            cloudIdArray[index - 1] = thisMax;
-                            count++;
-                        } else if (rightNeighbour > 0 && rightNeighbour < thisMax) {
-                            cloudIdArray[index + 1] = thisMax;
-                            count++;
-                        }
-                    }
-                }
-            }
-            //correct edges; at i=0 and i=sourceWidth-1
-            for (int j = 0; j < sourceHeight; j++) {
-                int index1 = j * (sourceWidth);
-                int index2 = j * (sourceWidth) + sourceWidth - 1;
-                if (isTarget(index1, useFlagBand)) {
-
-                    int rightNeighbour = cloudIdArray[index1 + 1];
-                    int center = cloudIdArray[index1];
-
-                    if (sourceHeight == 1) {
-                        int thisMax = rightNeighbour;
-                        if (center > thisMax) thisMax = center;
-                        if (center < thisMax) {
-                            cloudIdArray[index1] = thisMax;
-                            count++;
-                        } else if (rightNeighbour > 0 && rightNeighbour < thisMax) {
-                            cloudIdArray[index1 + 1] = thisMax;
-                            count++;
-                        }
-                    } else if (j == 0 && sourceHeight > 1) {
-                        int lowerNeighbour = cloudIdArray[index1 + sourceWidth];
-
-                        int thisMax = lowerNeighbour;
-                        if (rightNeighbour > thisMax) thisMax = rightNeighbour;
-                        if (center > thisMax) thisMax = center;
-
-                        if (center < thisMax) {
-                            cloudIdArray[index1] = thisMax;
-                            count++;
-                        } else if (rightNeighbour > 0 && rightNeighbour < thisMax) {
-                            cloudIdArray[index1 + 1] = thisMax;
-                            count++;
-                        } else if (lowerNeighbour > 0 && lowerNeighbour < thisMax) {
-                            cloudIdArray[index1 + sourceWidth] = thisMax;
-                            count++;
-                        }
-                    } else if (j == sourceHeight - 1 && sourceHeight > 1) {
-                        int upperNeighbour = cloudIdArray[index1 - sourceWidth];
-
-                        int thisMax = upperNeighbour;
-                        if (rightNeighbour > thisMax) thisMax = rightNeighbour;
-                        if (center > thisMax) thisMax = center;
-
-                        if (center < thisMax) {
-                            cloudIdArray[index1] = thisMax;
-                            count++;
-                        } else if (rightNeighbour > 0 && rightNeighbour < thisMax) {
-                            cloudIdArray[index1 + 1] = thisMax;
-                            count++;
-                        } else if (upperNeighbour > 0 && upperNeighbour < thisMax) {
-                            cloudIdArray[index1 - sourceWidth] = thisMax;
-                            count++;
-                        }
-                    } else {
-                        int lowerNeighbour = cloudIdArray[index1 + sourceWidth];
-                        int upperNeighbour = cloudIdArray[index1 - sourceWidth];
-
-                        int thisMax = lowerNeighbour;
-                        if (rightNeighbour > thisMax) thisMax = rightNeighbour;
-                        if (upperNeighbour > thisMax) thisMax = upperNeighbour;
-                        if (center > thisMax) thisMax = center;
-
-                        if (center < thisMax) {
-                            cloudIdArray[index1] = thisMax;
-                            count++;
-                        } else if (rightNeighbour > 0 && rightNeighbour < thisMax) {
-                            cloudIdArray[index1 + 1] = thisMax;
-                            count++;
-                        } else if (lowerNeighbour > 0 && lowerNeighbour < thisMax) {
-                            cloudIdArray[index1 + sourceWidth] = thisMax;
-                            count++;
-                        } else if (upperNeighbour > 0 && upperNeighbour < thisMax) {
-                            cloudIdArray[index1 - sourceWidth] = thisMax;
-                            count++;
-                        }
-                    }
-                }
-                if (isTarget(index2, useFlagBand)) {
-                    int leftNeighbour = cloudIdArray[index2 - 1];
-                    int center = cloudIdArray[index2];
-                    if (sourceHeight == 1) {
-                        int thisMax = leftNeighbour;
-                        if (center > thisMax) thisMax = center;
-                        if (center < thisMax) {
-                            cloudIdArray[index2] = thisMax;
-                            count++;
-                        } else if (leftNeighbour > 0 && leftNeighbour < thisMax) {
-                            cloudIdArray[index2 - 1] = thisMax;
-                            count++;
-                        }
-                    } else if (j == 0) {
-                        int lowerNeighbour = cloudIdArray[index2 + sourceWidth];
-
-                        int thisMax = lowerNeighbour;
-                        if (leftNeighbour > thisMax) thisMax = leftNeighbour;
-                        if (center > thisMax) thisMax = center;
-
-                        if (center < thisMax) {
-                            cloudIdArray[index2] = thisMax;
-                            count++;
-                        } else if (leftNeighbour > 0 && leftNeighbour < thisMax) {
-                            cloudIdArray[index2 - 1] = thisMax;
-                            count++;
-                        } else if (lowerNeighbour > 0 && lowerNeighbour < thisMax) {
-                            cloudIdArray[index2 + sourceWidth] = thisMax;
-                            count++;
-                        }
-                    } else if (j == sourceHeight - 1) {
-                        int upperNeighbour = cloudIdArray[index2 - sourceWidth];
-
-                        int thisMax = upperNeighbour;
-                        if (leftNeighbour > thisMax) thisMax = leftNeighbour;
-                        if (center > thisMax) thisMax = center;
-
-                        if (center < thisMax) {
-                            cloudIdArray[index2] = thisMax;
-                            count++;
-                        } else if (leftNeighbour > 0 && leftNeighbour < thisMax) {
-                            cloudIdArray[index2 - 1] = thisMax;
-                            count++;
-                        } else if (upperNeighbour > 0 && upperNeighbour < thisMax) {
-                            cloudIdArray[index2 - sourceWidth] = thisMax;
-                            count++;
-                        }
-                    } else {
-                        int lowerNeighbour = cloudIdArray[index2 + sourceWidth];
-                        int upperNeighbour = cloudIdArray[index2 - sourceWidth];
-
-                        int thisMax = lowerNeighbour;
-                        if (leftNeighbour > thisMax) thisMax = leftNeighbour;
-                        if (upperNeighbour > thisMax) thisMax = upperNeighbour;
-                        if (center > thisMax) thisMax = center;
-
-                        if (center < thisMax) {
-                            cloudIdArray[index2] = thisMax;
-                            count++;
-                        } else if (leftNeighbour > 0 && leftNeighbour < thisMax) {
-                            cloudIdArray[index2 - 1] = thisMax;
-                            count++;
-                        } else if (lowerNeighbour > 0 && lowerNeighbour < thisMax) {
-                            cloudIdArray[index2 + sourceWidth] = thisMax;
-                            count++;
-                        } else if (upperNeighbour > 0 && upperNeighbour < thisMax) {
-                            cloudIdArray[index2 - sourceWidth] = thisMax;
-                            count++;
-                        }
-                    }
-                }
-            }
-            k++;
-        }
-        // setting up the output list.
-        for (int j = 0; j < sourceHeight; j++) {
-            for (int i = 0; i < sourceWidth; i++) {
-                int index = j * (sourceWidth) + i;
-                List<Integer> positions;
-                int currentCloudId = cloudIdArray[index];
-                if (currentCloudId > 0) {
-                    if (output.containsKey(currentCloudId)) {
-                        positions = output.get(currentCloudId);
-                    } else {
-                        positions = new ArrayList<>();
-                        output.put(currentCloudId, positions);
-                    }
-                    positions.add(index);
-                }
-            }
-        }
-
-        return output;
+        return ConnectedComponents.label(cloudIdArray, sourceWidth, sourceHeight, false, cloudIdArray);
     }
 
-
     private boolean isTarget(int index, boolean usePreparationBand) {
         if (usePreparationBand) {
             return ((flagArray[index] & PreparationMaskBand.CLOUD_FLAG) == PreparationMaskBand.CLOUD_FLAG) &&
@@ -335,5 +40,3 @@ class FindContinuousAreas {
 
     }
 }
-
-
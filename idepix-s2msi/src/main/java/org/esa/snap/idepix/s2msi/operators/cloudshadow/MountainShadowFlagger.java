@@ -14,7 +14,8 @@ class MountainShadowFlagger {
     private static final boolean SHADOW_ADAPTER_SZA = true;
 
     static void flagMountainShadowArea(Rectangle sourceRectangle, float sourceSunZenith, float[] sourceAltitude,
-                                       int[] flagArray, float minAltitude, float maxAltitude, Point2D[] relativePath) {
+                                       int[] flagArray, float minAltitude, float maxAltitude, Point2D[] relativePath,
+                                       double spatialResolution) {
         final int sourceWidth = sourceRectangle.width;
         final int sourceHeight = sourceRectangle.height;
         //GK: SunZenith is reduced to find more than the core shadow.
@@ -31,7 +32,7 @@ class MountainShadowFlagger {
             return;
         }
         final double[] relativeMinMountainHeights = getRelativeMinMountainHeights(relativePath,
-                S2IdepixPreCloudShadowOp.spatialResolution,
+                spatialResolution,
                 sunZenithRad);
         if (maxAltitude - minAltitude < relativeMinMountainHeights[0]) {
             return;
@@ -21,6 +21,8 @@ import org.esa.snap.core.gpf.annotations.TargetProduct;
 import org.esa.snap.core.util.BitSetter;
 import org.esa.snap.core.util.ProductUtils;
 import org.esa.snap.core.util.math.MathUtils;
+import org.esa.snap.idepix.core.util.ConnectedComponents;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 import org.esa.snap.idepix.s2msi.util.S2IdepixConstants;
 import org.esa.snap.idepix.s2msi.util.S2IdepixUtils;
 
@@ -66,6 +68,9 @@ public class S2IdepixPostCloudShadowOp extends Operator {
     @Parameter(description = "Offset along cloud path to minimum reflectance (over all tiles)", defaultValue = "0")
     private int bestOffset;
 
+    // if set, provides the best offset instead of the parameter
+    private BestOffsetProvider bestOffsetProvider;
+
     // hidden parameter, may be set to true for mosaics with larger invalid areas
     private boolean skipInvalidTiles;
 
@@ -90,11 +95,11 @@ public class S2IdepixPostCloudShadowOp extends Operator {
     private Band targetBandShadowID;
     private Band targetBandCloudTest;
 
-    private static int maxcloudTop = 10000;
+    private int maxcloudTop = S2IdepixPreCloudShadowOp.maxcloudTop;
     //for calculating a single cloud path
     private float minAltitude = 0;
 
-    private static double spatialResolution;  //[m]
+    private double spatialResolution;  //[m]
     static int clusterCountDefine = 4;
     private static final String sourceBandNameClusterA = "B8A";
     private static final String sourceBandNameClusterB = "B3";
@@ -181,6 +186,14 @@ public class S2IdepixPostCloudShadowOp extends Operator {
         }
     }
 
+    void setBestOffsetProvider(BestOffsetProvider bestOffsetProvider) {
+        this.bestOffsetProvider = bestOffsetProvider;
+    }
+
+    private int getBestOffset() {
+        return bestOffsetProvider != null ? bestOffsetProvider.getBestOffset() : bestOffset;
+    }
+
     private int setCloudTopHeigh(double lat) {
         return (int) Math.ceil(0.5 * Math.pow(90. - Math.abs(lat), 2.) + (90. - Math.abs(lat)) * 25 + 5000);
     }
@@ -282,6 +295,15 @@ public class S2IdepixPostCloudShadowOp extends Operator {
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetRectangle);
+        try {
+            computeTileStackImpl(targetTiles, targetRectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws OperatorException {
         final float[] targetAltitude = getSamples(sourceAltitude, targetRectangle);
         final List<Float> altitudes = Arrays.asList(ArrayUtils.toObject(targetAltitude));
         final Point2D[] cloudShadowRelativePath = CloudShadowUtils.getRelativePath(
@@ -344,14 +366,16 @@ public class S2IdepixPostCloudShadowOp extends Operator {
                 maxAltitude = 0;
             }
             MountainShadowFlagger.flagMountainShadowArea(sourceRectangle, sunZenithMean, altitude, flagArray,
-                    minAltitude, maxAltitude, cloudShadowRelativePath);
+                    minAltitude, maxAltitude, cloudShadowRelativePath, spatialResolution);
         }
 
         final FindContinuousAreas cloudIdentifier = new FindContinuousAreas(flagArray);
-        Map<Integer, List<Integer>> cloudList =
-                cloudIdentifier.computeAreaID(sourceWidth, sourceHeight, cloudIDArray, true);
+        final ConnectedComponents clouds =
+                cloudIdentifier.computeAreas(sourceWidth, sourceHeight, cloudIDArray, true);
 
-        if (cloudList.size() > 0) {
+        if (clouds.getNumComponents() > 0) {
+            // only tiles with clouds need the offset, which may trigger the pass over all tiles
+            final int bestOffset = getBestOffset();
             /*
             /   Clustering can be separated: potential cloud shadow over water, and over land.
             /   potentialShadowPositions: Collection of List of integers, which hold the index of potential cloud shadow pixels for each cloudID.
@@ -375,7 +399,7 @@ public class S2IdepixPostCloudShadowOp extends Operator {
             // shifting the shadow is done before and a correction is included, if bestOffset > 0
             final CloudShadowFlaggerCombination cloudShadowFlagger = new CloudShadowFlaggerCombination();
             cloudShadowFlagger.flagCloudShadowAreas(clusterData, flagArray, potentialShadowPositions,
-                    offsetAtPotentialShadow, cloudList, bestOffset, analysisMode, sourceWidth, sourceHeight,
+                    offsetAtPotentialShadow, clouds, bestOffset, analysisMode, sourceWidth, sourceHeight,
                     shadowIDArray, cloudShadowRelativePath);
 
             // shifted cloud mask in cloud gaps.
@@ -384,7 +408,7 @@ public class S2IdepixPostCloudShadowOp extends Operator {
             int blockSize = 2 * (int) Math.ceil(kernelRadius / spatialResolution) + 1;
             if (bestOffset > 0 && blockSize < Math.min(sourceHeight, sourceWidth)) {
                 final CloudShadowFlaggerShiftInCloudGaps test = new CloudShadowFlaggerShiftInCloudGaps();
-                test.setShiftedCloudInCloudGaps(sourceRectangle, flagArray, cloudList, cloudTestArray, spatialResolution);
+                test.setShiftedCloudInCloudGaps(sourceRectangle, flagArray, clouds, cloudTestArray, spatialResolution);
 
             }
             RecommendedCloudShadowFlagger.setRecommendedCloudShadowFlag(bestOffset, flagArray, sourceRectangle);
@@ -20,13 +20,14 @@ import org.esa.snap.core.gpf.annotations.TargetProduct;
 import org.esa.snap.core.util.BitSetter;
 import org.esa.snap.core.util.ProductUtils;
 import org.esa.snap.core.util.math.MathUtils;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 import org.esa.snap.idepix.s2msi.util.S2IdepixUtils;
 
 import javax.media.jai.BorderExtenderConstant;
 import java.awt.Color;
 import java.awt.Rectangle;
 import java.awt.geom.Point2D;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.Map;
 
 /**
@@ -67,21 +68,19 @@ public class S2IdepixPreCloudShadowOp extends Operator {
 
     private Band sourceBandFlag1;
 
-    static int mincloudBase = 100;
-    static int maxcloudTop = 10000;
+    static final int mincloudBase = 100;
+    static final int maxcloudTop = 10000;
+    // cloud top height for the latitude of the product
+    private int cloudTopHeight = maxcloudTop;
     //for calculating a single cloud path
     private float minAltitude = 0;
 
-    //map for the different tiles: meanReflectance per offset.
-    private final Map<Integer, double[][]> meanReflPerTile = new HashMap<>();
-    private final Map<Integer, Integer> NCloudOverLand = new HashMap<>();
-    private final Map<Integer, Integer> NCloudOverWater = new HashMap<>();
-    private final Map<Integer, Integer> NValidPixelTile = new HashMap<>();
+    // the statistics for the different tiles, e.g. meanReflectance per offset; created with the first tile
+    private volatile CloudShadowTileStatistics tileStatistics;
 
-    static double spatialResolution;  //[m]
+    private double spatialResolution;  //[m]
     static int clusterCountDefine = 4;
-    static double OUTLIER_THRESHOLD = 0.94;
-    static int searchBorderRadius;
+    static final double OUTLIER_THRESHOLD = 0.94;
     private static final String sourceBandNameClusterA = "B8A";
     private static final String sourceBandNameClusterB = "B3";
     private static final String sourceFlagName1 = "pixel_classif_flags";
@@ -129,7 +128,7 @@ public class S2IdepixPreCloudShadowOp extends Operator {
 
         final GeoPos centerGeoPos =
                 S2IdepixUtils.getCenterGeoPos(s2BandsProduct);
-        maxcloudTop = setCloudTopHeight(centerGeoPos.getLat());
+        cloudTopHeight = setCloudTopHeight(centerGeoPos.getLat());
 
         //create a single potential cloud path for the granule.
         minAltitude = 0;
@@ -140,9 +139,6 @@ public class S2IdepixPreCloudShadowOp extends Operator {
         setupBitmasks(targetProduct);
 
         spatialResolution = S2IdepixUtils.determineResolution(getSourceProduct());
-
-        int cacheSize = Integer.parseInt(System.getProperty(S2IdepixUtils.TILECACHE_2_PROPERTY, "600"));
-        targetProduct = S2IdepixUtils.computeTileCacheProduct(targetProduct, cacheSize);
     }
 
     double determineSearchBorderRadius(double spatialResolution, double maxSunZenith) {
@@ -161,9 +157,18 @@ public class S2IdepixPreCloudShadowOp extends Operator {
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetRectangle);
+        try {
+            computeTileStackImpl(targetTiles, targetRectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle targetRectangle, ProgressMonitor pm) throws OperatorException {
         //here: cloud path is calculated for center pixel sunZenith and sunAzimuth. sunAzimuth is corrected with view geometry.
         final Point2D[] cloudShadowRelativePath = CloudShadowUtils.getRelativePath(
-                minAltitude, sunZenithMean * MathUtils.DTOR, sunAzimuthMean * MathUtils.DTOR, maxcloudTop,
+                minAltitude, sunZenithMean * MathUtils.DTOR, sunAzimuthMean * MathUtils.DTOR, cloudTopHeight,
                 targetRectangle, targetRectangle, getSourceProduct().getSceneRasterHeight(),
                 getSourceProduct().getSceneRasterWidth(), spatialResolution, true, false);
 
@@ -209,29 +214,45 @@ public class S2IdepixPreCloudShadowOp extends Operator {
         final CloudBulkShifter cloudBulkShifter = new CloudBulkShifter();
         cloudBulkShifter.shiftCloudBulkAlongCloudPathType(sourceRectangle, targetRectangle, sunAzimuthMean,
                 clusterData, flagArray, cloudShadowRelativePath);
-        int tileId = S2IdepixUtils.calculateTileId(targetRectangle, targetProduct);
-        meanReflPerTile.put(tileId, cloudBulkShifter.getMeanReflectanceAlongPath());
-        NCloudOverLand.put(tileId, cloudBulkShifter.getNCloudOverLand());
-        NCloudOverWater.put(tileId, cloudBulkShifter.getNCloudOverWater());
-        NValidPixelTile.put(tileId, cloudBulkShifter.getNValidPixel());
+        getTileStatistics().setTileStatistics(targetRectangle, cloudBulkShifter.getMeanReflectanceAlongPath(),
+                                              cloudBulkShifter.getNCloudOverLand(),
+                                              cloudBulkShifter.getNCloudOverWater(),
+                                              cloudBulkShifter.getNValidPixel());
+    }
 
+    private CloudShadowTileStatistics getTileStatistics() {
+        CloudShadowTileStatistics statistics = tileStatistics;
+        if (statistics == null) {
+            synchronized (this) {
+                if (tileStatistics == null) {
+                    // the tile size is known not before the first tile is computed
+                    tileStatistics = new CloudShadowTileStatistics(targetProduct.getSceneRasterWidth(),
+                                                                   targetProduct.getSceneRasterHeight(),
+                                                                   targetProduct.getPreferredTileSize());
+                }
+                statistics = tileStatistics;
+            }
+        }
+        return statistics;
     }
 
+    // the statistics getters must only be called after all tiles have been computed
+
     Map<Integer, double[][]> getMeanReflPerTile() {
-        return meanReflPerTile;
+        return tileStatistics != null ? tileStatistics.getMeanReflPerTile() : Collections.emptyMap();
     }
 
     Map<Integer, Integer> getNCloudOverLandPerTile() {
-        return NCloudOverLand;
+        return tileStatistics != null ? tileStatistics.getNCloudOverLandPerTile() : Collections.emptyMap();
     }
 
     Map<Integer, Integer> getNCloudOverWaterPerTile() {
-        return NCloudOverWater;
+        return tileStatistics != null ? tileStatistics.getNCloudOverWaterPerTile() : Collections.emptyMap();
     }
 
     // todo - if this is not used we can stop computing it
     Map<Integer, Integer> getNValidPixelTile() {
-        return NValidPixelTile;
+        return tileStatistics != null ? tileStatistics.getNValidPixelPerTile() : Collections.emptyMap();
     }
 
     private void attachFlagCoding(Band targetBandCloudShadow) {
@@ -4,6 +4,9 @@ import org.jblas.ComplexDouble;
 import org.jblas.ComplexDoubleMatrix;
 import org.jblas.DoubleMatrix;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 import static org.jblas.MatrixFunctions.powi;
 
 public class PhaseFilter {
@@ -11,24 +14,16 @@ public class PhaseFilter {
     // Original in s1tbx: PhaseFilter class for now only aggregates static methods for phase filtering of InSAR data
     // here: reduced to convolution
 
-    private ComplexDoubleMatrix data;
-    private ComplexDoubleMatrix kernel2d_ring;
-    private ComplexDoubleMatrix kernel2d_circle;
+    // the kernels only depend on the radii and the pixel spacing, so they are shared by all tiles and threads
+    private static final Map<String, CircularKernels> KERNELS = new ConcurrentHashMap<>();
 
-    private double[] spacing = new double[2];
+    private ComplexDoubleMatrix data;
+    private final CircularKernels kernels;
 
     public PhaseFilter(ComplexDoubleMatrix data, int blockSize, int overlap, double kernelRadius,
                        double kernelInnerRadius, double[] spacing) {
         this.data = data;
-        setSpacing(spacing);
-
-        this.kernel2d_ring = constructCircularKernel(kernelRadius, kernelInnerRadius);
-        this.kernel2d_circle = constructCircularKernel(kernelRadius, 0.);
-    }
-
-    private void setSpacing(double[] spacing) {
-        this.spacing[0] = spacing[0];
-        this.spacing[1] = spacing[1];
+        this.kernels = getKernels(kernelRadius, kernelInnerRadius, spacing);
     }
 
     public void setData(ComplexDoubleMatrix data) {
@@ -79,8 +74,10 @@ public class PhaseFilter {
         int totalY = data.rows;
         int totalX = data.columns;
         final DoubleMatrix outData = new DoubleMatrix(totalY, totalX);
+        // real and imaginary parts alternate, column by column; only the real part contributes to the result
+        final double[] values = data.data;
 
-        int blockSize = kernel2d_circle.columns;
+        int blockSize = kernels.size;
         int center = (int) Math.ceil(blockSize / 2.) - 1;
 
         // squared block assumed!
@@ -88,256 +85,33 @@ public class PhaseFilter {
         // the position of the filter has to be iterated.
         // Only the central position receives a result.
 
-        // Convolution by hand...
-        //Iteration over all central pixels, which can be at the center of the filter.
-
-
-        for (int x = center; x < totalX - center; x++) {    //column
-            for (int y = center; y < totalY - center; y++) { //row
-
-                ComplexDoubleMatrix block = new ComplexDoubleMatrix(blockSize, blockSize);
-                for (int i = 0; i < blockSize; i++) { //column
-                    for (int j = 0; j < blockSize; j++) { //row
-                        block.put(j, i, data.get(j + y - center, i + x - center));
-                    }
-                }
-
-                ComplexDoubleMatrix block2 = new ComplexDoubleMatrix(blockSize, blockSize);
-                block2.copy(block);
-
-                LinearAlgebraUtils.dotmult_inplace(block, kernel2d_circle);
-                LinearAlgebraUtils.dotmult_inplace(block2, kernel2d_ring);
-
-                outData.put(y, x, block.sum().real() - block2.sum().real());
-            }
-        }
-        // Consider edges. Adjusting size of analysed matrix according to largest possible extent.
-        // todo corners??
-        // left side
-        for (int x = center; x < totalX - center; x++) {    //column
-            for (int y = 0; y < center; y++) { //row
-
-                ComplexDoubleMatrix block = new ComplexDoubleMatrix(center + y, blockSize);
-                ComplexDoubleMatrix filterRing = new ComplexDoubleMatrix(center + y, blockSize);
-                ComplexDoubleMatrix filterCircle = new ComplexDoubleMatrix(center + y, blockSize);
-
-                for (int i = 0; i < blockSize; i++) { //column
-                    for (int j = 0; j < center + y; j++) { //row
-                        block.put(j, i, data.get(j, i + x - center));
-                        filterCircle.put(j, i, kernel2d_circle.get(center - y + j, i));
-                        filterRing.put(j, i, kernel2d_ring.get(center - y + j, i));
-                    }
-                }
-
-                ComplexDoubleMatrix block2 = new ComplexDoubleMatrix(center + y, blockSize);
-                block2.copy(block);
-
-
-                LinearAlgebraUtils.dotmult_inplace(block, filterCircle);
-                LinearAlgebraUtils.dotmult_inplace(block2, filterRing);
-
-                outData.put(y, x, block.sum().real() - block2.sum().real());
-            }
-        }
-        // upper side
-        for (int x = 0; x < center; x++) {    //column
-            for (int y = center; y < totalY - center; y++) { //row
-
-                ComplexDoubleMatrix block = new ComplexDoubleMatrix(blockSize, center + x);
-                ComplexDoubleMatrix filterRing = new ComplexDoubleMatrix(blockSize, center + x);
-                ComplexDoubleMatrix filterCircle = new ComplexDoubleMatrix(blockSize, center + x);
-                for (int i = 0; i < center + x; i++) { //column
-                    for (int j = 0; j < blockSize; j++) { //row
-
-                        block.put(j, i, data.get(j + y - center, i));
-                        filterCircle.put(j, i, kernel2d_circle.get(j, center - x + i));
-                        filterRing.put(j, i, kernel2d_ring.get(j, center - x + i));
-                    }
-                }
-
-                ComplexDoubleMatrix block2 = new ComplexDoubleMatrix(blockSize, center + x);
-                block2.copy(block);
-
-                LinearAlgebraUtils.dotmult_inplace(block, filterCircle);
-                LinearAlgebraUtils.dotmult_inplace(block2, filterRing);
-
-                outData.put(y, x, block.sum().real() - block2.sum().real());
-            }
-        }
-
-        // right side
-        for (int x = center; x < totalX - center; x++) {    //column
-            for (int y = totalY - center; y < totalY; y++) { //row
-
-                ComplexDoubleMatrix block =
-                        new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1, blockSize);
-                ComplexDoubleMatrix filterRing =
-                        new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1, blockSize);
-                ComplexDoubleMatrix filterCircle =
-                        new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1, blockSize);
-
-                for (int i = 0; i < blockSize; i++) { //column
-                    for (int j = 0; j < blockSize - (y - (totalY - center)) - 1; j++) { //row
-                        block.put(j, i, data.get(y + j - center, i + x - center));
-                        filterCircle.put(j, i, kernel2d_circle.get(j, i));
-                        filterRing.put(j, i, kernel2d_ring.get(j, i));
-                    }
-                }
-
-                ComplexDoubleMatrix block2 =
-                        new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1, blockSize);
-                block2.copy(block);
-
-                LinearAlgebraUtils.dotmult_inplace(block, filterCircle);
-                LinearAlgebraUtils.dotmult_inplace(block2, filterRing);
-
-                outData.put(y, x, block.sum().real() - block2.sum().real());
-            }
-        }
-
-        //  bottom side
-        for (int x = totalX - center; x < totalX; x++) {    //column
-            for (int y = center; y < totalY - center; y++) { //row
-
-                ComplexDoubleMatrix block = new ComplexDoubleMatrix(blockSize,
-                        blockSize - (x - (totalX - center)) - 1);
-                ComplexDoubleMatrix filterRing = new ComplexDoubleMatrix(blockSize,
-                        blockSize - (x - (totalX - center)) - 1);
-                ComplexDoubleMatrix filterCircle = new ComplexDoubleMatrix(blockSize,
-                        blockSize - (x - (totalX - center)) - 1);
-
-                for (int i = 0; i < blockSize - (x - (totalX - center)) - 1; i++) { //column
-                    for (int j = 0; j < blockSize; j++) { //row
-                        block.put(j, i, data.get(y + j - center, i + x - center));
-                        filterCircle.put(j, i, kernel2d_circle.get(j, i));
-                        filterRing.put(j, i, kernel2d_ring.get(j, i));
-                    }
-                }
-
-                ComplexDoubleMatrix block2 = new ComplexDoubleMatrix(blockSize,
-                        blockSize - (x - (totalX - center)) - 1);
-                block2.copy(block);
-
-                LinearAlgebraUtils.dotmult_inplace(block, filterCircle);
-                LinearAlgebraUtils.dotmult_inplace(block2, filterRing);
-
-                outData.put(y, x, block.sum().real() - block2.sum().real());
-            }
-        }
-
-        // corners
-        // upper left
-        for (int x = 0; x < center; x++) {    //column
-            for (int y = 0; y < center; y++) { //row
-                ComplexDoubleMatrix block = new ComplexDoubleMatrix(center + y, center + x);
-                ComplexDoubleMatrix filterRing = new ComplexDoubleMatrix(center + y, center + x);
-                ComplexDoubleMatrix filterCircle = new ComplexDoubleMatrix(center + y, center + x);
-
-                for (int i = 0; i < center + x; i++) { //column
-                    for (int j = 0; j < center + y; j++) { //row
-                        block.put(j, i, data.get(j, i));
-                        filterCircle.put(j, i, kernel2d_circle.get(center - y + j, center - x + i));
-                        filterRing.put(j, i, kernel2d_ring.get(center - y + j, center - x + i));
-                    }
-                }
-
-                ComplexDoubleMatrix block2 = new ComplexDoubleMatrix(center + y, center + x);
-                block2.copy(block);
-
-                LinearAlgebraUtils.dotmult_inplace(block, filterCircle);
-                LinearAlgebraUtils.dotmult_inplace(block2, filterRing);
-
-                outData.put(y, x, block.sum().real() - block2.sum().real());
-            }
-        }
-        // upper right
-        for (int x = 0; x < center; x++) {    //column
-            for (int y = totalY - center; y < totalY; y++) { //row
-
-                ComplexDoubleMatrix block =
-                        new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1, center + x);
-                ComplexDoubleMatrix filterRing =
-                        new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1, center + x);
-                ComplexDoubleMatrix filterCircle =
-                        new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1, center + x);
-
-                for (int i = 0; i < center + x; i++) { //column
-                    for (int j = 0; j < blockSize - (y - (totalY - center)) - 1; j++) { //row
-                        block.put(j, i, data.get(y + j - center, i));
-                        filterCircle.put(j, i, kernel2d_circle.get(j, center - x + i));
-                        filterRing.put(j, i, kernel2d_ring.get(j, center - x + i));
-                    }
-                }
-
-                ComplexDoubleMatrix block2 =
-                        new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1, center + x);
-                block2.copy(block);
-
-                LinearAlgebraUtils.dotmult_inplace(block, filterCircle);
-                LinearAlgebraUtils.dotmult_inplace(block2, filterRing);
-
-                outData.put(y, x, block.sum().real() - block2.sum().real());
-            }
-        }
-
-        // lower left
-        for (int x = totalX - center; x < totalX; x++) {
-            for (int y = 0; y < center; y++) { //row
-
-                ComplexDoubleMatrix block = new ComplexDoubleMatrix(center + y,
-                        blockSize - (x - (totalX - center)) - 1);
-                ComplexDoubleMatrix filterRing = new ComplexDoubleMatrix(center + y,
-                        blockSize - (x - (totalX - center)) - 1);
-                ComplexDoubleMatrix filterCircle = new ComplexDoubleMatrix(center + y,
-                        blockSize - (x - (totalX - center)) - 1);
-
-                for (int i = 0; i < blockSize - (x - (totalX - center)) - 1; i++) { //column
-                    for (int j = 0; j < center + y; j++) { //row
-                        block.put(j, i, data.get(j, x + i - center));
-                        filterCircle.put(j, i, kernel2d_circle.get(center - y + j, i));
-                        filterRing.put(j, i, kernel2d_ring.get(center - y + j, i));
-                    }
-                }
-
-                ComplexDoubleMatrix block2 = new ComplexDoubleMatrix(center + y,
-                        blockSize - (x - (totalX - center)) - 1);
-                block2.copy(block);
-
-                LinearAlgebraUtils.dotmult_inplace(block, filterCircle);
-                LinearAlgebraUtils.dotmult_inplace(block2, filterRing);
-
-                outData.put(y, x, block.sum().real() - block2.sum().real());
-            }
-        }
-
-
-        // lower right
-        for (int x = totalX - center; x < totalX; x++) {    //column
-            for (int y = totalY - center; y < totalY; y++) { //row
-
-                ComplexDoubleMatrix block = new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1,
-                        blockSize - (x - (totalX - center)) - 1);
-                ComplexDoubleMatrix filterRing = new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1,
-                        blockSize - (x - (totalX - center)) - 1);
-                ComplexDoubleMatrix filterCircle = new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1,
-                        blockSize - (x - (totalX - center)) - 1);
-
-                for (int i = 0; i < blockSize - (x - (totalX - center)) - 1; i++) { //column
-                    for (int j = 0; j < blockSize - (y - (totalY - center)) - 1; j++) { //row
-                        block.put(j, i, data.get(y + j - center, i + x - center));
-                        filterCircle.put(j, i, kernel2d_circle.get(j, i));
-                        filterRing.put(j, i, kernel2d_ring.get(j, i));
+        // Convolution by hand, the filter is restricted to the part overlapping the data at the edges.
+        // At the upper and left edges the overlap is taken one row or column shorter, as it has always been done.
+        // The sums are accumulated in the same order as the sums of the former filtered blocks, so the results
+        // are the same.
+        for (int x = 0; x < totalX; x++) {    //column
+            final int kernelColumnStart = Math.max(0, center - x);
+            final int kernelColumnEnd = x < center ? 2 * center : Math.min(blockSize, totalX - x + center);
+            for (int y = 0; y < totalY; y++) { //row
+                final int kernelRowStart = Math.max(0, center - y);
+                final int kernelRowEnd = y < center ? 2 * center : Math.min(blockSize, totalY - y + center);
+
+                double sumCircle = 0.0;
+                double sumRing = 0.0;
+                for (int i = kernelColumnStart; i < kernelColumnEnd; i++) {
+                    final int rowStart = Math.max(kernelRowStart, kernels.firstRow[i]);
+                    final int rowEnd = Math.min(kernelRowEnd, kernels.endRow[i]);
+                    final int dataOffset = (x + i - center) * totalY + y - center;
+                    final int kernelOffset = i * kernels.size;
+                    for (int j = rowStart; j < rowEnd; j++) {
+                        final double value = values[2 * (dataOffset + j)];
+                        if (value != 0.0) {
+                            sumCircle += value * kernels.circle[kernelOffset + j];
+                            sumRing += value * kernels.ring[kernelOffset + j];
+                        }
                     }
                 }
-
-                ComplexDoubleMatrix block2 = new ComplexDoubleMatrix(blockSize - (y - (totalY - center)) - 1,
-                        blockSize - (x - (totalX - center)) - 1);
-                block2.copy(block);
-
-                LinearAlgebraUtils.dotmult_inplace(block, filterCircle);
-                LinearAlgebraUtils.dotmult_inplace(block2, filterRing);
-
-                outData.put(y, x, block.sum().real() - block2.sum().real());
+                outData.put(y, x, sumCircle - sumRing);
             }
         }
 
@@ -377,7 +151,18 @@ public class PhaseFilter {
         return thisData;
     }
 
-    private ComplexDoubleMatrix constructCircularKernel(double radius, double radius_inner) {
+    private static CircularKernels getKernels(double kernelRadius, double kernelInnerRadius, double[] spacing) {
+        final String key = kernelRadius + "/" + kernelInnerRadius + "/" + spacing[0] + "/" + spacing[1];
+        return KERNELS.computeIfAbsent(key, k -> {
+            // the spacing may be adjusted for small kernels, the ring kernel is constructed first
+            final double[] kernelSpacing = {spacing[0], spacing[1]};
+            final double[][] ring = constructCircularKernel(kernelRadius, kernelInnerRadius, kernelSpacing);
+            final double[][] circle = constructCircularKernel(kernelRadius, 0., kernelSpacing);
+            return new CircularKernels(circle, ring);
+        });
+    }
+
+    private static double[][] constructCircularKernel(double radius, double radius_inner, double[] spacing) {
 
         int[] nhkern = new int[2];
         for (int i = 0; i < 2; i++) nhkern[i] = (int) Math.ceil(radius / spacing[i]);
@@ -434,9 +219,41 @@ public class PhaseFilter {
             }
         }
 
-        ComplexDoubleMatrix kernel2d = new ComplexDoubleMatrix(kernel);
-        return kernel2d;
+        return kernel;
+
+    }
 
+    /**
+     * The circle and ring kernels of the gap finder, column by column, together with the rows of each column
+     * in which one of the kernels is non-zero.
+     */
+    private static class CircularKernels {
+
+        final int size;
+        final double[] circle;
+        final double[] ring;
+        final int[] firstRow;
+        final int[] endRow;
+
+        CircularKernels(double[][] circle, double[][] ring) {
+            size = circle[0].length;
+            this.circle = new double[size * size];
+            this.ring = new double[size * size];
+            firstRow = new int[size];
+            endRow = new int[size];
+            for (int i = 0; i < size; i++) {
+                for (int j = 0; j < size; j++) {
+                    this.circle[i * size + j] = circle[j][i];
+                    this.ring[i * size + j] = ring[j][i];
+                    if (circle[j][i] != 0.0 || ring[j][i] != 0.0) {
+                        if (endRow[i] == 0) {
+                            firstRow[i] = j;
+                        }
+                        endRow[i] = j + 1;
+                    }
+                }
+            }
+        }
     }
 
 }
\ No newline at end of file
@@ -12,29 +12,20 @@ public class SpectralUtils {
 
     private static Logger logger = SystemUtils.LOG;
 
-    private static void fftTransform1D_inplace(ComplexDoubleMatrix vector, int fftLength, int direction) {
+    // the plan of a transform is set up once and used for all rows or columns of a matrix
+    private static void fftTransform1D_inplace(DoubleFFT_1D fft, ComplexDoubleMatrix vector, int direction) {
         switch (direction) {
             case 1:
-                fft1D_inplace(vector, fftLength);
+                fft.complexForward(vector.data);
                 break;
             case -1:
-                invfft1D_inplace(vector, fftLength);
+                fft.complexInverse(vector.data, true);
                 break;
             default:
                 throw new IllegalArgumentException("fourier1D: direction 1, or -1");
         }
     }
 
-    private static void fft1D_inplace(ComplexDoubleMatrix vector, final int fftLength) {
-        DoubleFFT_1D fft = new DoubleFFT_1D(fftLength);
-        fft.complexForward(vector.data);
-    }
-
-    private static void invfft1D_inplace(ComplexDoubleMatrix vector, final int fftLength) {
-        DoubleFFT_1D fft = new DoubleFFT_1D(fftLength);
-        fft.complexInverse(vector.data, true);
-    }
-
     public static ComplexDoubleMatrix fft1D(ComplexDoubleMatrix vector, final int fftLength) {
         DoubleFFT_1D fft = new DoubleFFT_1D(fftLength);
         fft.complexForward(vector.data);
@@ -61,18 +52,20 @@ public class SpectralUtils {
         switch (dimension) {
             case 1: {
                 logger.info("1d ifft over columns");
+                final DoubleFFT_1D fft = new DoubleFFT_1D(rows);
                 for (i = 0; i < columns; ++i) {
                     ComplexDoubleMatrix VECTOR = cplxData.getColumn(i);
-                    fftTransform1D_inplace(VECTOR, rows, flag);
+                    fftTransform1D_inplace(fft, VECTOR, flag);
                     cplxData.putColumn(i, VECTOR);
                 }
                 break;
             }
             case 2: {
                 logger.info("1d ifft over rows");
+                final DoubleFFT_1D fft = new DoubleFFT_1D(columns);
                 for (i = 0; i < rows; ++i) {
                     ComplexDoubleMatrix VECTOR = cplxData.getRow(i);
-                    fftTransform1D_inplace(VECTOR, columns, flag);
+                    fftTransform1D_inplace(fft, VECTOR, flag);
                     cplxData.putRow(i, VECTOR);
                 }
                 break;
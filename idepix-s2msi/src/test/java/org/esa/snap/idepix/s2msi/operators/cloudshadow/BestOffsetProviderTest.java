@@ -0,0 +1,135 @@
+package org.esa.snap.idepix.s2msi.operators.cloudshadow;
+
+import org.esa.snap.core.gpf.OperatorException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for class {@link BestOffsetProvider}.
+ */
+public class BestOffsetProviderTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTilesAreClaimedOnceAndOffsetIsCached() throws Exception {
+        final int numTiles = 37;
+        final AtomicIntegerArray tileCounts = new AtomicIntegerArray(numTiles);
+        final AtomicInteger analysisCount = new AtomicInteger();
+        final BestOffsetProvider provider = new BestOffsetProvider(numTiles, tileCounts::incrementAndGet, () -> {
+            analysisCount.incrementAndGet();
+            return 7;
+        });
+
+        final List<Future<Integer>> offsets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            offsets.add(executor.submit(provider::getBestOffset));
+        }
+        for (Future<Integer> offset : offsets) {
+            assertEquals(7, offset.get(10, TimeUnit.SECONDS).intValue());
+        }
+        assertEquals(7, provider.getBestOffset());
+
+        for (int i = 0; i < numTiles; i++) {
+            assertEquals(1, tileCounts.get(i));
+        }
+        assertEquals(1, analysisCount.get());
+    }
+
+    @Test
+    public void testWaitsForTilesClaimedByOtherThreads() throws Exception {
+        final CountDownLatch firstTileStarted = new CountDownLatch(1);
+        final CountDownLatch firstTileReleased = new CountDownLatch(1);
+        final AtomicInteger tilesComputed = new AtomicInteger();
+        final BestOffsetProvider provider = new BestOffsetProvider(2, tileIndex -> {
+            if (tileIndex == 0) {
+                firstTileStarted.countDown();
+                await(firstTileReleased);
+            }
+            tilesComputed.incrementAndGet();
+        }, tilesComputed::get);
+
+        final Future<Integer> first = executor.submit(provider::getBestOffset);
+        assertTrue(firstTileStarted.await(10, TimeUnit.SECONDS));
+        // claims the second tile, then has to wait for the first
+        final Future<Integer> second = executor.submit(provider::getBestOffset);
+        Thread.sleep(100);
+        assertFalse(second.isDone());
+
+        firstTileReleased.countDown();
+        assertEquals(2, first.get(10, TimeUnit.SECONDS).intValue());
+        assertEquals(2, second.get(10, TimeUnit.SECONDS).intValue());
+    }
+
+    @Test
+    public void testTileFailureIsRethrown() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("tile 3");
+        final AtomicInteger analysisCount = new AtomicInteger();
+        final BestOffsetProvider provider = new BestOffsetProvider(8, tileIndex -> {
+            if (tileIndex == 3) {
+                throw failure;
+            }
+        }, () -> {
+            analysisCount.incrementAndGet();
+            return 5;
+        });
+
+        final List<Future<Integer>> offsets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            offsets.add(executor.submit(provider::getBestOffset));
+        }
+        for (Future<Integer> offset : offsets) {
+            try {
+                offset.get(10, TimeUnit.SECONDS);
+                fail("OperatorException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof OperatorException);
+                assertSame(failure, e.getCause().getCause());
+            }
+        }
+        // later calls fail as well, instead of returning an offset from incomplete statistics
+        try {
+            provider.getBestOffset();
+            fail("OperatorException expected");
+        } catch (OperatorException e) {
+            assertSame(failure, e.getCause());
+        }
+        assertEquals(0, analysisCount.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package org.esa.snap.idepix.s2msi.operators.cloudshadow;
+
+import org.esa.snap.idepix.core.util.ConnectedComponents;
+import org.junit.Test;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CloudShadowFlaggerCombinationTest {
+
+    @Test
+    public void testFlagCloudShadowAreas_smallCloudWithDuplicatePositions() {
+        final int width = 8;
+        final int height = 8;
+        final int[] flagArray = new int[width * height];
+        Arrays.fill(flagArray, PreparationMaskBand.LAND_FLAG);
+        final float[][] sourceBands = new float[2][width * height];
+        Arrays.fill(sourceBands[0], 0.3f);
+        Arrays.fill(sourceBands[1], 0.2f);
+        // a cloud of two pixels, shifted by one step along the path onto pixels 27 and 28
+        for (int index : new int[]{18, 19}) {
+            flagArray[index] |= PreparationMaskBand.CLOUD_FLAG;
+            sourceBands[0][index] = 0.9f;
+            sourceBands[1][index] = 0.8f;
+        }
+        flagArray[27] |= PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG;
+        flagArray[28] |= PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG;
+        setReflectances(sourceBands, 27, 0.05f, 0.04f);
+        setReflectances(sourceBands, 28, 0.06f, 0.05f);
+        setReflectances(sourceBands, 36, 0.1f, 0.08f);
+        setReflectances(sourceBands, 37, 0.12f, 0.09f);
+        final Point2D[] cloudPath = {new Point2D.Double(0, 0), new Point2D.Double(1, 1),
+                new Point2D.Double(2, 2), new Point2D.Double(3, 3)};
+
+        final Map<Integer, List<Integer>> potentialShadowPositions = new HashMap<>();
+        final Map<Integer, List<Integer>> offsetAtPotentialShadow = new HashMap<>();
+        potentialShadowPositions.put(1, new ArrayList<>(Arrays.asList(27, 28, 36, 37, 27, 28)));
+        offsetAtPotentialShadow.put(1, new ArrayList<>(Arrays.asList(1, 1, 2, 2, 2, 1)));
+        final int[] cloudIDArray = new int[width * height];
+        final ConnectedComponents clouds =
+                new FindContinuousAreas(flagArray).computeAreas(width, height, cloudIDArray, true);
+        assertEquals(1, clouds.getNumComponents());
+        final int[] shadowIDArray = new int[width * height];
+
+        new CloudShadowFlaggerCombination().flagCloudShadowAreas(sourceBands, flagArray, potentialShadowPositions,
+                offsetAtPotentialShadow, clouds, 1, Mode.MULTI_BAND, width, height, shadowIDArray, cloudPath);
+
+        for (int i = 0; i < flagArray.length; i++) {
+            final int expectedFlag;
+            switch (i) {
+                case 18:
+                case 19:
+                    expectedFlag = PreparationMaskBand.LAND_FLAG | PreparationMaskBand.CLOUD_FLAG;
+                    break;
+                case 27:
+                    // the darkest pixel is no shadow of a small cloud
+                    expectedFlag = PreparationMaskBand.LAND_FLAG | PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG;
+                    break;
+                case 28:
+                    expectedFlag = PreparationMaskBand.LAND_FLAG | PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG |
+                            PreparationMaskBand.CLOUD_SHADOW_FLAG | PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG;
+                    break;
+                default:
+                    expectedFlag = PreparationMaskBand.LAND_FLAG;
+            }
+            assertEquals("flag at " + i, expectedFlag, flagArray[i]);
+            assertEquals("shadow ID at " + i, i == 28 ? 1 : 0, shadowIDArray[i]);
+        }
+    }
+
+    @Test
+    public void testFlagCloudShadowAreas_sameAsReference() {
+        final int[] numShiftCorrections = new int[Mode.values().length];
+        final int[] numCombinedShadows = new int[Mode.values().length];
+        for (int seed = 0; seed < 300; seed++) {
+            final Mode mode = Mode.values()[seed % Mode.values().length];
+            final RandomTile tile = new RandomTile(seed);
+
+            final int[] expectedFlags = tile.flagArray.clone();
+            final int[] expectedShadowIDs = new int[expectedFlags.length];
+            final Map<Integer, List<Integer>> expectedPositions = deepCopy(tile.potentialShadowPositions);
+            final Map<Integer, List<Integer>> expectedOffsets = deepCopy(tile.offsetAtPotentialShadow);
+            new CloudShadowFlaggerCombinationReference().flagCloudShadowAreas(
+                    tile.copySourceBands(), expectedFlags, expectedPositions, expectedOffsets, tile.cloudList,
+                    tile.bestOffset, mode, tile.width, tile.height, expectedShadowIDs, tile.cloudPath);
+
+            final int[] actualFlags = tile.flagArray.clone();
+            final int[] actualShadowIDs = new int[actualFlags.length];
+            final Map<Integer, List<Integer>> actualPositions = deepCopy(tile.potentialShadowPositions);
+            final Map<Integer, List<Integer>> actualOffsets = deepCopy(tile.offsetAtPotentialShadow);
+            new CloudShadowFlaggerCombination().flagCloudShadowAreas(
+                    tile.copySourceBands(), actualFlags, actualPositions, actualOffsets, tile.clouds,
+                    tile.bestOffset, mode, tile.width, tile.height, actualShadowIDs, tile.cloudPath);
+
+            // the reference also removed the duplicates from the position lists, which nobody reads afterwards
+            final String message = "seed " + seed + ", mode " + mode;
+            assertArrayEquals(message, expectedFlags, actualFlags);
+            assertArrayEquals(message, expectedShadowIDs, actualShadowIDs);
+
+            for (int i = 0; i < actualFlags.length; i++) {
+                if (((actualFlags[i] ^ tile.flagArray[i]) & PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG) != 0) {
+                    numShiftCorrections[mode.ordinal()]++;
+                }
+                if ((actualFlags[i] & PreparationMaskBand.CLOUD_SHADOW_COMB_FLAG) != 0) {
+                    numCombinedShadows[mode.ordinal()]++;
+                }
+            }
+        }
+        // the random tiles must exercise the shift correction and the combination in every mode
+        for (Mode mode : Mode.values()) {
+            assertTrue(mode.toString(), numShiftCorrections[mode.ordinal()] > 0);
+            assertTrue(mode.toString(), numCombinedShadows[mode.ordinal()] > 0);
+        }
+    }
+
+    private static Map<Integer, List<Integer>> deepCopy(Map<Integer, List<Integer>> map) {
+        final Map<Integer, List<Integer>> copy = new HashMap<>();
+        for (Map.Entry<Integer, List<Integer>> entry : map.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    /**
+     * A tile of random size, half land and half water, with round clouds, dark shadows at a random offset
+     * along a random cloud path and shifted cloud shadow flags at the best offset.
+     */
+    private static class RandomTile {
+
+        final int width;
+        final int height;
+        final int[] flagArray;
+        final float[][] sourceBands;
+        final Point2D[] cloudPath;
+        final int bestOffset;
+        final ConnectedComponents clouds;
+        final Map<Integer, List<Integer>> cloudList;
+        final Map<Integer, List<Integer>> potentialShadowPositions = new HashMap<>();
+        final Map<Integer, List<Integer>> offsetAtPotentialShadow = new HashMap<>();
+
+        RandomTile(long seed) {
+            final Random random = new Random(seed);
+            width = 40 + random.nextInt(80);
+            height = 40 + random.nextInt(80);
+            final int length = width * height;
+            flagArray = new int[length];
+            sourceBands = new float[2][length];
+            for (int i = 0; i < length; i++) {
+                flagArray[i] = i % width < width / 2 ? PreparationMaskBand.LAND_FLAG : PreparationMaskBand.WATER_FLAG;
+                setReflectances(sourceBands, i, 0.2f + 0.3f * random.nextFloat(), 0.1f + 0.3f * random.nextFloat());
+                if (random.nextInt(200) == 0) {
+                    flagArray[i] |= PreparationMaskBand.INVALID_FLAG;
+                }
+            }
+            final int numClouds = 1 + random.nextInt(8);
+            for (int c = 0; c < numClouds; c++) {
+                final int centreX = random.nextInt(width);
+                final int centreY = random.nextInt(height);
+                final int radius = 1 + random.nextInt(8);
+                for (int y = Math.max(0, centreY - radius); y < Math.min(height, centreY + radius); y++) {
+                    for (int x = Math.max(0, centreX - radius); x < Math.min(width, centreX + radius); x++) {
+                        if ((x - centreX) * (x - centreX) + (y - centreY) * (y - centreY) <= radius * radius) {
+                            flagArray[y * width + x] |= PreparationMaskBand.CLOUD_FLAG;
+                            setReflectances(sourceBands, y * width + x, 0.9f, 0.8f);
+                        }
+                    }
+                }
+            }
+            final int pathLength = 10 + random.nextInt(20);
+            final double stepX = random.nextDouble() * 2 - 1;
+            final double stepY = random.nextDouble() * 2 - 1;
+            cloudPath = new Point2D[pathLength];
+            for (int i = 0; i < pathLength; i++) {
+                cloudPath[i] = new Point2D.Double(Math.round(i * stepX * 1.5), Math.round(i * stepY * 1.5));
+            }
+            bestOffset = random.nextInt(4) == 0 ? 0 : random.nextInt(pathLength);
+
+            final int[] cloudIDArray = new int[length];
+            clouds = new FindContinuousAreas(flagArray).computeAreas(width, height, cloudIDArray, true);
+            cloudList = CloudShadowFlaggerCombinationReference.computeAreaID(flagArray, width, height,
+                                                                             new int[length], true);
+            final int darkOffset = random.nextInt(pathLength);
+            for (int i = 0; i < length; i++) {
+                if ((flagArray[i] & PreparationMaskBand.CLOUD_FLAG) != 0) {
+                    final int shadow = shift(i, darkOffset, PreparationMaskBand.CLOUD_FLAG);
+                    if (shadow >= 0) {
+                        setReflectances(sourceBands, shadow,
+                                        0.05f * random.nextFloat() + 0.02f, 0.03f * random.nextFloat() + 0.01f);
+                    }
+                    final int shifted = shift(i, bestOffset,
+                                              PreparationMaskBand.CLOUD_FLAG |
+                                              PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG);
+                    if (bestOffset > 0 && shifted >= 0) {
+                        flagArray[shifted] |= PreparationMaskBand.SHIFTED_CLOUD_SHADOW_FLAG;
+                    }
+                }
+            }
+            for (int id : cloudList.keySet()) {
+                final List<Integer> positions = new ArrayList<>();
+                final List<Integer> offsets = new ArrayList<>();
+                for (int i : cloudList.get(id)) {
+                    for (int offset = 1; offset < pathLength; offset++) {
+                        final int position = shift(i, offset, PreparationMaskBand.CLOUD_FLAG);
+                        if (position >= 0) {
+                            positions.add(position);
+                            offsets.add(offset);
+                        }
+                    }
+                }
+                potentialShadowPositions.put(id, positions);
+                offsetAtPotentialShadow.put(id, offsets);
+            }
+        }
+
+        // the index of pixel i shifted along the cloud path, -1 if outside or flagged with one of the given flags
+        private int shift(int i, int offset, int excludedFlags) {
+            final int x = i % width + (int) cloudPath[offset].getX();
+            final int y = i / width + (int) cloudPath[offset].getY();
+            if (x < 0 || y < 0 || x >= width || y >= height || (flagArray[y * width + x] & excludedFlags) != 0) {
+                return -1;
+            }
+            return y * width + x;
+        }
+
+        float[][] copySourceBands() {
+            return new float[][]{sourceBands[0].clone(), sourceBands[1].clone()};
+        }
+    }
+
+    private static void setReflectances(float[][] sourceBands, int index, float reflA, float reflB) {
+        sourceBands[0][index] = reflA;
+        sourceBands[1][index] = reflB;
+    }
+}
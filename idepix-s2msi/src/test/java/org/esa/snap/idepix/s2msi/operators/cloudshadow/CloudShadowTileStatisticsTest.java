@@ -0,0 +1,40 @@
+package org.esa.snap.idepix.s2msi.operators.cloudshadow;
+
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class CloudShadowTileStatisticsTest {
+
+    @Test
+    public void testTileIndexIncludesIncompleteTiles() {
+        final CloudShadowTileStatistics statistics = new CloudShadowTileStatistics(1000, 700, new Dimension(512, 512));
+        assertEquals(0, statistics.getTileIndex(new Rectangle(0, 0, 512, 512)));
+        assertEquals(1, statistics.getTileIndex(new Rectangle(512, 0, 488, 512)));
+        assertEquals(2, statistics.getTileIndex(new Rectangle(0, 512, 512, 188)));
+        assertEquals(3, statistics.getTileIndex(new Rectangle(512, 512, 488, 188)));
+    }
+
+    @Test
+    public void testStatisticsAreInTileOrder() {
+        final CloudShadowTileStatistics statistics = new CloudShadowTileStatistics(1000, 700, new Dimension(512, 512));
+        final double[][] meanRefl3 = {{3.0}, {3.1}, {3.2}};
+        final double[][] meanRefl0 = {{0.0}, {0.1}, {0.2}};
+        statistics.setTileStatistics(new Rectangle(512, 512, 488, 188), meanRefl3, 30, 31, 32);
+        statistics.setTileStatistics(new Rectangle(0, 0, 512, 512), meanRefl0, 0, 1, 2);
+
+        final Map<Integer, double[][]> meanReflPerTile = statistics.getMeanReflPerTile();
+        assertEquals(Arrays.asList(0, 3), new ArrayList<>(meanReflPerTile.keySet()));
+        assertEquals(meanRefl0, meanReflPerTile.get(0));
+        assertEquals(meanRefl3, meanReflPerTile.get(3));
+        assertEquals(Arrays.asList(0, 30), new ArrayList<>(statistics.getNCloudOverLandPerTile().values()));
+        assertEquals(Arrays.asList(1, 31), new ArrayList<>(statistics.getNCloudOverWaterPerTile().values()));
+        assertEquals(Arrays.asList(2, 32), new ArrayList<>(statistics.getNValidPixelPerTile().values()));
+    }
+}
@@ -41,8 +41,7 @@ public class CloudShadowUtilsTest {
 
 
     private void testRelativePath(float saa, Point2D[] expectedPath) {
-        S2IdepixPreCloudShadowOp.searchBorderRadius = 5;
-        S2IdepixPreCloudShadowOp.spatialResolution = 60;
+        final double spatialResolution = 60;
         final Rectangle targetRectangle = new Rectangle(5, 5, 10, 10);
         float minAltitude = 0;
         float sunZenithMean = 19.7446f;
@@ -50,7 +49,7 @@ public class CloudShadowUtilsTest {
         final Point2D[] cloudShadowRelativePath = CloudShadowUtils.getRelativePath(
                 minAltitude, sunZenithMean * MathUtils.DTOR, saa * MathUtils.DTOR,
                 S2IdepixPreCloudShadowOp.maxcloudTop, targetRectangle, targetRectangle, 20,
-                20, S2IdepixPreCloudShadowOp.spatialResolution, true, false);
+                20, spatialResolution, true, false);
         assertEquals(expectedPath.length, cloudShadowRelativePath.length);
         for (int i = 0; i < expectedPath.length; i++) {
             assertEquals(expectedPath[i].getX(), cloudShadowRelativePath[i].getX(), 1.0e-6);
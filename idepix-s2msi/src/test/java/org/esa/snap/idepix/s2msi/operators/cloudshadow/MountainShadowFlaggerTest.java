@@ -240,8 +240,7 @@ public class MountainShadowFlaggerTest {
     }
 
     private void testMountainShadowArea(float saa, int[] expectedFlagArray) {
-        S2IdepixPreCloudShadowOp.searchBorderRadius = 5;
-        S2IdepixPreCloudShadowOp.spatialResolution = 60;
+        final double spatialResolution = 60;
         final Rectangle sourceRectangle = new Rectangle(20, 20);
         final Rectangle targetRectangle = new Rectangle(5, 5, 10, 10);
         final float[] sunZenith = createSmoothGrid(19.7446f, 19.6652f, 19.6997f, 19.6202f, 20, 20);
@@ -261,10 +260,10 @@ public class MountainShadowFlaggerTest {
         final Point2D[] cloudShadowRelativePath = CloudShadowUtils.getRelativePath(
                 minAltitude, sunZenithMean * MathUtils.DTOR, saa * MathUtils.DTOR, S2IdepixPreCloudShadowOp.maxcloudTop,
                 targetRectangle, targetRectangle, 20,
-                20, S2IdepixPreCloudShadowOp.spatialResolution, true, false);
+                20, spatialResolution, true, false);
 
         MountainShadowFlagger.flagMountainShadowArea(sourceRectangle, sunZenithDegree, elevation, flagArray,
-                minAltitude, maxAltitude, cloudShadowRelativePath);
+                minAltitude, maxAltitude, cloudShadowRelativePath, spatialResolution);
 
         assertArrayEquals(expectedFlagArray, flagArray);
     }
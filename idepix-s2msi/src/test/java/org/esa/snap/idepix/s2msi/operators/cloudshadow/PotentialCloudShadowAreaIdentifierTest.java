@@ -370,8 +370,7 @@ public class PotentialCloudShadowAreaIdentifierTest {
     }
 
     private Point2D[] getCloudPath(float saa, Rectangle sourceRectangle, Rectangle targetRectangle) {
-        S2IdepixPreCloudShadowOp.searchBorderRadius = 10;
-        S2IdepixPreCloudShadowOp.spatialResolution = 60;
+        final double spatialResolution = 60;
         final float[] sunZenith = createSmoothGrid(19.7446f, 19.6652f, 19.6997f, 19.6202f, 20, 20);
         final float[] sunAzimuth = createSmoothGrid(saa, saa, saa, saa, 20, 20);
         final float[] elevation = createSmoothGrid(800, 850, 900, 950, 20, 20);
@@ -382,13 +381,11 @@ public class PotentialCloudShadowAreaIdentifierTest {
         float minAltitude = Collections.min(altitudes);
         return CloudShadowUtils.getRelativePath(minAltitude, sunZenithMean * MathUtils.DTOR, sunAzimuthMean * MathUtils.DTOR,
                                                 S2IdepixPreCloudShadowOp.maxcloudTop, sourceRectangle, targetRectangle, 20, 20,
-                                                S2IdepixPreCloudShadowOp.spatialResolution, true, false);
+                                                spatialResolution, true, false);
     }
 
     private void testPotentialCloudShadowArea(float saa, Rectangle sourceRectangle, Rectangle targetRectangle,
                                               int[][] expectedPotentialShadowPositions) {
-        S2IdepixPreCloudShadowOp.searchBorderRadius = 10;
-        S2IdepixPreCloudShadowOp.spatialResolution = 60;
         final float[] sunZenith = createSmoothGrid(19.7446f, 19.6652f, 19.6997f, 19.6202f, 20, 20);
         final float[] sunAzimuth = createSmoothGrid(saa, saa, saa, saa, 20, 20);
         final float[] latitude = createSmoothGrid(31.630919f, 31.630814f, 31.620094f, 31.619989f, 20, 20);
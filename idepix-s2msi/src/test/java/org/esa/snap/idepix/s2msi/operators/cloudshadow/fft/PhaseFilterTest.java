@@ -0,0 +1,192 @@
+package org.esa.snap.idepix.s2msi.operators.cloudshadow.fft;
+
+import org.jblas.ComplexDoubleMatrix;
+import org.jblas.DoubleMatrix;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests for class {@link PhaseFilter}.
+ */
+public class PhaseFilterTest {
+
+    private static final double KERNEL_RADIUS = 1000.;
+    private static final double KERNEL_INNER_RADIUS = 0.8 * KERNEL_RADIUS;
+
+    @Test
+    public void testConvolutionSimpleGapFinder_sameAsStraightforwardConvolution() {
+        final Random random = new Random(4711);
+        // the resolutions alternate, so a kernel taken from the cache for the wrong spacing would show up;
+        // at 500 m the kernel is widened to its minimum size of 9 pixels
+        final double[] resolutions = {60., 20., 300., 60., 500., 100., 20., 500.};
+        for (double resolution : resolutions) {
+            final int blockSize = Math.max(9, 2 * (int) Math.ceil(KERNEL_RADIUS / resolution) + 1);
+            final int width = Math.max(blockSize + 1, 9 + random.nextInt(blockSize + 40));
+            final int height = Math.max(blockSize + 1, 9 + random.nextInt(blockSize + 40));
+            final ComplexDoubleMatrix cloudFlag = createCloudFlag(random, width, height);
+
+            final double[] actual = convolve(cloudFlag, resolution).toArray();
+            final double[] expected = convolveStraightforward(cloudFlag, resolution).toArray();
+
+            assertArrayEquals("resolution " + resolution + ", " + width + " x " + height, expected, actual, 0.0);
+        }
+    }
+
+    @Test
+    public void testConvolutionSimpleGapFinder_sameFilterForEqualParameters() {
+        final Random random = new Random(815);
+        final ComplexDoubleMatrix first = createCloudFlag(random, 60, 50);
+        final ComplexDoubleMatrix second = createCloudFlag(random, 60, 50);
+        final double[] spacing = {60., 60.};
+
+        final DoubleMatrix firstResult = new PhaseFilter(first, 35, 17, KERNEL_RADIUS, KERNEL_INNER_RADIUS, spacing)
+                .convolutionSimpleGapFinder();
+        final DoubleMatrix secondResult = new PhaseFilter(second, 35, 17, KERNEL_RADIUS, KERNEL_INNER_RADIUS, spacing)
+                .convolutionSimpleGapFinder();
+
+        assertArrayEquals(convolveStraightforward(first, 60.).toArray(), firstResult.toArray(), 0.0);
+        assertArrayEquals(convolveStraightforward(second, 60.).toArray(), secondResult.toArray(), 0.0);
+    }
+
+    @Test
+    public void testConstructor_spacingNotModified() {
+        final double[] spacing = {500., 500.};
+
+        new PhaseFilter(new ComplexDoubleMatrix(20, 20), 5, 2, KERNEL_RADIUS, KERNEL_INNER_RADIUS, spacing);
+
+        // the kernel construction widens small kernels and adjusts its own copy of the spacing only
+        assertEquals(500., spacing[0], 0.0);
+        assertEquals(500., spacing[1], 0.0);
+    }
+
+    @Test
+    public void testConvolutionSimpleGapFinder_emptyAndFull() {
+        final ComplexDoubleMatrix empty = new ComplexDoubleMatrix(40, 45);
+        final double[] emptyResult = convolve(empty, 100.).toArray();
+        for (double value : emptyResult) {
+            assertEquals(0.0, value, 0.0);
+        }
+
+        final DoubleMatrix allCloud = DoubleMatrix.zeros(40, 45);
+        for (int i = 0; i < allCloud.length; i++) {
+            allCloud.put(i, 1.);
+        }
+        final ComplexDoubleMatrix full = new ComplexDoubleMatrix(allCloud);
+        final DoubleMatrix fullResult = convolve(full, 100.);
+        // in the interior, both normalised kernels sum up to one
+        assertEquals(0.0, fullResult.get(20, 22), 1.0e-12);
+        assertArrayEquals(convolveStraightforward(full, 100.).toArray(), fullResult.toArray(), 0.0);
+    }
+
+    private static DoubleMatrix convolve(ComplexDoubleMatrix cloudFlag, double resolution) {
+        final double[] spacing = {resolution, resolution};
+        final int blockSize = 2 * (int) Math.ceil(KERNEL_RADIUS / spacing[0]) + 1;
+        final int overlap = (int) Math.ceil(KERNEL_RADIUS / spacing[0]);
+        return new PhaseFilter(cloudFlag, blockSize, overlap, KERNEL_RADIUS, KERNEL_INNER_RADIUS, spacing)
+                .convolutionSimpleGapFinder();
+    }
+
+    private static ComplexDoubleMatrix createCloudFlag(Random random, int width, int height) {
+        // the gap finder works on the transposed cloud mask, see CloudShadowFlaggerShiftInCloudGaps
+        final DoubleMatrix cloudFlag = DoubleMatrix.zeros(width, height);
+        final int numClouds = 1 + random.nextInt(6);
+        for (int c = 0; c < numClouds; c++) {
+            final int centreX = random.nextInt(width);
+            final int centreY = random.nextInt(height);
+            final int radius = 2 + random.nextInt(Math.min(width, height) / 3);
+            for (int x = Math.max(0, centreX - radius); x < Math.min(width, centreX + radius); x++) {
+                for (int y = Math.max(0, centreY - radius); y < Math.min(height, centreY + radius); y++) {
+                    final int dx = x - centreX;
+                    final int dy = y - centreY;
+                    // clouds with holes, which are the gaps to be found
+                    if (dx * dx + dy * dy < radius * radius && random.nextInt(8) > 0) {
+                        cloudFlag.put(x, y, 1.);
+                    }
+                }
+            }
+        }
+        // a few single cloud pixels, also along the edges
+        for (int i = 0; i < width; i++) {
+            if (random.nextInt(4) == 0) {
+                cloudFlag.put(i, random.nextInt(height), 1.);
+            }
+        }
+        return new ComplexDoubleMatrix(cloudFlag);
+    }
+
+    // The convolution of the gap finder as it used to be computed: for every pixel, the part of the circle and
+    // ring kernels overlapping the data, summed up column by column without skipping any cell. At the upper and
+    // left edges the overlap is one row or column shorter.
+    private static DoubleMatrix convolveStraightforward(ComplexDoubleMatrix data, double resolution) {
+        final double[] spacing = {resolution, resolution};
+        final double[][] ring = constructCircularKernel(KERNEL_RADIUS, KERNEL_INNER_RADIUS, spacing);
+        final double[][] circle = constructCircularKernel(KERNEL_RADIUS, 0., spacing);
+
+        final int totalY = data.rows;
+        final int totalX = data.columns;
+        final int blockSize = circle[0].length;
+        final int center = (int) Math.ceil(blockSize / 2.) - 1;
+        final DoubleMatrix outData = new DoubleMatrix(totalY, totalX);
+        for (int x = 0; x < totalX; x++) {
+            final int columnStart = x < center ? center - x : 0;
+            final int columnEnd = x < center ? 2 * center : Math.min(blockSize, blockSize - (x - (totalX - center)) - 1);
+            for (int y = 0; y < totalY; y++) {
+                final int rowStart = y < center ? center - y : 0;
+                final int rowEnd = y < center ? 2 * center : Math.min(blockSize, blockSize - (y - (totalY - center)) - 1);
+                double sumCircle = 0.0;
+                double sumRing = 0.0;
+                for (int i = columnStart; i < columnEnd; i++) {
+                    for (int j = rowStart; j < rowEnd; j++) {
+                        final double value = data.get(y + j - center, x + i - center).real();
+                        sumCircle += value * circle[j][i];
+                        sumRing += value * ring[j][i];
+                    }
+                }
+                outData.put(y, x, sumCircle - sumRing);
+            }
+        }
+        return outData;
+    }
+
+    private static double[][] constructCircularKernel(double radius, double radiusInner, double[] spacing) {
+        final int[] nhkern = new int[2];
+        for (int i = 0; i < 2; i++) {
+            nhkern[i] = (int) Math.ceil(radius / spacing[i]);
+        }
+        int nx = 2 * nhkern[1] + 1;
+        int ny = 2 * nhkern[0] + 1;
+        if (nx < 9) {
+            nx = 9;
+            spacing[0] = 2 * 1000. / (nx - 1);
+        }
+        if (ny < 9) {
+            ny = 9;
+            spacing[1] = 2 * 1000. / (ny - 1);
+        }
+
+        final double[][] kernel = new double[ny][nx];
+        int n = 0;
+        for (int i = 0; i < ny; i++) {
+            for (int j = 0; j < nx; j++) {
+                final double distance = Math.sqrt(Math.pow((i - nhkern[0]) * spacing[0], 2) +
+                                                          Math.pow((j - nhkern[1]) * spacing[1], 2));
+                if (distance < radius && (radiusInner <= 0. || distance > radiusInner)) {
+                    kernel[i][j] = 1.;
+                    n++;
+                }
+            }
+        }
+        if (n > 0) {
+            for (int i = 0; i < ny; i++) {
+                for (int j = 0; j < nx; j++) {
+                    kernel[i][j] /= n;
+                }
+            }
+        }
+        return kernel;
+    }
+}
@@ -9,6 +9,7 @@ import org.esa.snap.core.gpf.annotations.SourceProduct;
 import org.esa.snap.core.gpf.pointop.*;
 import org.esa.snap.core.util.math.MathUtils;
 import org.esa.snap.idepix.core.IdepixConstants;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
 
 import java.io.IOException;
@@ -53,6 +54,7 @@ public class SeaWifsClassificationOp extends PixelOperator {
             {1735.518167, 1858.404314, 1981.076667, 1881.566829, 1874.005, 1537.254783, 1230.04, 957.6122143};
 
     private ThreadLocal<SchillerNeuralNetWrapper> seawifsNeuralNet;
+    private boolean skipInvalidPixels;
 
     @Override
     public Product getSourceProduct() {
@@ -63,10 +65,16 @@ public class SeaWifsClassificationOp extends PixelOperator {
     @Override
     protected void prepareInputs() throws OperatorException {
         readSchillerNets();
+        skipInvalidPixels = InvalidTiles.isSkipInvalidTiles();
     }
 
     @Override
     protected void computePixel(int x, int y, Sample[] sourceSamples, WritableSample[] targetSamples) {
+        if (skipInvalidPixels && InvalidTiles.isNoData(sourceSamples[SeaWifsConstants.SEAWIFS_SRC_RAD_OFFSET])) {
+            targetSamples[0].set(IdepixConstants.IDEPIX_INVALID, true);
+            targetSamples[1].set(Double.NaN);
+            return;
+        }
         final SeaWifsAlgorithm algorithm = createSeawifsAlgorithm(x, y, sourceSamples, targetSamples);
         setClassifFlag(targetSamples, algorithm);
     }
@@ -159,7 +167,8 @@ public class SeaWifsClassificationOp extends PixelOperator {
         }
         occciAlgorithm.setWaterFraction(waterFraction);
 
-        neuralNetOutput = seawifsNeuralNet.get().getNeuralNet().calc(seawifsNeuralNetInput);
+        neuralNetOutput = seawifsNeuralNet.get().getOutputVector();
+        seawifsNeuralNet.get().calc(seawifsNeuralNetInput, neuralNetOutput);
 
         occciAlgorithm.setNnOutput(neuralNetOutput);
         targetSamples[1].set(neuralNetOutput[0]);
@@ -17,7 +17,9 @@ import org.esa.snap.core.gpf.annotations.TargetProduct;
 import org.esa.snap.core.util.ProductUtils;
 import org.esa.snap.core.util.RectangleExtender;
 import org.esa.snap.idepix.core.operators.CloudBuffer;
-import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 
 import java.awt.*;
 
@@ -56,6 +58,7 @@ public class SeaWifsPostProcessOp extends BasisOp {
     private boolean computeCloudShadow;
 
     private RectangleExtender rectCalculator;
+    private boolean skipInvalidTiles;
 
     private Band landWaterBand;
 
@@ -63,6 +66,7 @@ public class SeaWifsPostProcessOp extends BasisOp {
     public void initialize() throws OperatorException {
         createTargetProduct();
 
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
         rectCalculator = new RectangleExtender(new Rectangle(reflProduct.getSceneRasterWidth(),
                                                              reflProduct.getSceneRasterHeight()),
                                                cloudBufferWidth, cloudBufferWidth
@@ -73,10 +77,24 @@ public class SeaWifsPostProcessOp extends BasisOp {
 
     @Override
     public void computeTile(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
         final Band classifFlagSourceBand = classifProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
         final Rectangle targetRectangle = targetTile.getRectangle();
         final Rectangle extendedRectangle = rectCalculator.extend(targetRectangle);
         final Tile classifFlagSourceTile = getSourceTile(classifFlagSourceBand, extendedRectangle);
+        if (skipInvalidTiles &&
+                InvalidTiles.isFlagSetEverywhere(classifFlagSourceTile, extendedRectangle, IdepixConstants.IDEPIX_INVALID)) {
+            InvalidTiles.copyFlags(classifFlagSourceTile, targetTile);
+            return;
+        }
         final Tile waterFractionTile = getSourceTile(landWaterBand, extendedRectangle);
 
         for (int y = extendedRectangle.y; y < extendedRectangle.y + extendedRectangle.height; y++) {
@@ -105,14 +123,11 @@ public class SeaWifsPostProcessOp extends BasisOp {
             }
         }
 
-        // cloud buffer:
-        CloudBuffer.setCloudBuffer(targetTile, extendedRectangle, classifFlagSourceTile, cloudBufferWidth);
-        for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
-            checkForCancellation();
-            for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                IdepixUtils.consolidateCloudAndBuffer(targetTile, x, y);
-            }
-        }
+        // cloud buffer: the first pass stays on the tile, as its coastline check reads the flags combined so far
+        final FlagAccumulator flags = FlagAccumulator.of(targetTile);
+        CloudBuffer.setCloudBuffer(flags, extendedRectangle, classifFlagSourceTile, cloudBufferWidth, false);
+        flags.consolidateCloudAndBuffer();
+        flags.writeTo(targetTile);
     }
 
     private boolean isCoastline(int x, int y, Tile sourceFlagTile, Rectangle rectangle) {
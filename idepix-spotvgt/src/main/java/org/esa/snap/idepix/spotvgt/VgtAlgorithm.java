@@ -32,7 +32,6 @@ public class VgtAlgorithm extends AbstractPixelProperties {
     private static final float REFL835_LAND_THRESH = 0.15f;
 
     private boolean smLand;
-    private double[] nnOutput;
 
     private boolean isWater;
     private boolean usel1bLandWaterFlag;
@@ -277,14 +276,6 @@ public class VgtAlgorithm extends AbstractPixelProperties {
         this.refl = refl;
     }
 
-    void setNnOutput(double[] nnOutput) {
-        this.nnOutput = nnOutput;
-    }
-
-    double[] getNnOutput() {
-        return nnOutput;
-    }
-
     boolean isCoastline() {
         return isCoastline;
     }
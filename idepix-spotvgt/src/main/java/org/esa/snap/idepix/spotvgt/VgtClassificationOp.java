@@ -4,8 +4,11 @@ import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.pixel.AbstractPixelProperties;
 import org.esa.snap.idepix.core.util.IdepixIO;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
 import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
+import org.esa.snap.idepix.core.util.TileGeoLocation;
 import org.esa.snap.core.datamodel.*;
 import org.esa.snap.core.gpf.Operator;
 import org.esa.snap.core.gpf.OperatorException;
@@ -107,6 +110,8 @@ public class VgtClassificationOp extends Operator {
     private static final int SM_F_B3_GOOD = 5;
     private static final int SM_F_B2_GOOD = 6;
     private static final int SM_F_B0_GOOD = 7;
+    // pixels without one of these flags get NaN reflectances and are invalid, see checkVgtReflectanceQuality
+    private static final int VALID_SM_FLAGS_MASK = (1 << SM_F_B0_GOOD) | (1 << SM_F_B2_GOOD) | (1 << SM_F_B3_GOOD);
 
     @SourceProduct(alias = "l1b", description = "The source product.")
     private Product sourceProduct;
@@ -120,6 +125,7 @@ public class VgtClassificationOp extends Operator {
 
     private static final String VGT_NET_NAME = "3x2x2_341.8.net";
     private ThreadLocal<SchillerNeuralNetWrapper> vgtNeuralNet;
+    private boolean skipInvalidTiles;
 
     private Band landWaterBand;
 
@@ -132,23 +138,43 @@ public class VgtClassificationOp extends Operator {
         readSchillerNeuralNets();
         createTargetProduct();
         extendTargetProduct();
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
     }
 
     @Override
     public void computeTileStack(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, rectangle);
+        try {
+            computeTileStackImpl(targetTiles, rectangle, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileStackImpl(Map<Band, Tile> targetTiles, Rectangle rectangle, ProgressMonitor pm) throws OperatorException {
         // VGT variables
         final Band smFlagBand = sourceProduct.getBand("SM");
         final Tile smFlagTile = getSourceTile(smFlagBand, rectangle);
-
-        Tile waterFractionTile = getSourceTile(landWaterBand, rectangle);
+        final Band cloudFlagTargetBand = targetProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
+        if (skipInvalidTiles && !isProcessingForC3SLot5 &&
+                InvalidTiles.isNoPixelFlaggedValid(smFlagTile, rectangle, VALID_SM_FLAGS_MASK)) {
+            InvalidTiles.setInvalid(targetTiles, cloudFlagTargetBand);
+            return;
+        }
 
         Tile[] vgtReflectanceTiles = new Tile[IdepixConstants.VGT_REFLECTANCE_BAND_NAMES.length];
-        float[] vgtReflectance = new float[IdepixConstants.VGT_REFLECTANCE_BAND_NAMES.length];
         for (int i = 0; i < IdepixConstants.VGT_REFLECTANCE_BAND_NAMES.length; i++) {
             vgtReflectanceTiles[i] = getSourceTile(vgtReflectanceBands[i], rectangle);
         }
+        if (skipInvalidTiles && isProcessingForC3SLot5 && isNoReflectanceData(vgtReflectanceTiles, rectangle)) {
+            InvalidTiles.setInvalid(targetTiles, cloudFlagTargetBand);
+            return;
+        }
+
+        Tile waterFractionTile = getSourceTile(landWaterBand, rectangle);
+        final TileGeoLocation geoLocation = useL1bLandWaterFlag ? null :
+                TileGeoLocation.create(this, sourceProduct, rectangle);
 
-        final Band cloudFlagTargetBand = targetProduct.getBand(IdepixConstants.CLASSIF_BAND_NAME);
         final Tile cloudFlagTargetTile = targetTiles.get(cloudFlagTargetBand);
 
         Band nnTargetBand;
@@ -158,6 +184,14 @@ public class VgtClassificationOp extends Operator {
             nnTargetTile = targetTiles.get(nnTargetBand);
         }
 
+        // the algorithms of a tile row are set up first, so that the net runs for the whole row in one batch
+        final SchillerNeuralNetWrapper nnWrapper = vgtNeuralNet.get();
+        final int numNNInputs = nnWrapper.getNumInputs();
+        final int numNNOutputs = nnWrapper.getNumOutputs();
+        final VgtAlgorithm[] vgtAlgorithms = new VgtAlgorithm[rectangle.width];
+        final float[][] vgtReflectances = new float[rectangle.width][IdepixConstants.VGT_REFLECTANCE_BAND_NAMES.length];
+        final double[] nnInputs = new double[rectangle.width * numNNInputs];
+        final double[] nnOutputs = new double[rectangle.width * numNNOutputs];
         try {
             for (int y = rectangle.y; y < rectangle.y + rectangle.height; y++) {
                 checkForCancellation();
@@ -169,39 +203,45 @@ public class VgtClassificationOp extends Operator {
                     }
 
                     // set up pixel properties for given instruments...
-                    VgtAlgorithm vgtAlgorithm = createVgtAlgorithm(smFlagTile, vgtReflectanceTiles,
-                                                                   vgtReflectance,
-                                                                   waterMaskFraction,
-                                                                   y, x);
+                    vgtAlgorithms[x - rectangle.x] = createVgtAlgorithm(smFlagTile, vgtReflectanceTiles,
+                                                                        vgtReflectances[x - rectangle.x],
+                                                                        waterMaskFraction,
+                                                                        geoLocation,
+                                                                        y, x,
+                                                                        nnInputs, x - rectangle.x, numNNInputs);
+                }
+                nnWrapper.calc(nnInputs, nnOutputs, rectangle.width);
 
+                for (int x = rectangle.x; x < rectangle.x + rectangle.width; x++) {
+                    final VgtAlgorithm vgtAlgorithm = vgtAlgorithms[x - rectangle.x];
                     setCloudFlag(cloudFlagTargetTile, y, x, vgtAlgorithm);
 
                     // apply improvement from NN approach...
-                    final double[] nnOutput = vgtAlgorithm.getNnOutput();
+                    final double nnOutput = nnOutputs[(x - rectangle.x) * numNNOutputs];
                     if (!cloudFlagTargetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_INVALID)) {
                         cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, false);
                         cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, false);
                         cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, false);
                         cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, false);
-                        if (nnOutput[0] > nnCloudAmbiguousLowerBoundaryValue &&
-                                nnOutput[0] <= nnCloudAmbiguousSureSeparationValue) {
+                        if (nnOutput > nnCloudAmbiguousLowerBoundaryValue &&
+                                nnOutput <= nnCloudAmbiguousSureSeparationValue) {
                             // this would be as 'CLOUD_AMBIGUOUS'...
                             cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_AMBIGUOUS, true);
                             cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, true);
                         }
-                        if (nnOutput[0] > nnCloudAmbiguousSureSeparationValue &&
-                                nnOutput[0] <= nnCloudSureSnowSeparationValue) {
+                        if (nnOutput > nnCloudAmbiguousSureSeparationValue &&
+                                nnOutput <= nnCloudSureSnowSeparationValue) {
                             // this would be as 'CLOUD_SURE'...
                             cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SURE, true);
                             cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, true);
                         }
-                        if (nnOutput[0] > nnCloudSureSnowSeparationValue) {
+                        if (nnOutput > nnCloudSureSnowSeparationValue) {
                             // this would be as 'SNOW/ICE'...
                             cloudFlagTargetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, true);
                         }
                     }
                     if (outputSchillerNNValue && nnTargetTile != null) {
-                        nnTargetTile.setSample(x, y, nnOutput[0]);
+                        nnTargetTile.setSample(x, y, nnOutput);
                     }
 
                     for (Band band : targetProduct.getBands()) {
@@ -353,7 +393,9 @@ public class VgtClassificationOp extends Operator {
     private VgtAlgorithm createVgtAlgorithm(Tile smFlagTile, Tile[] vgtReflectanceTiles,
                                             float[] vgtReflectance,
                                             byte watermaskFraction,
-                                            int y, int x) {
+                                            TileGeoLocation geoLocation,
+                                            int y, int x,
+                                            double[] nnInputs, int rowIndex, int numNNInputs) {
 
         VgtAlgorithm vgtAlgorithm = new VgtAlgorithm();
 
@@ -367,12 +409,10 @@ public class VgtClassificationOp extends Operator {
         float[] vgtReflectanceSaturationCorrected = IdepixUtils.correctSaturatedReflectances(vgtReflectance);
         vgtAlgorithm.setRefl(vgtReflectanceSaturationCorrected);
 
-        SchillerNeuralNetWrapper nnWrapper = vgtNeuralNet.get();
-        double[] inputVector = nnWrapper.getInputVector();
-        for (int i = 0; i < inputVector.length; i++) {
-            inputVector[i] = Math.sqrt(vgtReflectanceSaturationCorrected[i]);
+        // the net runs for the whole tile row once all its inputs are set
+        for (int i = 0; i < numNNInputs; i++) {
+            nnInputs[rowIndex * numNNInputs + i] = Math.sqrt(vgtReflectanceSaturationCorrected[i]);
         }
-        vgtAlgorithm.setNnOutput(nnWrapper.getNeuralNet().calc(inputVector));
 
         if (useL1bLandWaterFlag) {
             final boolean isLand = smFlagTile.getSampleBit(x, y, SM_F_LAND);
@@ -384,7 +424,7 @@ public class VgtClassificationOp extends Operator {
                     watermaskFraction < WATERMASK_FRACTION_THRESH;
             vgtAlgorithm.setSmLand(isLand);
             setIsWaterByFraction(watermaskFraction, vgtAlgorithm);
-            final boolean isCoastline = isCoastlinePixel(x, y, watermaskFraction);
+            final boolean isCoastline = isCoastlinePixel(geoLocation.getLat(x, y), watermaskFraction);
             vgtAlgorithm.setIsCoastline(isCoastline);
         }
 
@@ -402,20 +442,23 @@ public class VgtClassificationOp extends Operator {
         pixelProperties.setIsWater(isWater);
     }
 
-    private boolean isCoastlinePixel(int x, int y, int waterFraction) {
+    private boolean isCoastlinePixel(float lat, int waterFraction) {
         // the water mask ends at 59 Degree south, stop earlier to avoid artefacts
         // values bigger than 100 indicate no data
         // todo: this does not work if we have a PixelGeocoding. In that case, waterFraction
         // is always 0 or 100!! (TS, OD, 20140502)
-        return getGeoPos(x, y).lat > -58f && waterFraction < 100 && waterFraction > 0;
+        return lat > -58f && waterFraction < 100 && waterFraction > 0;
     }
 
-    private GeoPos getGeoPos(int x, int y) {
-        final GeoPos geoPos = new GeoPos();
-        final GeoCoding geoCoding = getSourceProduct().getSceneGeoCoding();
-        final PixelPos pixelPos = new PixelPos(x, y);
-        geoCoding.getGeoPos(pixelPos, geoPos);
-        return geoPos;
+    private static boolean isNoReflectanceData(Tile[] vgtReflectanceTiles, Rectangle rectangle) {
+        // a pixel without any reflectance is invalid, missing single reflectances are filled up by
+        // IdepixUtils.correctSaturatedReflectances
+        for (Tile vgtReflectanceTile : vgtReflectanceTiles) {
+            if (!InvalidTiles.isNoDataEverywhere(vgtReflectanceTile, rectangle)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void checkVgtReflectanceQuality(float[] vgtReflectance, Tile smFlagTile, int x, int y) {
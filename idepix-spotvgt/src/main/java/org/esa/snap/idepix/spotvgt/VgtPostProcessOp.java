@@ -3,7 +3,9 @@ package org.esa.snap.idepix.spotvgt;
 import com.bc.ceres.core.ProgressMonitor;
 import org.esa.snap.idepix.core.operators.CloudBuffer;
 import org.esa.snap.idepix.core.IdepixConstants;
-import org.esa.snap.idepix.core.util.IdepixUtils;
+import org.esa.snap.idepix.core.util.FlagAccumulator;
+import org.esa.snap.idepix.core.util.IdepixTileEvent;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.core.datamodel.Band;
 import org.esa.snap.core.datamodel.Product;
 import org.esa.snap.core.gpf.Operator;
@@ -50,10 +52,13 @@ public class VgtPostProcessOp extends Operator {
     private Band origSmFlagBand;
 
     private RectangleExtender rectCalculator;
+    private boolean skipInvalidTiles;
 
     @Override
     public void initialize() throws OperatorException {
 
+        skipInvalidTiles = InvalidTiles.isSkipInvalidTiles();
+
         Product finalVgtCloudProduct = vgtCloudProduct;
 
         Product postProcessedCloudProduct = createTargetProduct(vgtCloudProduct
@@ -87,6 +92,15 @@ public class VgtPostProcessOp extends Operator {
 
     @Override
     public void computeTile(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
+        final IdepixTileEvent tileEvent = IdepixTileEvent.begin(this, targetBand, targetTile.getRectangle());
+        try {
+            computeTileImpl(targetBand, targetTile, pm);
+        } finally {
+            tileEvent.commitTile();
+        }
+    }
+
+    private void computeTileImpl(Band targetBand, final Tile targetTile, ProgressMonitor pm) throws OperatorException {
         Rectangle targetRectangle = targetTile.getRectangle();
 
         Rectangle srcRectangle = null;
@@ -95,19 +109,25 @@ public class VgtPostProcessOp extends Operator {
         }
 
         final Tile cloudFlagTile = getSourceTile(origCloudFlagBand, srcRectangle);
+        if (skipInvalidTiles && InvalidTiles.isFlagSetEverywhere(cloudFlagTile, cloudFlagTile.getRectangle(),
+                                                                 IdepixConstants.IDEPIX_INVALID)) {
+            InvalidTiles.copyFlags(cloudFlagTile, targetTile);
+            return;
+        }
         final Tile smFlagTile = getSourceTile(origSmFlagBand, srcRectangle);
 
+        final FlagAccumulator flags = new FlagAccumulator(targetRectangle);
         for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
             checkForCancellation();
             for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
 
                 if (targetRectangle.contains(x, y)) {
-                    boolean isInvalid = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_INVALID);
+                    boolean isInvalid = flags.getFlag(x, y, IdepixConstants.IDEPIX_INVALID);
                     if (!isInvalid) {
-                        combineFlags(x, y, cloudFlagTile, targetTile);
-                        consolidateFlagging(x, y, smFlagTile, targetTile);
+                        flags.combine(x, y, cloudFlagTile);
+                        consolidateFlagging(x, y, smFlagTile, flags);
 
-                        setCloudShadow(x, y, smFlagTile, targetTile);
+                        setCloudShadow(x, y, smFlagTile, flags);
                     }
                 }
             }
@@ -115,45 +135,35 @@ public class VgtPostProcessOp extends Operator {
 
         // cloud buffer:
         if (computeCloudBuffer) {
-            CloudBuffer.setCloudBuffer(targetTile, srcRectangle, cloudFlagTile, cloudBufferWidth);
-            for (int y = targetRectangle.y; y < targetRectangle.y + targetRectangle.height; y++) {
-                checkForCancellation();
-                for (int x = targetRectangle.x; x < targetRectangle.x + targetRectangle.width; x++) {
-                    IdepixUtils.consolidateCloudAndBuffer(targetTile, x, y);
-                }
-            }
+            CloudBuffer.setCloudBuffer(flags, srcRectangle, cloudFlagTile, cloudBufferWidth, false);
+            flags.consolidateCloudAndBuffer();
         }
+        flags.writeTo(targetTile);
     }
 
-    private void setCloudShadow(int x, int y, Tile smFlagTile, Tile targetTile) {
+    private void setCloudShadow(int x, int y, Tile smFlagTile, FlagAccumulator flags) {
         final boolean smCloud1 = smFlagTile.getSampleBit(x, y, VgtClassificationOp.SM_F_CLOUD_1);
         final boolean smCloud2 = smFlagTile.getSampleBit(x, y, VgtClassificationOp.SM_F_CLOUD_2);
         final boolean smCloudShadow = smCloud1 && !smCloud2; // see mask definition in SPOT VGT reader
 
-        final boolean safeCloudFinal = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
-        final boolean isLand = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_LAND);
+        final boolean safeCloudFinal = flags.getFlag(x, y, IdepixConstants.IDEPIX_CLOUD);
+        final boolean isLand = flags.getFlag(x, y, IdepixConstants.IDEPIX_LAND);
 
         final boolean isCloudShadow = smCloudShadow && !safeCloudFinal && isLand;
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD_SHADOW, isCloudShadow);
-    }
-
-    private void combineFlags(int x, int y, Tile sourceFlagTile, Tile targetTile) {
-        int sourceFlags = sourceFlagTile.getSampleInt(x, y);
-        int computedFlags = targetTile.getSampleInt(x, y);
-        targetTile.setSample(x, y, sourceFlags | computedFlags);
+        flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD_SHADOW, isCloudShadow);
     }
 
-    private void consolidateFlagging(int x, int y, Tile smFlagTile, Tile targetTile) {
+    private void consolidateFlagging(int x, int y, Tile smFlagTile, FlagAccumulator flags) {
         final boolean smCloud1 = smFlagTile.getSampleBit(x, y, VgtClassificationOp.SM_F_CLOUD_1);
         final boolean smCloud2 = smFlagTile.getSampleBit(x, y, VgtClassificationOp.SM_F_CLOUD_2);
         final boolean smClear = !smCloud1 && !smCloud2; // see mask definition in SPOT VGT reader
 
-        final boolean idepixLand = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_LAND);
-        final boolean idepixClearLand = targetTile.getSampleBit(x, y, VgtConstants.IDEPIX_CLEAR_LAND);
-        final boolean idepixWater = targetTile.getSampleBit(x, y, VgtConstants.IDEPIX_WATER);
-        final boolean idepixClearWater = targetTile.getSampleBit(x, y, VgtConstants.IDEPIX_CLEAR_WATER);
-        final boolean idepixClearSnow = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_SNOW_ICE);
-        final boolean idepixCloud = targetTile.getSampleBit(x, y, IdepixConstants.IDEPIX_CLOUD);
+        final boolean idepixLand = flags.getFlag(x, y, IdepixConstants.IDEPIX_LAND);
+        final boolean idepixClearLand = flags.getFlag(x, y, VgtConstants.IDEPIX_CLEAR_LAND);
+        final boolean idepixWater = flags.getFlag(x, y, VgtConstants.IDEPIX_WATER);
+        final boolean idepixClearWater = flags.getFlag(x, y, VgtConstants.IDEPIX_CLEAR_WATER);
+        final boolean idepixClearSnow = flags.getFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE);
+        final boolean idepixCloud = flags.getFlag(x, y, IdepixConstants.IDEPIX_CLOUD);
 
         final boolean safeClearLand = smClear && idepixLand && idepixClearLand && !idepixClearSnow;
         final boolean safeClearWater = smClear && idepixWater && idepixClearWater && !idepixClearSnow;
@@ -167,10 +177,10 @@ public class VgtPostProcessOp extends Operator {
         final boolean safeCloudFinal = safeCloud && (!safeClearLandFinal && !safeClearWaterFinal);
 
         // GK 20151201;
-        targetTile.setSample(x, y, VgtConstants.IDEPIX_CLEAR_LAND, safeClearLandFinal);
-        targetTile.setSample(x, y, VgtConstants.IDEPIX_CLEAR_WATER, safeClearWaterFinal);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_CLOUD, safeCloudFinal);
-        targetTile.setSample(x, y, IdepixConstants.IDEPIX_SNOW_ICE, safeSnowIce);
+        flags.setFlag(x, y, VgtConstants.IDEPIX_CLEAR_LAND, safeClearLandFinal);
+        flags.setFlag(x, y, VgtConstants.IDEPIX_CLEAR_WATER, safeClearWaterFinal);
+        flags.setFlag(x, y, IdepixConstants.IDEPIX_CLOUD, safeCloudFinal);
+        flags.setFlag(x, y, IdepixConstants.IDEPIX_SNOW_ICE, safeSnowIce);
     }
 
     public static class Spi extends OperatorSpi {
@@ -2,6 +2,7 @@ package org.esa.snap.idepix.viirs;
 
 import org.esa.snap.idepix.core.IdepixConstants;
 import org.esa.snap.idepix.core.util.IdepixIO;
+import org.esa.snap.idepix.core.util.InvalidTiles;
 import org.esa.snap.idepix.core.util.SchillerNeuralNetWrapper;
 import org.esa.snap.core.datamodel.*;
 import org.esa.snap.core.gpf.OperatorException;
@@ -50,16 +51,25 @@ public class ViirsClassificationOp extends PixelOperator {
     private ThreadLocal<SchillerNeuralNetWrapper> viirsNeuralNet;
 
     private String[] viirsSpectralBandNames;
+    private boolean skipInvalidPixels;
 
 
     @Override
     protected void prepareInputs() throws OperatorException {
         viirsSpectralBandNames = IdepixIO.getViirsSpectralBandNames(reflProduct.getName());
         readSchillerNet();
+        skipInvalidPixels = InvalidTiles.isSkipInvalidTiles();
     }
 
     @Override
     protected void computePixel(int x, int y, Sample[] sourceSamples, WritableSample[] targetSamples) {
+        if (skipInvalidPixels && InvalidTiles.isNoData(sourceSamples[0])) {
+            targetSamples[0].set(IdepixConstants.IDEPIX_INVALID, true);
+            for (int i = 1; i < targetSamples.length; i++) {
+                targetSamples[i].set(Double.NaN);
+            }
+            return;
+        }
         ViirsAlgorithm algorithm = createViirsAlgorithm(x, y, sourceSamples, targetSamples);
         setClassifFlag(targetSamples, algorithm);
     }
@@ -179,7 +189,8 @@ public class ViirsClassificationOp extends PixelOperator {
             viirsNeuralNetInput[i] = Math.sqrt(sourceSamples[i].getFloat());
         }
 
-        neuralNetOutput = viirsNeuralNet.get().getNeuralNet().calc(viirsNeuralNetInput);
+        neuralNetOutput = viirsNeuralNet.get().getOutputVector();
+        viirsNeuralNet.get().calc(viirsNeuralNetInput, neuralNetOutput);
 
         viirsAlgorithm.setNnOutput(neuralNetOutput);
 